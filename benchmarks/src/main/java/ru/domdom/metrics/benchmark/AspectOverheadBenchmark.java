@@ -0,0 +1,74 @@
+package ru.domdom.metrics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы замера через прокси относительно прямого вызова.
+ *
+ * <p>{@code raw} вызывает целевой объект напрямую, {@code proxied*} — через прокси
+ * с {@code TimedMethodAspect}, {@code advised*} — через прокси с {@code TimedMethodAdvisor}
+ * (режим {@code advice-mode=proxy}). Разница с {@code raw} и есть стоимость
+ * инструментирования одного вызова.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AspectOverheadBenchmark {
+
+    @Param({"true", "false"})
+    public boolean histogram;
+
+    private BenchmarkFixture fixture;
+
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(histogram);
+        fixture.proxy.named();
+        fixture.proxy.derived();
+        fixture.advisedProxy.named();
+        fixture.advisedProxy.derived();
+    }
+
+    @Benchmark
+    public long raw() {
+        return fixture.target.named();
+    }
+
+    @Benchmark
+    public long proxiedNamed() {
+        return fixture.proxy.named();
+    }
+
+    @Benchmark
+    public long proxiedDerived() {
+        return fixture.proxy.derived();
+    }
+
+    @Benchmark
+    public long advisedNamed() {
+        return fixture.advisedProxy.named();
+    }
+
+    @Benchmark
+    public long advisedDerived() {
+        return fixture.advisedProxy.derived();
+    }
+}
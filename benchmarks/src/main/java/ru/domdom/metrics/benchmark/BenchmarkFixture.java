@@ -0,0 +1,79 @@
+package ru.domdom.metrics.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.aop.framework.ProxyFactory;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.aspect.TimedMethodAdvisor;
+import ru.domdom.metrics.aspect.TimedMethodAspect;
+import ru.domdom.metrics.aspect.TimedMethodPointcut;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Общая сборка компонентов стартера для бенчмарков без поднятия Spring-контекста.
+ *
+ * <p>Создаёт ту же цепочку бинов, что и {@code MethodMetricsAutoConfiguration},
+ * и два прокси над {@link BenchmarkTarget}: с {@link TimedMethodAdvisor}, как в режиме
+ * {@code advice-mode=proxy}, и с {@link TimedMethodAspect}, как при регистрации аспекта вручную.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+final class BenchmarkFixture {
+
+    final MeterRegistry registry = new SimpleMeterRegistry();
+    final MethodMetricsProperties properties = new MethodMetricsProperties();
+    final MetricNameResolver nameResolver = new MetricNameResolver();
+    final MetricFactory metricFactory;
+    final TimedMethodProcessor processor;
+    final BenchmarkTarget target = new BenchmarkTarget();
+    final BenchmarkTarget proxy;
+    final BenchmarkTarget advisedProxy;
+
+    BenchmarkFixture(boolean histogram) {
+        properties.setHistogram(histogram);
+        metricFactory = new MetricFactory(registry, properties);
+        processor = new TimedMethodProcessor(nameResolver, metricFactory);
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(new TimedMethodAspect(processor));
+        proxy = proxyFactory.getProxy();
+
+        ProxyFactory advisedFactory = new ProxyFactory(target);
+        advisedFactory.setProxyTargetClass(true);
+        advisedFactory.addAdvisor(new TimedMethodAdvisor(new TimedMethodPointcut(List.of(), true), processor));
+        advisedProxy = (BenchmarkTarget) advisedFactory.getProxy();
+    }
+
+    /**
+     * Возвращает метод {@link BenchmarkTarget} по имени.
+     *
+     * @param name имя метода без параметров
+     * @return метод
+     */
+    static Method method(String name) {
+        try {
+            return BenchmarkTarget.class.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Возвращает аннотацию {@link TimedMethod} метода {@link BenchmarkTarget}.
+     *
+     * @param name имя метода без параметров
+     * @return аннотация
+     */
+    static TimedMethod annotation(String name) {
+        return method(name).getAnnotation(TimedMethod.class);
+    }
+}
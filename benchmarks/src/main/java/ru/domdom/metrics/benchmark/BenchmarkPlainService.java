@@ -0,0 +1,29 @@
+package ru.domdom.metrics.benchmark;
+
+/**
+ * Бин без аннотаций для бенчмарков создания прокси. Измеряется только
+ * через выражения {@code method.metrics.pointcuts}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+public class BenchmarkPlainService {
+
+    public String find(String id) {
+        return id;
+    }
+
+    public int count() {
+        return 0;
+    }
+
+    public boolean exists(String id) {
+        return id != null;
+    }
+
+    public void save(String value) {
+    }
+
+    public void delete(String id) {
+    }
+}
@@ -0,0 +1,47 @@
+package ru.domdom.metrics.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входа бенчмарков. Запускает выбранные бенчмарки последовательно с 1, 2, 4, ...
+ * потоками вплоть до числа доступных процессоров и всегда подключает {@link GCProfiler},
+ * чтобы в отчёте была аллокация на операцию ({@code gc.alloc.rate.norm}, байт/оп).
+ *
+ * <p>Аргументы командной строки передаются JMH как есть, например:
+ * <pre>
+ * java -jar target/benchmarks.jar AspectOverhead -rf json -rff aspect.json
+ * </pre>
+ * Явно заданный {@code -t} отключает перебор числа потоков.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.getThreads().hasValue()) {
+            new Runner(new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build()).run();
+            return;
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            new Runner(new OptionsBuilder()
+                    .parent(cli)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build()).run();
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
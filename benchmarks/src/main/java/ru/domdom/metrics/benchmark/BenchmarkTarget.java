@@ -0,0 +1,35 @@
+package ru.domdom.metrics.benchmark;
+
+import ru.domdom.metrics.annotation.TimedMethod;
+
+/**
+ * Целевой класс бенчмарков. Методы намеренно дешёвые, чтобы в результатах
+ * доминировали накладные расходы стартера, а не полезная работа.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+public class BenchmarkTarget {
+
+    private long state = 42;
+
+    /**
+     * Метод с явным именем метрики и тегами.
+     *
+     * @return новое значение состояния
+     */
+    @TimedMethod(value = "bench.named", extraTags = {"env=bench", "service=benchmarks"})
+    public long named() {
+        return state = state * 31 + 7;
+    }
+
+    /**
+     * Метод с именем метрики, вычисляемым из класса и имени метода.
+     *
+     * @return новое значение состояния
+     */
+    @TimedMethod
+    public long derived() {
+        return state = state * 17 + 3;
+    }
+}
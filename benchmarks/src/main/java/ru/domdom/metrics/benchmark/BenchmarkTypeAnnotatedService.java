@@ -0,0 +1,24 @@
+package ru.domdom.metrics.benchmark;
+
+import ru.domdom.metrics.annotation.TimedMethod;
+
+/**
+ * Бин с {@link TimedMethod} на уровне класса для бенчмарков создания прокси.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@TimedMethod("bench.type")
+public class BenchmarkTypeAnnotatedService {
+
+    public String load(String id) {
+        return id;
+    }
+
+    public int size() {
+        return 0;
+    }
+
+    public void update(String value) {
+    }
+}
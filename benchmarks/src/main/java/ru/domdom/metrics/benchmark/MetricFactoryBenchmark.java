@@ -0,0 +1,137 @@
+package ru.domdom.metrics.benchmark;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.index.TimedMethodIndex;
+import ru.domdom.metrics.service.MetricFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость {@code MetricFactory.getTimer}/{@code getCounter} на путях попадания и промаха кэша.
+ *
+ * <p>Путь попадания измеряется в режиме {@link Mode#AverageTime}. Путь промаха создаёт
+ * и регистрирует новую метрику, поэтому измеряется пакетами в {@link Mode#SingleShotTime}:
+ * каждый поток использует собственную фабрику с отдельным реестром, кэш которой очищается
+ * перед каждой итерацией, так что очистка одного потока не задевает замер другого, а ключи
+ * подготавливаются заранее, чтобы не учитывать конкатенацию строк. Параметр {@code index} подключает индекс
+ * {@code META-INF/timed-methods.properties}, созданный процессором аннотаций при сборке
+ * бенчмарков: при промахе теги и сигнатура берутся из него, а не из аннотации.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@Fork(1)
+public class MetricFactoryBenchmark {
+
+    static final int MISS_BATCH = 2_000;
+
+    @State(Scope.Benchmark)
+    public static class FactoryState {
+
+        @Param({"true", "false"})
+        public boolean histogram;
+
+        @Param({"true", "false"})
+        public boolean index;
+
+        BenchmarkFixture fixture;
+        TimedMethod annotation;
+        Method method;
+
+        @Setup
+        public void setUp() {
+            fixture = newFixture(histogram, index);
+            annotation = BenchmarkFixture.annotation("named");
+            method = BenchmarkFixture.method("named");
+            fixture.metricFactory.getTimer("bench.hit", annotation, method);
+            fixture.metricFactory.getCounter("bench.hit", annotation, method);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MissState {
+
+        MetricFactory metricFactory;
+        String[] keys;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUpFactory(FactoryState state) {
+            metricFactory = newFixture(state.histogram, state.index).metricFactory;
+        }
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            metricFactory.clearCache();
+            String thread = Long.toHexString(Thread.currentThread().getId());
+            keys = new String[MISS_BATCH];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "bench.miss." + thread + "." + i;
+            }
+            next = 0;
+        }
+
+        String nextKey() {
+            return keys[next++ % keys.length];
+        }
+    }
+
+    static BenchmarkFixture newFixture(boolean histogram, boolean index) {
+        BenchmarkFixture fixture = new BenchmarkFixture(histogram);
+        if (index) {
+            fixture.metricFactory.setIndex(TimedMethodIndex.load(MetricFactoryBenchmark.class.getClassLoader()));
+        }
+        return fixture;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Timer timerHit(FactoryState state) {
+        return state.fixture.metricFactory.getTimer("bench.hit", state.annotation, state.method);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Counter counterHit(FactoryState state) {
+        return state.fixture.metricFactory.getCounter("bench.hit", state.annotation, state.method);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, batchSize = MISS_BATCH)
+    @Measurement(iterations = 5, batchSize = MISS_BATCH)
+    public Timer timerMiss(FactoryState state, MissState miss) {
+        return miss.metricFactory.getTimer(miss.nextKey(), state.annotation, state.method);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, batchSize = MISS_BATCH)
+    @Measurement(iterations = 5, batchSize = MISS_BATCH)
+    public Counter counterMiss(FactoryState state, MissState miss) {
+        return miss.metricFactory.getCounter(miss.nextKey(), state.annotation, state.method);
+    }
+}
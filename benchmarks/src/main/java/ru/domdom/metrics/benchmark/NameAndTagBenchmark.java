@@ -0,0 +1,65 @@
+package ru.domdom.metrics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.TagParser;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость вычисления ключа метрики {@code MetricNameResolver.resolve}
+ * и разбора тегов {@code TagParser.parse}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameAndTagBenchmark {
+
+    private final MetricNameResolver resolver = new MetricNameResolver();
+    private final BenchmarkTarget target = new BenchmarkTarget();
+    private Method namedMethod;
+    private Method derivedMethod;
+    private TimedMethod namedAnnotation;
+    private TimedMethod derivedAnnotation;
+
+    @Setup
+    public void setUp() {
+        namedMethod = BenchmarkFixture.method("named");
+        derivedMethod = BenchmarkFixture.method("derived");
+        namedAnnotation = BenchmarkFixture.annotation("named");
+        derivedAnnotation = BenchmarkFixture.annotation("derived");
+    }
+
+    @Benchmark
+    public String resolveNamed() {
+        return resolver.resolve(namedMethod, target, namedAnnotation);
+    }
+
+    @Benchmark
+    public String resolveDerived() {
+        return resolver.resolve(derivedMethod, target, derivedAnnotation);
+    }
+
+    @Benchmark
+    public Map<String, String> parseTags() {
+        return TagParser.parse(namedAnnotation.extraTags());
+    }
+}
@@ -0,0 +1,90 @@
+package ru.domdom.metrics.benchmark;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.config.AopConfigUtils;
+import org.springframework.context.support.GenericApplicationContext;
+import ru.domdom.metrics.aspect.TimedMethodAdvisor;
+import ru.domdom.metrics.aspect.TimedMethodAspect;
+import ru.domdom.metrics.aspect.TimedMethodPointcut;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Влияние стартера на время старта контекста: обновление контекста с {@code beans} бинами
+ * трёх классов (с аннотациями на методах, с аннотацией на классе и без аннотаций)
+ * при автопроксировании Spring AOP.
+ *
+ * <p>Режимы {@code mode}:
+ * <ul>
+ *   <li>{@code none} — автопроксирование без советов стартера (базовая линия);</li>
+ *   <li>{@code aspect} — {@link TimedMethodAspect} для аннотаций методов и {@link TimedMethodAdvisor}
+ *   для аннотаций классов (прежняя конфигурация режима прокси);</li>
+ *   <li>{@code advisor} — только {@link TimedMethodAdvisor} для всех аннотаций;</li>
+ *   <li>{@code pointcuts} — советник с выражением для класса без аннотаций.</li>
+ * </ul>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProxyCreationBenchmark {
+
+    private static final Class<?>[] BEAN_CLASSES = {
+            BenchmarkTarget.class, BenchmarkTypeAnnotatedService.class, BenchmarkPlainService.class
+    };
+
+    @Param({"3000"})
+    public int beans;
+
+    @Param({"none", "aspect", "advisor", "pointcuts"})
+    public String mode;
+
+    @Benchmark
+    public int refresh() {
+        try (GenericApplicationContext context = new GenericApplicationContext()) {
+            AopConfigUtils.registerAspectJAnnotationAutoProxyCreatorIfNecessary(context);
+            AopConfigUtils.forceAutoProxyCreatorToUseClassProxying(context);
+            if (!"none".equals(mode)) {
+                MeterRegistry registry = new SimpleMeterRegistry();
+                TimedMethodProcessor processor = new TimedMethodProcessor(new MetricNameResolver(),
+                        new MetricFactory(registry, new MethodMetricsProperties()));
+                boolean aspect = "aspect".equals(mode);
+                if (aspect) {
+                    context.registerBean("timedMethodAspect", TimedMethodAspect.class,
+                            () -> new TimedMethodAspect(processor));
+                }
+                List<String> pointcuts = "pointcuts".equals(mode)
+                        ? List.of("execution(* " + BenchmarkPlainService.class.getName() + ".*(..))")
+                        : List.of();
+                context.registerBean("timedMethodAdvisor", TimedMethodAdvisor.class,
+                        () -> new TimedMethodAdvisor(new TimedMethodPointcut(pointcuts, !aspect), processor));
+            }
+            for (int i = 0; i < beans; i++) {
+                context.registerBean("bean" + i, BEAN_CLASSES[i % BEAN_CLASSES.length]);
+            }
+            context.refresh();
+            return context.getBeanDefinitionCount();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.domdom.metrics.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.domdom.metrics.aspect.TimedMethodWeavingBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы замера через прокси Spring AOP и через вплетённый при компиляции
+ * {@code TimedMethodWeavingAspect} ({@code advice-mode=aspectj}).
+ *
+ * <p>{@code raw} — прямой вызов, {@code proxied} — вызов через прокси с {@code TimedMethodAdvisor},
+ * {@code woven} — вызов вплетённого метода без прокси, {@code wovenSelfInvocation} — внешний
+ * вызов с вложенным вызовом {@code private} метода того же объекта (два замера).
+ *
+ * <p>Вплетённые синхронные методы замеряются без аллокаций: {@code gc.alloc.rate.norm}
+ * профилировщика {@code gc} для {@code woven} и {@code wovenSelfInvocation} — 0 B/op,
+ * тогда как {@code proxied} создаёт объекты вызова на каждый замер.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeavingOverheadBenchmark {
+
+    @Param({"true", "false"})
+    public boolean histogram;
+
+    private BenchmarkFixture fixture;
+    private TimedMethodWeavingBinder binder;
+    private final WovenBenchmarkTarget woven = new WovenBenchmarkTarget();
+
+    @Setup
+    public void setUp() {
+        fixture = new BenchmarkFixture(histogram);
+        binder = new TimedMethodWeavingBinder(fixture.processor);
+        binder.afterPropertiesSet();
+        fixture.advisedProxy.named();
+        woven.named();
+        woven.outer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        binder.destroy();
+    }
+
+    @Benchmark
+    public long raw() {
+        return fixture.target.named();
+    }
+
+    @Benchmark
+    public long proxied() {
+        return fixture.advisedProxy.named();
+    }
+
+    @Benchmark
+    public long woven() {
+        return woven.named();
+    }
+
+    @Benchmark
+    public long wovenSelfInvocation() {
+        return woven.outer();
+    }
+}
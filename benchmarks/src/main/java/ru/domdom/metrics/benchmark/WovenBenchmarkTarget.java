@@ -0,0 +1,42 @@
+package ru.domdom.metrics.benchmark;
+
+import ru.domdom.metrics.annotation.TimedMethod;
+
+/**
+ * Целевой класс бенчмарков режима {@code advice-mode=aspectj}: при сборке модуля в него
+ * вплетается {@code TimedMethodWeavingAspect} (см. {@code aop-ajc.xml}), поэтому методы
+ * замеряются без прокси, в том числе при вызове из того же объекта.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+public class WovenBenchmarkTarget {
+
+    private long state = 42;
+
+    /**
+     * Метод с явным именем метрики и тегами, как {@link BenchmarkTarget#named()}.
+     *
+     * @return новое значение состояния
+     */
+    @TimedMethod(value = "bench.woven.named", extraTags = {"env=bench", "service=benchmarks"})
+    public long named() {
+        return state = state * 31 + 7;
+    }
+
+    /**
+     * Метод, вызывающий замеряемый {@code private} метод того же объекта.
+     * Через прокси замеряется только внешний вызов, при вплетении — оба.
+     *
+     * @return новое значение состояния
+     */
+    @TimedMethod("bench.woven.outer")
+    public long outer() {
+        return inner() + 1;
+    }
+
+    @TimedMethod("bench.woven.inner")
+    private long inner() {
+        return state = state * 17 + 3;
+    }
+}
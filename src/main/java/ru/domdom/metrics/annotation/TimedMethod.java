@@ -23,10 +23,15 @@ import java.lang.annotation.Target;
  * }
  * </pre>
  *
+ * <p>Аннотация на уровне класса включает измерение всех его публичных методов.
+ * Атрибуты аннотации класса применяются к каждому методу, а {@code value}
+ * становится префиксом имени метрики ({@code value.methodName}). Аннотация
+ * на методе имеет приоритет над аннотацией класса.</p>
+ *
  * @author Кадыров Андрей
  * @since 1.0.0
  */
-@Target(ElementType.METHOD)
+@Target({ElementType.TYPE, ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface TimedMethod {
 
@@ -45,4 +50,33 @@ public @interface TimedMethod {
      * Дополнительные теги для метрик в формате "key=value".
      */
     String[] extraTags() default {};
-}
\ No newline at end of file
+
+    /**
+     * Частота сэмплирования гистограммы: в неё записывается в среднем один вызов
+     * из {@code sampleEvery}, счётчик и таймер {@code .duration} получают каждый вызов.
+     * Значение {@code 0} означает использование глобальной настройки
+     * {@code method.metrics.sample-every}, {@code 1} — запись каждого вызова.
+     */
+    int sampleEvery() default 0;
+
+    /**
+     * Динамические теги в формате "key=expression", где expression — выражение SpEL,
+     * вычисляемое после вызова метода. Аргументы доступны по имени ({@code #request})
+     * или по индексу ({@code #p0}, {@code #a0}), результат метода — как {@code #result}.
+     * Например: {@code "tenant=#request.tenantId"}.
+     *
+     * <p>Число различных комбинаций значений на метод ограничено свойством
+     * {@code method.metrics.max-dynamic-tag-values}; вызовы сверх лимита записываются
+     * с значением {@code other}.
+     */
+    String[] dynamicTags() default {};
+
+    /**
+     * Порог медленного вызова в миллисекундах: вызовы дольше порога сохраняются
+     * в журнал медленных вызовов вместе с аргументами, потоком и временем.
+     * Значение {@code 0} означает использование глобальной настройки
+     * {@code method.metrics.slow-calls.threshold}, отрицательное — отключает захват для метода.
+     * Журнал включается свойством {@code method.metrics.slow-calls.enabled}.
+     */
+    long slowCallMillis() default 0;
+}
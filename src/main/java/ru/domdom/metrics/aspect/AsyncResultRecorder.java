@@ -0,0 +1,89 @@
+package ru.domdom.metrics.aspect;
+
+import org.springframework.util.ClassUtils;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Запись метрик для методов, возвращающих асинхронный результат.
+ *
+ * <p>Для {@link CompletionStage} (в том числе {@link java.util.concurrent.CompletableFuture})
+ * время фиксируется в момент завершения стадии — успешного, с ошибкой или по отмене.
+ * Вызывающему возвращается исходная стадия, поэтому отмена по-прежнему доходит до неё.
+ *
+ * <p>Для Reactor {@code Mono}/{@code Flux} время измеряется для каждой подписки
+ * от момента подписки до терминального сигнала. Поддержка Reactor включается
+ * только при наличии библиотеки в classpath.
+ *
+ * <p>Динамические теги вычисляются по значению завершённой стадии ({@code #result});
+ * для Reactor значение {@code #result} недоступно и равно {@code null}. Исход вызова
+ * определяется по исключению, которым завершилась стадия или подписка.
+ *
+ * <p>Ни один поток при этом не блокируется.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodAspect
+ */
+final class AsyncResultRecorder {
+
+    private static final boolean REACTOR_PRESENT =
+            ClassUtils.isPresent("reactor.core.publisher.Mono", AsyncResultRecorder.class.getClassLoader());
+
+    private final TimedMethodProcessor processor;
+
+    AsyncResultRecorder(TimedMethodProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Проверяет, является ли результат метода асинхронным.
+     *
+     * @param result результат метода
+     * @return {@code true}, если время нужно фиксировать по завершении результата
+     */
+    boolean isAsync(Object result) {
+        return result instanceof CompletionStage<?>
+                || (REACTOR_PRESENT && ReactorResults.isReactive(result));
+    }
+
+    /**
+     * Подключает запись метрики к завершению асинхронного результата.
+     *
+     * @param result     асинхронный результат метода
+     * @param handle     хэндл метрик
+     * @param args       аргументы вызова для динамических тегов или {@code null}
+     * @param startNanos момент начала вызова по {@link System#nanoTime()}
+     * @param returnType объявленный тип результата метода
+     * @return объект, который нужно вернуть вызывающему, или {@code null},
+     *         если результат нельзя обернуть без нарушения объявленного типа
+     */
+    Object recordOnCompletion(Object result, MetricHandle handle, Object[] args, long startNanos,
+                              Class<?> returnType) {
+        if (result instanceof CompletionStage<?> stage) {
+            stage.whenComplete((value, error) -> {
+                long end = System.nanoTime();
+                processor.record(handle, args, value, unwrap(error), end - startNanos, end);
+            });
+            return result;
+        }
+        Object decorated = ReactorResults.recordOnTermination(result, handle, args, processor);
+        return returnType.isInstance(decorated) ? decorated : null;
+    }
+
+    /**
+     * Извлекает исходное исключение из обёртки {@link CompletionException}.
+     *
+     * @param error исключение завершения стадии (может быть {@code null})
+     * @return исходное исключение или {@code null}
+     */
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,77 @@
+package ru.domdom.metrics.aspect;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.domdom.metrics.service.InFlightCalls;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+/**
+ * Обёртки над Reactor {@link Mono} и {@link Flux}, записывающие время выполнения
+ * от подписки до терминального сигнала (завершение, ошибка или отмена).
+ * При учёте выполняющихся вызовов ({@link InFlightCalls}) подписка считается
+ * выполняющимся вызовом на тот же интервал.
+ *
+ * <p>Класс загружается только при наличии Reactor в classpath.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see AsyncResultRecorder
+ */
+final class ReactorResults {
+
+    private ReactorResults() {
+    }
+
+    /**
+     * Проверяет, является ли объект {@link Mono} или {@link Flux}.
+     *
+     * @param result результат метода
+     * @return {@code true} для реактивного результата
+     */
+    static boolean isReactive(Object result) {
+        return result instanceof Mono<?> || result instanceof Flux<?>;
+    }
+
+    /**
+     * Оборачивает реактивный результат так, что каждая подписка записывает своё время
+     * и учитывается в выполняющихся вызовах хэндла до терминального сигнала. Хэндл
+     * выбирается по завершении подписки с учётом ошибки, если она была.
+     *
+     * @param result    {@link Mono} или {@link Flux}
+     * @param handle    хэндл метрик метода
+     * @param args      аргументы вызова для динамических тегов или {@code null}
+     * @param processor процессор метрик
+     * @return обёрнутый издатель того же вида
+     */
+    static Object recordOnTermination(Object result, MetricHandle handle, Object[] args,
+                                      TimedMethodProcessor processor) {
+        InFlightCalls inFlight = handle.getInFlight();
+        if (result instanceof Mono<?> mono) {
+            return Mono.defer(() -> {
+                long start = System.nanoTime();
+                int slot = inFlight != null ? inFlight.enter(start) : -1;
+                Throwable[] error = new Throwable[1];
+                return mono.doOnError(e -> error[0] = e)
+                        .doFinally(signal -> record(handle, inFlight, slot, args, error[0], start, processor));
+            });
+        }
+        Flux<?> flux = (Flux<?>) result;
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            int slot = inFlight != null ? inFlight.enter(start) : -1;
+            Throwable[] error = new Throwable[1];
+            return flux.doOnError(e -> error[0] = e)
+                    .doFinally(signal -> record(handle, inFlight, slot, args, error[0], start, processor));
+        });
+    }
+
+    private static void record(MetricHandle handle, InFlightCalls inFlight, int slot, Object[] args,
+                               Throwable error, long start, TimedMethodProcessor processor) {
+        long end = System.nanoTime();
+        if (inFlight != null) {
+            inFlight.exit(slot);
+        }
+        processor.record(handle, args, null, error, end - start, end);
+    }
+}
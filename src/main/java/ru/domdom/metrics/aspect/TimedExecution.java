@@ -0,0 +1,137 @@
+package ru.domdom.metrics.aspect;
+
+import ru.domdom.metrics.service.CallTree;
+import ru.domdom.metrics.service.InFlightCalls;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.SlowCallLog;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Общая логика замера вызова для {@link TimedMethodAspect} и {@link TimedMethodInterceptor}.
+ *
+ * <p>Замеряет время выполнения, выбирает хэндл с учётом динамических тегов и исхода вызова,
+ * а для асинхронных результатов подключает запись к их завершению. Доступ к вызову
+ * выполняется через {@link InvocationAccess} без создания объектов-адаптеров.
+ *
+ * <p>Если вызов попал в выборку {@link ru.domdom.metrics.service.OverheadGovernor},
+ * время перехватчика вне вызова целевого метода передаётся в процессор.
+ *
+ * <p>При включённом {@link CallTree} вызов на время выполнения помещается в стек
+ * вложенных вызовов потока, а после завершения записывается его собственное время.
+ *
+ * <p>При учёте выполняющихся вызовов ({@link InFlightCalls}) вызов считается выполняющимся
+ * до возврата из метода, а для {@link CompletionStage} — до завершения стадии. Для Reactor
+ * {@code Mono}/{@code Flux} выполняющейся считается каждая подписка до терминального сигнала,
+ * как и при замере времени ({@link AsyncResultRecorder}); сам вызов, собирающий издатель,
+ * завершается при возврате из метода.
+ *
+ * <p>Синхронные вызовы не короче порога хэндла сохраняются в {@link SlowCallLog};
+ * для остальных вызовов проверка — одно сравнение без аллокаций.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see AsyncResultRecorder
+ */
+final class TimedExecution {
+
+    private final TimedMethodProcessor processor;
+    private final AsyncResultRecorder asyncResults;
+
+    TimedExecution(TimedMethodProcessor processor) {
+        this.processor = processor;
+        this.asyncResults = new AsyncResultRecorder(processor);
+    }
+
+    /**
+     * Выполняет вызов и записывает его время в хэндл.
+     *
+     * @param handle     хэндл метрик метода
+     * @param invocation перехваченный вызов
+     * @param access     способ обращения к вызову
+     * @param probeStart отметка {@link TimedMethodProcessor#probeStart()} или {@code 0}
+     * @param <T>        тип перехваченного вызова
+     * @return результат вызова (возможно, обёрнутый для асинхронной записи)
+     * @throws Throwable любое исключение, выброшенное целевым методом
+     */
+    <T> Object measure(MetricHandle handle, T invocation, InvocationAccess<T> access, long probeStart)
+            throws Throwable {
+        CallTree.Stack stack = processor.enterCall(handle);
+        long start = System.nanoTime();
+        InFlightCalls inFlight = handle.getInFlight();
+        int slot = inFlight != null ? inFlight.enter(start) : -1;
+        Object result;
+        try {
+            result = access.proceed(invocation);
+        } catch (Throwable e) {
+            long end = System.nanoTime();
+            long duration = end - start;
+            if (inFlight != null) {
+                inFlight.exit(slot);
+            }
+            processor.exitCall(stack, duration, true);
+            processor.record(handle, argsFor(handle, invocation, access), null, e, duration, end);
+            if (duration >= handle.getSlowCallThresholdNanos()) {
+                processor.captureSlowCall(handle, access.method(invocation), access.arguments(invocation), duration, e);
+            }
+            if (probeStart != 0) {
+                processor.probeEnd(handle, probeStart, duration);
+            }
+            throw e;
+        }
+        if (inFlight != null) {
+            if (result instanceof CompletionStage<?> pending) {
+                pending.whenComplete((value, error) -> inFlight.exit(slot));
+            } else {
+                inFlight.exit(slot);
+            }
+        }
+        if (asyncResults.isAsync(result)) {
+            processor.exitCall(stack, System.nanoTime() - start, false);
+            Object decorated = asyncResults.recordOnCompletion(result, handle, argsFor(handle, invocation, access),
+                    start, access.returnType(invocation));
+            if (decorated != null) {
+                return decorated;
+            }
+            stack = null;
+        }
+        long end = System.nanoTime();
+        long duration = end - start;
+        processor.exitCall(stack, duration, true);
+        processor.record(handle, argsFor(handle, invocation, access), result, null, duration, end);
+        if (duration >= handle.getSlowCallThresholdNanos()) {
+            processor.captureSlowCall(handle, access.method(invocation), access.arguments(invocation), duration, null);
+        }
+        if (probeStart != 0) {
+            processor.probeEnd(handle, probeStart, duration);
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает аргументы вызова, если они нужны для динамических тегов.
+     * Для методов без динамических тегов аргументы не запрашиваются, так как
+     * некоторые реализации копируют массив.
+     */
+    private static <T> Object[] argsFor(MetricHandle handle, T invocation, InvocationAccess<T> access) {
+        return handle.getDynamicTags() != null ? access.arguments(invocation) : null;
+    }
+
+    /**
+     * Обращение к перехваченному вызову конкретного механизма AOP.
+     *
+     * @param <T> тип перехваченного вызова
+     */
+    interface InvocationAccess<T> {
+
+        Object proceed(T invocation) throws Throwable;
+
+        Object[] arguments(T invocation);
+
+        Class<?> returnType(T invocation);
+
+        Method method(T invocation);
+    }
+}
@@ -0,0 +1,58 @@
+package ru.domdom.metrics.aspect;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.support.AbstractPointcutAdvisor;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.util.function.Supplier;
+
+/**
+ * Советник, подключающий {@link TimedMethodInterceptor} к методам, выбранным
+ * {@link TimedMethodPointcut}. Подхватывается автопроксированием Spring AOP.
+ *
+ * <p>В режиме {@code advice-mode=proxy} советник заменяет {@link TimedMethodAspect}:
+ * при создании прокси не сопоставляются выражения AspectJ, а при вызове не создаются
+ * {@code ProceedingJoinPoint} и {@code MethodSignature}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodPointcut
+ * @see TimedMethodInterceptor
+ */
+public class TimedMethodAdvisor extends AbstractPointcutAdvisor {
+
+    private final transient TimedMethodPointcut pointcut;
+    private final transient TimedMethodInterceptor interceptor;
+
+    /**
+     * Создаёт советник.
+     *
+     * @param pointcut  срез измеряемых методов
+     * @param processor процессор метрик
+     */
+    public TimedMethodAdvisor(TimedMethodPointcut pointcut, TimedMethodProcessor processor) {
+        this(pointcut, () -> processor);
+    }
+
+    /**
+     * Создаёт советник, получающий процессор метрик при первом перехваченном вызове.
+     *
+     * @param pointcut  срез измеряемых методов
+     * @param processor поставщик процессора метрик
+     */
+    public TimedMethodAdvisor(TimedMethodPointcut pointcut, Supplier<TimedMethodProcessor> processor) {
+        this.pointcut = pointcut;
+        this.interceptor = new TimedMethodInterceptor(pointcut, processor);
+    }
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return interceptor;
+    }
+}
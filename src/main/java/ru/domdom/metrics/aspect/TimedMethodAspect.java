@@ -1,12 +1,11 @@
 package ru.domdom.metrics.aspect;
 
-import lombok.RequiredArgsConstructor;
-import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
 import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.MetricHandle;
 import ru.domdom.metrics.service.TimedMethodProcessor;
 
 import java.lang.reflect.Method;
@@ -15,20 +14,80 @@ import java.lang.reflect.Method;
  * Аспект для перехвата методов, аннотированных {@link TimedMethod},
  * и записи метрик времени их выполнения.
  *
- * <p>Аспект получает ключ метрики через {@link TimedMethodProcessor#resolveMetricKey},
+ * <p>По умолчанию автоконфигурация не регистрирует аспект как бин: в режиме прокси методы
+ * перехватывает {@link TimedMethodAdvisor}, а в режиме {@code advice-mode=aspectj} аспект
+ * используется вплетённым {@link TimedMethodWeavingAspect} для методов, которые могут вернуть
+ * асинхронный результат. На один выпуск прежний бин можно
+ * вернуть устаревшим свойством {@code method.metrics.legacy-aspect=true}. Выражение
+ * {@code @annotation} аспекта, в отличие от советника, не учитывает аннотации методов интерфейсов.
+ * Аспект можно зарегистрировать и вручную, например в {@code AspectJProxyFactory}.
+ *
+ * <p>Аспект получает {@link MetricHandle} через {@link TimedMethodProcessor#resolveHandle},
  * замеряет время выполнения и передаёт результат в процессор для записи.
+ * Хэндл кэшируется на уровне метода, поэтому в установившемся режиме вызов
+ * сводится к поиску хэндла и записи в таймер.
+ *
+ * <p>Для методов, возвращающих {@link java.util.concurrent.CompletionStage} или
+ * Reactor {@code Mono}/{@code Flux}, время фиксируется по завершении результата,
+ * а не в момент возврата из метода (см. {@link AsyncResultRecorder}).
+ *
+ * <p>Если замер метода отключён во время работы ({@link MetricHandle#isEnabled()}),
+ * аспект вызывает целевой метод без замера.
+ *
+ * <p>Если у метода объявлены динамические теги или включено разделение исходов вызовов,
+ * хэндл конкретного вызова выбирается по аргументам, результату и исключению через
+ * {@link TimedMethodProcessor#selectHandle}. Сам замер выполняет {@link TimedExecution},
+ * общий с {@link TimedMethodInterceptor}.
  *
  * @author Кадыров Андрей
  * @since 1.0.0
  * @see TimedMethod
  * @see TimedMethodProcessor
+ * @see TimedMethodInterceptor
+ * @see TimedMethodAdvisor
  */
 @Aspect
-@Slf4j
-@RequiredArgsConstructor
 public class TimedMethodAspect {
 
+    private static final TimedExecution.InvocationAccess<ProceedingJoinPoint> JOIN_POINT =
+            new TimedExecution.InvocationAccess<>() {
+                @Override
+                public Object proceed(ProceedingJoinPoint joinPoint) throws Throwable {
+                    return joinPoint.proceed();
+                }
+
+                @Override
+                public Object[] arguments(ProceedingJoinPoint joinPoint) {
+                    return joinPoint.getArgs();
+                }
+
+                @Override
+                public Class<?> returnType(ProceedingJoinPoint joinPoint) {
+                    return ((MethodSignature) joinPoint.getSignature()).getReturnType();
+                }
+
+                @Override
+                public Method method(ProceedingJoinPoint joinPoint) {
+                    return ((MethodSignature) joinPoint.getSignature()).getMethod();
+                }
+            };
+
     private final TimedMethodProcessor processor;
+    private final TimedExecution execution;
+
+    /**
+     * Создаёт аспект.
+     *
+     * @param processor процессор метрик
+     */
+    public TimedMethodAspect(TimedMethodProcessor processor) {
+        this.processor = processor;
+        this.execution = new TimedExecution(processor);
+    }
+
+    TimedMethodProcessor getProcessor() {
+        return processor;
+    }
 
     /**
      * Совет, выполняющийся вокруг метода с аннотацией {@link TimedMethod}.
@@ -41,15 +100,11 @@ public class TimedMethodAspect {
      */
     @Around("@annotation(annotation)")
     public Object measure(ProceedingJoinPoint joinPoint, TimedMethod annotation) throws Throwable {
-        log.info("Intercepted method: {}", joinPoint.getSignature());
-        String metricKey = processor.resolveMetricKey(joinPoint, annotation);
-        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-        long start = System.nanoTime();
-        try {
+        long probeStart = processor.probeStart();
+        MetricHandle handle = processor.resolveHandle(joinPoint, annotation);
+        if (handle == null || !handle.isEnabled()) {
             return joinPoint.proceed();
-        } finally {
-            long duration = System.nanoTime() - start;
-            processor.record(metricKey, annotation, method, duration);
         }
+        return execution.measure(handle, joinPoint, JOIN_POINT, probeStart);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package ru.domdom.metrics.aspect;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.ReflectionHints;
+import org.springframework.beans.factory.aot.BeanRegistrationAotContribution;
+import org.springframework.beans.factory.aot.BeanRegistrationAotProcessor;
+import org.springframework.beans.factory.support.RegisteredBean;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.ClassUtils;
+import ru.domdom.metrics.annotation.TimedMethod;
+
+/**
+ * AOT-процессор бинов с {@link TimedMethod}: регистрирует чтение методов класса бина,
+ * его суперклассов и интерфейсов в нативном образе.
+ *
+ * <p>В нативном образе классы прокси создаются при сборке, но {@link TimedMethodPointcut}
+ * и {@code TimedMethodEagerRegistrar} по-прежнему ищут аннотации на методах при старте.
+ * Spring регистрирует методы только самого класса бина, а аннотированный метод может быть
+ * объявлен в суперклассе или интерфейсе. Бины, которые перехватываются только по выражениям
+ * из {@code method.metrics.pointcuts}, процессор не видит: подсказки для них задаёт приложение.
+ *
+ * <p>Подключается через {@code META-INF/spring/aot.factories}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodBeanRegistrationAotProcessor implements BeanRegistrationAotProcessor {
+
+    @Override
+    public BeanRegistrationAotContribution processAheadOfTime(RegisteredBean registeredBean) {
+        Class<?> beanClass = ClassUtils.getUserClass(registeredBean.getBeanClass());
+        if (!AnnotatedElementUtils.hasAnnotation(beanClass, TimedMethod.class)
+                && !TimedMethodPointcut.hasAnnotatedMethod(beanClass)) {
+            return null;
+        }
+        return (generationContext, beanRegistrationCode) ->
+                registerHints(generationContext.getRuntimeHints().reflection(), beanClass);
+    }
+
+    private static void registerHints(ReflectionHints hints, Class<?> beanClass) {
+        for (Class<?> current = beanClass; current != null && current != Object.class; current = current.getSuperclass()) {
+            hints.registerType(current, MemberCategory.INTROSPECT_PUBLIC_METHODS,
+                    MemberCategory.INTROSPECT_DECLARED_METHODS);
+        }
+        for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(beanClass)) {
+            hints.registerType(ifc, MemberCategory.INTROSPECT_PUBLIC_METHODS);
+        }
+    }
+}
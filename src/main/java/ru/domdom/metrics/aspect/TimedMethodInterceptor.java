@@ -0,0 +1,102 @@
+package ru.domdom.metrics.aspect;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.function.SingletonSupplier;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+/**
+ * Перехватчик методов, выбранных {@link TimedMethodPointcut}: методов с {@link TimedMethod},
+ * публичных методов классов с {@link TimedMethod} на уровне типа и методов
+ * из {@code method.metrics.pointcuts}.
+ *
+ * <p>Хэндл берётся из кэша {@link ru.domdom.metrics.service.MetricFactory}; эффективная
+ * аннотация метода запрашивается у среза, только пока хэндл для вызова ещё не создан.
+ * Замер выполняет {@link TimedExecution}, как и для {@link TimedMethodAspect}.
+ *
+ * <p>Процессор метрик может быть получен при первом вызове: советник создаётся во время
+ * регистрации {@code BeanPostProcessor}, и раннее создание процессора вместе с
+ * {@code MeterRegistry} лишило бы реестр его пост-обработки (общих тегов, фильтров, binders).
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodPointcut
+ * @see TimedMethodAdvisor
+ */
+public class TimedMethodInterceptor implements MethodInterceptor {
+
+    private static final TimedExecution.InvocationAccess<MethodInvocation> METHOD_INVOCATION =
+            new TimedExecution.InvocationAccess<>() {
+                @Override
+                public Object proceed(MethodInvocation invocation) throws Throwable {
+                    return invocation.proceed();
+                }
+
+                @Override
+                public Object[] arguments(MethodInvocation invocation) {
+                    return invocation.getArguments();
+                }
+
+                @Override
+                public Class<?> returnType(MethodInvocation invocation) {
+                    return invocation.getMethod().getReturnType();
+                }
+
+                @Override
+                public Method method(MethodInvocation invocation) {
+                    return invocation.getMethod();
+                }
+            };
+
+    private final TimedMethodPointcut pointcut;
+    private final SingletonSupplier<TimedMethodProcessor> processor;
+    private final SingletonSupplier<TimedExecution> execution;
+
+    /**
+     * Создаёт перехватчик.
+     *
+     * @param pointcut  срез, вычисляющий эффективную аннотацию метода
+     * @param processor процессор метрик
+     */
+    public TimedMethodInterceptor(TimedMethodPointcut pointcut, TimedMethodProcessor processor) {
+        this(pointcut, () -> processor);
+    }
+
+    /**
+     * Создаёт перехватчик, получающий процессор метрик при первом вызове.
+     *
+     * @param pointcut  срез, вычисляющий эффективную аннотацию метода
+     * @param processor поставщик процессора метрик
+     */
+    public TimedMethodInterceptor(TimedMethodPointcut pointcut, Supplier<TimedMethodProcessor> processor) {
+        this.pointcut = pointcut;
+        this.processor = SingletonSupplier.of(processor);
+        this.execution = SingletonSupplier.of(() -> new TimedExecution(this.processor.obtain()));
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        TimedMethodProcessor processor = this.processor.obtain();
+        long probeStart = processor.probeStart();
+        Method method = invocation.getMethod();
+        Object target = invocation.getThis();
+        MetricHandle handle = processor.findHandle(method, target);
+        if (handle == null) {
+            TimedMethod annotation = pointcut.getAttribute(method, target != null ? AopUtils.getTargetClass(target) : null);
+            if (annotation == null) {
+                return invocation.proceed();
+            }
+            handle = processor.resolveHandle(method, target, annotation);
+        }
+        if (handle == null || !handle.isEnabled()) {
+            return invocation.proceed();
+        }
+        return execution.obtain().measure(handle, invocation, METHOD_INVOCATION, probeStart);
+    }
+}
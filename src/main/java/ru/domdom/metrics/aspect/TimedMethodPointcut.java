@@ -0,0 +1,237 @@
+package ru.domdom.metrics.aspect;
+
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.annotation.MergedAnnotation;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import ru.domdom.metrics.annotation.TimedMethod;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Срез для измеряемых через прокси методов: методов с {@link TimedMethod}, публичных методов
+ * классов с {@link TimedMethod} на уровне типа и методов, подходящих под выражения AspectJ
+ * из {@code method.metrics.pointcuts}.
+ *
+ * <p>Методы с собственной аннотацией подходят под срез, только если он создан с
+ * {@code methodAnnotations=true} (режим {@code advice-mode=proxy}); иначе их перехватывает
+ * вплетённый {@link TimedMethodWeavingAspect} или зарегистрированный вручную
+ * {@link TimedMethodAspect}, поэтому двойного замера не возникает. Аннотация ищется на самом
+ * специфичном методе класса цели и на вызванном методе, как для выражения {@code @annotation}
+ * в Spring AOP, но без разбора и сопоставления выражения AspectJ, а затем, в отличие
+ * от {@code @annotation}, на реализуемых методах интерфейсов.
+ *
+ * <p>Фильтр классов пропускает только классы, в иерархии которых есть аннотация или
+ * аннотированный метод, поэтому методы остальных бинов не сопоставляются вовсе. Результат
+ * сопоставления кэшируется по паре (метод, класс цели), а результат фильтра классов — по классу,
+ * поэтому создание прокси для множества бинов одного класса и вызовы
+ * после старта не повторяют разбор выражений AspectJ и поиск аннотаций.
+ *
+ * <p>Для каждого подходящего метода вычисляется эффективная аннотация: атрибуты аннотации
+ * класса, где {@code value} дополняется именем метода ({@code value.methodName}),
+ * либо аннотация с атрибутами по умолчанию для методов из {@code pointcuts}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodInterceptor
+ * @see TimedMethodAdvisor
+ */
+public class TimedMethodPointcut extends StaticMethodMatcherPointcut {
+
+    /**
+     * Маркер отрицательного результата в кэше; сравнивается только по ссылке.
+     */
+    private static final TimedMethod NOT_TIMED = MergedAnnotation.of(TimedMethod.class).synthesize();
+    private static final TimedMethod DEFAULT_ATTRIBUTES = MergedAnnotation.of(TimedMethod.class).synthesize();
+
+    private final List<AspectJExpressionPointcut> expressions;
+    private final boolean methodAnnotations;
+    private final Map<MethodClassKey, TimedMethod> attributeCache = new ConcurrentHashMap<>(1024);
+    private final Map<Class<?>, Boolean> classFilterCache = new ConcurrentHashMap<>(256);
+
+    /**
+     * Создаёт срез для аннотаций на уровне класса и выражений, без методов с собственной аннотацией.
+     *
+     * @param pointcutExpressions выражения AspectJ из {@code method.metrics.pointcuts}
+     */
+    public TimedMethodPointcut(List<String> pointcutExpressions) {
+        this(pointcutExpressions, false);
+    }
+
+    /**
+     * Создаёт срез.
+     *
+     * @param pointcutExpressions выражения AspectJ из {@code method.metrics.pointcuts}
+     * @param methodAnnotations   перехватывать ли методы с собственной аннотацией {@link TimedMethod}
+     */
+    public TimedMethodPointcut(List<String> pointcutExpressions, boolean methodAnnotations) {
+        this.methodAnnotations = methodAnnotations;
+        this.expressions = pointcutExpressions.stream()
+                .filter(expression -> expression != null && !expression.isBlank())
+                .map(TimedMethodPointcut::compile)
+                .toList();
+        setClassFilter(this::matchesClass);
+    }
+
+    @Override
+    public boolean matches(Method method, Class<?> targetClass) {
+        return getAttribute(method, targetClass) != null;
+    }
+
+    /**
+     * Возвращает эффективную аннотацию для метода.
+     *
+     * @param method      метод
+     * @param targetClass класс цели (может быть {@code null})
+     * @return аннотация или {@code null}, если метод не измеряется этим срезом
+     */
+    public TimedMethod getAttribute(Method method, Class<?> targetClass) {
+        MethodClassKey key = new MethodClassKey(method, targetClass);
+        TimedMethod attribute = attributeCache.get(key);
+        if (attribute == null) {
+            attribute = computeAttribute(method, targetClass);
+            attributeCache.put(key, attribute != null ? attribute : NOT_TIMED);
+            return attribute;
+        }
+        return attribute == NOT_TIMED ? null : attribute;
+    }
+
+    /**
+     * Возвращает число закэшированных результатов сопоставления.
+     *
+     * @return размер кэша
+     */
+    int cacheSize() {
+        return attributeCache.size();
+    }
+
+    private boolean matchesClass(Class<?> clazz) {
+        return classFilterCache.computeIfAbsent(clazz, this::computeClassMatch);
+    }
+
+    private boolean computeClassMatch(Class<?> clazz) {
+        if (AnnotatedElementUtils.hasAnnotation(clazz, TimedMethod.class)) {
+            return true;
+        }
+        if (methodAnnotations && hasAnnotatedMethod(clazz)) {
+            return true;
+        }
+        for (AspectJExpressionPointcut expression : expressions) {
+            if (expression.getClassFilter().matches(clazz)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Проверяет, объявлен ли {@link TimedMethod} на каком-либо методе класса, его суперклассов
+     * или интерфейсов.
+     */
+    static boolean hasAnnotatedMethod(Class<?> clazz) {
+        if (!AnnotationUtils.isCandidateClass(clazz, TimedMethod.class)) {
+            return false;
+        }
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            if (declaresAnnotatedMethod(current)) {
+                return true;
+            }
+        }
+        for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(clazz)) {
+            if (declaresAnnotatedMethod(ifc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean declaresAnnotatedMethod(Class<?> clazz) {
+        for (Method method : ReflectionUtils.getDeclaredMethods(clazz)) {
+            if (method.isAnnotationPresent(TimedMethod.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private TimedMethod computeAttribute(Method method, Class<?> targetClass) {
+        if (method.getDeclaringClass() == Object.class) {
+            return null;
+        }
+        Method specificMethod = AopUtils.getMostSpecificMethod(method, targetClass);
+        TimedMethod methodAnnotation = specificMethod.getAnnotation(TimedMethod.class);
+        if (methodAnnotation == null) {
+            methodAnnotation = method.getAnnotation(TimedMethod.class);
+        }
+        if (methodAnnotation == null && methodAnnotations) {
+            methodAnnotation = findInterfaceAnnotation(specificMethod,
+                    targetClass != null ? targetClass : method.getDeclaringClass());
+        }
+        if (methodAnnotation != null) {
+            return methodAnnotations && !Modifier.isPrivate(specificMethod.getModifiers()) ? methodAnnotation : null;
+        }
+        if (!Modifier.isPublic(method.getModifiers()) || ReflectionUtils.isObjectMethod(method)) {
+            return null;
+        }
+        Class<?> userClass = targetClass != null ? targetClass : method.getDeclaringClass();
+        TimedMethod typeAnnotation = AnnotatedElementUtils.findMergedAnnotation(userClass, TimedMethod.class);
+        if (typeAnnotation == null) {
+            typeAnnotation = AnnotatedElementUtils.findMergedAnnotation(specificMethod.getDeclaringClass(),
+                    TimedMethod.class);
+        }
+        if (typeAnnotation != null) {
+            return forMethod(typeAnnotation, specificMethod);
+        }
+        for (AspectJExpressionPointcut expression : expressions) {
+            if (expression.matches(method, userClass)) {
+                return DEFAULT_ATTRIBUTES;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ищет {@link TimedMethod} на методе интерфейса, который реализует метод класса. Так аннотация
+     * интерфейса учитывается и в CGLIB-прокси, которые передают перехватчику метод класса.
+     */
+    private static TimedMethod findInterfaceAnnotation(Method method, Class<?> targetClass) {
+        for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(targetClass)) {
+            Method candidate = ClassUtils.getMethodIfAvailable(ifc, method.getName(), method.getParameterTypes());
+            TimedMethod annotation = candidate != null ? candidate.getAnnotation(TimedMethod.class) : null;
+            if (annotation != null) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Строит аннотацию метода из аннотации класса: {@code value} класса становится
+     * префиксом имени метрики.
+     */
+    private static TimedMethod forMethod(TimedMethod typeAnnotation, Method method) {
+        if (typeAnnotation.value().isEmpty()) {
+            return typeAnnotation;
+        }
+        Map<String, Object> attributes = new HashMap<>(AnnotationUtils.getAnnotationAttributes(typeAnnotation));
+        attributes.put("value", typeAnnotation.value() + "." + method.getName());
+        return MergedAnnotation.of(method, TimedMethod.class, attributes).synthesize();
+    }
+
+    private static AspectJExpressionPointcut compile(String expression) {
+        AspectJExpressionPointcut pointcut = new AspectJExpressionPointcut();
+        pointcut.setExpression(expression);
+        return pointcut;
+    }
+}
@@ -0,0 +1,208 @@
+package ru.domdom.metrics.aspect;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.AfterThrowing;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.aspectj.lang.annotation.Pointcut;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+/**
+ * Аспект AspectJ для режима {@code method.metrics.advice-mode=aspectj}: вплетается в байт-код
+ * методов с {@link TimedMethod} при компиляции (ajc) или загрузке классов (агент
+ * {@code aspectjweaver}), а не через прокси Spring.
+ *
+ * <p>В отличие от {@link TimedMethodAspect}, вплетённый совет срабатывает и при вызове метода
+ * из того же объекта, и для {@code private}, {@code final} и {@code static} методов, а вызов
+ * не проходит через прокси и цепочку перехватчиков. Совет вплетается только в точки выполнения
+ * метода ({@code execution}), поэтому каждый вызов замеряется один раз.
+ *
+ * <p>Синхронные методы замеряются советами {@code before} и {@code after}, которые AspectJ
+ * встраивает в тело метода и которым передаётся только статическая часть точки вплетения
+ * ({@code thisJoinPointStaticPart}) и целевой объект. Тело метода выполняется как есть, без
+ * замыкания и {@link ProceedingJoinPoint}, поэтому в установившемся режиме вызов не создаёт
+ * объектов (см. {@link WovenCalls}). {@link JoinPoint} с аргументами и упакованный результат
+ * создаются только для методов с динамическими тегами и при сохранении аргументов медленных
+ * вызовов: проверка {@link #needsArguments(JoinPoint.StaticPart)} вплетается перед советом.
+ *
+ * <p>Методы, которые могут вернуть асинхронный результат ({@code Object},
+ * {@link java.util.concurrent.Future}, {@link java.util.concurrent.CompletionStage} и Reactive
+ * Streams {@code Publisher} с подтипами), замеряются советом {@code around} через
+ * {@link TimedMethodAspect}, так как результат нужно обернуть для записи по завершении.
+ *
+ * <p>Стартер не поставляет {@code META-INF/aop.xml}: для вплетения агентом аспект и область
+ * вплетения объявляются в {@code aop.xml} приложения.
+ *
+ * <p>Экземпляр аспекта создаёт AspectJ, а не Spring, поэтому процессор метрик передаётся
+ * через {@link #bind(TimedMethodProcessor)} при старте контекста. До привязки и после
+ * закрытия контекста методы выполняются без замера.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodWeavingBinder
+ */
+@Aspect
+public class TimedMethodWeavingAspect {
+
+    private static volatile TimedMethodAspect delegate;
+    private static volatile WovenCalls calls;
+
+    /**
+     * Выполнение метода с аннотацией {@link TimedMethod} вне самого аспекта.
+     */
+    @Pointcut("execution(@ru.domdom.metrics.annotation.TimedMethod * *(..)) && !within(TimedMethodWeavingAspect)")
+    void timed() {
+    }
+
+    /**
+     * Методы, объявленный тип результата которых допускает асинхронный результат.
+     */
+    @Pointcut("execution((java.lang.Object || java.util.concurrent.Future+ || java.util.concurrent.CompletionStage+"
+            + " || org.reactivestreams.Publisher+) *(..))")
+    void mayReturnAsync() {
+    }
+
+    /**
+     * Проверяет, нужны ли замеру аргументы и результат вызова. Результат кэшируется
+     * для каждой точки вплетения.
+     *
+     * @param thisJoinPointStaticPart статическая часть точки вплетения
+     * @return {@code true}, если совету нужно передать {@link JoinPoint} с аргументами
+     */
+    @Pointcut("if()")
+    public static boolean needsArguments(JoinPoint.StaticPart thisJoinPointStaticPart) {
+        WovenCalls current = calls;
+        return current != null && current.needsArguments(thisJoinPointStaticPart);
+    }
+
+    /**
+     * Совет, выполняющийся вокруг вплетённого метода, который может вернуть асинхронный результат.
+     *
+     * @param joinPoint  точка выполнения метода
+     * @param annotation экземпляр аннотации {@link TimedMethod}
+     * @return результат выполнения метода
+     * @throws Throwable любое исключение, выброшенное методом
+     */
+    @Around("timed() && mayReturnAsync() && @annotation(annotation)")
+    public Object measure(ProceedingJoinPoint joinPoint, TimedMethod annotation) throws Throwable {
+        TimedMethodAspect current = delegate;
+        if (current == null) {
+            return joinPoint.proceed();
+        }
+        return current.measure(joinPoint, annotation);
+    }
+
+    /**
+     * Начинает замер синхронного метода, которому нужны аргументы вызова.
+     *
+     * @param joinPoint точка выполнения метода
+     */
+    @Before("timed() && !mayReturnAsync() && needsArguments(*)")
+    public void enterWithArguments(JoinPoint joinPoint) {
+        WovenCalls current = calls;
+        if (current == null) {
+            WovenCalls.skip(joinPoint.getStaticPart());
+            return;
+        }
+        current.enter(joinPoint.getStaticPart(), joinPoint.getThis(), joinPoint.getArgs());
+    }
+
+    /**
+     * Начинает замер синхронного метода экземпляра.
+     *
+     * @param joinPoint статическая часть точки выполнения метода
+     * @param target    объект, на котором вызван метод
+     */
+    @Before("timed() && !mayReturnAsync() && !needsArguments(*) && this(target)")
+    public void enter(JoinPoint.StaticPart joinPoint, Object target) {
+        WovenCalls current = calls;
+        if (current == null) {
+            WovenCalls.skip(joinPoint);
+            return;
+        }
+        current.enter(joinPoint, target, null);
+    }
+
+    /**
+     * Начинает замер синхронного статического метода.
+     *
+     * @param joinPoint статическая часть точки выполнения метода
+     */
+    @Before("timed() && !mayReturnAsync() && !needsArguments(*) && execution(static * *(..))")
+    public void enterStatic(JoinPoint.StaticPart joinPoint) {
+        WovenCalls current = calls;
+        if (current == null) {
+            WovenCalls.skip(joinPoint);
+            return;
+        }
+        current.enter(joinPoint, null, null);
+    }
+
+    /**
+     * Записывает синхронный вызов, которому нужен результат для динамических тегов.
+     *
+     * @param joinPoint статическая часть точки выполнения метода
+     * @param result    результат вызова
+     */
+    @AfterReturning(pointcut = "timed() && !mayReturnAsync() && needsArguments(*)", returning = "result")
+    public void exitWithResult(JoinPoint.StaticPart joinPoint, Object result) {
+        WovenCalls.exit(joinPoint, result, null);
+    }
+
+    /**
+     * Записывает успешно завершившийся синхронный вызов.
+     *
+     * @param joinPoint статическая часть точки выполнения метода
+     */
+    @AfterReturning("timed() && !mayReturnAsync() && !needsArguments(*)")
+    public void exit(JoinPoint.StaticPart joinPoint) {
+        WovenCalls.exit(joinPoint, null, null);
+    }
+
+    /**
+     * Записывает синхронный вызов, завершившийся исключением.
+     *
+     * @param joinPoint статическая часть точки выполнения метода
+     * @param error     исключение, выброшенное методом
+     */
+    @AfterThrowing(pointcut = "timed() && !mayReturnAsync()", throwing = "error")
+    public void exitWithError(JoinPoint.StaticPart joinPoint, Throwable error) {
+        WovenCalls.exit(joinPoint, null, error);
+    }
+
+    /**
+     * Подключает процессор метрик ко всем вплетённым методам.
+     *
+     * @param processor процессор метрик
+     */
+    static synchronized void bind(TimedMethodProcessor processor) {
+        delegate = new TimedMethodAspect(processor);
+        calls = new WovenCalls(processor);
+    }
+
+    /**
+     * Отключает процессор метрик, если он был подключён последним.
+     *
+     * @param processor процессор метрик
+     */
+    static synchronized void unbind(TimedMethodProcessor processor) {
+        TimedMethodAspect current = delegate;
+        if (current != null && current.getProcessor() == processor) {
+            delegate = null;
+            calls = null;
+        }
+    }
+
+    /**
+     * Проверяет, подключён ли процессор метрик.
+     *
+     * @return {@code true}, если вплетённые методы замеряются
+     */
+    static boolean isBound() {
+        return delegate != null;
+    }
+}
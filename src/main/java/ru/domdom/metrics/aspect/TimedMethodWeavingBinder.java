@@ -0,0 +1,47 @@
+package ru.domdom.metrics.aspect;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+/**
+ * Подключает процессор метрик контекста к {@link TimedMethodWeavingAspect} при старте
+ * и отключает при закрытии контекста.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodWeavingAspect
+ */
+@Slf4j
+public class TimedMethodWeavingBinder implements InitializingBean, DisposableBean {
+
+    private final TimedMethodProcessor processor;
+
+    /**
+     * Создаёт привязку.
+     *
+     * @param processor процессор метрик
+     */
+    public TimedMethodWeavingBinder(TimedMethodProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Подключает процессор к вплетённым методам.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        TimedMethodWeavingAspect.bind(processor);
+        log.info("@TimedMethod methods are timed by AspectJ weaving; "
+                + "classes must be woven at compile time or with the aspectjweaver agent");
+    }
+
+    /**
+     * Отключает процессор от вплетённых методов.
+     */
+    @Override
+    public void destroy() {
+        TimedMethodWeavingAspect.unbind(processor);
+    }
+}
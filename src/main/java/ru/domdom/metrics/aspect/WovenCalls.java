@@ -0,0 +1,239 @@
+package ru.domdom.metrics.aspect;
+
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.CallTree;
+import ru.domdom.metrics.service.InFlightCalls;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Замер синхронных методов, вплетённых {@link TimedMethodWeavingAspect}, советами
+ * {@code before} и {@code after} вместо {@code around}.
+ *
+ * <p>Совет {@code before} начинает замер и помещает кадр вызова в стек текущего потока,
+ * совет {@code after} извлекает кадр и записывает вызов так же, как {@link TimedExecution}.
+ * Кадры стека создаются один раз и используются повторно, а точка вплетения передаётся
+ * статической частью ({@link JoinPoint.StaticPart}), поэтому в установившемся режиме вызов
+ * не создаёт объектов.
+ *
+ * <p>Метод и аннотация точки вплетения разрешаются один раз и кэшируются по статической части,
+ * хэндл берётся из кэша {@link ru.domdom.metrics.service.MetricFactory} без вычисления ключа.
+ * Аргументы вызова запрашиваются только для методов с динамическими тегами и при сохранении
+ * аргументов медленных вызовов ({@link #needsArguments(JoinPoint.StaticPart)}).
+ *
+ * <p>Каждый совет {@code before} помещает в стек ровно один кадр, в том числе для отключённого
+ * метода и до привязки процессора, а совет {@code after} извлекает кадр своей точки вплетения.
+ * Если кадры выше него остались после сбоя, они отбрасываются.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodWeavingAspect
+ */
+@Slf4j
+final class WovenCalls {
+
+    private static final ThreadLocal<Frames> FRAMES = ThreadLocal.withInitial(Frames::new);
+
+    private final TimedMethodProcessor processor;
+    private final Map<JoinPoint.StaticPart, Site> sites = new ConcurrentHashMap<>();
+
+    WovenCalls(TimedMethodProcessor processor) {
+        this.processor = processor;
+    }
+
+    TimedMethodProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * Проверяет, нужны ли замеру аргументы и результат вызова: для динамических тегов метода
+     * или для журнала медленных вызовов с сохранением аргументов.
+     *
+     * @param joinPoint статическая часть точки вплетения
+     * @return {@code true}, если аргументы нужно передать в {@link #enter}
+     */
+    boolean needsArguments(JoinPoint.StaticPart joinPoint) {
+        return site(joinPoint).needsArguments;
+    }
+
+    /**
+     * Начинает замер вызова и помещает его кадр в стек текущего потока.
+     *
+     * @param joinPoint статическая часть точки вплетения
+     * @param target    объект, на котором вызван метод, или {@code null} для статического метода
+     * @param args      аргументы вызова или {@code null}, если они не нужны
+     */
+    void enter(JoinPoint.StaticPart joinPoint, Object target, Object[] args) {
+        Frames frames = FRAMES.get();
+        try {
+            long probeStart = processor.probeStart();
+            Site site = site(joinPoint);
+            MetricHandle handle = site.annotation != null
+                    ? processor.resolveHandle(site.method, target, site.annotation) : null;
+            if (handle == null || !handle.isEnabled()) {
+                frames.push(joinPoint);
+                return;
+            }
+            CallTree.Stack stack = processor.enterCall(handle);
+            long start = System.nanoTime();
+            InFlightCalls inFlight = handle.getInFlight();
+            int slot = inFlight != null ? inFlight.enter(start) : -1;
+            frames.push(joinPoint).start(processor, handle, stack, args, start, slot, probeStart);
+        } catch (RuntimeException e) {
+            log.error("Failed to start timing of woven method: {}", joinPoint, e);
+            frames.push(joinPoint);
+        }
+    }
+
+    /**
+     * Помещает в стек кадр вызова без замера, пока процессор метрик не подключён.
+     *
+     * @param joinPoint статическая часть точки вплетения
+     */
+    static void skip(JoinPoint.StaticPart joinPoint) {
+        FRAMES.get().push(joinPoint);
+    }
+
+    /**
+     * Извлекает кадр вызова из стека текущего потока и записывает завершённый вызов.
+     *
+     * @param joinPoint статическая часть точки вплетения
+     * @param result    результат вызова или {@code null}, если он не нужен
+     * @param error     исключение, которым завершился вызов, или {@code null}
+     */
+    static void exit(JoinPoint.StaticPart joinPoint, Object result, Throwable error) {
+        long end = System.nanoTime();
+        Frames frames = FRAMES.get();
+        int depth = frames.find(joinPoint);
+        if (depth < 0) {
+            return;
+        }
+        Frame frame = frames.frames[depth];
+        TimedMethodProcessor owner = frame.processor;
+        MetricHandle handle = frame.handle;
+        CallTree.Stack stack = frame.stack;
+        Object[] args = frame.args;
+        long start = frame.start;
+        int slot = frame.slot;
+        long probeStart = frame.probeStart;
+        frames.pop(depth);
+        if (handle == null) {
+            return;
+        }
+        try {
+            long duration = end - start;
+            InFlightCalls inFlight = handle.getInFlight();
+            if (inFlight != null) {
+                inFlight.exit(slot);
+            }
+            owner.exitCall(stack, duration, true);
+            owner.record(handle, args, result, error, duration, end);
+            if (duration >= handle.getSlowCallThresholdNanos()) {
+                owner.captureSlowCall(handle, ((MethodSignature) joinPoint.getSignature()).getMethod(), args,
+                        duration, error);
+            }
+            if (probeStart != 0) {
+                owner.probeEnd(handle, probeStart, duration);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to record woven method: {}", joinPoint, e);
+        }
+    }
+
+    private Site site(JoinPoint.StaticPart joinPoint) {
+        Site site = sites.get(joinPoint);
+        return site != null ? site : sites.computeIfAbsent(joinPoint, this::createSite);
+    }
+
+    private Site createSite(JoinPoint.StaticPart joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        TimedMethod annotation = method.getAnnotation(TimedMethod.class);
+        boolean needsArguments = annotation != null
+                && (annotation.dynamicTags().length > 0 || processor.isCapturingArguments());
+        return new Site(method, annotation, needsArguments);
+    }
+
+    private record Site(Method method, TimedMethod annotation, boolean needsArguments) {
+    }
+
+    /**
+     * Кадр одного вплетённого вызова. Кадры принадлежат стеку потока и используются повторно.
+     */
+    private static final class Frame {
+
+        private JoinPoint.StaticPart joinPoint;
+        private TimedMethodProcessor processor;
+        private MetricHandle handle;
+        private CallTree.Stack stack;
+        private Object[] args;
+        private long start;
+        private int slot;
+        private long probeStart;
+
+        void start(TimedMethodProcessor processor, MetricHandle handle, CallTree.Stack stack, Object[] args,
+                   long start, int slot, long probeStart) {
+            this.processor = processor;
+            this.handle = handle;
+            this.stack = stack;
+            this.args = args;
+            this.start = start;
+            this.slot = slot;
+            this.probeStart = probeStart;
+        }
+
+        void clear() {
+            joinPoint = null;
+            processor = null;
+            handle = null;
+            stack = null;
+            args = null;
+        }
+    }
+
+    /**
+     * Стек кадров вплетённых вызовов одного потока.
+     */
+    private static final class Frames {
+
+        private Frame[] frames = new Frame[16];
+        private int depth;
+
+        Frame push(JoinPoint.StaticPart joinPoint) {
+            if (depth == frames.length) {
+                frames = Arrays.copyOf(frames, depth * 2);
+            }
+            Frame frame = frames[depth];
+            if (frame == null) {
+                frame = new Frame();
+                frames[depth] = frame;
+            }
+            depth++;
+            frame.joinPoint = joinPoint;
+            return frame;
+        }
+
+        int find(JoinPoint.StaticPart joinPoint) {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (frames[i].joinPoint == joinPoint) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void pop(int to) {
+            for (int i = to; i < depth; i++) {
+                frames[i].clear();
+            }
+            depth = to;
+        }
+    }
+}
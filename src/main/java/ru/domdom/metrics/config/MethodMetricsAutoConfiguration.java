@@ -1,36 +1,79 @@
 package ru.domdom.metrics.config;
 
 import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.AdviceMode;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.context.annotation.Role;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.util.StringUtils;
+import ru.domdom.metrics.aspect.TimedMethodAdvisor;
 import ru.domdom.metrics.aspect.TimedMethodAspect;
+import ru.domdom.metrics.aspect.TimedMethodPointcut;
+import ru.domdom.metrics.aspect.TimedMethodWeavingBinder;
+import ru.domdom.metrics.index.TimedMethodIndex;
+import ru.domdom.metrics.service.AsyncMetricRecorder;
+import ru.domdom.metrics.service.CallTree;
+import ru.domdom.metrics.service.HotMethodSketch;
+import ru.domdom.metrics.service.IdleMeterSweeper;
 import ru.domdom.metrics.service.MetricFactory;
 import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.OverheadGovernor;
+import ru.domdom.metrics.service.SelfMetrics;
+import ru.domdom.metrics.service.SlowCallLog;
+import ru.domdom.metrics.service.SnapshotSpool;
+import ru.domdom.metrics.service.TimedMethodEagerRegistrar;
 import ru.domdom.metrics.service.TimedMethodProcessor;
 
+import java.nio.file.Path;
+import java.util.List;
+
 /**
  * Автоконфигурация Spring Boot для стартера сбора метрик методов.
  *
  * <p>Создаёт все необходимые бины при наличии {@link MeterRegistry} в classpath
  * и включённом свойстве {@code method.metrics.enabled} (по умолчанию true).
  *
+ * <p>Конфигурация поддерживает AOT-обработку Spring: условия вычисляются при сборке,
+ * поэтому свойства, включающие бины, фиксируются в нативном образе, а подсказки
+ * для него регистрирует {@link MethodMetricsRuntimeHints}.
+ *
  * @author Кадыров Андрей
  * @since 1.0.0
  * @see MethodMetricsProperties
  * @see MetricNameResolver
  * @see MetricFactory
  * @see TimedMethodProcessor
+ * @see TimedMethodAdvisor
  * @see TimedMethodAspect
+ * @see TimedMethodWeavingBinder
+ * @see TimedMethodEagerRegistrar
+ * @see AsyncMetricRecorder
+ * @see IdleMeterSweeper
+ * @see SelfMetrics
+ * @see OverheadGovernor
+ * @see HotMethodSketch
+ * @see SlowCallLog
+ * @see CallTree
+ * @see TimedMethodIndex
+ * @see MethodMetricsRuntimeHints
  */
 @AutoConfiguration
 @ConditionalOnClass(MeterRegistry.class)
 @EnableConfigurationProperties(MethodMetricsProperties.class)
+@ImportRuntimeHints(MethodMetricsRuntimeHints.class)
 @ConditionalOnProperty(
         prefix = "method.metrics",
         name = "enabled",
@@ -53,15 +96,123 @@ public class MethodMetricsAutoConfiguration {
     /**
      * Создаёт бин {@link MetricFactory}, если он отсутствует.
      *
-     * @param meterRegistry реестр метрик Micrometer
-     * @param properties    конфигурационные свойства
+     * При {@code method.metrics.use-index=true} подключает {@link TimedMethodIndex} всех модулей.
+     *
+     * @param meterRegistry  реестр метрик Micrometer
+     * @param properties     конфигурационные свойства
+     * @param resourceLoader загрузчик ресурсов контекста
+     * @param callTree       дерево вложенных вызовов, если оно включено
      * @return экземпляр {@link MetricFactory}
      */
     @Bean
     @ConditionalOnMissingBean
     public MetricFactory metricFactory(MeterRegistry meterRegistry,
-                                       MethodMetricsProperties properties) {
-        return new MetricFactory(meterRegistry, properties);
+                                       MethodMetricsProperties properties,
+                                       ResourceLoader resourceLoader,
+                                       ObjectProvider<CallTree> callTree) {
+        MetricFactory factory = new MetricFactory(meterRegistry, properties);
+        if (properties.isUseIndex()) {
+            factory.setIndex(TimedMethodIndex.load(resourceLoader.getClassLoader()));
+        }
+        callTree.ifAvailable(factory::setCallTree);
+        return factory;
+    }
+
+    /**
+     * Создаёт бин {@link AsyncMetricRecorder} для записи метрик в фоновом потоке.
+     * Включается свойством {@code method.metrics.async-recording.enabled=true}.
+     *
+     * @param meterRegistry реестр метрик Micrometer
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link AsyncMetricRecorder}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.async-recording", name = "enabled", havingValue = "true")
+    public AsyncMetricRecorder asyncMetricRecorder(MeterRegistry meterRegistry,
+                                                   MethodMetricsProperties properties,
+                                                   ObjectProvider<SelfMetrics> selfMetrics) {
+        AsyncMetricRecorder recorder = new AsyncMetricRecorder(meterRegistry, properties);
+        selfMetrics.ifAvailable(recorder::setSelfMetrics);
+        return recorder;
+    }
+
+    /**
+     * Создаёт бин {@link SelfMetrics} с метриками накладных расходов стартера.
+     * Включается свойством {@code method.metrics.self-instrumentation.enabled=true}.
+     *
+     * @param meterRegistry реестр метрик Micrometer
+     * @param metricFactory фабрика метрик
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link SelfMetrics}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.self-instrumentation", name = "enabled", havingValue = "true")
+    public SelfMetrics selfMetrics(MeterRegistry meterRegistry,
+                                   MetricFactory metricFactory,
+                                   MethodMetricsProperties properties) {
+        return new SelfMetrics(meterRegistry, metricFactory, properties);
+    }
+
+    /**
+     * Создаёт бин {@link OverheadGovernor}, ограничивающий накладные расходы замера под нагрузкой.
+     * Включается свойством {@code method.metrics.governor.enabled=true}.
+     *
+     * @param metricFactory фабрика метрик
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link OverheadGovernor}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.governor", name = "enabled", havingValue = "true")
+    public OverheadGovernor overheadGovernor(MetricFactory metricFactory,
+                                             MethodMetricsProperties properties) {
+        return new OverheadGovernor(metricFactory, properties);
+    }
+
+    /**
+     * Создаёт бин {@link HotMethodSketch} для {@code /actuator/timedmethods/top}.
+     * Включается свойством {@code method.metrics.top.enabled=true}.
+     *
+     * @param properties конфигурационные свойства
+     * @return экземпляр {@link HotMethodSketch}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.top", name = "enabled", havingValue = "true")
+    public HotMethodSketch hotMethodSketch(MethodMetricsProperties properties) {
+        return new HotMethodSketch(properties);
+    }
+
+    /**
+     * Создаёт бин {@link SlowCallLog} для {@code /actuator/timedmethods/slow}.
+     * Включается свойством {@code method.metrics.slow-calls.enabled=true}.
+     *
+     * @param properties конфигурационные свойства
+     * @return экземпляр {@link SlowCallLog}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.slow-calls", name = "enabled", havingValue = "true")
+    public SlowCallLog slowCallLog(MethodMetricsProperties properties) {
+        return new SlowCallLog(properties);
+    }
+
+    /**
+     * Создаёт бин {@link CallTree} для таймеров собственного времени методов.
+     * Включается свойством {@code method.metrics.call-tree.enabled=true}.
+     *
+     * @param meterRegistry реестр метрик Micrometer
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link CallTree}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.call-tree", name = "enabled", havingValue = "true")
+    public CallTree callTree(MeterRegistry meterRegistry, MethodMetricsProperties properties) {
+        return new CallTree(meterRegistry, properties);
     }
 
     /**
@@ -69,26 +220,157 @@ public class MethodMetricsAutoConfiguration {
      *
      * @param nameResolver  резолвер имён метрик
      * @param metricFactory фабрика метрик
+     * @param asyncRecorder фоновый регистратор метрик, если он включён
+     * @param selfMetrics   метрики накладных расходов стартера, если они включены
+     * @param governor      ограничитель накладных расходов, если он включён
+     * @param hotMethods    таблица «горячих» методов, если она включена
+     * @param slowCalls     журнал медленных вызовов, если он включён
+     * @param callTree      дерево вложенных вызовов, если оно включено
      * @return экземпляр {@link TimedMethodProcessor}
      */
     @Bean
     @ConditionalOnMissingBean
     public TimedMethodProcessor timedMethodProcessor(MetricNameResolver nameResolver,
-                                                     MetricFactory metricFactory) {
-        return new TimedMethodProcessor(nameResolver, metricFactory);
+                                                     MetricFactory metricFactory,
+                                                     ObjectProvider<AsyncMetricRecorder> asyncRecorder,
+                                                     ObjectProvider<SelfMetrics> selfMetrics,
+                                                     ObjectProvider<OverheadGovernor> governor,
+                                                     ObjectProvider<HotMethodSketch> hotMethods,
+                                                     ObjectProvider<SlowCallLog> slowCalls,
+                                                     ObjectProvider<CallTree> callTree) {
+        TimedMethodProcessor processor = new TimedMethodProcessor(nameResolver, metricFactory);
+        asyncRecorder.ifAvailable(processor::setAsyncRecorder);
+        selfMetrics.ifAvailable(processor::setSelfMetrics);
+        governor.ifAvailable(processor::setGovernor);
+        hotMethods.ifAvailable(processor::setHotMethods);
+        slowCalls.ifAvailable(processor::setSlowCalls);
+        callTree.ifAvailable(processor::setCallTree);
+        return processor;
     }
 
     /**
-     * Создаёт бин {@link TimedMethodAspect}, если он отсутствует.
+     * Создаёт прежний бин {@link TimedMethodAspect} для методов с собственной аннотацией
+     * {@code @TimedMethod}. Включается свойством {@code method.metrics.legacy-aspect=true}
+     * при {@code advice-mode=proxy}; советник {@link TimedMethodAdvisor} такие методы при этом
+     * не перехватывает, и аннотации методов интерфейсов, как и раньше, не учитываются.
      * Аспект помечен как инфраструктурный ({@code ROLE_INFRASTRUCTURE}).
      *
      * @param processor процессор метрик
      * @return экземпляр {@link TimedMethodAspect}
+     * @deprecated оставлен на один выпуск для перехода на {@link TimedMethodAdvisor}
      */
     @Bean
     @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
     @ConditionalOnMissingBean
+    @ConditionalOnExpression("${method.metrics.legacy-aspect:false} "
+            + "and '${method.metrics.advice-mode:proxy}'.equalsIgnoreCase('proxy')")
+    @Deprecated(since = "1.0.0", forRemoval = true)
     public TimedMethodAspect timedMethodAspect(TimedMethodProcessor processor) {
         return new TimedMethodAspect(processor);
     }
-}
\ No newline at end of file
+
+    /**
+     * Создаёт бин {@link TimedMethodWeavingBinder}, подключающий процессор метрик
+     * к вплетённому аспекту AspectJ. Включается свойством {@code method.metrics.advice-mode=aspectj}.
+     *
+     * @param processor процессор метрик
+     * @return экземпляр {@link TimedMethodWeavingBinder}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics", name = "advice-mode", havingValue = "aspectj")
+    public TimedMethodWeavingBinder timedMethodWeavingBinder(TimedMethodProcessor processor) {
+        return new TimedMethodWeavingBinder(processor);
+    }
+
+    /**
+     * Создаёт бин {@link TimedMethodAdvisor} для методов с {@code @TimedMethod}, методов классов
+     * с {@code @TimedMethod} на уровне типа и методов из {@code method.metrics.pointcuts}.
+     * При {@code method.metrics.advice-mode=aspectj} методы с собственной аннотацией
+     * советник не перехватывает: их замеряет вплетённый аспект. То же при устаревшем
+     * {@code method.metrics.legacy-aspect=true}: их замеряет {@link TimedMethodAspect}.
+     * Советник помечен как инфраструктурный ({@code ROLE_INFRASTRUCTURE}).
+     *
+     * <p>Spring создаёт советники при регистрации {@code BeanPostProcessor}, поэтому метод
+     * статический, свойства среза читаются из {@link Environment}, а процессор метрик
+     * запрашивается при первом перехваченном вызове. Иначе вместе с советником раньше времени
+     * создавались бы процессор, {@link MetricFactory} и {@link MeterRegistry}, и реестр
+     * не получил бы общие теги, фильтры и binders Spring Boot.
+     *
+     * @param environment окружение с конфигурационными свойствами
+     * @param processor   поставщик процессора метрик
+     * @return экземпляр {@link TimedMethodAdvisor}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    public static TimedMethodAdvisor timedMethodAdvisor(Environment environment,
+                                                        ObjectProvider<TimedMethodProcessor> processor) {
+        Binder binder = Binder.get(environment);
+        List<String> pointcuts = binder.bind("method.metrics.pointcuts", Bindable.listOf(String.class))
+                .orElse(List.of());
+        AdviceMode adviceMode = binder.bind("method.metrics.advice-mode", AdviceMode.class)
+                .orElse(AdviceMode.PROXY);
+        boolean legacyAspect = binder.bind("method.metrics.legacy-aspect", Boolean.class).orElse(false);
+        boolean methodAnnotations = adviceMode == AdviceMode.PROXY && !legacyAspect;
+        return new TimedMethodAdvisor(new TimedMethodPointcut(pointcuts, methodAnnotations), processor::getObject);
+    }
+
+    /**
+     * Создаёт бин {@link TimedMethodEagerRegistrar}, регистрирующий метрики
+     * всех аннотированных методов при старте контекста.
+     * Включается свойством {@code method.metrics.eager-registration=true}.
+     *
+     * @param beanFactory фабрика бинов контекста
+     * @param processor   процессор метрик
+     * @return экземпляр {@link TimedMethodEagerRegistrar}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics", name = "eager-registration", havingValue = "true")
+    public TimedMethodEagerRegistrar timedMethodEagerRegistrar(ConfigurableListableBeanFactory beanFactory,
+                                                               TimedMethodProcessor processor) {
+        return new TimedMethodEagerRegistrar(beanFactory, processor);
+    }
+
+    /**
+     * Создаёт бин {@link IdleMeterSweeper}, удаляющий метрики методов,
+     * которые не вызывались дольше {@code method.metrics.idle-expiry}.
+     * Включается заданием свойства {@code method.metrics.idle-expiry}.
+     *
+     * @param metricFactory фабрика метрик
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link IdleMeterSweeper}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics", name = "idle-expiry")
+    public IdleMeterSweeper idleMeterSweeper(MetricFactory metricFactory,
+                                             MethodMetricsProperties properties) {
+        return new IdleMeterSweeper(metricFactory, properties.getIdleExpiry());
+    }
+
+    /**
+     * Создаёт бин {@link SnapshotSpool}, периодически записывающий снимки метрик в отображённый
+     * в память файл. Включается свойством {@code method.metrics.spool.enabled=true}.
+     *
+     * @param metricFactory фабрика метрик
+     * @param properties    конфигурационные свойства
+     * @return экземпляр {@link SnapshotSpool}
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "method.metrics.spool", name = "enabled", havingValue = "true")
+    public SnapshotSpool snapshotSpool(MetricFactory metricFactory, MethodMetricsProperties properties) {
+        MethodMetricsProperties.Spool spool = properties.getSpool();
+        Path path = StringUtils.hasText(spool.getPath())
+                ? Path.of(spool.getPath())
+                : Path.of(System.getProperty("java.io.tmpdir"), "timed-methods.spool");
+        return new SnapshotSpool(metricFactory, path, spool.getInterval(), spool.getSlots(),
+                (int) spool.getSlotSize().toBytes(), spool.isForce());
+    }
+}
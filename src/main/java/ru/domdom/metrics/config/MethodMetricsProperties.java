@@ -2,6 +2,12 @@ package ru.domdom.metrics.config;
 
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.AdviceMode;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Конфигурационные свойства для сбора метрик методов.
@@ -12,6 +18,28 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  *   <li>{@code prefix} – префикс для всех метрик методов</li>
  *   <li>{@code histogram} – включение гистограмм для распределения времени</li>
  *   <li>{@code percentiles} – процентили для гистограмм</li>
+ *   <li>{@code histogram-engine} – реализация гистограмм: Micrometer или компактная лог-линейная</li>
+ *   <li>{@code histogram-precision}, {@code histogram-window} – точность и окно компактной гистограммы</li>
+ *   <li>{@code max-metric-keys} – максимальное число различных ключей метрик</li>
+ *   <li>{@code max-dynamic-tag-values} – максимальное число комбинаций динамических тегов на метод</li>
+ *   <li>{@code outcome-tags} – разделение метрик успешных и неуспешных вызовов</li>
+ *   <li>{@code max-exception-classes} – максимальное число классов исключений на метод</li>
+ *   <li>{@code idle-expiry} – время простоя, после которого метрики метода удаляются</li>
+ *   <li>{@code pointcuts} – выражения AspectJ для измерения методов без аннотации</li>
+ *   <li>{@code advice-mode} – перехват методов с аннотацией через прокси Spring или вплетение AspectJ</li>
+ *   <li>{@code legacy-aspect} – прежний аспект {@code TimedMethodAspect} вместо советника (устарело)</li>
+ *   <li>{@code eager-registration} – регистрация всех метрик при старте контекста</li>
+ *   <li>{@code use-index} – теги и сигнатуры методов из индекса, созданного при компиляции</li>
+ *   <li>{@code sample-every} – частота сэмплирования гистограмм по умолчанию</li>
+ *   <li>{@code async-recording.*} – запись метрик в фоновом потоке</li>
+ *   <li>{@code self-instrumentation.*} – метрики накладных расходов самого стартера</li>
+ *   <li>{@code governor.*} – адаптивное ограничение накладных расходов замера под нагрузкой</li>
+ *   <li>{@code top.*} – оценка самых «горячих» методов за последнее окно</li>
+ *   <li>{@code slow-calls.*} – журнал медленных вызовов с аргументами</li>
+ *   <li>{@code call-tree.*} – собственное время методов без вложенных замеряемых вызовов</li>
+ *   <li>{@code in-flight.*} – число выполняющихся вызовов и самый долгий выполняющийся вызов</li>
+ *   <li>{@code rolling-stats.*} – скользящая статистика вызовов за 10 секунд, минуту и 5 минут</li>
+ *   <li>{@code spool.*} – снимки метрик в отображённом в память файле, переживающем падение JVM</li>
  * </ul>
  *
  * <p>Пример конфигурации в application.yml:
@@ -56,6 +84,130 @@ public class MethodMetricsProperties {
      */
     private double[] percentiles = {0.5, 0.95, 0.99};
 
+    /**
+     * Реализация гистограмм таймеров при {@code histogram=true}.
+     * По умолчанию {@link HistogramEngine#MICROMETER}.
+     */
+    private HistogramEngine histogramEngine = HistogramEngine.MICROMETER;
+
+    /**
+     * Число бит точности компактной гистограммы внутри каждой степени двойки (от 1 до 10).
+     * Относительная погрешность процентилей не превышает {@code 2^-(precision+1)}.
+     * По умолчанию {@code 5} (около 1.6%).
+     */
+    private int histogramPrecision = 5;
+
+    /**
+     * Окно, по которому компактная гистограмма считает процентили.
+     * По умолчанию {@code 2m}.
+     */
+    private Duration histogramWindow = Duration.ofMinutes(2);
+
+    /**
+     * Максимальное число различных ключей метрик. Вызовы с новыми ключами сверх лимита
+     * записываются в общие метрики {@code <prefix>.overflow.*}. Значение {@code 0}
+     * снимает ограничение. По умолчанию {@code 10000}.
+     */
+    private int maxMetricKeys = 10_000;
+
+    /**
+     * Максимальное число различных комбинаций значений динамических тегов на один ключ метрики.
+     * Вызовы сверх лимита записываются со значением тегов {@code other}.
+     * По умолчанию {@code 100}.
+     */
+    private int maxDynamicTagValues = 100;
+
+    /**
+     * Разделение метрик по исходу вызова: теги {@code outcome=success|error}
+     * и {@code exception=<SimpleName>}. По умолчанию {@code false}.
+     */
+    private boolean outcomeTags = false;
+
+    /**
+     * Максимальное число различных классов исключений на один ключ метрики при
+     * {@code outcome-tags=true}. Остальные записываются с {@code exception=other}.
+     * По умолчанию {@code 10}.
+     */
+    private int maxExceptionClasses = 10;
+
+    /**
+     * Время простоя, после которого метрики метода удаляются из реестра.
+     * При следующем вызове метода метрики создаются заново.
+     * По умолчанию не задано (метрики не удаляются).
+     */
+    private Duration idleExpiry;
+
+    /**
+     * Выражения AspectJ, выбирающие методы для измерения без аннотации {@code @TimedMethod},
+     * например {@code execution(* com.example.repository..*(..))}. Имя метрики строится
+     * как {@code ClassName.methodName}. По умолчанию пусто.
+     */
+    private List<String> pointcuts = new ArrayList<>();
+
+    /**
+     * Способ перехвата методов с {@code @TimedMethod} на уровне метода:
+     * {@link AdviceMode#PROXY} — прокси Spring AOP, {@link AdviceMode#ASPECTJ} — аспект
+     * {@code TimedMethodWeavingAspect}, вплетённый при компиляции или агентом {@code aspectjweaver}.
+     * Аннотация на уровне класса и {@code pointcuts} всегда обрабатываются через прокси.
+     * По умолчанию {@link AdviceMode#PROXY}.
+     */
+    private AdviceMode adviceMode = AdviceMode.PROXY;
+
+    /**
+     * Регистрация прежнего бина {@code TimedMethodAspect}, который замеряет методы с собственной
+     * аннотацией {@code @TimedMethod} по выражению {@code @annotation}, вместо советника
+     * {@code TimedMethodAdvisor}. Аннотации методов интерфейсов аспект не учитывает.
+     * Действует только при {@code advice-mode=proxy}. По умолчанию {@code false}.
+     *
+     * @deprecated оставлено на один выпуск для перехода на {@code TimedMethodAdvisor}
+     */
+    @Deprecated(since = "1.0.0", forRemoval = true)
+    private boolean legacyAspect = false;
+
+    /**
+     * Регистрация таймеров и счётчиков всех методов с {@code @TimedMethod}
+     * при старте контекста, а не при первом вызове.
+     * По умолчанию {@code false}.
+     */
+    private boolean eagerRegistration = false;
+
+    /**
+     * Использование индекса {@code META-INF/timed-methods.properties}, созданного процессором
+     * аннотаций при компиляции: теги и сигнатуры методов берутся из него, а не вычисляются
+     * по аннотации при создании метрик. По умолчанию {@code true}.
+     */
+    private boolean useIndex = true;
+
+    /**
+     * Частота сэмплирования гистограмм по умолчанию: в гистограмму записывается
+     * в среднем один вызов из {@code sampleEvery}, таймер {@code .duration} остаётся
+     * точным. Переопределяется атрибутом
+     * {@code sampleEvery} аннотации. По умолчанию {@code 1} (каждый вызов).
+     */
+    private int sampleEvery = 1;
+
+    /**
+     * Устанавливает частоту сэмплирования по умолчанию.
+     *
+     * @param sampleEvery новое значение (значения меньше 1 игнорируются)
+     */
+    public void setSampleEvery(int sampleEvery) {
+        if (sampleEvery >= 1) {
+            this.sampleEvery = sampleEvery;
+        }
+    }
+
+    /**
+     * Устанавливает точность компактной гистограммы.
+     *
+     * @param histogramPrecision новое значение (значения вне диапазона от 1 до 10 игнорируются)
+     */
+    public void setHistogramPrecision(int histogramPrecision) {
+        if (histogramPrecision >= 1 && histogramPrecision <= 10) {
+            this.histogramPrecision = histogramPrecision;
+        }
+    }
+
     /**
      * Устанавливает массив процентилей.
      *
@@ -66,4 +218,353 @@ public class MethodMetricsProperties {
             this.percentiles = percentiles;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Настройки фоновой записи метрик.
+     */
+    private final AsyncRecording asyncRecording = new AsyncRecording();
+
+    /**
+     * Настройки фоновой записи метрик ({@code method.metrics.async-recording.*}).
+     * Поток вызова только кладёт измерение в кольцевой буфер, а фоновый поток
+     * периодически переносит накопленные измерения в таймеры и счётчики.
+     */
+    @Data
+    public static class AsyncRecording {
+
+        /**
+         * Включение фоновой записи метрик.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Ёмкость кольцевого буфера одной полосы; округляется до степени двойки.
+         * Измерения сверх ёмкости отбрасываются и учитываются в счётчике.
+         * По умолчанию {@code 8192}.
+         */
+        private int bufferSize = 8192;
+
+        /**
+         * Интервал переноса накопленных измерений в метрики.
+         * По умолчанию {@code 100ms}.
+         */
+        private Duration flushInterval = Duration.ofMillis(100);
+    }
+
+    /**
+     * Настройки метрик накладных расходов стартера.
+     */
+    private final SelfInstrumentation selfInstrumentation = new SelfInstrumentation();
+
+    /**
+     * Настройки метрик накладных расходов стартера ({@code method.metrics.self-instrumentation.*}):
+     * число метрик, промахи кэшей, время записи измерений и ошибки записи.
+     */
+    @Data
+    public static class SelfInstrumentation {
+
+        /**
+         * Включение метрик накладных расходов стартера.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Время записи замеряется в среднем для одного вызова из {@code sampleEvery}.
+         * По умолчанию {@code 64}.
+         */
+        private int sampleEvery = 64;
+    }
+
+    /**
+     * Настройки адаптивного ограничения накладных расходов.
+     */
+    private final Governor governor = new Governor();
+
+    /**
+     * Настройки адаптивного ограничения накладных расходов замера ({@code method.metrics.governor.*}).
+     * Если время перехватчика вне вызова метода превышает бюджет, для метода приостанавливается
+     * запись в компактную гистограмму и повышается частота сэмплирования таймера.
+     */
+    @Data
+    public static class Governor {
+
+        /**
+         * Включение адаптивного ограничения.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Допустимая доля накладных расходов замера от времени выполнения метода.
+         * По умолчанию {@code 0.02} (2%).
+         */
+        private double budget = 0.02;
+
+        /**
+         * Накладные расходы замеряются в среднем для одного вызова из {@code probeEvery}.
+         * По умолчанию {@code 64}.
+         */
+        private int probeEvery = 64;
+
+        /**
+         * Интервал оценки накладных расходов и изменения ограничений.
+         * По умолчанию {@code 10s}.
+         */
+        private Duration interval = Duration.ofSeconds(10);
+
+        /**
+         * Верхняя граница частоты сэмплирования гистограммы при ограничении.
+         * По умолчанию {@code 1024}.
+         */
+        private int maxSampleEvery = 1024;
+    }
+
+    /**
+     * Настройки оценки самых «горячих» методов.
+     */
+    private final Top top = new Top();
+
+    /**
+     * Настройки оценки самых «горячих» методов ({@code method.metrics.top.*}) для
+     * {@code /actuator/timedmethods/top}.
+     */
+    @Data
+    public static class Top {
+
+        /**
+         * Включение оценки самых «горячих» методов.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Число отслеживаемых ключей метрик; округляется до степени двойки.
+         * По умолчанию {@code 128}.
+         */
+        private int capacity = 128;
+
+        /**
+         * Окно, за которое считаются суммарное время, частота вызовов и p99.
+         * По умолчанию {@code 1m}.
+         */
+        private Duration window = Duration.ofMinutes(1);
+    }
+
+    /**
+     * Настройки журнала медленных вызовов.
+     */
+    private final SlowCalls slowCalls = new SlowCalls();
+
+    /**
+     * Настройки журнала медленных вызовов ({@code method.metrics.slow-calls.*}).
+     * Вызовы дольше порога сохраняются в кольцевой буфер фиксированного размера
+     * и доступны через {@code /actuator/timedmethods/slow}.
+     */
+    @Data
+    public static class SlowCalls {
+
+        /**
+         * Включение журнала медленных вызовов.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Порог медленного вызова по умолчанию; переопределяется {@code @TimedMethod(slowCallMillis)}.
+         * Если не задан, захватываются только методы с порогом в аннотации.
+         */
+        private Duration threshold;
+
+        /**
+         * Число хранимых медленных вызовов; округляется до степени двойки.
+         * По умолчанию {@code 256}.
+         */
+        private int capacity = 256;
+
+        /**
+         * Сохранение строкового представления аргументов. Аргументы могут содержать
+         * персональные данные и секреты и становятся доступны через эндпоинт, поэтому
+         * включаются явно. По умолчанию {@code false}.
+         */
+        private boolean captureArguments = false;
+
+        /**
+         * Максимальная длина строкового представления одного аргумента.
+         * По умолчанию {@code 256}.
+         */
+        private int maxArgumentLength = 256;
+
+        /**
+         * Сохранение стека вызова (вызывающий код или стек исключения).
+         * По умолчанию {@code false}.
+         */
+        private boolean captureStack = false;
+
+        /**
+         * Максимальное число сохраняемых кадров стека.
+         * По умолчанию {@code 32}.
+         */
+        private int maxStackDepth = 32;
+    }
+
+    /**
+     * Настройки дерева вызовов.
+     */
+    private final CallTree callTree = new CallTree();
+
+    /**
+     * Настройки дерева вызовов ({@code method.metrics.call-tree.*}). Для вложенных
+     * вызовов методов с {@code @TimedMethod} в том же потоке дополнительно записывается
+     * собственное время метода — без времени вложенных замеряемых вызовов.
+     */
+    @Data
+    public static class CallTree {
+
+        /**
+         * Включение таймеров собственного времени {@code <prefix>.<key>.self}.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Глубина стека вызовов, отслеживаемая в каждом потоке; более глубокие вызовы
+         * учитываются во времени ближайшего отслеживаемого предка.
+         * По умолчанию {@code 64}.
+         */
+        private int maxDepth = 64;
+
+        /**
+         * Подсчёт вызовов по рёбрам «родитель → потомок» в счётчике {@code <prefix>.call.edges}.
+         * По умолчанию {@code false}.
+         */
+        private boolean edges = false;
+
+        /**
+         * Максимальное число различных рёбер; остальные учитываются с тегами {@code overflow}.
+         * По умолчанию {@code 256}.
+         */
+        private int maxEdges = 256;
+    }
+
+    /**
+     * Настройки учёта выполняющихся вызовов.
+     */
+    private final InFlight inFlight = new InFlight();
+
+    /**
+     * Настройки учёта выполняющихся вызовов ({@code method.metrics.in-flight.*}): для каждого
+     * ключа публикуются gauge {@code .inflight}, {@code .inflight.max} и {@code .inflight.longest}.
+     */
+    @Data
+    public static class InFlight {
+
+        /**
+         * Включение учёта выполняющихся вызовов.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Окно, за которое считается максимальное число одновременных вызовов.
+         * По умолчанию 1 минута.
+         */
+        private Duration window = Duration.ofMinutes(1);
+
+        /**
+         * Число одновременных вызовов метода, время начала которых отслеживается
+         * для {@code .inflight.longest}; округляется до степени двойки.
+         * По умолчанию {@code 32}.
+         */
+        private int trackedCalls = 32;
+    }
+
+    /**
+     * Настройки скользящей статистики вызовов.
+     */
+    private final RollingStats rollingStats = new RollingStats();
+
+    /**
+     * Настройки скользящей статистики вызовов ({@code method.metrics.rolling-stats.*}):
+     * частота вызовов, доля ошибок, p50 и p99 за последние 10 секунд, минуту и 5 минут,
+     * доступные через {@code MetricFactory#getRollingStats} и {@code /actuator/timedmethods/stats}.
+     */
+    @Data
+    public static class RollingStats {
+
+        /**
+         * Включение скользящей статистики. Занимает около 27 КБ на ключ метрики.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+    }
+
+    /**
+     * Настройки записи снимков метрик в файл.
+     */
+    private final Spool spool = new Spool();
+
+    /**
+     * Настройки записи снимков метрик в отображённый в память файл ({@code method.metrics.spool.*}).
+     * Снимки читаются после падения приложения классом {@code SnapshotSpoolReader}.
+     */
+    @Data
+    public static class Spool {
+
+        /**
+         * Включение записи снимков.
+         * По умолчанию {@code false}.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Путь к файлу снимков. Файл предыдущего запуска сохраняется как {@code <path>.prev}.
+         * По умолчанию {@code timed-methods.spool} во временном каталоге JVM.
+         */
+        private String path;
+
+        /**
+         * Интервал между снимками.
+         * По умолчанию 10 секунд.
+         */
+        private Duration interval = Duration.ofSeconds(10);
+
+        /**
+         * Число снимков, хранящихся в файле.
+         * По умолчанию {@code 12}.
+         */
+        private int slots = 12;
+
+        /**
+         * Размер одного снимка в файле; ключи, не поместившиеся в снимок, отбрасываются.
+         * По умолчанию 256 КБ.
+         */
+        private DataSize slotSize = DataSize.ofKilobytes(256);
+
+        /**
+         * Сброс страниц файла на диск после каждого снимка, чтобы снимки пережили падение ОС,
+         * а не только процесса. По умолчанию {@code false}.
+         */
+        private boolean force = false;
+    }
+
+    /**
+     * Реализация гистограмм таймеров.
+     */
+    public enum HistogramEngine {
+
+        /**
+         * Гистограмма и клиентские процентили Micrometer
+         * ({@code publishPercentileHistogram} и {@code publishPercentiles}).
+         */
+        MICROMETER,
+
+        /**
+         * Компактная лог-линейная гистограмма на массивах {@code long[]}:
+         * процентили публикуются как gauge {@code <prefix>.<key>.duration.percentile}
+         * с тегом {@code phi}.
+         */
+        COMPACT
+    }
+}
@@ -0,0 +1,42 @@
+package ru.domdom.metrics.config;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.boot.context.properties.bind.BindableRuntimeHintsRegistrar;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.aspect.TimedMethodAspect;
+import ru.domdom.metrics.index.TimedMethodIndex;
+
+/**
+ * Подсказки {@link RuntimeHints} для нативного образа GraalVM.
+ *
+ * <p>Регистрирует:
+ * <ul>
+ *   <li>методы атрибутов {@link TimedMethod} и JDK-прокси для аннотаций, которые
+ *   синтезирует {@code TimedMethodPointcut} для методов классов с аннотацией на типе;</li>
+ *   <li>конструктор и совет {@link TimedMethodAspect} для регистрации аспекта вручную;</li>
+ *   <li>привязку {@link MethodMetricsProperties}, включая вложенные группы свойств;</li>
+ *   <li>файл индекса {@value TimedMethodIndex#LOCATION}.</li>
+ * </ul>
+ *
+ * <p>Сигнатуры и имена методов ({@code MetricFactory}, {@code MetricNameResolver}) строятся
+ * по {@link java.lang.reflect.Method} из вызова и отдельных подсказок не требуют; чтение
+ * методов классов бинов с {@link TimedMethod} регистрирует
+ * {@code TimedMethodBeanRegistrationAotProcessor}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class MethodMetricsRuntimeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        hints.reflection().registerType(TimedMethod.class, MemberCategory.INVOKE_DECLARED_METHODS);
+        hints.proxies().registerJdkProxy(TimedMethod.class);
+        hints.reflection().registerType(TimedMethodAspect.class,
+                MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_METHODS);
+        BindableRuntimeHintsRegistrar.forTypes(MethodMetricsProperties.class).registerHints(hints, classLoader);
+        hints.resources().registerPattern(TimedMethodIndex.LOCATION);
+    }
+}
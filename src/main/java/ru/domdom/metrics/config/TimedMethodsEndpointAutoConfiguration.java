@@ -0,0 +1,52 @@
+package ru.domdom.metrics.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.context.annotation.Bean;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint;
+import ru.domdom.metrics.service.HotMethodSketch;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.SlowCallLog;
+
+/**
+ * Автоконфигурация actuator-эндпоинта {@code timedmethods}.
+ *
+ * <p>Применяется после {@link MethodMetricsAutoConfiguration}, если в classpath есть
+ * Spring Boot Actuator, создан бин {@link MetricFactory} и эндпоинт доступен
+ * (например, {@code management.endpoints.web.exposure.include=timedmethods}).
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodsEndpoint
+ */
+@AutoConfiguration(after = MethodMetricsAutoConfiguration.class)
+@ConditionalOnClass(Endpoint.class)
+@ConditionalOnBean(MetricFactory.class)
+@ConditionalOnAvailableEndpoint(endpoint = TimedMethodsEndpoint.class)
+public class TimedMethodsEndpointAutoConfiguration {
+
+    /**
+     * Создаёт бин {@link TimedMethodsEndpoint}, если он отсутствует.
+     *
+     * @param metricFactory фабрика метрик
+     * @param hotMethods    таблица «горячих» методов, если она включена
+     * @param slowCalls     журнал медленных вызовов, если он включён
+     * @param nameResolver  определение ключей метрик для ещё не вызывавшихся методов из индекса
+     * @return экземпляр {@link TimedMethodsEndpoint}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public TimedMethodsEndpoint timedMethodsEndpoint(MetricFactory metricFactory,
+                                                     ObjectProvider<HotMethodSketch> hotMethods,
+                                                     ObjectProvider<SlowCallLog> slowCalls,
+                                                     ObjectProvider<MetricNameResolver> nameResolver) {
+        return new TimedMethodsEndpoint(metricFactory, hotMethods.getIfAvailable(), slowCalls.getIfAvailable(),
+                nameResolver.getIfAvailable(MetricNameResolver::new));
+    }
+}
@@ -0,0 +1,344 @@
+package ru.domdom.metrics.endpoint;
+
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.PatternMatchUtils;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.service.HotMethodSketch;
+import ru.domdom.metrics.service.HotMethodSketch.HotMethod;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.MetricHandle;
+import ru.domdom.metrics.service.MetricNameResolver;
+import ru.domdom.metrics.service.RollingStats;
+import ru.domdom.metrics.service.SlowCallLog;
+import ru.domdom.metrics.service.SlowCallLog.SlowCall;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Actuator-эндпоинт {@code timedmethods}: список перехваченных методов и включение
+ * или отключение их замера во время работы приложения.
+ *
+ * <ul>
+ *   <li>{@code GET /actuator/timedmethods[?pattern=order.*]} — методы с ключами метрик,
+ *       числом вызовов и признаком включения: все методы, для которых созданы хэндлы
+ *       (в том числе отдельные хэндлы классов цели), и ещё не вызывавшиеся методы из индекса;</li>
+ *   <li>{@code POST /actuator/timedmethods} с телом {@code {"pattern": "order.*", "enabled": false}} —
+ *       отключает (или включает) замер методов, ключ метрики или полное имя которых
+ *       соответствует шаблону;</li>
+ *   <li>{@code GET /actuator/timedmethods/top[?limit=10&by=time|calls|p99]} — самые «горячие» методы
+ *       за последнее окно по данным {@link HotMethodSketch} (при {@code method.metrics.top.enabled=true});</li>
+ *   <li>{@code GET /actuator/timedmethods/slow[?limit=10&pattern=order.*]} — последние медленные вызовы
+ *       по данным {@link SlowCallLog} (при {@code method.metrics.slow-calls.enabled=true}), с аргументами
+ *       только при {@code method.metrics.slow-calls.capture-arguments=true};</li>
+ *   <li>{@code GET /actuator/timedmethods/stats[?window=10s|1m|5m&pattern=order.*]} — частота вызовов,
+ *       доля ошибок, p50 и p99 за окно по данным {@link RollingStats}
+ *       (при {@code method.metrics.rolling-stats.enabled=true}).</li>
+ * </ul>
+ *
+ * <p>В отличие от {@code method.metrics.enabled}, отключение действует без перезапуска
+ * и только на выбранные методы: отключённый метод вызывается без замера времени,
+ * а его метрики остаются в реестре со значениями на момент отключения. Шаблон действует
+ * и на методы, впервые вызванные после переключения.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory#setEnabled(String, boolean)
+ */
+@Endpoint(id = "timedmethods")
+@RequiredArgsConstructor
+public class TimedMethodsEndpoint {
+
+    private static final String TOP = "top";
+    private static final String SLOW = "slow";
+    private static final String STATS = "stats";
+    private static final int DEFAULT_LIMIT = 10;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final MetricFactory metricFactory;
+    private final HotMethodSketch hotMethods;
+    private final SlowCallLog slowCalls;
+    private final MetricNameResolver nameResolver;
+
+    /**
+     * Создаёт эндпоинт без оценки «горячих» методов и журнала медленных вызовов.
+     *
+     * @param metricFactory фабрика метрик
+     */
+    public TimedMethodsEndpoint(MetricFactory metricFactory) {
+        this(metricFactory, null, null);
+    }
+
+    /**
+     * Создаёт эндпоинт со стандартным {@link MetricNameResolver} для методов из индекса.
+     *
+     * @param metricFactory фабрика метрик
+     * @param hotMethods    оценка «горячих» методов (может быть {@code null})
+     * @param slowCalls     журнал медленных вызовов (может быть {@code null})
+     */
+    public TimedMethodsEndpoint(MetricFactory metricFactory, HotMethodSketch hotMethods, SlowCallLog slowCalls) {
+        this(metricFactory, hotMethods, slowCalls, new MetricNameResolver());
+    }
+
+    /**
+     * Возвращает перехваченные методы, отсортированные по ключу метрики: методы всех созданных
+     * хэндлов и ещё не вызывавшиеся методы из индекса, созданного при компиляции.
+     *
+     * @param pattern шаблон ключа метрики или полного имени метода; если не задан, возвращаются все методы
+     * @return описание методов
+     */
+    @ReadOperation
+    public TimedMethodsDescriptor methods(@Nullable String pattern) {
+        List<TimedMethodDescriptor> described = new ArrayList<>();
+        Set<Method> instrumented = new HashSet<>();
+        metricFactory.forEachHandle((method, handle) -> {
+            instrumented.add(method);
+            described.add(describe(method, handle));
+        });
+        for (Method method : metricFactory.getIndexedMethods()) {
+            if (!instrumented.contains(method)) {
+                described.add(describe(method));
+            }
+        }
+        List<TimedMethodDescriptor> methods = described.stream()
+                .filter(method -> pattern == null
+                        || PatternMatchUtils.simpleMatch(pattern, method.getKey())
+                        || PatternMatchUtils.simpleMatch(pattern, method.getMethod()))
+                .sorted(Comparator.comparing(TimedMethodDescriptor::getKey)
+                        .thenComparing(TimedMethodDescriptor::getMethod))
+                .toList();
+        return new TimedMethodsDescriptor(methods);
+    }
+
+    /**
+     * Включает или отключает замер методов, соответствующих шаблону.
+     *
+     * @param pattern шаблон ключа метрики или полного имени метода, например
+     *                {@code order.*} или {@code com.example.OrderService.*}
+     * @param enabled {@code false}, чтобы отключить замер, {@code true} — чтобы включить
+     * @return результат переключения
+     */
+    @WriteOperation
+    public ToggleDescriptor toggle(String pattern, boolean enabled) {
+        return new ToggleDescriptor(pattern, enabled, metricFactory.setEnabled(pattern, enabled));
+    }
+
+    /**
+     * Возвращает дополнительное представление: {@code top}, {@code slow} или {@code stats}.
+     *
+     * @param view    {@code top} — самые «горячие» методы, {@code slow} — последние медленные вызовы,
+     *                {@code stats} — скользящая статистика методов
+     * @param limit   максимальное число элементов, по умолчанию {@value #DEFAULT_LIMIT}
+     * @param by      показатель упорядочивания для {@code top}: {@code time} (по умолчанию), {@code calls} или {@code p99}
+     * @param pattern шаблон ключа метрики или полного имени метода для {@code slow} и {@code stats}
+     * @param window  окно для {@code stats}: {@code 10s}, {@code 1m} (по умолчанию) или {@code 5m}
+     * @return представление или {@code null}, если оно неизвестно или отключено
+     */
+    @ReadOperation
+    public Object view(@Selector String view, @Nullable Integer limit, @Nullable String by,
+                       @Nullable String pattern, @Nullable String window) {
+        return switch (view) {
+            case TOP -> top(limit, by);
+            case SLOW -> slowCalls(limit, pattern);
+            case STATS -> stats(window, pattern);
+            default -> null;
+        };
+    }
+
+    /**
+     * Возвращает скользящую статистику методов за окно по данным
+     * {@link MetricFactory#getRollingStats(RollingStats.Window)}.
+     *
+     * @param window  окно: {@code 10s}, {@code 1m} (по умолчанию) или {@code 5m}
+     * @param pattern шаблон ключа метрики; если не задан, возвращаются все методы
+     * @return статистика методов, отсортированная по ключу
+     */
+    public StatsDescriptor stats(@Nullable String window, @Nullable String pattern) {
+        RollingStats.Window rollingWindow = parseWindow(window);
+        List<MethodStatsDescriptor> methods = metricFactory.getRollingStats(rollingWindow).entrySet().stream()
+                .filter(entry -> pattern == null || PatternMatchUtils.simpleMatch(pattern, entry.getKey()))
+                .map(entry -> describe(entry.getKey(), entry.getValue()))
+                .toList();
+        return new StatsDescriptor(rollingWindow.getDuration().toString(), methods);
+    }
+
+    /**
+     * Возвращает самые «горячие» методы за последнее окно. Данные берутся из
+     * {@link HotMethodSketch}, без обхода реестра метрик.
+     *
+     * @param limit максимальное число методов, по умолчанию {@value #DEFAULT_LIMIT}
+     * @param by    показатель упорядочивания: {@code time} (по умолчанию), {@code calls} или {@code p99}
+     * @return самые «горячие» методы или {@code null}, если оценка отключена
+     */
+    public TopDescriptor top(@Nullable Integer limit, @Nullable String by) {
+        if (hotMethods == null) {
+            return null;
+        }
+        HotMethodSketch.Order order = parseOrder(by);
+        List<HotMethodDescriptor> methods = hotMethods.top(limit == null ? DEFAULT_LIMIT : limit, order).stream()
+                .map(TimedMethodsEndpoint::describe)
+                .toList();
+        return new TopDescriptor(hotMethods.getWindow().toString(), order.name().toLowerCase(Locale.ROOT), methods);
+    }
+
+    /**
+     * Возвращает последние медленные вызовы из {@link SlowCallLog}, начиная с самого нового.
+     *
+     * @param limit   максимальное число вызовов, по умолчанию {@value #DEFAULT_LIMIT}
+     * @param pattern шаблон ключа метрики или полного имени метода; если не задан, возвращаются все вызовы
+     * @return медленные вызовы или {@code null}, если журнал отключён
+     */
+    public SlowCallsDescriptor slowCalls(@Nullable Integer limit, @Nullable String pattern) {
+        if (slowCalls == null) {
+            return null;
+        }
+        return new SlowCallsDescriptor(slowCalls.getCapturedCount(),
+                slowCalls.recent(limit == null ? DEFAULT_LIMIT : limit, pattern));
+    }
+
+    private static HotMethodSketch.Order parseOrder(String by) {
+        if (by == null) {
+            return HotMethodSketch.Order.TIME;
+        }
+        try {
+            return HotMethodSketch.Order.valueOf(by.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidEndpointRequestException("Unknown order '" + by + "', expected time, calls or p99",
+                    "Unknown order");
+        }
+    }
+
+    private static RollingStats.Window parseWindow(String window) {
+        if (window == null) {
+            return RollingStats.Window.ONE_MINUTE;
+        }
+        return switch (window) {
+            case "10s" -> RollingStats.Window.TEN_SECONDS;
+            case "1m" -> RollingStats.Window.ONE_MINUTE;
+            case "5m" -> RollingStats.Window.FIVE_MINUTES;
+            default -> throw new InvalidEndpointRequestException(
+                    "Unknown window '" + window + "', expected 10s, 1m or 5m", "Unknown window");
+        };
+    }
+
+    private static MethodStatsDescriptor describe(String key, RollingStats.Snapshot stats) {
+        return new MethodStatsDescriptor(key, stats.getCalls(), stats.getErrors(), stats.getCallsPerSecond(),
+                stats.getErrorRate(), stats.getP50Nanos() / NANOS_PER_MILLI, stats.getP99Nanos() / NANOS_PER_MILLI);
+    }
+
+    private static HotMethodDescriptor describe(HotMethod method) {
+        return new HotMethodDescriptor(method.getKey(), method.getCalls(), method.getCallsPerSecond(),
+                method.getTotalNanos() / NANOS_PER_MILLI, method.getP99Nanos() / NANOS_PER_MILLI,
+                method.getErrorNanos() / NANOS_PER_MILLI);
+    }
+
+    private TimedMethodDescriptor describe(Method method, MetricHandle handle) {
+        return new TimedMethodDescriptor(handle.getMetricKey(),
+                MetricFactory.qualifiedName(method, handle),
+                handle.isEnabled(),
+                (long) handle.getCounter().count());
+    }
+
+    private TimedMethodDescriptor describe(Method method) {
+        String key = nameResolver.resolveForClass(method, null, method.getAnnotation(TimedMethod.class));
+        String name = ClassUtils.getQualifiedMethodName(method);
+        return new TimedMethodDescriptor(key, name, metricFactory.isEnabled(key, name), 0);
+    }
+
+    /**
+     * Список перехваченных методов.
+     */
+    @Value
+    public static class TimedMethodsDescriptor {
+        List<TimedMethodDescriptor> methods;
+    }
+
+    /**
+     * Описание перехваченного метода.
+     */
+    @Value
+    public static class TimedMethodDescriptor {
+        String key;
+        String method;
+        boolean enabled;
+        long calls;
+    }
+
+    /**
+     * Самые «горячие» методы за окно.
+     */
+    @Value
+    public static class TopDescriptor {
+        String window;
+        String orderedBy;
+        List<HotMethodDescriptor> methods;
+    }
+
+    /**
+     * Показатели «горячего» метода за окно.
+     */
+    @Value
+    public static class HotMethodDescriptor {
+        String key;
+        long calls;
+        double callsPerSecond;
+        double totalMillis;
+        double p99Millis;
+        double errorMillis;
+    }
+
+    /**
+     * Последние медленные вызовы.
+     */
+    @Value
+    public static class SlowCallsDescriptor {
+        long captured;
+        List<SlowCall> calls;
+    }
+
+    /**
+     * Скользящая статистика методов за окно.
+     */
+    @Value
+    public static class StatsDescriptor {
+        String window;
+        List<MethodStatsDescriptor> methods;
+    }
+
+    /**
+     * Скользящая статистика метода.
+     */
+    @Value
+    public static class MethodStatsDescriptor {
+        String key;
+        long calls;
+        long errors;
+        double callsPerSecond;
+        double errorRate;
+        double p50Millis;
+        double p99Millis;
+    }
+
+    /**
+     * Результат включения или отключения замера.
+     */
+    @Value
+    public static class ToggleDescriptor {
+        String pattern;
+        boolean enabled;
+        int matched;
+    }
+}
@@ -0,0 +1,269 @@
+package ru.domdom.metrics.index;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import ru.domdom.metrics.annotation.TimedMethod;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Индекс методов с {@link ru.domdom.metrics.annotation.TimedMethod}, созданный при компиляции
+ * {@link TimedMethodIndexProcessor} в файле {@value #LOCATION} каждого модуля.
+ *
+ * <p>Для каждого метода с аннотацией на уровне метода индекс хранит уже проверенные при
+ * сборке дополнительные теги и сигнатуру. При создании метрик
+ * {@link ru.domdom.metrics.service.MetricFactory} берёт их из индекса вместо разбора
+ * {@code extraTags} и построения сигнатуры по {@link Method}. Методы модулей, собранных без
+ * процессора, и методы, измеряемые по аннотации класса, в индексе отсутствуют
+ * и обрабатываются как раньше.
+ *
+ * <p>При загрузке записи группируются по классам. Методы класса сопоставляются с записями один
+ * раз, при первом поиске метода этого класса, и запоминаются в {@link ClassValue}; дальнейший
+ * поиск — обращение к {@code Map<Method, ...>} без построения идентификатора метода.
+ *
+ * <p>Формат файла — {@link Properties} в UTF-8 с ключами вида
+ * {@code <класс>#<метод>(<типы параметров>).<атрибут>}, где атрибут — {@code signature}
+ * или {@code tag.<имя тега>}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodIndexProcessor
+ */
+@Slf4j
+public final class TimedMethodIndex {
+
+    /**
+     * Расположение файла индекса в classpath.
+     */
+    public static final String LOCATION = "META-INF/timed-methods.properties";
+
+    static final String SIGNATURE = "signature";
+    static final String TAG_PREFIX = "tag.";
+
+    private static final TimedMethodIndex EMPTY = new TimedMethodIndex(Map.of(), null);
+
+    private final Map<String, Map<String, Descriptor>> descriptors;
+    private final ClassLoader classLoader;
+    private final int size;
+    private final ClassValue<Map<Method, Indexed>> methods = new ClassValue<>() {
+        @Override
+        protected Map<Method, Indexed> computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private TimedMethodIndex(Map<String, Map<String, Descriptor>> descriptors, ClassLoader classLoader) {
+        this.descriptors = descriptors;
+        this.classLoader = classLoader;
+        this.size = descriptors.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * Загружает индексы всех модулей, доступных загрузчику классов. Файлы, которые не удалось
+     * прочитать, пропускаются с записью ошибки в журнал.
+     *
+     * @param classLoader загрузчик классов (может быть {@code null})
+     * @return объединённый индекс, пустой, если файлов нет
+     */
+    public static TimedMethodIndex load(ClassLoader classLoader) {
+        Enumeration<URL> resources;
+        try {
+            resources = classLoader != null
+                    ? classLoader.getResources(LOCATION)
+                    : ClassLoader.getSystemResources(LOCATION);
+        } catch (IOException e) {
+            log.error("Failed to look up @TimedMethod index files", e);
+            return EMPTY;
+        }
+        Map<String, Map<String, String>> attributes = new HashMap<>();
+        for (URL resource : Collections.list(resources)) {
+            Properties properties = new Properties();
+            try (InputStream in = resource.openStream()) {
+                properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } catch (IOException | IllegalArgumentException e) {
+                log.error("Failed to read @TimedMethod index {}", resource, e);
+                continue;
+            }
+            for (String name : properties.stringPropertyNames()) {
+                int end = name.indexOf(')');
+                if (end < 0 || end + 2 > name.length() || name.charAt(end + 1) != '.') {
+                    continue;
+                }
+                attributes.computeIfAbsent(name.substring(0, end + 1), id -> new HashMap<>())
+                        .put(name.substring(end + 2), properties.getProperty(name));
+            }
+        }
+        if (attributes.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, Map<String, Descriptor>> descriptors = new HashMap<>();
+        attributes.forEach((id, values) -> {
+            int hash = id.indexOf('#');
+            if (hash > 0 && values.containsKey(SIGNATURE)) {
+                descriptors.computeIfAbsent(id.substring(0, hash), type -> new HashMap<>())
+                        .put(id.substring(hash + 1), toDescriptor(values));
+            }
+        });
+        TimedMethodIndex index = new TimedMethodIndex(descriptors,
+                classLoader != null ? classLoader : ClassLoader.getSystemClassLoader());
+        log.debug("Loaded @TimedMethod index with {} methods", index.size());
+        return index;
+    }
+
+    private static Descriptor toDescriptor(Map<String, String> values) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        values.keySet().stream()
+                .filter(attribute -> attribute.startsWith(TAG_PREFIX))
+                .sorted()
+                .forEach(attribute -> tags.put(attribute.substring(TAG_PREFIX.length()), values.get(attribute)));
+        return new Descriptor(values.get(SIGNATURE), Collections.unmodifiableMap(tags));
+    }
+
+    /**
+     * Возвращает описание метода из индекса.
+     *
+     * @param method метод
+     * @return описание или {@code null}, если метод не проиндексирован
+     */
+    public Descriptor find(Method method) {
+        if (descriptors.isEmpty()) {
+            return null;
+        }
+        Indexed indexed = methods.get(method.getDeclaringClass()).get(method);
+        return indexed != null ? indexed.getDescriptor() : null;
+    }
+
+    /**
+     * Возвращает описание метода из индекса, если {@code annotation} — собственная аннотация
+     * метода, а не аннотация класса или атрибуты по умолчанию для {@code pointcuts}.
+     *
+     * @param method     метод
+     * @param annotation аннотация, по которой создаются метрики метода
+     * @return описание или {@code null}
+     */
+    public Descriptor find(Method method, TimedMethod annotation) {
+        if (descriptors.isEmpty()) {
+            return null;
+        }
+        Indexed indexed = methods.get(method.getDeclaringClass()).get(method);
+        if (indexed == null) {
+            return null;
+        }
+        return indexed.getAnnotation() == annotation || indexed.getAnnotation().equals(annotation)
+                ? indexed.getDescriptor()
+                : null;
+    }
+
+    /**
+     * Возвращает проиндексированные методы. Классы загружаются без инициализации загрузчиком,
+     * из которого прочитан индекс; классы, которые не удалось загрузить, пропускаются
+     * с записью ошибки в журнал.
+     *
+     * @return методы с собственной аннотацией {@link TimedMethod}, найденные в индексе
+     */
+    public List<Method> methods() {
+        List<Method> indexed = new ArrayList<>();
+        for (String type : descriptors.keySet()) {
+            try {
+                indexed.addAll(methods.get(Class.forName(type, false, classLoader)).keySet());
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.error("Failed to load class {} of @TimedMethod index", type, e);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * Возвращает число проиндексированных методов.
+     *
+     * @return размер индекса
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Сопоставляет объявленные методы класса с записями индекса. Вызывается один раз
+     * для каждого класса.
+     */
+    private Map<Method, Indexed> resolve(Class<?> type) {
+        Map<String, Descriptor> members = descriptors.get(type.getName());
+        if (members == null) {
+            return Map.of();
+        }
+        Map<Method, Indexed> resolved = new HashMap<>();
+        try {
+            for (Method method : type.getDeclaredMethods()) {
+                TimedMethod annotation = method.getAnnotation(TimedMethod.class);
+                String id = methodId(method);
+                Descriptor descriptor = annotation != null ? members.get(id.substring(id.indexOf('#') + 1)) : null;
+                if (descriptor != null) {
+                    resolved.put(method, new Indexed(descriptor, annotation));
+                }
+            }
+        } catch (LinkageError e) {
+            log.error("Failed to resolve @TimedMethod index entries of {}", type.getName(), e);
+            return Map.of();
+        }
+        return Map.copyOf(resolved);
+    }
+
+    /**
+     * Формирует идентификатор метода в индексе: {@code <класс>#<метод>(<типы параметров>)},
+     * где имена классов двоичные, а массивы записываются как {@code тип[]}.
+     *
+     * @param method метод
+     * @return идентификатор
+     */
+    static String methodId(Method method) {
+        StringBuilder id = new StringBuilder(method.getDeclaringClass().getName())
+                .append('#').append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                id.append(',');
+            }
+            id.append(parameterTypes[i].getTypeName());
+        }
+        return id.append(')').toString();
+    }
+
+    /**
+     * Запись индекса, сопоставленная с методом, и собственная аннотация метода.
+     */
+    @Value
+    private static class Indexed {
+        Descriptor descriptor;
+        TimedMethod annotation;
+    }
+
+    /**
+     * Атрибуты метода, вычисленные при компиляции.
+     */
+    @Value
+    public static class Descriptor {
+
+        /**
+         * Сигнатура метода в виде {@code имя(Тип1,Тип2)}.
+         */
+        String signature;
+
+        /**
+         * Дополнительные теги из {@code extraTags}.
+         */
+        Map<String, String> extraTags;
+    }
+}
@@ -0,0 +1,312 @@
+package ru.domdom.metrics.index;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Процессор аннотаций, проверяющий {@link ru.domdom.metrics.annotation.TimedMethod} при
+ * компиляции и создающий индекс {@value TimedMethodIndex#LOCATION} для {@link TimedMethodIndex}.
+ *
+ * <p>Ошибкой компиляции считаются:
+ * <ul>
+ *   <li>элемент {@code extraTags} не вида {@code key=value} с одним символом '=' и непустыми
+ *       ключом и значением — во время работы {@code TagParser} такой тег молча отбрасывает;</li>
+ *   <li>элемент {@code dynamicTags} без ключа или выражения;</li>
+ *   <li>повторяющиеся ключи тегов и ключи, совпадающие с тегами стартера
+ *       ({@code method}, {@code class}, {@code signature}, {@code outcome}, {@code exception});</li>
+ *   <li>отрицательный {@code sampleEvery}.</li>
+ * </ul>
+ *
+ * <p>Аннотации на уровне класса проверяются, но в индекс попадают только методы с собственной
+ * аннотацией: атрибуты аннотации класса зависят от класса цели и вычисляются во время работы.
+ * При инкрементальной компиляции записи классов, которые не перекомпилировались и всё ещё
+ * существуют, переносятся из прежнего индекса. Процессор объявляет поддержку всех аннотаций,
+ * чтобы запускаться и тогда, когда из перекомпилированных классов убрали последнюю
+ * {@code @TimedMethod}, но никакие аннотации не забирает.
+ *
+ * <p>Процессор подключается автоматически из jar стартера через
+ * {@code META-INF/services/javax.annotation.processing.Processor}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodIndex
+ */
+@SupportedAnnotationTypes("*")
+public class TimedMethodIndexProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "ru.domdom.metrics.annotation.TimedMethod";
+
+    private static final Set<String> RESERVED_TAGS = Set.of("method", "class", "signature", "outcome", "exception");
+
+    private final Map<String, String> entries = new TreeMap<>();
+    private final Set<String> compiledTypes = new HashSet<>();
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+    private Filer filer;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.types = processingEnv.getTypeUtils();
+        this.messager = processingEnv.getMessager();
+        this.filer = processingEnv.getFiler();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!compiledTypes.isEmpty()) {
+                writeIndex();
+            }
+            return false;
+        }
+        for (Element root : roundEnv.getRootElements()) {
+            collectTypes(root);
+        }
+        TypeElement annotation = elements.getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            AnnotationMirror mirror = findMirror(element, annotation);
+            if (mirror == null) {
+                continue;
+            }
+            Map<String, String> tags = validate(element, mirror);
+            if (element.getKind() == ElementKind.METHOD && tags != null) {
+                index((ExecutableElement) element, tags);
+            }
+        }
+        return false;
+    }
+
+    private void collectTypes(Element element) {
+        if (element instanceof TypeElement type) {
+            compiledTypes.add(elements.getBinaryName(type).toString());
+            for (Element enclosed : type.getEnclosedElements()) {
+                collectTypes(enclosed);
+            }
+        }
+    }
+
+    private static AnnotationMirror findMirror(Element element, TypeElement annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (mirror.getAnnotationType().asElement().equals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Проверяет атрибуты аннотации и сообщает об ошибках компилятору.
+     *
+     * @return дополнительные теги или {@code null}, если найдены ошибки
+     */
+    private Map<String, String> validate(Element element, AnnotationMirror mirror) {
+        Map<String, AnnotationValue> values = new HashMap<>();
+        elements.getElementValuesWithDefaults(mirror)
+                .forEach((attribute, value) -> values.put(attribute.getSimpleName().toString(), value));
+        boolean valid = true;
+        Map<String, String> tags = new TreeMap<>();
+        for (AnnotationValue value : arrayValues(values.get("extraTags"))) {
+            String tag = String.valueOf(value.getValue());
+            int separator = tag.indexOf('=');
+            String key = separator > 0 ? tag.substring(0, separator).trim() : "";
+            String tagValue = separator > 0 ? tag.substring(separator + 1).trim() : "";
+            if (key.isEmpty() || tagValue.isEmpty() || tag.indexOf('=', separator + 1) >= 0) {
+                error(element, mirror, value, "Malformed extraTags entry \"" + tag + "\": expected key=value");
+                valid = false;
+            } else if (!checkKey(element, mirror, value, key, tags.keySet())) {
+                valid = false;
+            } else {
+                tags.put(key, tagValue);
+            }
+        }
+        Set<String> keys = new HashSet<>(tags.keySet());
+        for (AnnotationValue value : arrayValues(values.get("dynamicTags"))) {
+            String tag = String.valueOf(value.getValue());
+            int separator = tag.indexOf('=');
+            String key = separator > 0 ? tag.substring(0, separator).trim() : "";
+            if (key.isEmpty() || tag.substring(separator + 1).isBlank()) {
+                error(element, mirror, value, "Malformed dynamicTags entry \"" + tag + "\": expected key=expression");
+                valid = false;
+            } else if (!checkKey(element, mirror, value, key, keys)) {
+                valid = false;
+            } else {
+                keys.add(key);
+            }
+        }
+        AnnotationValue sampleEvery = values.get("sampleEvery");
+        if (sampleEvery != null && sampleEvery.getValue() instanceof Integer rate && rate < 0) {
+            error(element, mirror, sampleEvery, "sampleEvery must not be negative: " + rate);
+            valid = false;
+        }
+        return valid ? tags : null;
+    }
+
+    private boolean checkKey(Element element, AnnotationMirror mirror, AnnotationValue value,
+                             String key, Set<String> declared) {
+        if (RESERVED_TAGS.contains(key)) {
+            error(element, mirror, value, "Tag \"" + key + "\" is reserved by method metrics");
+            return false;
+        }
+        if (declared.contains(key)) {
+            error(element, mirror, value, "Duplicate tag \"" + key + "\"");
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<? extends AnnotationValue> arrayValues(AnnotationValue value) {
+        return value != null && value.getValue() instanceof List<?> list
+                ? (List<? extends AnnotationValue>) list
+                : List.of();
+    }
+
+    private void error(Element element, AnnotationMirror mirror, AnnotationValue value, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element, mirror, value);
+    }
+
+    private void index(ExecutableElement method, Map<String, String> tags) {
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        StringBuilder id = new StringBuilder(elements.getBinaryName(type))
+                .append('#').append(method.getSimpleName()).append('(');
+        StringBuilder signature = new StringBuilder(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                id.append(',');
+                signature.append(',');
+            }
+            TypeMirror parameterType = types.erasure(parameters.get(i).asType());
+            id.append(typeName(parameterType, false));
+            signature.append(typeName(parameterType, true));
+        }
+        String prefix = id.append(").").toString();
+        entries.put(prefix + TimedMethodIndex.SIGNATURE, signature.append(')').toString());
+        tags.forEach((key, value) -> entries.put(prefix + TimedMethodIndex.TAG_PREFIX + key, value));
+    }
+
+    /**
+     * Возвращает имя стёртого типа в том виде, в каком его возвращают
+     * {@link Class#getTypeName()} или {@link Class#getSimpleName()}.
+     */
+    private String typeName(TypeMirror type, boolean simple) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) type).getComponentType(), simple) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            return simple ? element.getSimpleName().toString() : elements.getBinaryName(element).toString();
+        }
+        return type.toString();
+    }
+
+    private void writeIndex() {
+        Map<String, String> previous = readPreviousIndex();
+        if (previous == null && entries.isEmpty()) {
+            return;
+        }
+        Map<String, String> merged = new TreeMap<>(previous != null ? previous : Map.of());
+        merged.putAll(entries);
+        try {
+            FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", TimedMethodIndex.LOCATION);
+            try (Writer writer = new OutputStreamWriter(file.openOutputStream(), StandardCharsets.UTF_8)) {
+                writer.write("# Generated by " + getClass().getName() + "\n");
+                for (Map.Entry<String, String> entry : merged.entrySet()) {
+                    writer.write(escape(entry.getKey(), true) + "=" + escape(entry.getValue(), false) + "\n");
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Failed to write " + TimedMethodIndex.LOCATION + ": " + e);
+        }
+    }
+
+    /**
+     * Читает записи прежнего индекса для классов, которые не перекомпилировались в этом запуске.
+     *
+     * @return сохраняемые записи или {@code null}, если прежнего индекса нет
+     */
+    private Map<String, String> readPreviousIndex() {
+        Properties previous = new Properties();
+        try {
+            FileObject file = filer.getResource(StandardLocation.CLASS_OUTPUT, "", TimedMethodIndex.LOCATION);
+            try (InputStream in = file.openInputStream()) {
+                previous.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        Map<String, String> kept = new HashMap<>();
+        for (String name : previous.stringPropertyNames()) {
+            int hash = name.indexOf('#');
+            String typeName = hash > 0 ? name.substring(0, hash) : null;
+            if (typeName != null && !compiledTypes.contains(typeName)
+                    && elements.getTypeElement(typeName.replace('$', '.')) != null) {
+                kept.put(name, previous.getProperty(name));
+            }
+        }
+        return kept;
+    }
+
+    private static String escape(String value, boolean key) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                case '\f' -> escaped.append("\\f");
+                case '=', ':' -> escaped.append('\\').append(c);
+                case '#', '!', ' ' -> escaped.append(i == 0 || (c == ' ' && key) ? "\\" : "").append(c);
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
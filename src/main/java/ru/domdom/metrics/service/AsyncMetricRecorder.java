@@ -0,0 +1,173 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фоновая запись метрик вне потока вызова.
+ *
+ * <p>Поток вызова только добавляет пару (хэндл, длительность) в один из полосатых
+ * кольцевых буферов {@link RecordingRingBuffer}, выбираемый по идентификатору потока.
+ * Фоновый поток с интервалом {@code method.metrics.async-recording.flush-interval}
+ * забирает накопленные измерения пачкой и записывает их в таймеры и счётчики Micrometer,
+ * унося обновление гистограмм и конкуренцию за реестр из потоков обработки запросов.
+ *
+ * <p>При переполнении буфера измерение отбрасывается без блокировки, а число отброшенных
+ * измерений публикуется счётчиком {@code <prefix>.async.recording.dropped}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MethodMetricsProperties.AsyncRecording
+ * @see TimedMethodProcessor
+ */
+@Slf4j
+public class AsyncMetricRecorder implements InitializingBean, DisposableBean {
+
+    private final RecordingRingBuffer[] stripes;
+    private final int stripeMask;
+    private final Duration flushInterval;
+    private final LongAdder dropped = new LongAdder();
+    private final MeterRegistry meterRegistry;
+    private final String prefix;
+    private ScheduledExecutorService drainer;
+    private SelfMetrics selfMetrics;
+
+    /**
+     * Создаёт фоновый регистратор с числом полос, равным ближайшей сверху
+     * степени двойки от числа процессоров.
+     *
+     * @param meterRegistry реестр метрик для счётчика отброшенных измерений
+     * @param properties    конфигурационные свойства
+     */
+    public AsyncMetricRecorder(MeterRegistry meterRegistry, MethodMetricsProperties properties) {
+        this(meterRegistry, properties, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Создаёт фоновый регистратор с заданным числом полос.
+     *
+     * @param meterRegistry реестр метрик для счётчика отброшенных измерений
+     * @param properties    конфигурационные свойства
+     * @param stripeCount   желаемое число полос; округляется вверх до степени двойки
+     */
+    AsyncMetricRecorder(MeterRegistry meterRegistry, MethodMetricsProperties properties, int stripeCount) {
+        MethodMetricsProperties.AsyncRecording settings = properties.getAsyncRecording();
+        int stripeTotal = Integer.highestOneBit(Math.max(2, stripeCount) - 1) << 1;
+        this.stripes = new RecordingRingBuffer[stripeTotal];
+        for (int i = 0; i < stripeTotal; i++) {
+            stripes[i] = new RecordingRingBuffer(settings.getBufferSize());
+        }
+        this.stripeMask = stripeTotal - 1;
+        this.flushInterval = settings.getFlushInterval();
+        this.meterRegistry = meterRegistry;
+        this.prefix = properties.getPrefix();
+    }
+
+    /**
+     * Включает учёт ошибок записи в метриках накладных расходов стартера.
+     *
+     * @param selfMetrics метрики накладных расходов или {@code null}
+     */
+    public void setSelfMetrics(SelfMetrics selfMetrics) {
+        this.selfMetrics = selfMetrics;
+    }
+
+    /**
+     * Регистрирует счётчик отброшенных измерений и запускает фоновый поток.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        FunctionCounter.builder(prefix + ".async.recording.dropped", dropped, LongAdder::doubleValue)
+                .description("Measurements dropped because the async recording buffer was full")
+                .register(meterRegistry);
+        drainer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory());
+        long intervalNanos = flushInterval.toNanos();
+        drainer.scheduleWithFixedDelay(this::drain, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        log.info("Async metric recording started: {} stripes x {} slots, flush every {}",
+                stripes.length, stripes[0].capacity(), flushInterval);
+    }
+
+    /**
+     * Добавляет измерение в буфер текущего потока. Никогда не блокирует.
+     *
+     * @param handle        хэндл метрики
+     * @param durationNanos длительность в наносекундах
+     * @return {@code false}, если буфер заполнен и измерение отброшено
+     */
+    public boolean offer(MetricHandle handle, long durationNanos) {
+        long threadId = Thread.currentThread().getId();
+        int stripe = (int) ((threadId * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+        if (stripes[stripe].offer(handle, durationNanos)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Возвращает число отброшенных измерений.
+     *
+     * @return число отброшенных измерений
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Записывает все накопленные измерения в метрики. Вызывается фоновым потоком;
+     * одновременный вызов из нескольких потоков не допускается.
+     *
+     * @return число записанных измерений
+     */
+    synchronized int drain() {
+        int drained = 0;
+        for (RecordingRingBuffer stripe : stripes) {
+            drained += stripe.drain(this::apply);
+        }
+        return drained;
+    }
+
+    /**
+     * Останавливает фоновый поток и записывает оставшиеся измерения.
+     */
+    @Override
+    public void destroy() {
+        if (drainer != null) {
+            drainer.shutdown();
+            try {
+                drainer.awaitTermination(flushInterval.toMillis() + 1_000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    private void apply(MetricHandle handle, long durationNanos) {
+        try {
+            handle.record(durationNanos);
+        } catch (Exception e) {
+            log.error("Failed to record metric for key: {}", handle.getMetricKey(), e);
+            if (selfMetrics != null) {
+                selfMetrics.failed(SelfMetrics.Operation.RECORD);
+            }
+        }
+    }
+
+    private static CustomizableThreadFactory daemonThreadFactory() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("timed-method-recorder-");
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
@@ -0,0 +1,228 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Дерево вложенных вызовов замеряемых методов: собственное время методов и рёбра
+ * «родитель → потомок».
+ *
+ * <p>Для каждого потока хранится стек вызовов на заранее выделенных массивах
+ * ({@code MetricHandle[]} и {@code long[]} глубиной {@code max-depth}), поэтому вход
+ * и выход из метода не создают объектов. При выходе время вызова добавляется
+ * к времени вложенных вызовов родителя, а собственное время (полное время минус
+ * время вложенных замеряемых вызовов) записывается в таймер {@code .self} хэндла.
+ *
+ * <p>Вызовы глубже {@code max-depth} не отслеживаются: их время целиком относится
+ * к вложенным вызовам ближайшего отслеживаемого предка. Вызовы методов с отключённым
+ * замером в стек не попадают и учитываются в собственном времени вызывающего метода.
+ * Для асинхронных результатов в стек попадает только время до возврата из метода,
+ * а собственное время не записывается.
+ *
+ * <p>При {@code edges=true} каждый вложенный вызов увеличивает счётчик
+ * {@code <prefix>.call.edges} с тегами {@code parent} и {@code child}. Число различных
+ * рёбер ограничено {@code max-edges}; остальные учитываются в ребре с тегами
+ * {@value MetricFactory#OVERFLOW_KEY}. Рёбра ключа удаляются из реестра вместе с метриками ключа
+ * ({@link MetricFactory#expireIdle}, {@link MetricFactory#clearCache()}) и освобождают место
+ * под лимитом.
+ *
+ * <p>Включается свойством {@code method.metrics.call-tree.enabled=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MethodMetricsProperties.CallTree
+ * @see MetricHandle#recordSelf(long)
+ */
+public final class CallTree {
+
+    private final ThreadLocal<Stack> stacks;
+    private final MeterRegistry meterRegistry;
+    private final String edgeName;
+    private final boolean edges;
+    private final int maxEdges;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> edgeCounters =
+            new ConcurrentHashMap<>();
+    private int edgeCount;
+    private Counter overflowEdge;
+
+    /**
+     * Создаёт дерево вызовов по настройкам {@code method.metrics.call-tree.*}.
+     *
+     * @param meterRegistry реестр метрик Micrometer
+     * @param properties    конфигурационные свойства
+     */
+    public CallTree(MeterRegistry meterRegistry, MethodMetricsProperties properties) {
+        MethodMetricsProperties.CallTree settings = properties.getCallTree();
+        int maxDepth = Math.max(1, settings.getMaxDepth());
+        this.stacks = ThreadLocal.withInitial(() -> new Stack(maxDepth));
+        this.meterRegistry = meterRegistry;
+        this.edgeName = properties.getPrefix() + ".call.edges";
+        this.edges = settings.isEdges();
+        this.maxEdges = Math.max(0, settings.getMaxEdges());
+    }
+
+    /**
+     * Помещает вызов в стек текущего потока. Вызывается перехватчиком перед вызовом метода.
+     *
+     * @param handle хэндл вызываемого метода
+     * @return стек текущего потока, который нужно передать в {@link #exit}
+     */
+    public Stack enter(MetricHandle handle) {
+        Stack stack = stacks.get();
+        int depth = stack.depth++;
+        if (depth < stack.handles.length) {
+            stack.handles[depth] = handle;
+            stack.childNanos[depth] = 0;
+        }
+        return stack;
+    }
+
+    /**
+     * Извлекает вызов из стека, относит его время к родителю и записывает собственное время.
+     *
+     * @param stack         стек, возвращённый {@link #enter}
+     * @param durationNanos полное время вызова в наносекундах
+     * @param recordSelf    {@code false} для асинхронных результатов, время которых
+     *                      ещё не известно
+     */
+    public void exit(Stack stack, long durationNanos, boolean recordSelf) {
+        int depth = --stack.depth;
+        int tracked = stack.handles.length;
+        if (depth >= tracked) {
+            if (depth == tracked) {
+                stack.childNanos[tracked - 1] += durationNanos;
+            }
+            return;
+        }
+        if (depth < 0) {
+            stack.depth = 0;
+            return;
+        }
+        MetricHandle handle = stack.handles[depth];
+        stack.handles[depth] = null;
+        if (depth > 0) {
+            stack.childNanos[depth - 1] += durationNanos;
+            if (edges) {
+                countEdge(stack.handles[depth - 1].getMetricKey(), handle.getMetricKey());
+            }
+        }
+        if (recordSelf) {
+            handle.recordSelf(Math.max(0, durationNanos - stack.childNanos[depth]));
+        }
+    }
+
+    /**
+     * Возвращает число зарегистрированных рёбер без учёта ребра переполнения.
+     *
+     * @return число рёбер
+     */
+    public synchronized int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * Удаляет из реестра рёбра, в которых ключ метрики является родителем или потомком.
+     * Ссылки на ребро переполнения только забываются: счётчик переполнения общий.
+     *
+     * @param metricKey ключ метрики
+     */
+    public synchronized void removeEdges(String metricKey) {
+        ConcurrentHashMap<String, Counter> children = edgeCounters.remove(metricKey);
+        if (children != null) {
+            children.values().forEach(this::removeEdge);
+        }
+        edgeCounters.values().forEach(siblings -> {
+            Counter counter = siblings.remove(metricKey);
+            if (counter != null) {
+                removeEdge(counter);
+            }
+        });
+    }
+
+    /**
+     * Удаляет из реестра все рёбра, включая ребро переполнения.
+     */
+    public synchronized void clear() {
+        edgeCounters.values().forEach(children -> children.values().forEach(this::removeEdge));
+        edgeCounters.clear();
+        if (overflowEdge != null) {
+            meterRegistry.remove(overflowEdge);
+            overflowEdge = null;
+        }
+    }
+
+    private void removeEdge(Counter counter) {
+        if (counter != overflowEdge) {
+            meterRegistry.remove(counter);
+            edgeCount--;
+        }
+    }
+
+    private void countEdge(String parent, String child) {
+        ConcurrentHashMap<String, Counter> children = edgeCounters.get(parent);
+        Counter counter = children != null ? children.get(child) : null;
+        if (counter == null) {
+            counter = registerEdge(parent, child);
+        }
+        counter.increment();
+    }
+
+    /**
+     * Регистрирует счётчик ребра. Рёбра сверх лимита запоминаются со ссылкой
+     * на общий счётчик переполнения, поэтому повторные вызовы не блокируются.
+     */
+    private synchronized Counter registerEdge(String parent, String child) {
+        ConcurrentHashMap<String, Counter> children = edgeCounters.computeIfAbsent(parent,
+                k -> new ConcurrentHashMap<>());
+        Counter counter = children.get(child);
+        if (counter != null) {
+            return counter;
+        }
+        if (edgeCount < maxEdges) {
+            edgeCount++;
+            counter = edgeCounter(parent, child);
+        } else {
+            if (overflowEdge == null) {
+                overflowEdge = edgeCounter(MetricFactory.OVERFLOW_KEY, MetricFactory.OVERFLOW_KEY);
+            }
+            counter = overflowEdge;
+        }
+        children.put(child, counter);
+        return counter;
+    }
+
+    private Counter edgeCounter(String parent, String child) {
+        return Counter.builder(edgeName)
+                .description("Number of nested @TimedMethod calls from parent to child")
+                .tag("parent", parent)
+                .tag("child", child)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Стек вложенных вызовов одного потока на заранее выделенных массивах.
+     */
+    public static final class Stack {
+
+        private final MetricHandle[] handles;
+        private final long[] childNanos;
+        private int depth;
+
+        Stack(int maxDepth) {
+            this.handles = new MetricHandle[maxDepth];
+            this.childNanos = new long[maxDepth];
+        }
+
+        /**
+         * Возвращает текущую глубину стека, включая неотслеживаемые вызовы.
+         *
+         * @return глубина стека
+         */
+        public int getDepth() {
+            return depth;
+        }
+    }
+}
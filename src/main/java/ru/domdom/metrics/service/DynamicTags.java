@@ -0,0 +1,169 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.NativeDetector;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import ru.domdom.metrics.annotation.TimedMethod;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Динамические теги метода, вычисляемые из аргументов и результата вызова.
+ *
+ * <p>Выражения SpEL из {@link TimedMethod#dynamicTags()} разбираются один раз при создании
+ * и выполняются в режиме компиляции {@link SpelCompilerMode#MIXED}: после нескольких
+ * интерпретируемых вызовов выражение компилируется в байткод. В нативном образе, где байткод
+ * нельзя загрузить во время выполнения, выражения только интерпретируются.
+ *
+ * <p>Для каждой комбинации значений создаётся отдельный {@link MetricHandle}; хэндлы
+ * хранятся в ограниченном кэше. Когда число комбинаций достигает лимита, а также при
+ * ошибке вычисления выражения, {@link #select} возвращает {@code null}, и вызов
+ * записывается в основной хэндл метода, теги которого имеют значение {@value #OTHER}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethod#dynamicTags()
+ * @see MetricFactory
+ */
+@Slf4j
+public final class DynamicTags {
+
+    /**
+     * Значение динамического тега для вызовов сверх лимита комбинаций.
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * Значение динамического тега, если выражение вернуло {@code null}.
+     */
+    public static final String NONE = "none";
+
+    private static final SpelExpressionParser PARSER = new SpelExpressionParser(
+            new SpelParserConfiguration(NativeDetector.inNativeImage() ? SpelCompilerMode.OFF : SpelCompilerMode.MIXED,
+                    DynamicTags.class.getClassLoader()));
+    private static final ParameterNameDiscoverer PARAMETER_NAMES = new DefaultParameterNameDiscoverer();
+
+    private final Method method;
+    private final String[] keys;
+    private final Expression[] expressions;
+    private final int maxCombinations;
+    private final Function<Tags, MetricHandle> handleFactory;
+    private final ConcurrentHashMap<List<String>, MetricHandle> handles = new ConcurrentHashMap<>();
+    private final AtomicInteger combinations = new AtomicInteger();
+
+    /**
+     * Разбирает выражения динамических тегов метода.
+     *
+     * @param method          перехватываемый метод
+     * @param tagExpressions  строки вида "key=expression"
+     * @param maxCombinations максимальное число различных комбинаций значений
+     * @param handleFactory   создаёт хэндл с метриками для набора значений тегов
+     */
+    DynamicTags(Method method, String[] tagExpressions, int maxCombinations,
+                Function<Tags, MetricHandle> handleFactory) {
+        Map<String, String> parsed = TagParser.parseExpressions(tagExpressions);
+        this.method = method;
+        this.keys = parsed.keySet().toArray(new String[0]);
+        this.expressions = parsed.values().stream().map(PARSER::parseExpression).toArray(Expression[]::new);
+        this.maxCombinations = maxCombinations;
+        this.handleFactory = handleFactory;
+    }
+
+    /**
+     * Проверяет, объявлены ли у метода корректные динамические теги.
+     *
+     * @param annotation аннотация (может быть {@code null})
+     * @return {@code true}, если есть хотя бы одно выражение
+     */
+    static boolean isDeclared(TimedMethod annotation) {
+        return annotation != null && !TagParser.parseExpressions(annotation.dynamicTags()).isEmpty();
+    }
+
+    /**
+     * Возвращает теги со значением {@value #OTHER} для всех ключей динамических тегов.
+     *
+     * @param annotation аннотация (может быть {@code null})
+     * @return теги по умолчанию
+     */
+    static Tags defaults(TimedMethod annotation) {
+        if (annotation == null) {
+            return Tags.empty();
+        }
+        Tags tags = Tags.empty();
+        for (String key : TagParser.parseExpressions(annotation.dynamicTags()).keySet()) {
+            tags = tags.and(key, OTHER);
+        }
+        return tags;
+    }
+
+    /**
+     * Вычисляет значения тегов для вызова и возвращает хэндл соответствующей комбинации.
+     *
+     * @param args   аргументы вызова
+     * @param result результат вызова (может быть {@code null})
+     * @return хэндл комбинации или {@code null}, если вызов нужно записать как {@value #OTHER}
+     */
+    public MetricHandle select(Object[] args, Object result) {
+        String[] values = evaluate(args, result);
+        if (values == null) {
+            return null;
+        }
+        List<String> combination = Arrays.asList(values);
+        MetricHandle handle = handles.get(combination);
+        if (handle != null) {
+            return handle;
+        }
+        if (combinations.incrementAndGet() > maxCombinations) {
+            combinations.decrementAndGet();
+            return null;
+        }
+        boolean[] created = new boolean[1];
+        handle = handles.computeIfAbsent(combination, key -> {
+            created[0] = true;
+            return createHandle(key);
+        });
+        if (!created[0]) {
+            combinations.decrementAndGet();
+        }
+        return handle;
+    }
+
+    private MetricHandle createHandle(List<String> combination) {
+        Tags tags = Tags.empty();
+        for (int i = 0; i < keys.length; i++) {
+            tags = tags.and(keys[i], combination.get(i));
+        }
+        log.debug("Creating dynamic tag combination {} for method {}", tags, method);
+        return handleFactory.apply(tags);
+    }
+
+    private String[] evaluate(Object[] args, Object result) {
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(null, method, args != null ? args : new Object[0], PARAMETER_NAMES);
+        context.setVariable("result", result);
+        String[] values = new String[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            try {
+                Object value = expressions[i].getValue(context);
+                values[i] = value != null ? value.toString() : NONE;
+            } catch (Exception e) {
+                log.debug("Failed to evaluate dynamic tag '{}' for method {}", keys[i], method, e);
+                return null;
+            }
+        }
+        return values;
+    }
+}
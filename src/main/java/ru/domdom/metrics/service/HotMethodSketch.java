@@ -0,0 +1,307 @@
+package ru.domdom.metrics.service;
+
+import lombok.Value;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Потоковая оценка самых «горячих» ключей метрик за последнее окно.
+ *
+ * <p>Структура — таблица фиксированной ёмкости ({@code method.metrics.top.capacity}) с открытой
+ * адресацией, заполняемая из {@link TimedMethodProcessor#record(MetricHandle, long)}. Каждая
+ * запись хранит {@link LogLinearHistogram} ключа с окном {@code method.metrics.top.window},
+ * из которой берутся число вызовов, суммарное время и p99, и вес — нарастающую сумму
+ * длительностей, которая уменьшается вдвое каждые пол-окна. Ключ ищется среди {@value #PROBES}
+ * соседних ячеек; если все заняты другими ключами, применяется вытеснение space-saving:
+ * запись с наименьшим весом {@code min} заменяется новой с вероятностью {@code d / (min + d)},
+ * где {@code d} — длительность текущего вызова. Новая запись наследует вес вытесненной как
+ * погрешность, поэтому тяжёлые ключи быстро вытесняют лёгкие, а лёгкие почти не вытесняют
+ * тяжёлые. Все операции выполняются через CAS, без блокировок.
+ *
+ * <p>Каждая запись получает собственную гистограмму, поэтому вызовы вытесненного ключа, записанные
+ * одновременно с вытеснением, остаются в его гистограмме и не попадают к новому ключу. Гистограмма
+ * для вставки берётся из запасной, которая сбрасывается до публикации записи и возвращается на
+ * место, если вставка проиграла CAS; новая запасная гистограмма создаётся только после успешной
+ * вставки.
+ *
+ * <p>Чтение ({@link #top(int, Order)}) обходит не более {@code capacity} записей и не обращается
+ * к {@link io.micrometer.core.instrument.MeterRegistry}. Результат приблизителен: ключ, только что
+ * попавший в таблицу, учитывает вызовы лишь с момента вставки, а пропущенное до вставки время
+ * не больше унаследованной погрешности ({@link HotMethod#getErrorNanos()}). Частота вызовов считается
+ * по интервалу, который покрывает гистограмма ключа, но не короче половины окна, чтобы
+ * недавно вставленные ключи не получали завышенную частоту.
+ *
+ * <p>Включается свойством {@code method.metrics.top.enabled=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see LogLinearHistogram
+ */
+public final class HotMethodSketch {
+
+    /**
+     * Число соседних ячеек, в которых ищется ключ.
+     */
+    static final int PROBES = 4;
+
+    private static final int PRECISION_BITS = 3;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final Duration window;
+    private final long epochNanos;
+    private final long originNanos;
+    private final AtomicReference<LogLinearHistogram> spare = new AtomicReference<>();
+
+    /**
+     * Создаёт таблицу по настройкам {@code method.metrics.top.*}.
+     *
+     * @param properties конфигурационные свойства
+     */
+    public HotMethodSketch(MethodMetricsProperties properties) {
+        this(properties.getTop().getCapacity(), properties.getTop().getWindow());
+    }
+
+    /**
+     * Создаёт таблицу.
+     *
+     * @param capacity ёмкость; округляется вверх до степени двойки
+     * @param window   окно, за которое считаются показатели
+     */
+    HotMethodSketch(int capacity, Duration window) {
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.window = window;
+        this.epochNanos = Math.max(1, window.toNanos() / 2);
+        this.originNanos = System.nanoTime();
+        this.spare.set(newHistogram());
+    }
+
+    /**
+     * Учитывает вызов метода.
+     *
+     * @param metricKey     ключ метрики
+     * @param durationNanos время выполнения в наносекундах
+     */
+    public void record(String metricKey, long durationNanos) {
+        int start = spread(metricKey.hashCode());
+        long epoch = -1;
+        Entry victim = null;
+        int victimSlot = -1;
+        long victimWeight = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            Entry entry = slots.get(slot);
+            if (entry == null) {
+                if (epoch < 0) {
+                    epoch = epoch();
+                }
+                if (insert(slot, null, metricKey, 0, epoch, durationNanos)) {
+                    return;
+                }
+                entry = slots.get(slot);
+            }
+            if (entry.key.equals(metricKey)) {
+                entry.record(durationNanos);
+                return;
+            }
+            if (epoch < 0) {
+                epoch = epoch();
+            }
+            long weight = entry.weight(epoch);
+            if (weight < victimWeight) {
+                victim = entry;
+                victimSlot = slot;
+                victimWeight = weight;
+            }
+        }
+        double weight = Math.max(1, durationNanos);
+        if (ThreadLocalRandom.current().nextDouble() * (victimWeight + weight) < weight) {
+            insert(victimSlot, victim, metricKey, victimWeight, epoch, durationNanos);
+        }
+    }
+
+    /**
+     * Публикует запись ключа в ячейке вместо ожидаемой и учитывает в ней вызов.
+     *
+     * @param slot          ячейка
+     * @param expected      ожидаемая запись ячейки ({@code null} для пустой ячейки)
+     * @param metricKey     ключ метрики
+     * @param errorNanos    погрешность, унаследованная от вытесненной записи
+     * @param epoch         текущие пол-окна
+     * @param durationNanos время выполнения вызова в наносекундах
+     * @return {@code false}, если ячейку успел изменить другой поток
+     */
+    private boolean insert(int slot, Entry expected, String metricKey, long errorNanos, long epoch,
+                           long durationNanos) {
+        LogLinearHistogram histogram = spare.getAndSet(null);
+        if (histogram == null) {
+            histogram = newHistogram();
+        } else {
+            histogram.reset();
+        }
+        Entry created = new Entry(metricKey, histogram, errorNanos, epoch);
+        if (!slots.compareAndSet(slot, expected, created)) {
+            spare.compareAndSet(null, histogram);
+            return false;
+        }
+        created.record(durationNanos);
+        if (spare.get() == null) {
+            spare.compareAndSet(null, newHistogram());
+        }
+        return true;
+    }
+
+    private LogLinearHistogram newHistogram() {
+        return new LogLinearHistogram(PRECISION_BITS, window);
+    }
+
+    /**
+     * Возвращает самые «горячие» ключи за окно.
+     *
+     * @param limit максимальное число ключей
+     * @param order показатель, по которому упорядочиваются ключи
+     * @return ключи в порядке убывания показателя
+     */
+    public List<HotMethod> top(int limit, Order order) {
+        List<HotMethod> methods = new ArrayList<>();
+        long epoch = epoch();
+        for (int slot = 0; slot < slots.length(); slot++) {
+            Entry entry = slots.get(slot);
+            if (entry != null) {
+                HotMethod method = entry.snapshot(window.toNanos() / 2, epoch);
+                if (method.getCalls() > 0) {
+                    methods.add(method);
+                }
+            }
+        }
+        methods.sort(order.comparator.reversed());
+        return methods.size() > limit ? new ArrayList<>(methods.subList(0, limit)) : methods;
+    }
+
+    /**
+     * Возвращает окно, за которое считаются показатели.
+     *
+     * @return окно
+     */
+    public Duration getWindow() {
+        return window;
+    }
+
+    private long epoch() {
+        return (System.nanoTime() - originNanos) / epochNanos;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Показатель для упорядочивания ключей.
+     */
+    public enum Order {
+
+        /**
+         * Суммарное время выполнения.
+         */
+        TIME(Comparator.comparingLong(HotMethod::getTotalNanos)),
+
+        /**
+         * Частота вызовов.
+         */
+        CALLS(Comparator.comparingDouble(HotMethod::getCallsPerSecond)),
+
+        /**
+         * 99-й процентиль времени выполнения.
+         */
+        P99(Comparator.comparingDouble(HotMethod::getP99Nanos));
+
+        private final Comparator<HotMethod> comparator;
+
+        Order(Comparator<HotMethod> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    /**
+     * Показатели ключа метрики за окно.
+     */
+    @Value
+    public static class HotMethod {
+        String key;
+        long calls;
+        double callsPerSecond;
+        long totalNanos;
+        double p99Nanos;
+
+        /**
+         * Верхняя граница времени ключа за окно, не учтённого в {@link #getTotalNanos()}:
+         * вес вытесненной записи, унаследованный при вставке. Обнуляется, когда гистограмма
+         * ключа начинает покрывать всё окно.
+         */
+        long errorNanos;
+    }
+
+    /**
+     * Запись таблицы: ключ, его гистограмма за окно и вес для вытеснения.
+     */
+    private static final class Entry {
+
+        private static final AtomicLongFieldUpdater<Entry> WEIGHT =
+                AtomicLongFieldUpdater.newUpdater(Entry.class, "weight");
+
+        private final String key;
+        private final LogLinearHistogram histogram;
+        private final long errorNanos;
+        private final long insertedEpoch;
+        private volatile long weight;
+        private volatile long weightEpoch;
+
+        private Entry(String key, LogLinearHistogram histogram, long errorNanos, long epoch) {
+            this.key = key;
+            this.histogram = histogram;
+            this.errorNanos = errorNanos;
+            this.insertedEpoch = epoch;
+            this.weight = errorNanos;
+            this.weightEpoch = epoch;
+        }
+
+        private void record(long durationNanos) {
+            histogram.record(durationNanos);
+            WEIGHT.getAndAdd(this, Math.max(0, durationNanos));
+        }
+
+        /**
+         * Возвращает вес, уменьшенный вдвое за каждые пол-окна с прошлого уменьшения.
+         * Гонки при уменьшении лишь немного искажают вес и допустимы.
+         */
+        private long weight(long epoch) {
+            long current = weight;
+            long elapsed = epoch - weightEpoch;
+            if (elapsed <= 0) {
+                return current;
+            }
+            long decayed = elapsed >= Long.SIZE ? 0 : current >>> elapsed;
+            if (WEIGHT.compareAndSet(this, current, decayed)) {
+                weightEpoch = epoch;
+            }
+            return decayed;
+        }
+
+        private HotMethod snapshot(long minCoveredNanos, long epoch) {
+            long calls = histogram.totalCount();
+            double seconds = Math.max(histogram.coveredNanos(), minCoveredNanos) / 1_000_000_000.0;
+            long error = epoch - insertedEpoch >= 2 ? 0 : errorNanos;
+            return new HotMethod(key, calls, calls / seconds, histogram.totalNanos(), histogram.percentile(0.99), error);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ru.domdom.metrics.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновое удаление метрик методов, которые перестали вызываться.
+ *
+ * <p>С интервалом в половину {@code method.metrics.idle-expiry} вызывает
+ * {@link MetricFactory#expireIdle(Duration)}, поэтому метрики удаляются
+ * через время от {@code idle-expiry} до полутора {@code idle-expiry} после последнего вызова.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory#expireIdle(Duration)
+ */
+@Slf4j
+public class IdleMeterSweeper implements InitializingBean, DisposableBean {
+
+    private static final Duration MIN_SWEEP_INTERVAL = Duration.ofSeconds(1);
+
+    private final MetricFactory metricFactory;
+    private final Duration idleExpiry;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Создаёт сборщик неиспользуемых метрик.
+     *
+     * @param metricFactory фабрика метрик
+     * @param idleExpiry    время простоя, после которого метрики удаляются
+     */
+    public IdleMeterSweeper(MetricFactory metricFactory, Duration idleExpiry) {
+        this.metricFactory = metricFactory;
+        this.idleExpiry = idleExpiry;
+    }
+
+    /**
+     * Запускает фоновый поток.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Duration interval = idleExpiry.dividedBy(2);
+        if (interval.compareTo(MIN_SWEEP_INTERVAL) < 0) {
+            interval = MIN_SWEEP_INTERVAL;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("timed-method-sweeper-");
+        threadFactory.setDaemon(true);
+        sweeper = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long intervalNanos = interval.toNanos();
+        sweeper.scheduleWithFixedDelay(this::sweep, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        log.info("Idle metric expiry started: expire after {}, sweep every {}", idleExpiry, interval);
+    }
+
+    /**
+     * Удаляет метрики, простаивающие дольше {@code idle-expiry}.
+     *
+     * @return число удалённых ключей
+     */
+    int sweep() {
+        try {
+            int expired = metricFactory.expireIdle(idleExpiry);
+            if (expired > 0) {
+                log.info("Removed metrics of {} idle @TimedMethod keys", expired);
+            }
+            return expired;
+        } catch (Exception e) {
+            log.error("Failed to expire idle metrics", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Останавливает фоновый поток.
+     */
+    @Override
+    public void destroy() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+}
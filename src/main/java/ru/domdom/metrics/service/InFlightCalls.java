@@ -0,0 +1,152 @@
+package ru.domdom.metrics.service;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Выполняющиеся в данный момент вызовы одного ключа метрики: текущее число,
+ * максимум за окно и длительность самого долгого выполняющегося вызова.
+ *
+ * <p>Текущее число хранится в {@link LongAdder}: вход и выход из метода увеличивают
+ * и уменьшают ячейку потока, поэтому на многоядерных машинах они не конкурируют
+ * за одну строку кэша. Сумма ячеек вычисляется при чтении gauge и в среднем на
+ * одном входе из {@value #MAX_PROBE_EVERY} для обновления максимума, поэтому максимум
+ * приблизителен: короткий всплеск может быть пропущен, устойчивое скопление вызовов — нет.
+ * Максимум хранится в двух окнах по половине {@code window}, как в {@link LogLinearHistogram}.
+ *
+ * <p>Время начала вызовов записывается в слоты {@link AtomicLongArray}, разнесённые
+ * по разным строкам кэша; слот выбирается по идентификатору потока с линейным пробированием.
+ * Если все пробуемые слоты заняты, вызов учитывается в текущем числе, но не в самом
+ * долгом вызове.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory
+ */
+public final class InFlightCalls {
+
+    /**
+     * Частота пересчёта максимума на входе в метод.
+     */
+    static final int MAX_PROBE_EVERY = 16;
+
+    private static final int STRIDE = 8;
+    private static final int PROBES = 4;
+    private static final long EMPTY = 0L;
+
+    private final LongAdder active = new LongAdder();
+    private final AtomicLongArray starts;
+    private final int slotMask;
+    private final AtomicLong[] maxima = {new AtomicLong(), new AtomicLong()};
+    private final long rotateEveryNanos;
+    private volatile int current;
+    private volatile long rotateAtNanos;
+
+    /**
+     * Создаёт учёт выполняющихся вызовов.
+     *
+     * @param trackedCalls число слотов для времени начала вызовов; округляется до степени двойки
+     * @param window       окно, за которое считается максимум
+     */
+    public InFlightCalls(int trackedCalls, Duration window) {
+        int slots = Integer.highestOneBit(Math.max(2, trackedCalls) - 1) << 1;
+        this.starts = new AtomicLongArray(slots * STRIDE);
+        this.slotMask = slots - 1;
+        this.rotateEveryNanos = Math.max(1, window.toNanos() / 2);
+        this.rotateAtNanos = System.nanoTime() + rotateEveryNanos;
+    }
+
+    /**
+     * Отмечает начало вызова.
+     *
+     * @param startNanos момент начала вызова по {@link System#nanoTime()}
+     * @return слот вызова для {@link #exit(int)} или {@code -1}, если свободный слот не найден
+     */
+    public int enter(long startNanos) {
+        active.increment();
+        if (ThreadLocalRandom.current().nextInt(MAX_PROBE_EVERY) == 0) {
+            updateMax(active.sum(), System.nanoTime());
+        }
+        long start = startNanos == EMPTY ? 1 : startNanos;
+        int home = (int) Thread.currentThread().getId();
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (home + probe) & slotMask;
+            if (starts.get(slot * STRIDE) == EMPTY && starts.compareAndSet(slot * STRIDE, EMPTY, start)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Отмечает завершение вызова.
+     *
+     * @param slot слот, возвращённый {@link #enter(long)}
+     */
+    public void exit(int slot) {
+        if (slot >= 0) {
+            starts.setRelease(slot * STRIDE, EMPTY);
+        }
+        active.decrement();
+    }
+
+    /**
+     * Возвращает число выполняющихся вызовов.
+     *
+     * @return число вызовов
+     */
+    public long getActive() {
+        return Math.max(0, active.sum());
+    }
+
+    /**
+     * Возвращает максимальное число одновременных вызовов за текущее и предыдущее окна.
+     *
+     * @return максимум вызовов
+     */
+    public long getMax() {
+        updateMax(getActive(), System.nanoTime());
+        return Math.max(maxima[0].get(), maxima[1].get());
+    }
+
+    /**
+     * Возвращает длительность самого долгого из выполняющихся вызовов.
+     *
+     * @return длительность в наносекундах или {@code 0}, если вызовов нет
+     */
+    public long getLongestNanos() {
+        long now = System.nanoTime();
+        long longest = 0;
+        for (int slot = 0; slot <= slotMask; slot++) {
+            long start = starts.getAcquire(slot * STRIDE);
+            if (start != EMPTY) {
+                longest = Math.max(longest, now - start);
+            }
+        }
+        return longest;
+    }
+
+    private void updateMax(long value, long now) {
+        if (now - rotateAtNanos >= 0) {
+            rotate(now);
+        }
+        maxima[current].accumulateAndGet(value, Math::max);
+    }
+
+    private synchronized void rotate(long now) {
+        long rotateAt = rotateAtNanos;
+        if (now - rotateAt < 0) {
+            return;
+        }
+        int next = current ^ 1;
+        maxima[next].set(0);
+        if (now - rotateAt >= rotateEveryNanos) {
+            maxima[current].set(0);
+        }
+        current = next;
+        rotateAtNanos = now + rotateEveryNanos;
+    }
+}
@@ -0,0 +1,347 @@
+package ru.domdom.metrics.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Компактная лог-линейная гистограмма длительностей на примитивных массивах {@code long[]}.
+ *
+ * <p>Значения раскладываются по корзинам так же, как в HdrHistogram: каждая степень двойки
+ * делится на {@code 2^precisionBits} равных корзин, поэтому относительная ширина корзины
+ * не превышает {@code 2^-precisionBits}. Строки корзин для степеней двойки выделяются лениво,
+ * только когда в них попадает первое значение, так что метод с типичным разбросом
+ * латентности в 2–3 порядка занимает несколько килобайт.
+ *
+ * <p>Гистограмма хранит два окна по половине {@code window}: текущее и предыдущее.
+ * Процентили, число и сумма значений считаются по обоим окнам, окна сменяются при записи или чтении.
+ * При смене окна строки корзин обнуляются на месте, поэтому каждая строка выделяется один раз
+ * за время жизни гистограммы.
+ *
+ * <p>Запись потокобезопасна и не создаёт объектов, кроме первого выделения строки. Смена окна
+ * при записи проверяется по времени, которое передаёт вызывающий код (например, моменту
+ * завершения замеренного вызова), без отдельного обращения к {@link System#nanoTime()}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory
+ */
+public final class LogLinearHistogram {
+
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int ROWS = 64;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int OBJECT_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 8;
+
+    private final int precisionBits;
+    private final int subBuckets;
+    private final long rotateEveryNanos;
+    private final AtomicReferenceArray<long[]>[] windows;
+    private final LongAdder[] sums = {new LongAdder(), new LongAdder()};
+    private volatile int current;
+    private volatile long rotateAtNanos;
+    private volatile long coveredFromNanos;
+
+    /**
+     * Создаёт гистограмму.
+     *
+     * @param precisionBits число бит точности внутри степени двойки (от 1 до 10)
+     * @param window        длительность окна, по которому считаются процентили
+     */
+    @SuppressWarnings("unchecked")
+    public LogLinearHistogram(int precisionBits, Duration window) {
+        if (precisionBits < 1 || precisionBits > 10) {
+            throw new IllegalArgumentException("precisionBits must be between 1 and 10: " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+        this.subBuckets = 1 << precisionBits;
+        this.rotateEveryNanos = Math.max(1, window.toNanos() / 2);
+        this.windows = new AtomicReferenceArray[]{
+                new AtomicReferenceArray<long[]>(ROWS - precisionBits + 1),
+                new AtomicReferenceArray<long[]>(ROWS - precisionBits + 1)
+        };
+        this.coveredFromNanos = System.nanoTime();
+        this.rotateAtNanos = coveredFromNanos + rotateEveryNanos;
+    }
+
+    /**
+     * Записывает значение.
+     *
+     * @param valueNanos значение в наносекундах; отрицательные значения считаются нулём
+     */
+    public void record(long valueNanos) {
+        record(valueNanos, System.nanoTime());
+    }
+
+    /**
+     * Записывает значение, проверяя смену окна по уже известному вызывающему времени.
+     *
+     * @param valueNanos значение в наносекундах; отрицательные значения считаются нулём
+     * @param nowNanos   текущее время по {@link System#nanoTime()}, например момент завершения вызова
+     */
+    public void record(long valueNanos, long nowNanos) {
+        rotateIfNeeded(nowNanos);
+        long value = Math.max(0, valueNanos);
+        int row = rowOf(value);
+        int sub = subBucketOf(value, row);
+        int window = current;
+        AtomicReferenceArray<long[]> rows = windows[window];
+        sums[window].add(value);
+        long[] counts = rows.get(row);
+        if (counts == null) {
+            long[] created = new long[subBuckets];
+            counts = rows.compareAndSet(row, null, created) ? created : rows.get(row);
+            if (counts == null) {
+                counts = created;
+            }
+        }
+        COUNTS.getAndAdd(counts, sub, 1L);
+    }
+
+    /**
+     * Возвращает значение процентиля по текущему и предыдущему окнам.
+     *
+     * @param percentile процентиль в диапазоне {@code [0, 1]}
+     * @return значение в наносекундах (середина корзины) или {@code 0}, если значений нет
+     */
+    public double percentile(double percentile) {
+        rotateIfNeeded(System.nanoTime());
+        long total = totalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int row = 0; row < windows[0].length(); row++) {
+            long[] first = windows[0].get(row);
+            long[] second = windows[1].get(row);
+            if (first == null && second == null) {
+                continue;
+            }
+            for (int sub = 0; sub < subBuckets; sub++) {
+                seen += countAt(first, sub) + countAt(second, sub);
+                if (seen >= rank) {
+                    return midpoint(row, sub);
+                }
+            }
+        }
+        return midpoint(windows[0].length() - 1, subBuckets - 1);
+    }
+
+    /**
+     * Возвращает число значений в текущем и предыдущем окнах.
+     *
+     * @return число значений
+     */
+    public long totalCount() {
+        rotateIfNeeded(System.nanoTime());
+        long total = 0;
+        for (AtomicReferenceArray<long[]> rows : windows) {
+            for (int row = 0; row < rows.length(); row++) {
+                long[] counts = rows.get(row);
+                if (counts != null) {
+                    for (int sub = 0; sub < subBuckets; sub++) {
+                        total += countAt(counts, sub);
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Возвращает сумму значений в текущем и предыдущем окнах.
+     *
+     * @return сумма значений в наносекундах
+     */
+    public long totalNanos() {
+        rotateIfNeeded(System.nanoTime());
+        return sums[0].sum() + sums[1].sum();
+    }
+
+    /**
+     * Возвращает длительность интервала, который покрывают текущее и предыдущее окна:
+     * от начала предыдущего окна (или создания гистограммы) до текущего момента.
+     *
+     * @return длительность в наносекундах, не больше {@code window}
+     */
+    public long coveredNanos() {
+        long now = System.nanoTime();
+        rotateIfNeeded(now);
+        return Math.max(1, now - coveredFromNanos);
+    }
+
+    /**
+     * Обнуляет оба окна и начинает отсчёт покрытого интервала заново.
+     *
+     * <p>Выделенные строки корзин обнуляются на месте и используются повторно, поэтому сброс
+     * не создаёт объектов. Значения, записанные конкурентно со сбросом, могут как попасть
+     * в гистограмму, так и пропасть.
+     */
+    public synchronized void reset() {
+        long now = System.nanoTime();
+        for (AtomicReferenceArray<long[]> rows : windows) {
+            for (int row = 0; row < rows.length(); row++) {
+                long[] counts = rows.get(row);
+                if (counts != null) {
+                    for (int sub = 0; sub < subBuckets; sub++) {
+                        COUNTS.setOpaque(counts, sub, 0L);
+                    }
+                }
+            }
+        }
+        sums[0].reset();
+        sums[1].reset();
+        coveredFromNanos = now;
+        rotateAtNanos = now + rotateEveryNanos;
+    }
+
+    /**
+     * Оценивает объём памяти, занимаемый гистограммой, в байтах.
+     *
+     * @return оценка объёма памяти
+     */
+    public long footprintBytes() {
+        long bytes = OBJECT_HEADER_BYTES + 5L * REFERENCE_BYTES + 4L * Long.BYTES
+                + ARRAY_HEADER_BYTES + 2L * (REFERENCE_BYTES + OBJECT_HEADER_BYTES + Long.BYTES);
+        for (AtomicReferenceArray<long[]> rows : windows) {
+            bytes += OBJECT_HEADER_BYTES + ARRAY_HEADER_BYTES + (long) rows.length() * REFERENCE_BYTES;
+            for (int row = 0; row < rows.length(); row++) {
+                if (rows.get(row) != null) {
+                    bytes += ARRAY_HEADER_BYTES + (long) subBuckets * Long.BYTES;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Возвращает максимальную относительную погрешность значения процентиля.
+     *
+     * @return половина относительной ширины корзины
+     */
+    public double relativeError() {
+        return 1.0 / (2 * subBuckets);
+    }
+
+    /**
+     * Записывает ненулевые корзины текущего и предыдущего окон в буфер без создания объектов:
+     * байт {@code precisionBits}, число корзин {@code int} и пары {@code (int index, long count)},
+     * где {@code index = row * 2^precisionBits + sub}. Середину корзины по индексу возвращает
+     * {@link #bucketMidpoint(int, int)}.
+     *
+     * @param buffer буфер, в который записываются корзины
+     * @return {@code false}, если корзины не поместились; позиция буфера при этом не определена
+     */
+    boolean writeBuckets(ByteBuffer buffer) {
+        rotateIfNeeded(System.nanoTime());
+        if (buffer.remaining() < 1 + Integer.BYTES) {
+            return false;
+        }
+        buffer.put((byte) precisionBits);
+        int countPosition = buffer.position();
+        buffer.putInt(0);
+        int buckets = 0;
+        for (int row = 0; row < windows[0].length(); row++) {
+            long[] first = windows[0].get(row);
+            long[] second = windows[1].get(row);
+            if (first == null && second == null) {
+                continue;
+            }
+            for (int sub = 0; sub < subBuckets; sub++) {
+                long count = countAt(first, sub) + countAt(second, sub);
+                if (count == 0) {
+                    continue;
+                }
+                if (buffer.remaining() < Integer.BYTES + Long.BYTES) {
+                    return false;
+                }
+                buffer.putInt(row * subBuckets + sub);
+                buffer.putLong(count);
+                buckets++;
+            }
+        }
+        buffer.putInt(countPosition, buckets);
+        return true;
+    }
+
+    /**
+     * Возвращает середину корзины по индексу, записанному {@link #writeBuckets(ByteBuffer)}.
+     *
+     * @param precisionBits число бит точности гистограммы
+     * @param index         индекс корзины
+     * @return середина корзины в наносекундах
+     */
+    static double bucketMidpoint(int precisionBits, int index) {
+        int row = index >>> precisionBits;
+        int sub = index & ((1 << precisionBits) - 1);
+        if (row == 0) {
+            return sub;
+        }
+        long width = 1L << (row - 1);
+        long lower = (long) ((1 << precisionBits) + sub) << (row - 1);
+        return lower + width / 2.0;
+    }
+
+    private void rotateIfNeeded(long now) {
+        if (now - rotateAtNanos < 0) {
+            return;
+        }
+        synchronized (this) {
+            long rotateAt = rotateAtNanos;
+            if (now - rotateAt < 0) {
+                return;
+            }
+            int next = current ^ 1;
+            boolean expiredBoth = now - rotateAt >= rotateEveryNanos;
+            clear(windows[next]);
+            if (expiredBoth) {
+                clear(windows[current]);
+            }
+            sums[next].reset();
+            if (expiredBoth) {
+                sums[current].reset();
+            }
+            coveredFromNanos = expiredBoth ? now : rotateAt - rotateEveryNanos;
+            current = next;
+            rotateAtNanos = now + rotateEveryNanos;
+        }
+    }
+
+    private static void clear(AtomicReferenceArray<long[]> rows) {
+        for (int row = 0; row < rows.length(); row++) {
+            long[] counts = rows.get(row);
+            if (counts != null) {
+                Arrays.fill(counts, 0L);
+            }
+        }
+    }
+
+    private int rowOf(long value) {
+        if (value < subBuckets) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return exponent - precisionBits + 1;
+    }
+
+    private int subBucketOf(long value, int row) {
+        if (row == 0) {
+            return (int) value;
+        }
+        return (int) (value >>> (row - 1)) - subBuckets;
+    }
+
+    private double midpoint(int row, int sub) {
+        return bucketMidpoint(precisionBits, (row << precisionBits) + sub);
+    }
+
+    private static long countAt(long[] counts, int sub) {
+        return counts == null ? 0 : (long) COUNTS.getOpaque(counts, sub);
+    }
+}
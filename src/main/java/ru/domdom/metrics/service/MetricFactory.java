@@ -1,44 +1,404 @@
 package ru.domdom.metrics.service;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
 import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.util.DoubleFormat;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.PatternMatchUtils;
 import ru.domdom.metrics.annotation.TimedMethod;
 import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.index.TimedMethodIndex;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Фабрика для создания и кэширования метрик Micrometer (таймеров и счётчиков).
  *
  * <p>Отвечает за создание {@link Timer} и {@link Counter} для каждого уникального ключа метрики.
  * Применяет глобальные настройки из {@link MethodMetricsProperties} и теги из аннотации {@link TimedMethod}.
- * Кэширует созданные метрики для повторного использования.
+ * Все метрики ключа хранятся одной записью, которая создаётся и удаляется одной атомарной операцией,
+ * а для каждого перехваченного метода кэшируется {@link MetricHandle}.
+ *
+ * <p>Таймер {@code .duration} получает каждый вызов; сэмплирование касается только гистограмм.
+ * Ключи сверх лимита {@code max-metric-keys} записываются в общие метрики {@value #OVERFLOW_KEY}.
  *
  * @author Кадыров Андрей
  * @since 1.0.0
  * @see TimedMethod
  * @see MethodMetricsProperties
  * @see TagParser
+ * @see MetricHandle
  */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class MetricFactory {
 
+    /**
+     * Ключ общих метрик, в которые попадают вызовы с ключами сверх лимита.
+     */
+    public static final String OVERFLOW_KEY = "overflow";
+
     private final MeterRegistry meterRegistry;
     private final MethodMetricsProperties properties;
-    private final ConcurrentHashMap<String, Timer> timerCache = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Counter> counterCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, KeyMeters> keyMeters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, MetricHandle> handleCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, Map<Class<?>, MetricHandle>> targetHandleCache = new ConcurrentHashMap<>();
+    private final Set<String> admittedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger admittedCount = new AtomicInteger();
+    private final LongAdder rejectedKeys = new LongAdder();
+    private final AtomicBoolean overflowReported = new AtomicBoolean();
+    private final Map<String, Boolean> togglePatterns = new LinkedHashMap<>();
+    private final LongAdder handleMisses = new LongAdder();
+    private final LongAdder meterMisses = new LongAdder();
+    private TimedMethodIndex index;
+    private CallTree callTree;
+
+    /**
+     * Подключает индекс методов, созданный при компиляции.
+     *
+     * @param index индекс или {@code null}, чтобы вычислять теги по аннотации
+     */
+    public void setIndex(TimedMethodIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Подключает дерево вызовов, рёбра которого удаляются вместе с метриками ключей.
+     *
+     * @param callTree дерево вызовов или {@code null}
+     */
+    public void setCallTree(CallTree callTree) {
+        this.callTree = callTree;
+    }
+
+    /**
+     * Возвращает ранее созданный хэндл метрик для метода.
+     *
+     * @param method перехваченный метод
+     * @return хэндл или {@code null}, если он ещё не создан
+     */
+    public MetricHandle findHandle(Method method) {
+        MetricHandle handle = handleCache.get(method);
+        return handle != null && !handle.isExpired() ? handle : null;
+    }
+
+    /**
+     * Возвращает ранее созданный хэндл метрик для метода, вызываемого на объекте заданного класса.
+     * Если ключ метрики зависит от класса цели, хэндлы классов, отличных от класса первого
+     * хэндла метода, хранятся отдельно по паре (метод, класс).
+     *
+     * @param method      перехваченный метод
+     * @param targetClass класс целевого объекта
+     * @return хэндл или {@code null}, если он ещё не создан для этого класса
+     */
+    public MetricHandle findHandle(Method method, Class<?> targetClass) {
+        MetricHandle handle = handleCache.get(method);
+        if (handle == null || !handle.matches(targetClass)) {
+            Map<Class<?>, MetricHandle> handles = targetHandleCache.get(method);
+            handle = handles != null ? handles.get(targetClass) : null;
+        }
+        return handle != null && !handle.isExpired() ? handle : null;
+    }
+
+    /**
+     * Возвращает хэндл метрик для метода, создавая таймер и счётчик при необходимости.
+     * Первый созданный для метода хэндл кэшируется; если ключ зависит от класса цели,
+     * хэндлы для объектов других классов кэшируются по паре (метод, класс).
+     *
+     * <p>Если метрики ключа истекли конкурентно с созданием хэндла, хэндл убирается из кэша
+     * и создаётся заново, поэтому возвращённый хэндл не ссылается на удалённые метрики.
+     *
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация {@link TimedMethod}
+     * @param method      перехваченный метод
+     * @param targetClass класс цели, от которого зависит ключ, или {@code null}
+     * @return хэндл метрик
+     */
+    public MetricHandle getHandle(String metricKey, TimedMethod annotation, Method method, Class<?> targetClass) {
+        handleMisses.increment();
+        String key = admit(metricKey);
+        boolean overflow = !key.equals(metricKey);
+        TimedMethod keyAnnotation = overflow ? null : annotation;
+        Method keyMethod = overflow ? null : method;
+        int sampleEvery = resolveSampleEvery(keyAnnotation);
+        while (true) {
+            MetricHandle handle = publish(createHandle(key, keyAnnotation, keyMethod, method, targetClass, sampleEvery),
+                    method, targetClass);
+            if (!handle.isExpired()) {
+                return handle;
+            }
+            handleCache.remove(method, handle);
+            Map<Class<?>, MetricHandle> handles = targetHandleCache.get(method);
+            if (handles != null && targetClass != null) {
+                handles.remove(targetClass, handle);
+            }
+        }
+    }
+
+    /**
+     * Создаёт хэндл метода и запоминает его в метриках ключа под блокировкой записи ключа,
+     * чтобы истечение ключа либо видело хэндл, либо выполнялось до создания новых метрик.
+     *
+     * @param key         допущенный ключ метрики
+     * @param annotation  аннотация ключа (может быть {@code null})
+     * @param keyMethod   метод ключа (может быть {@code null})
+     * @param method      перехваченный метод
+     * @param targetClass класс цели, от которого зависит ключ, или {@code null}
+     * @param sampleEvery частота сэмплирования гистограмм
+     * @return хэндл, ещё не опубликованный в кэше
+     */
+    private MetricHandle createHandle(String key, TimedMethod annotation, Method keyMethod, Method method,
+                                      Class<?> targetClass, int sampleEvery) {
+        MetricHandle[] created = new MetricHandle[1];
+        keyMeters.compute(key, (k, existing) -> {
+            KeyMeters meters = existing != null ? existing : createKeyMeters(k, annotation, keyMethod);
+            attach(meters, k, annotation, keyMethod, method, sampleEvery);
+            meters.lastTouchedNanos = System.nanoTime();
+            MetricHandle handle = new MetricHandle(k, targetClass, meters.timer, meters.counter, sampleEvery,
+                    meters.histogram, meters.dynamicTags, meters.outcomes);
+            handle.setSampledTimer(meters.sampledTimer);
+            handle.setSelfTimer(meters.selfTimer);
+            handle.setInFlight(meters.inFlight);
+            handle.setRolling(meters.rolling);
+            applyToggles(method, handle);
+            handle.setSlowCallThresholdNanos(resolveSlowCallThresholdNanos(annotation));
+            meters.handles.add(handle);
+            created[0] = handle;
+            return meters;
+        });
+        return created[0];
+    }
+
+    /**
+     * Публикует хэндл в кэше метода или пары (метод, класс). Истёкший хэндл в кэше заменяется.
+     *
+     * @param handle      новый хэндл
+     * @param method      перехваченный метод
+     * @param targetClass класс цели или {@code null}
+     * @return опубликованный хэндл или ранее опубликованный хэндл того же ключа
+     */
+    private MetricHandle publish(MetricHandle handle, Method method, Class<?> targetClass) {
+        String key = handle.getMetricKey();
+        MetricHandle cached = handleCache.putIfAbsent(method, handle);
+        if (cached != null && cached.isExpired() && handleCache.replace(method, cached, handle)) {
+            cached = null;
+        }
+        if (cached == null) {
+            applyToggles(method, handle);
+            log.debug("Created metric handle for method {} with key {}", method, key);
+            return handle;
+        }
+        if (targetClass != null && !cached.matches(targetClass)) {
+            Map<Class<?>, MetricHandle> handles = targetHandleCache.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+            MetricHandle existing = handles.putIfAbsent(targetClass, handle);
+            if (existing != null && existing.isExpired() && handles.replace(targetClass, existing, handle)) {
+                existing = null;
+            }
+            if (existing != null) {
+                forget(handle);
+                return existing;
+            }
+            applyToggles(method, handle);
+            log.debug("Created metric handle for method {} of {} with key {}", method, targetClass, key);
+            return handle;
+        }
+        if (cached.getMetricKey().equals(key)) {
+            forget(handle);
+            return cached;
+        }
+        return handle;
+    }
+
+    /**
+     * Убирает неопубликованный хэндл из метрик ключа, чтобы он не учитывался при истечении.
+     *
+     * @param handle хэндл
+     */
+    private void forget(MetricHandle handle) {
+        KeyMeters meters = keyMeters.get(handle.getMetricKey());
+        if (meters != null) {
+            meters.handles.remove(handle);
+        }
+    }
+
+    /**
+     * Возвращает хэндлы всех перехваченных методов.
+     *
+     * @return неизменяемое представление хэндлов по методам
+     */
+    public Map<Method, MetricHandle> getHandles() {
+        return Collections.unmodifiableMap(handleCache);
+    }
+
+    /**
+     * Включает или отключает замер методов, ключ метрики или полное имя которых
+     * ({@code com.example.OrderService.create}) соответствует шаблону. Шаблон поддерживает
+     * символ {@code *} (см. {@link PatternMatchUtils#simpleMatch(String, String)}).
+     *
+     * <p>Запоминается сам шаблон, а не найденные по нему ключи, поэтому переключение действует
+     * и на хэндлы, которые будут созданы позже, в том числе для ещё не вызывавшихся методов.
+     * При пересечении шаблонов действует заданный последним. Метрики ключей с отключёнными
+     * методами не удаляются как неиспользуемые.
+     *
+     * @param pattern шаблон ключа метрики или имени метода
+     * @param enabled {@code true}, чтобы включить замер, {@code false} — чтобы отключить
+     * @return число уже созданных хэндлов, к которым применено изменение
+     */
+    public int setEnabled(String pattern, boolean enabled) {
+        int[] matched = new int[1];
+        synchronized (togglePatterns) {
+            togglePatterns.remove(pattern);
+            if (!enabled || togglePatterns.containsValue(Boolean.FALSE)) {
+                togglePatterns.put(pattern, enabled);
+            }
+            forEachHandle((method, handle) -> {
+                if (PatternMatchUtils.simpleMatch(pattern, handle.getMetricKey())
+                        || PatternMatchUtils.simpleMatch(pattern, qualifiedName(method, handle))) {
+                    handle.setEnabled(enabled);
+                    matched[0]++;
+                }
+            });
+        }
+        log.info("{} timing of {} methods matching '{}'", enabled ? "Enabled" : "Disabled", matched[0], pattern);
+        return matched[0];
+    }
+
+    /**
+     * Применяет к новому хэндлу шаблоны, заданные через {@link #setEnabled(String, boolean)}.
+     * Выполняется под той же блокировкой, что и переключение, поэтому хэндл, опубликованный
+     * конкурентно с переключением, не сохраняет устаревшее состояние.
+     *
+     * @param method метод
+     * @param handle хэндл метода
+     */
+    private void applyToggles(Method method, MetricHandle handle) {
+        synchronized (togglePatterns) {
+            handle.setEnabled(isEnabled(handle.getMetricKey(), qualifiedName(method, handle)));
+        }
+    }
+
+    /**
+     * Изменяет частоту сэмплирования гистограмм и запись в компактную гистограмму для всех
+     * хэндлов ключа, включая хэндлы динамических тегов и исходов вызовов.
+     *
+     * @param metricKey       ключ метрики
+     * @param factor          множитель частоты сэмплирования относительно заданной для метода
+     * @param maxSampleEvery  верхняя граница частоты сэмплирования
+     * @param histogramPaused {@code true}, чтобы приостановить запись в компактную гистограмму
+     */
+    void throttle(String metricKey, int factor, int maxSampleEvery, boolean histogramPaused) {
+        Consumer<MetricHandle> apply = handle -> {
+            int configured = handle.getConfiguredSampleEvery();
+            long scaled = (long) configured * factor;
+            handle.throttle((int) Math.min(scaled, Math.max(configured, maxSampleEvery)), histogramPaused);
+        };
+        forEachHandle((method, handle) -> {
+            if (metricKey.equals(handle.getMetricKey())) {
+                apply.accept(handle);
+            }
+        });
+        KeyMeters meters = keyMeters.get(metricKey);
+        if (meters != null) {
+            meters.variantHandles.forEach(apply);
+        }
+    }
+
+    /**
+     * Обходит хэндлы перехваченных методов, включая хэндлы для отдельных классов цели.
+     *
+     * @param action действие для метода и его хэндла
+     */
+    public void forEachHandle(BiConsumer<Method, MetricHandle> action) {
+        handleCache.forEach(action);
+        targetHandleCache.forEach((method, handles) -> handles.values().forEach(handle -> action.accept(method, handle)));
+    }
+
+    /**
+     * Проверяет, включён ли замер для ключа метрики.
+     *
+     * @param metricKey ключ метрики
+     * @return {@code false}, если ключ отключён через {@link #setEnabled(String, boolean)}
+     */
+    public boolean isEnabled(String metricKey) {
+        return isEnabled(metricKey, null);
+    }
+
+    /**
+     * Проверяет, включён ли замер метода с заданными ключом метрики и полным именем.
+     * Применяется последний из шаблонов {@link #setEnabled(String, boolean)}, которому
+     * соответствует ключ или имя.
+     *
+     * @param metricKey     ключ метрики
+     * @param qualifiedName полное имя метода (может быть {@code null})
+     * @return {@code false}, если метод отключён
+     */
+    public boolean isEnabled(String metricKey, String qualifiedName) {
+        synchronized (togglePatterns) {
+            boolean enabled = true;
+            for (Map.Entry<String, Boolean> toggle : togglePatterns.entrySet()) {
+                if (PatternMatchUtils.simpleMatch(toggle.getKey(), metricKey)
+                        || (qualifiedName != null && PatternMatchUtils.simpleMatch(toggle.getKey(), qualifiedName))) {
+                    enabled = toggle.getValue();
+                }
+            }
+            return enabled;
+        }
+    }
+
+    /**
+     * Возвращает методы из индекса, созданного при компиляции, включая ещё не вызывавшиеся.
+     *
+     * @return проиндексированные методы или пустой список, если индекс не подключён
+     */
+    public List<Method> getIndexedMethods() {
+        TimedMethodIndex current = index;
+        return current != null ? current.methods() : List.of();
+    }
+
+    /**
+     * Возвращает полное имя метода с учётом класса цели, для которого создан хэндл.
+     *
+     * @param method метод
+     * @param handle хэндл метода
+     * @return имя вида {@code com.example.OrderService.create}
+     */
+    public static String qualifiedName(Method method, MetricHandle handle) {
+        return handle.getTargetClass() != null
+                ? ClassUtils.getQualifiedMethodName(method, handle.getTargetClass())
+                : ClassUtils.getQualifiedMethodName(method);
+    }
 
     /**
      * Возвращает таймер для заданного ключа метрики. Если таймер ещё не создан,
      * он будет создан с использованием переданной аннотации и метода.
+     * Для ключей сверх лимита возвращается общий таймер {@value #OVERFLOW_KEY}.
      *
      * @param metricKey  ключ метрики (имя)
      * @param annotation аннотация {@link TimedMethod}
@@ -47,12 +407,13 @@ public class MetricFactory {
      */
     public Timer getTimer(String metricKey, TimedMethod annotation, Method method) {
         log.debug("Getting timer for key: {}", metricKey);
-        return timerCache.computeIfAbsent(metricKey, key -> createTimer(key, annotation, method));
+        return getKeyMeters(metricKey, annotation, method).timer;
     }
 
     /**
      * Возвращает счётчик для заданного ключа метрики. Если счётчик ещё не создан,
      * он будет создан с использованием переданной аннотации и метода.
+     * Для ключей сверх лимита возвращается общий счётчик {@value #OVERFLOW_KEY}.
      *
      * @param metricKey  ключ метрики (имя)
      * @param annotation аннотация {@link TimedMethod}
@@ -61,27 +422,598 @@ public class MetricFactory {
      */
     public Counter getCounter(String metricKey, TimedMethod annotation, Method method) {
         log.debug("Getting counter for key: {}", metricKey);
-        return counterCache.computeIfAbsent(metricKey, key -> createCounter(key, annotation, method));
+        return getKeyMeters(metricKey, annotation, method).counter;
     }
 
     /**
-     * Создаёт новый таймер и регистрирует его в {@link MeterRegistry}.
+     * Возвращает метрики ключа, создавая их при первом обращении, и отмечает обращение к ключу.
      *
      * @param metricKey  ключ метрики
-     * @param annotation аннотация
-     * @param method     метод
+     * @param annotation аннотация {@link TimedMethod}
+     * @param method     метод (может быть {@code null})
+     * @return метрики ключа или общие метрики {@value #OVERFLOW_KEY} для ключей сверх лимита
+     */
+    private KeyMeters getKeyMeters(String metricKey, TimedMethod annotation, Method method) {
+        String key = admit(metricKey);
+        KeyMeters meters = keyMeters.get(key);
+        if (meters == null) {
+            boolean overflow = !key.equals(metricKey);
+            meters = keyMeters.computeIfAbsent(key,
+                    k -> createKeyMeters(k, overflow ? null : annotation, overflow ? null : method));
+        }
+        if (properties.getIdleExpiry() != null) {
+            meters.lastTouchedNanos = System.nanoTime();
+        }
+        return meters;
+    }
+
+    /**
+     * Удаляет из кэшей и реестра метрики ключей, к которым не обращались дольше {@code idleTimeout}.
+     *
+     * <p>Обращения через кэшированные хэндлы определяются по их флагам, которые сбрасываются
+     * при каждом вызове, поэтому время последнего обращения известно с точностью до интервала
+     * между вызовами этого метода. Проверка простоя и удаление метрик ключа выполняются одной
+     * операцией над записью ключа, а хэндлы удалённых ключей отмечаются истёкшими и убираются
+     * из кэшей; следующий вызов метода прозрачно создаёт метрики заново.
+     *
+     * @param idleTimeout допустимое время простоя
+     * @return число удалённых ключей
+     */
+    public int expireIdle(Duration idleTimeout) {
+        long now = System.nanoTime();
+        long idleNanos = idleTimeout.toNanos();
+        List<String> expired = new ArrayList<>();
+        for (String key : keyMeters.keySet()) {
+            keyMeters.computeIfPresent(key, (k, meters) -> {
+                if (meters.resetTouched()) {
+                    meters.lastTouchedNanos = now;
+                    return meters;
+                }
+                if (now - meters.lastTouchedNanos <= idleNanos || meters.hasDisabledHandles()) {
+                    return meters;
+                }
+                meters.expired = true;
+                meters.handles.forEach(MetricHandle::expire);
+                removeMeters(k, meters);
+                if (admittedKeys.remove(k)) {
+                    admittedCount.decrementAndGet();
+                }
+                expired.add(k);
+                return null;
+            });
+        }
+        if (!expired.isEmpty()) {
+            handleCache.values().removeIf(MetricHandle::isExpired);
+            targetHandleCache.values().forEach(handles -> handles.values().removeIf(MetricHandle::isExpired));
+            log.debug("Expired idle metrics for keys: {}", expired);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Удаляет метрики ключа из реестра и рёбра ключа из дерева вызовов.
+     *
+     * @param metricKey ключ метрики
+     * @param meters    метрики ключа
+     */
+    private void removeMeters(String metricKey, KeyMeters meters) {
+        CallTree tree = callTree;
+        if (tree != null) {
+            tree.removeEdges(metricKey);
+        }
+        meters.registered.forEach(meterRegistry::remove);
+    }
+
+    /**
+     * Обходит основные метрики всех ключей без создания объектов на каждый ключ.
+     *
+     * @param visitor получатель метрик ключа
+     */
+    void visitMeters(MeterVisitor visitor) {
+        keyMeters.forEach((key, meters) -> visitor.visit(key, meters.timer, meters.counter, meters.histogram));
+    }
+
+    /**
+     * Возвращает число обращений с ключами, отклонёнными из-за лимита {@code max-metric-keys}.
+     *
+     * @return число отклонений
+     */
+    public long getRejectedKeyCount() {
+        return rejectedKeys.sum();
+    }
+
+    /**
+     * Возвращает число таймеров основных ключей метрик.
+     *
+     * @return число таймеров
+     */
+    public int getTimerCount() {
+        return keyMeters.size();
+    }
+
+    /**
+     * Возвращает число счётчиков основных ключей метрик.
+     *
+     * @return число счётчиков
+     */
+    public int getCounterCount() {
+        return keyMeters.size();
+    }
+
+    /**
+     * Возвращает число созданий хэндлов, то есть обращений мимо кэша хэндлов методов.
+     *
+     * @return число промахов кэша хэндлов
+     */
+    public long getHandleMissCount() {
+        return handleMisses.sum();
+    }
+
+    /**
+     * Возвращает число созданных таймеров и счётчиков, включая метрики динамических тегов
+     * и исходов вызовов.
+     *
+     * @return число промахов кэшей метрик
+     */
+    public long getMeterMissCount() {
+        return meterMisses.sum();
+    }
+
+    /**
+     * Проверяет ключ метрики по лимиту различных ключей. Уже допущенные ключи
+     * проверяются одним обращением к множеству без блокировок.
+     *
+     * @param metricKey ключ метрики
+     * @return исходный ключ или {@value #OVERFLOW_KEY}, если лимит исчерпан
+     */
+    private String admit(String metricKey) {
+        int maxKeys = properties.getMaxMetricKeys();
+        if (maxKeys <= 0 || OVERFLOW_KEY.equals(metricKey) || admittedKeys.contains(metricKey)) {
+            return metricKey;
+        }
+        if (admittedCount.incrementAndGet() > maxKeys) {
+            admittedCount.decrementAndGet();
+            reject(metricKey, maxKeys);
+            return OVERFLOW_KEY;
+        }
+        if (!admittedKeys.add(metricKey)) {
+            admittedCount.decrementAndGet();
+        }
+        return metricKey;
+    }
+
+    /**
+     * Учитывает отклонённый ключ в счётчике {@code <prefix>.keys.rejected}. Счётчик регистрируется
+     * в реестре один раз, при первом переполнении; дальнейшие отклонения только увеличивают его.
+     *
+     * @param metricKey отклонённый ключ
+     * @param maxKeys   текущий лимит
+     */
+    private void reject(String metricKey, int maxKeys) {
+        rejectedKeys.increment();
+        if (overflowReported.compareAndSet(false, true)) {
+            FunctionCounter.builder(properties.getPrefix() + ".keys.rejected", rejectedKeys, LongAdder::doubleValue)
+                    .description("Metric keys routed to the overflow meters because max-metric-keys was reached")
+                    .register(meterRegistry);
+            log.warn("Metric key limit of {} reached, key {} and further new keys are recorded as '{}'",
+                    maxKeys, metricKey, OVERFLOW_KEY);
+        } else {
+            log.debug("Metric key {} routed to '{}'", metricKey, OVERFLOW_KEY);
+        }
+    }
+
+    /**
+     * Возвращает значения тегов основных метрик ключа: {@value DynamicTags#OTHER} для динамических
+     * тегов и теги успешного вызова, если исходы вызовов разделяются.
+     *
+     * @param annotation аннотация (может быть {@code null})
+     * @return теги основных метрик
+     */
+    private Tags baseVariantTags(TimedMethod annotation) {
+        Tags tags = DynamicTags.defaults(annotation);
+        return properties.isOutcomeTags() ? tags.and(OutcomeHandles.successTags()) : tags;
+    }
+
+    /**
+     * Создаёт основные метрики ключа: таймер, счётчик и, если включены, гистограмму
+     * (компактную или таймер {@code .duration.sampled}).
+     *
+     * @param metricKey  ключ метрики
+     * @param annotation аннотация (может быть {@code null})
+     * @param method     метод (может быть {@code null})
+     * @return метрики ключа
+     */
+    private KeyMeters createKeyMeters(String metricKey, TimedMethod annotation, Method method) {
+        Tags variantTags = baseVariantTags(annotation);
+        boolean sampledHistogram = isSampledHistogram(resolveSampleEvery(annotation));
+        Timer timer = createTimer(metricKey, annotation, method, variantTags, !sampledHistogram);
+        Counter counter = createCounter(metricKey, annotation, method, variantTags);
+        Timer sampledTimer = sampledHistogram ? createSampledTimer(metricKey, annotation, method, variantTags) : null;
+        LogLinearHistogram histogram = isCompactHistogram() ? newHistogram() : null;
+        KeyMeters meters = new KeyMeters(timer, counter, sampledTimer, histogram);
+        meters.registered.add(timer);
+        meters.registered.add(counter);
+        if (sampledTimer != null) {
+            meters.registered.add(sampledTimer);
+        }
+        if (histogram != null) {
+            meters.registered.addAll(registerCompactHistogram(histogram,
+                    properties.getPrefix() + "." + metricKey + ".duration",
+                    commonTags(metricKey, annotation, method).and(variantTags)));
+        }
+        return meters;
+    }
+
+    /**
+     * Дополняет метрики ключа тем, что нужно хэндлам метода: динамическими тегами, хэндлами
+     * исходов вызовов, таймером {@code .self}, учётом выполняющихся вызовов и скользящей статистикой.
+     * Вызывается под блокировкой записи ключа в карте.
+     *
+     * @param meters      метрики ключа
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация ключа (может быть {@code null})
+     * @param keyMethod   метод ключа (может быть {@code null})
+     * @param method      перехваченный метод, по параметрам которого вычисляются динамические теги
+     * @param sampleEvery частота сэмплирования гистограмм
+     */
+    private void attach(KeyMeters meters, String metricKey, TimedMethod annotation, Method keyMethod,
+                        Method method, int sampleEvery) {
+        if (meters.dynamicTags == null && DynamicTags.isDeclared(annotation)) {
+            meters.dynamicTags = createDynamicTags(meters, metricKey, annotation, method, sampleEvery);
+        }
+        if (meters.outcomes == null && properties.isOutcomeTags()) {
+            meters.outcomes = createOutcomeHandles(meters, metricKey, annotation, keyMethod, sampleEvery,
+                    baseVariantTags(annotation));
+        }
+        if (meters.selfTimer == null && properties.getCallTree().isEnabled()) {
+            Timer selfTimer = createSelfTimer(metricKey, annotation, keyMethod);
+            meters.registered.add(selfTimer);
+            meters.selfTimer = selfTimer;
+        }
+        if (meters.inFlight == null && properties.getInFlight().isEnabled()) {
+            meters.inFlight = createInFlight(metricKey, annotation, keyMethod, meters.registered);
+        }
+        if (meters.rolling == null && properties.getRollingStats().isEnabled()) {
+            meters.rolling = new RollingStats();
+        }
+    }
+
+    /**
+     * Создаёт динамические теги для ключа метрики. Для каждой комбинации значений
+     * создаётся хэндл с собственными метриками и, при разделении исходов, с собственными
+     * хэндлами неуспешных вызовов.
+     *
+     * @param meters      метрики ключа, к которым добавляются метрики вариантов
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация с выражениями динамических тегов
+     * @param method      метод, по параметрам которого вычисляются выражения
+     * @param sampleEvery частота сэмплирования гистограмм
+     * @return динамические теги
+     */
+    private DynamicTags createDynamicTags(KeyMeters meters, String metricKey, TimedMethod annotation, Method method,
+                                          int sampleEvery) {
+        return new DynamicTags(method, annotation.dynamicTags(), properties.getMaxDynamicTagValues(),
+                values -> {
+                    Tags tags = properties.isOutcomeTags() ? values.and(OutcomeHandles.successTags()) : values;
+                    OutcomeHandles outcomes = properties.isOutcomeTags()
+                            ? createOutcomeHandles(meters, metricKey, annotation, method, sampleEvery, values)
+                            : null;
+                    return createVariantHandle(meters, metricKey, annotation, method, sampleEvery, tags, outcomes);
+                });
+    }
+
+    /**
+     * Создаёт хэндлы неуспешных вызовов для набора тегов.
+     *
+     * @param meters      метрики ключа, к которым добавляются метрики вариантов
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация
+     * @param method      метод
+     * @param sampleEvery частота сэмплирования гистограмм
+     * @param tags        теги успешного варианта (динамические теги и исход)
+     * @return хэндлы неуспешных вызовов
+     */
+    private OutcomeHandles createOutcomeHandles(KeyMeters meters, String metricKey, TimedMethod annotation,
+                                                Method method, int sampleEvery, Tags tags) {
+        return new OutcomeHandles(properties.getMaxExceptionClasses(),
+                exceptionName -> createVariantHandle(meters, metricKey, annotation, method, sampleEvery,
+                        tags.and(OutcomeHandles.errorTags(exceptionName)), null));
+    }
+
+    /**
+     * Создаёт хэндл варианта метрик ключа (комбинации динамических тегов или класса исключения).
+     * Метрики и хэндл добавляются к метрикам ключа, чтобы удаляться и отслеживаться вместе с ним.
+     *
+     * @param meters      метрики ключа
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация
+     * @param method      метод
+     * @param sampleEvery частота сэмплирования гистограмм
+     * @param tags        значения тегов варианта
+     * @param outcomes    хэндлы неуспешных вызовов варианта или {@code null}
+     * @return хэндл варианта
+     */
+    private MetricHandle createVariantHandle(KeyMeters meters, String metricKey, TimedMethod annotation,
+                                             Method method, int sampleEvery, Tags tags, OutcomeHandles outcomes) {
+        boolean sampledHistogram = isSampledHistogram(sampleEvery);
+        Timer timer = createTimer(metricKey, annotation, method, tags, !sampledHistogram);
+        Counter counter = createCounter(metricKey, annotation, method, tags);
+        meters.registered.add(timer);
+        meters.registered.add(counter);
+        Timer sampledTimer = null;
+        if (sampledHistogram) {
+            sampledTimer = createSampledTimer(metricKey, annotation, method, tags);
+            meters.registered.add(sampledTimer);
+        }
+        LogLinearHistogram histogram = null;
+        if (isCompactHistogram()) {
+            histogram = newHistogram();
+            meters.registered.addAll(registerCompactHistogram(histogram,
+                    properties.getPrefix() + "." + metricKey + ".duration",
+                    commonTags(metricKey, annotation, method).and(tags)));
+        }
+        MetricHandle handle = new MetricHandle(metricKey, null, timer, counter, sampleEvery,
+                histogram, null, outcomes);
+        handle.setSampledTimer(sampledTimer);
+        meters.variantHandles.add(handle);
+        if (meters.expired) {
+            // Ключ истёк, пока вызов шёл через прежний хэндл: метрики варианта не должны остаться в реестре
+            meters.registered.forEach(meterRegistry::remove);
+        }
+        return handle;
+    }
+
+    /**
+     * Создаёт таймер с заданными значениями тегов варианта и регистрирует его в {@link MeterRegistry}.
+     *
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация
+     * @param method      метод
+     * @param variantTags значения тегов варианта (динамические теги и исход вызова)
+     * @param histogram   {@code false}, чтобы не публиковать гистограмму Micrometer в этом таймере
      * @return созданный таймер
      */
-    private Timer createTimer(String metricKey, TimedMethod annotation, Method method) {
+    private Timer createTimer(String metricKey, TimedMethod annotation, Method method, Tags variantTags,
+                              boolean histogram) {
         String fullName = properties.getPrefix() + "." + metricKey + ".duration";
-        log.info("Creating timer with name: {}", fullName);
+        log.debug("Creating timer with name: {}", fullName);
+        meterMisses.increment();
         Timer.Builder builder = Timer.builder(fullName)
-                .description(buildDescription(annotation, method))
-                .publishPercentiles(properties.isHistogram() ? properties.getPercentiles() : null)
-                .publishPercentileHistogram(properties.isHistogram());
+                .description(buildDescription(annotation, method));
+        if (histogram && !isCompactHistogram()) {
+            builder.publishPercentiles(properties.isHistogram() ? properties.getPercentiles() : null)
+                    .publishPercentileHistogram(properties.isHistogram());
+        }
+        return builder.tags(commonTags(metricKey, annotation, method).and(variantTags)).register(meterRegistry);
+    }
+
+    /**
+     * Создаёт таймер {@code .duration.sampled} с гистограммой и процентилями Micrometer,
+     * в который записывается выборка вызовов сэмплируемого ключа.
+     *
+     * @param metricKey   ключ метрики
+     * @param annotation  аннотация
+     * @param method      метод
+     * @param variantTags значения тегов варианта
+     * @return созданный таймер
+     */
+    private Timer createSampledTimer(String metricKey, TimedMethod annotation, Method method, Tags variantTags) {
+        String fullName = properties.getPrefix() + "." + metricKey + ".duration.sampled";
+        log.debug("Creating sampled histogram timer with name: {}", fullName);
+        meterMisses.increment();
+        return Timer.builder(fullName)
+                .description("Execution time distribution of a sample of calls")
+                .publishPercentiles(properties.getPercentiles())
+                .publishPercentileHistogram()
+                .tags(commonTags(metricKey, annotation, method).and(variantTags))
+                .register(meterRegistry);
+    }
+
+    /**
+     * Создаёт таймер собственного времени метода и регистрирует его в {@link MeterRegistry}.
+     * Таймер создаётся без гистограммы: собственное время нужно для сравнения методов
+     * по сумме и среднему.
+     *
+     * @param metricKey  ключ метрики
+     * @param annotation аннотация
+     * @param method     метод
+     * @return созданный таймер
+     */
+    private Timer createSelfTimer(String metricKey, TimedMethod annotation, Method method) {
+        String fullName = properties.getPrefix() + "." + metricKey + ".self";
+        log.debug("Creating self timer with name: {}", fullName);
+        meterMisses.increment();
+        return Timer.builder(fullName)
+                .description("Execution time excluding nested @TimedMethod calls")
+                .tags(commonTags(metricKey, annotation, method))
+                .register(meterRegistry);
+    }
 
-        applyCommonTags(builder, metricKey, annotation, method);
-        return builder.register(meterRegistry);
+    /**
+     * Создаёт учёт выполняющихся вызовов ключа и регистрирует его gauge в {@link MeterRegistry}.
+     *
+     * @param metricKey  ключ метрики
+     * @param annotation аннотация
+     * @param method     метод
+     * @param registered метрики ключа, к которым добавляются зарегистрированные gauge
+     * @return учёт выполняющихся вызовов
+     */
+    private InFlightCalls createInFlight(String metricKey, TimedMethod annotation, Method method,
+                                         Queue<Meter> registered) {
+        MethodMetricsProperties.InFlight settings = properties.getInFlight();
+        InFlightCalls inFlight = new InFlightCalls(settings.getTrackedCalls(), settings.getWindow());
+        String name = properties.getPrefix() + "." + metricKey + ".inflight";
+        Tags tags = commonTags(metricKey, annotation, method);
+        log.debug("Creating in-flight gauges with name: {}", name);
+        registered.add(Gauge.builder(name, inFlight, InFlightCalls::getActive)
+                .description("Number of calls currently executing")
+                .tags(tags)
+                .strongReference(true)
+                .register(meterRegistry));
+        registered.add(Gauge.builder(name + ".max", inFlight, InFlightCalls::getMax)
+                .description("Maximum number of concurrently executing calls in the recent window")
+                .tags(tags)
+                .strongReference(true)
+                .register(meterRegistry));
+        registered.add(TimeGauge.builder(name + ".longest", inFlight, TimeUnit.NANOSECONDS,
+                        InFlightCalls::getLongestNanos)
+                .description("Duration of the longest call currently executing")
+                .tags(tags)
+                .strongReference(true)
+                .register(meterRegistry));
+        return inFlight;
+    }
+
+    /**
+     * Вычисляет порог медленного вызова: из аннотации или из {@code method.metrics.slow-calls.threshold}.
+     *
+     * @param annotation аннотация {@link TimedMethod} или {@code null}
+     * @return порог в наносекундах или {@link Long#MAX_VALUE}, если захват отключён
+     */
+    private long resolveSlowCallThresholdNanos(TimedMethod annotation) {
+        MethodMetricsProperties.SlowCalls slowCalls = properties.getSlowCalls();
+        if (!slowCalls.isEnabled()) {
+            return Long.MAX_VALUE;
+        }
+        long millis = annotation != null ? annotation.slowCallMillis() : 0;
+        if (millis < 0) {
+            return Long.MAX_VALUE;
+        }
+        if (millis > 0) {
+            return TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+        return slowCalls.getThreshold() != null ? slowCalls.getThreshold().toNanos() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Проверяет, используется ли компактная гистограмма вместо гистограммы Micrometer.
+     *
+     * @return {@code true}, если гистограммы включены и выбран движок {@code compact}
+     */
+    private boolean isCompactHistogram() {
+        return properties.isHistogram()
+                && properties.getHistogramEngine() == MethodMetricsProperties.HistogramEngine.COMPACT;
+    }
+
+    /**
+     * Проверяет, публикуется ли гистограмма Micrometer ключа отдельным таймером с выборкой вызовов:
+     * для сэмплируемого ключа или при включённом {@link OverheadGovernor}.
+     *
+     * @param sampleEvery частота сэмплирования ключа
+     * @return {@code true}, если гистограмма Micrometer публикуется таймером {@code .duration.sampled}
+     */
+    private boolean isSampledHistogram(int sampleEvery) {
+        return (sampleEvery > 1 || properties.getGovernor().isEnabled())
+                && properties.isHistogram() && !isCompactHistogram();
+    }
+
+    /**
+     * Создаёт компактную гистограмму по настройкам {@code histogram-precision} и {@code histogram-window}.
+     *
+     * @return гистограмма
+     */
+    private LogLinearHistogram newHistogram() {
+        return new LogLinearHistogram(properties.getHistogramPrecision(), properties.getHistogramWindow());
+    }
+
+    /**
+     * Регистрирует по одному {@link Gauge} на каждый настроенный процентиль компактной гистограммы.
+     *
+     * @param histogram гистограмма основного ключа или варианта
+     * @param timerName полное имя таймера
+     * @param tags      теги таймера
+     * @return зарегистрированные gauge
+     */
+    private List<Gauge> registerCompactHistogram(LogLinearHistogram histogram, String timerName, Tags tags) {
+        List<Gauge> gauges = new ArrayList<>(properties.getPercentiles().length);
+        for (double percentile : properties.getPercentiles()) {
+            gauges.add(Gauge.builder(timerName + ".percentile", histogram, h -> h.percentile(percentile) / 1_000_000_000.0)
+                    .description("Execution time percentile from the compact histogram")
+                    .baseUnit("seconds")
+                    .tags(tags)
+                    .tag("phi", DoubleFormat.decimalOrNan(percentile))
+                    .register(meterRegistry));
+        }
+        return gauges;
+    }
+
+    /**
+     * Возвращает компактную гистограмму для ключа метрики.
+     *
+     * @param metricKey ключ метрики
+     * @return гистограмма или {@code null}, если используется гистограмма Micrometer
+     */
+    public LogLinearHistogram findHistogram(String metricKey) {
+        KeyMeters meters = keyMeters.get(metricKey);
+        return meters != null ? meters.histogram : null;
+    }
+
+    /**
+     * Возвращает скользящую статистику вызовов метода за окно. Значения вычисляются
+     * по кольцевым буферам в памяти, без обращения к {@link MeterRegistry}, поэтому
+     * метод подходит для решений внутри приложения (ограничение нагрузки, масштабирование).
+     *
+     * @param metricKey ключ метрики
+     * @param window    окно статистики
+     * @return статистика или {@code null}, если для ключа ещё не было вызовов
+     *         или скользящая статистика отключена
+     */
+    public RollingStats.Snapshot getRollingStats(String metricKey, RollingStats.Window window) {
+        KeyMeters meters = keyMeters.get(metricKey);
+        RollingStats rolling = meters != null ? meters.rolling : null;
+        return rolling != null ? rolling.snapshot(window) : null;
+    }
+
+    /**
+     * Возвращает скользящую статистику вызовов всех методов за окно.
+     *
+     * @param window окно статистики
+     * @return отсортированная по ключу карта «ключ метрики → статистика»
+     */
+    public Map<String, RollingStats.Snapshot> getRollingStats(RollingStats.Window window) {
+        Map<String, RollingStats.Snapshot> stats = new TreeMap<>();
+        keyMeters.forEach((key, meters) -> {
+            RollingStats rolling = meters.rolling;
+            if (rolling != null) {
+                stats.put(key, rolling.snapshot(window));
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * Возвращает оценку памяти, занимаемой компактными гистограммами, по ключам метрик,
+     * включая гистограммы вариантов ключа.
+     *
+     * @return отсортированная по ключу карта «ключ метрики → байты»
+     */
+    public Map<String, Long> getHistogramFootprints() {
+        Map<String, Long> footprints = new TreeMap<>();
+        keyMeters.forEach((key, meters) -> {
+            if (meters.histogram != null) {
+                footprints.merge(key, meters.histogram.footprintBytes(), Long::sum);
+            }
+            meters.variantHandles.forEach(handle -> {
+                if (handle.getHistogram() != null) {
+                    footprints.merge(key, handle.getHistogram().footprintBytes(), Long::sum);
+                }
+            });
+        });
+        return footprints;
+    }
+
+    /**
+     * Определяет частоту сэмплирования таймера: значение из аннотации
+     * или глобальное значение из настроек.
+     *
+     * @param annotation аннотация (может быть {@code null})
+     * @return частота сэмплирования, не меньше 1
+     */
+    private int resolveSampleEvery(TimedMethod annotation) {
+        if (annotation != null && annotation.sampleEvery() > 0) {
+            return annotation.sampleEvery();
+        }
+        return Math.max(1, properties.getSampleEvery());
     }
 
     /**
@@ -90,44 +1022,60 @@ public class MetricFactory {
      * @param metricKey  ключ метрики
      * @param annotation аннотация
      * @param method     метод
+     * @param variantTags значения тегов варианта
      * @return созданный счётчик
      */
-    private Counter createCounter(String metricKey, TimedMethod annotation, Method method) {
+    private Counter createCounter(String metricKey, TimedMethod annotation, Method method, Tags variantTags) {
         String fullName = properties.getPrefix() + "." + metricKey + ".calls";
-        log.info("Creating counter with name: {}", fullName);
+        log.debug("Creating counter with name: {}", fullName);
+        meterMisses.increment();
         Counter.Builder builder = Counter.builder(fullName)
                 .description("Number of calls for method: " + (method != null ? method.getName() : metricKey));
 
-        applyCommonTags(builder, metricKey, annotation, method);
-        return builder.register(meterRegistry);
+        return builder.tags(commonTags(metricKey, annotation, method).and(variantTags)).register(meterRegistry);
     }
 
     /**
-     * Применяет общие теги к строителю метрики: теги из аннотации, имя метода, класс и сигнатуру.
+     * Формирует общие теги метрики: теги из аннотации, имя метода, класс и сигнатуру.
      *
-     * @param builder    строитель метрики (либо {@link Timer.Builder}, либо {@link Counter.Builder})
      * @param metricKey  ключ метрики
      * @param annotation аннотация
      * @param method     метод
+     * @return набор тегов
      */
-    private void applyCommonTags(Object builder, String metricKey, TimedMethod annotation, Method method) {
-        Map<String, String> tags = TagParser.parse(annotation.extraTags());
-        String methodName = extractMethodName(metricKey);
-        String className = extractClassName(metricKey);
+    private Tags commonTags(String metricKey, TimedMethod annotation, Method method) {
+        TimedMethodIndex.Descriptor descriptor = findDescriptor(annotation, method);
+        Map<String, String> extraTags;
+        if (descriptor != null) {
+            extraTags = descriptor.getExtraTags();
+        } else {
+            extraTags = annotation != null ? TagParser.parse(annotation.extraTags()) : Map.of();
+        }
+        Tags tags = Tags.empty();
+        for (Map.Entry<String, String> tag : extraTags.entrySet()) {
+            tags = tags.and(tag.getKey(), tag.getValue());
+        }
+        tags = tags.and("method", extractMethodName(metricKey)).and("class", extractClassName(metricKey));
+        if (method != null) {
+            tags = tags.and("signature", descriptor != null ? descriptor.getSignature() : getMethodSignature(method));
+        }
+        return tags;
+    }
 
-        if (builder instanceof Timer.Builder timerBuilder) {
-            tags.forEach(timerBuilder::tag);
-            timerBuilder.tag("method", methodName).tag("class", className);
-            if (method != null) {
-                timerBuilder.tag("signature", getMethodSignature(method));
-            }
-        } else if (builder instanceof Counter.Builder counterBuilder) {
-            tags.forEach(counterBuilder::tag);
-            counterBuilder.tag("method", methodName).tag("class", className);
-            if (method != null) {
-                counterBuilder.tag("signature", getMethodSignature(method));
-            }
+    /**
+     * Ищет метод в индексе. Запись используется, только если аннотация — собственная аннотация
+     * метода, а не аннотация класса или атрибуты по умолчанию для {@code pointcuts}.
+     *
+     * @param annotation аннотация
+     * @param method     метод
+     * @return запись индекса или {@code null}
+     */
+    private TimedMethodIndex.Descriptor findDescriptor(TimedMethod annotation, Method method) {
+        TimedMethodIndex current = index;
+        if (current == null || annotation == null || method == null) {
+            return null;
         }
+        return current.find(method, annotation);
     }
 
     /**
@@ -192,10 +1140,100 @@ public class MetricFactory {
      * Используется в тестах или при перезагрузке конфигурации.
      */
     public void clearCache() {
-        timerCache.forEach((key, timer) -> meterRegistry.remove(timer));
-        counterCache.forEach((key, counter) -> meterRegistry.remove(counter));
-        timerCache.clear();
-        counterCache.clear();
+        CallTree tree = callTree;
+        if (tree != null) {
+            tree.clear();
+        }
+        for (String key : keyMeters.keySet()) {
+            keyMeters.computeIfPresent(key, (k, meters) -> {
+                meters.registered.forEach(meterRegistry::remove);
+                return null;
+            });
+        }
+        handleCache.clear();
+        targetHandleCache.clear();
+        admittedKeys.clear();
+        admittedCount.set(0);
+        synchronized (togglePatterns) {
+            togglePatterns.clear();
+        }
         log.info("MetricFactory cache cleared and meters removed from registry");
     }
-}
\ No newline at end of file
+
+    /**
+     * Получатель основных метрик ключа при обходе {@link #visitMeters(MeterVisitor)}.
+     */
+    @FunctionalInterface
+    interface MeterVisitor {
+
+        /**
+         * Принимает метрики ключа.
+         *
+         * @param metricKey ключ метрики
+         * @param timer     таймер ключа
+         * @param counter   счётчик вызовов ключа или {@code null}
+         * @param histogram компактная гистограмма ключа или {@code null}
+         */
+        void visit(String metricKey, Timer timer, Counter counter, LogLinearHistogram histogram);
+    }
+
+    /**
+     * Метрики одного ключа вместе с хэндлами, которые на них ссылаются. Запись создаётся
+     * и удаляется целиком одной операцией над картой ключей; поля без {@code final}
+     * изменяются только под блокировкой записи ключа в карте.
+     */
+    private static final class KeyMeters {
+
+        private final Timer timer;
+        private final Counter counter;
+        private final Timer sampledTimer;
+        private final LogLinearHistogram histogram;
+        private final Queue<Meter> registered = new ConcurrentLinkedQueue<>();
+        private final Queue<MetricHandle> handles = new ConcurrentLinkedQueue<>();
+        private final Queue<MetricHandle> variantHandles = new ConcurrentLinkedQueue<>();
+        private volatile DynamicTags dynamicTags;
+        private volatile OutcomeHandles outcomes;
+        private volatile Timer selfTimer;
+        private volatile InFlightCalls inFlight;
+        private volatile RollingStats rolling;
+        private volatile long lastTouchedNanos = System.nanoTime();
+        private volatile boolean expired;
+
+        private KeyMeters(Timer timer, Counter counter, Timer sampledTimer, LogLinearHistogram histogram) {
+            this.timer = timer;
+            this.counter = counter;
+            this.sampledTimer = sampledTimer;
+            this.histogram = histogram;
+        }
+
+        /**
+         * Сбрасывает флаги обращения всех хэндлов ключа.
+         *
+         * @return {@code true}, если с момента предыдущего сброса был вызов через любой из хэндлов
+         */
+        private boolean resetTouched() {
+            boolean touched = false;
+            for (MetricHandle handle : handles) {
+                touched |= handle.resetTouched();
+            }
+            for (MetricHandle handle : variantHandles) {
+                touched |= handle.resetTouched();
+            }
+            return touched;
+        }
+
+        /**
+         * Проверяет, отключён ли замер хотя бы одного метода ключа.
+         *
+         * @return {@code true}, если есть отключённый хэндл
+         */
+        private boolean hasDisabledHandles() {
+            for (MetricHandle handle : handles) {
+                if (!handle.isEnabled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
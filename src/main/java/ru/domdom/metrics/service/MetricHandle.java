@@ -0,0 +1,324 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Предварительно разрешённый набор метрик для одного перехватываемого метода.
+ *
+ * <p>Хэндл создаётся {@link MetricFactory} один раз на метод: ключ метрики, теги,
+ * {@link Timer} и {@link Counter} вычисляются при первом вызове, после чего
+ * запись сводится к поиску хэндла по {@link java.lang.reflect.Method} и вызову
+ * {@link #record(long)} без построения строк и обращений к кэшам по ключу.
+ *
+ * <p>Счётчик и таймер получают каждый вызов, поэтому число вызовов и сумма времени точны.
+ * При {@code sampleEvery > 1} в гистограммы (компактную или таймер {@code .duration.sampled}
+ * с гистограммой Micrometer) записывается в среднем один вызов из {@code sampleEvery}.
+ * Решение о сэмплировании принимается по {@link ThreadLocalRandom}, без общего для потоков состояния.
+ *
+ * <p>Частоту сэмплирования гистограмм и запись в компактную гистограмму может временно
+ * изменить {@link OverheadGovernor}, если накладные расходы замера метода превышают бюджет;
+ * исходная частота доступна через {@link #getConfiguredSampleEvery()}. Счётчик и таймер
+ * при этом по-прежнему получают каждый вызов.
+ *
+ * <p>Если для метода используется компактная гистограмма ({@link LogLinearHistogram}),
+ * в неё записываются сэмплированные длительности.
+ *
+ * <p>Если у метода объявлены динамические теги, хэндл содержит {@link DynamicTags},
+ * по которым выбирается хэндл комбинации значений тегов для конкретного вызова.
+ *
+ * <p>При разделении исходов вызовов хэндл записывает успешные вызовы, а для неуспешных
+ * {@link #forError(Throwable)} возвращает кэшированный хэндл класса исключения.
+ *
+ * <p>Для истечения неиспользуемых метрик хэндл хранит флаг обращения: запись в него
+ * выполняется только при первом вызове после очередного сброса флага в
+ * {@link MetricFactory#expireIdle}, поэтому горячий путь лишь читает поле.
+ *
+ * <p>Замер метода можно отключить во время работы приложения ({@link #isEnabled()}):
+ * перехватчик проверяет флаг одним чтением volatile-поля и для отключённого метода
+ * сразу вызывает целевой метод без замера времени.
+ *
+ * <p>Порог медленного вызова ({@link #getSlowCallThresholdNanos()}) вычисляется при создании
+ * хэндла, поэтому для быстрых вызовов проверка сводится к одному сравнению без аллокаций.
+ *
+ * <p>При включённом дереве вызовов хэндл содержит таймер собственного времени
+ * ({@link #getSelfTimer()}), в который {@link CallTree} записывает время каждого вызова
+ * метода без вложенных замеряемых вызовов.
+ *
+ * <p>При учёте выполняющихся вызовов хэндл содержит общий для ключа {@link InFlightCalls}
+ * ({@link #getInFlight()}).
+ *
+ * <p>При включённой скользящей статистике хэндл содержит общий для ключа {@link RollingStats}
+ * ({@link #getRolling()}).
+ *
+ * <p>Если ключ метрики зависит от класса цели (в аннотации не задан {@code value}),
+ * хэндл запоминает класс цели и подходит только для вызовов на объектах этого класса.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory
+ * @see TimedMethodProcessor
+ */
+@Getter
+public final class MetricHandle {
+
+    private final String metricKey;
+    private final Class<?> targetClass;
+    private final Timer timer;
+    private final Counter counter;
+    private final int configuredSampleEvery;
+    private volatile int sampleEvery;
+    private final LogLinearHistogram histogram;
+    private Timer sampledTimer;
+    private volatile boolean histogramPaused;
+    private final DynamicTags dynamicTags;
+    private final OutcomeHandles outcomes;
+    @Getter(AccessLevel.NONE)
+    private volatile boolean touched = true;
+    private volatile boolean expired;
+    private volatile boolean enabled = true;
+    private long slowCallThresholdNanos = Long.MAX_VALUE;
+    private Timer selfTimer;
+    private InFlightCalls inFlight;
+    private RollingStats rolling;
+
+    /**
+     * Создаёт хэндл метрик.
+     *
+     * @param metricKey   ключ метрики
+     * @param targetClass класс цели, для которого вычислен ключ, или {@code null},
+     *                    если ключ не зависит от класса цели
+     * @param timer       таймер времени выполнения
+     * @param counter     счётчик вызовов
+     */
+    MetricHandle(String metricKey, Class<?> targetClass, Timer timer, Counter counter) {
+        this(metricKey, targetClass, timer, counter, 1, null);
+    }
+
+    /**
+     * Создаёт хэндл метрик с сэмплированием гистограммы.
+     *
+     * @param metricKey   ключ метрики
+     * @param targetClass класс цели, для которого вычислен ключ, или {@code null}
+     * @param timer       таймер времени выполнения
+     * @param counter     счётчик вызовов
+     * @param sampleEvery в гистограммы записывается в среднем один вызов из {@code sampleEvery}
+     * @param histogram   компактная гистограмма или {@code null}
+     */
+    MetricHandle(String metricKey, Class<?> targetClass, Timer timer, Counter counter, int sampleEvery,
+                 LogLinearHistogram histogram) {
+        this(metricKey, targetClass, timer, counter, sampleEvery, histogram, null, null);
+    }
+
+    /**
+     * Создаёт хэндл метрик метода с динамическими тегами. Собственные таймер и счётчик
+     * хэндла используются для вызовов, значения тегов которых не удалось определить
+     * или которые превысили лимит комбинаций.
+     *
+     * @param metricKey   ключ метрики
+     * @param targetClass класс цели, для которого вычислен ключ, или {@code null}
+     * @param timer       таймер времени выполнения
+     * @param counter     счётчик вызовов
+     * @param sampleEvery в гистограммы записывается в среднем один вызов из {@code sampleEvery}
+     * @param histogram   компактная гистограмма или {@code null}
+     * @param dynamicTags динамические теги метода или {@code null}
+     * @param outcomes    хэндлы неуспешных вызовов или {@code null}, если исходы не разделяются
+     */
+    MetricHandle(String metricKey, Class<?> targetClass, Timer timer, Counter counter, int sampleEvery,
+                 LogLinearHistogram histogram, DynamicTags dynamicTags, OutcomeHandles outcomes) {
+        this.metricKey = metricKey;
+        this.targetClass = targetClass;
+        this.timer = timer;
+        this.counter = counter;
+        this.configuredSampleEvery = Math.max(1, sampleEvery);
+        this.sampleEvery = configuredSampleEvery;
+        this.histogram = histogram;
+        this.dynamicTags = dynamicTags;
+        this.outcomes = outcomes;
+    }
+
+    /**
+     * Проверяет, подходит ли хэндл для вызова на объекте заданного класса.
+     * Сравнение выполняется по ссылке, без аллокаций.
+     *
+     * @param candidateClass класс цели текущего вызова (может быть {@code null})
+     * @return {@code true}, если хэндл можно использовать для записи
+     */
+    public boolean matches(Class<?> candidateClass) {
+        return targetClass == null || targetClass == candidateClass;
+    }
+
+    /**
+     * Возвращает хэндл для вызова, завершившегося исключением. Если исходы вызовов
+     * не разделяются ({@code method.metrics.outcome-tags=false}), возвращает этот же хэндл.
+     *
+     * @param error исключение
+     * @return хэндл для записи неуспешного вызова
+     */
+    public MetricHandle forError(Throwable error) {
+        return outcomes == null ? this : outcomes.select(error);
+    }
+
+    /**
+     * Записывает одно выполнение метода: увеличивает счётчик, добавляет длительность в таймер
+     * и, если вызов попал в выборку, в гистограммы.
+     *
+     * @param durationNanos время выполнения в наносекундах
+     */
+    public void record(long durationNanos) {
+        record(durationNanos, histogram != null ? System.nanoTime() : 0L);
+    }
+
+    /**
+     * Записывает одно выполнение метода так же, как {@link #record(long)}. Момент завершения
+     * вызова, уже измеренный перехватчиком, используется для смены окон компактной гистограммы.
+     *
+     * @param durationNanos время выполнения в наносекундах
+     * @param endNanos      момент завершения вызова по {@link System#nanoTime()}
+     */
+    public void record(long durationNanos, long endNanos) {
+        if (!touched) {
+            touched = true;
+        }
+        counter.increment();
+        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+        Timer sampled = sampledTimer;
+        if (sampled == null && histogram == null) {
+            return;
+        }
+        int every = sampleEvery;
+        if (every == 1 || ThreadLocalRandom.current().nextInt(every) == 0) {
+            if (sampled != null) {
+                sampled.record(durationNanos, TimeUnit.NANOSECONDS);
+            }
+            if (histogram != null && !histogramPaused) {
+                histogram.record(durationNanos, endNanos);
+            }
+        }
+    }
+
+    /**
+     * Записывает собственное время вызова в таймер {@code .self}, если он есть.
+     *
+     * @param selfNanos собственное время вызова в наносекундах
+     */
+    public void recordSelf(long selfNanos) {
+        Timer self = selfTimer;
+        if (self != null) {
+            self.record(selfNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Включает или отключает замер метода.
+     *
+     * @param enabled {@code false}, чтобы вызовы метода выполнялись без замера
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Задаёт порог медленного вызова. Вызывается фабрикой до публикации хэндла.
+     *
+     * @param slowCallThresholdNanos порог в наносекундах или {@link Long#MAX_VALUE}, если захват отключён
+     */
+    void setSlowCallThresholdNanos(long slowCallThresholdNanos) {
+        this.slowCallThresholdNanos = slowCallThresholdNanos;
+    }
+
+    /**
+     * Задаёт таймер с гистограммой Micrometer, в который записывается выборка вызовов.
+     * Вызывается фабрикой до публикации хэндла.
+     *
+     * @param sampledTimer таймер {@code .duration.sampled} или {@code null}, если гистограмма
+     *                     публикуется основным таймером или не используется
+     */
+    void setSampledTimer(Timer sampledTimer) {
+        this.sampledTimer = sampledTimer;
+    }
+
+    /**
+     * Задаёт таймер собственного времени. Вызывается фабрикой до публикации хэндла.
+     *
+     * @param selfTimer таймер {@code .self} или {@code null}, если дерево вызовов отключено
+     */
+    void setSelfTimer(Timer selfTimer) {
+        this.selfTimer = selfTimer;
+    }
+
+    /**
+     * Задаёт учёт выполняющихся вызовов. Вызывается фабрикой до публикации хэндла.
+     *
+     * @param inFlight учёт выполняющихся вызовов ключа или {@code null}
+     */
+    void setInFlight(InFlightCalls inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Задаёт скользящую статистику. Вызывается фабрикой до публикации хэндла.
+     *
+     * @param rolling скользящая статистика ключа или {@code null}
+     */
+    void setRolling(RollingStats rolling) {
+        this.rolling = rolling;
+    }
+
+    /**
+     * Изменяет частоту сэмплирования гистограмм и запись в компактную гистограмму под нагрузкой.
+     * Частота не опускается ниже заданной в аннотации или свойствах.
+     *
+     * @param sampleEvery     новая частота сэмплирования
+     * @param histogramPaused {@code true}, чтобы приостановить запись в компактную гистограмму
+     */
+    void throttle(int sampleEvery, boolean histogramPaused) {
+        this.sampleEvery = Math.max(configuredSampleEvery, sampleEvery);
+        this.histogramPaused = histogramPaused;
+    }
+
+    /**
+     * Проверяет, удалены ли метрики хэндла из реестра при истечении простоя ключа.
+     * Фабрика не возвращает такие хэндлы из кэшей и создаёт вместо них новые.
+     *
+     * @return {@code true}, если метрики хэндла удалены
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * Отмечает, что метрики хэндла удалены из реестра. Вызывается фабрикой при истечении ключа.
+     */
+    void expire() {
+        expired = true;
+    }
+
+    /**
+     * Проверяет, есть ли у хэндла гистограмма, запись в которую можно сэмплировать
+     * или приостановить.
+     *
+     * @return {@code true}, если есть компактная гистограмма или таймер {@code .duration.sampled}
+     */
+    boolean hasSampledHistogram() {
+        return histogram != null || sampledTimer != null;
+    }
+
+    /**
+     * Сбрасывает флаг обращения.
+     *
+     * @return {@code true}, если с момента предыдущего сброса были вызовы
+     */
+    boolean resetTouched() {
+        if (touched) {
+            touched = false;
+            return true;
+        }
+        return false;
+    }
+}
@@ -35,13 +35,72 @@ public class MetricNameResolver {
         }
 
         MethodSignature signature = (MethodSignature) joinPoint.getSignature();
-        Method method = signature.getMethod();
-        Object target = joinPoint.getTarget();
+        return resolve(signature.getMethod(), joinPoint.getTarget(), annotation);
+    }
+
+    /**
+     * Определяет ключ метрики для метода и объекта, на котором он вызывается.
+     *
+     * @param method     вызываемый метод
+     * @param target     целевой объект (может быть {@code null})
+     * @param annotation аннотация {@link TimedMethod} (может быть {@code null})
+     * @return ключ метрики
+     */
+    public String resolve(Method method, Object target, TimedMethod annotation) {
+        if (annotation != null && !annotation.value().isEmpty()) {
+            return annotation.value();
+        }
+
+        Class<?> targetClass = (target != null) ? AopProxyUtils.ultimateTargetClass(target) : null;
+        return resolveForClass(method, targetClass, annotation);
+    }
+
+    /**
+     * Определяет ключ метрики для метода по классу цели, без экземпляра объекта.
+     * Используется при предварительной регистрации метрик на старте контекста.
+     *
+     * @param method      метод
+     * @param targetClass пользовательский класс цели (может быть {@code null})
+     * @param annotation  аннотация {@link TimedMethod} (может быть {@code null})
+     * @return ключ метрики
+     */
+    public String resolveForClass(Method method, Class<?> targetClass, TimedMethod annotation) {
+        if (annotation != null && !annotation.value().isEmpty()) {
+            return annotation.value();
+        }
 
-        String className = (target != null)
-                ? AopProxyUtils.ultimateTargetClass(target).getSimpleName()
+        String className = (targetClass != null)
+                ? targetClass.getSimpleName()
                 : method.getDeclaringClass().getSimpleName();
 
         return className + "." + method.getName();
     }
+
+    /**
+     * Проверяет, зависит ли ключ метрики от класса целевого объекта.
+     *
+     * @param annotation аннотация {@link TimedMethod} (может быть {@code null})
+     * @return {@code true}, если в аннотации не задано явное имя метрики
+     */
+    public boolean isTargetDependent(TimedMethod annotation) {
+        return annotation == null || annotation.value().isEmpty();
+    }
+
+    /**
+     * Проверяет, зависит ли ключ метрики вызова метода от класса целевого объекта. Кроме ключей
+     * без явного имени, от класса зависят имена, полученные из аннотации класса
+     * ({@code value} класса с именем метода): унаследованный метод у двух аннотированных
+     * наследников получает разные ключи.
+     *
+     * @param annotation эффективная аннотация {@link TimedMethod} вызова (может быть {@code null})
+     * @param method     вызываемый метод
+     * @return {@code true}, если имя метрики не задано явно собственной аннотацией метода
+     */
+    public boolean isTargetDependent(TimedMethod annotation, Method method) {
+        if (isTargetDependent(annotation)) {
+            return true;
+        }
+        TimedMethod own = method.getAnnotation(TimedMethod.class);
+        return own == null || !own.value().equals(annotation.value());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,130 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Хэндлы метрик неуспешных вызовов метода, разделённые по классу исключения.
+ *
+ * <p>При {@code method.metrics.outcome-tags=true} основной хэндл метода записывает успешные
+ * вызовы с тегами {@code outcome=success, exception=none}, а вызовы, завершившиеся исключением,
+ * записываются в хэндл с тегами {@code outcome=error, exception=<SimpleName>}. Хэндл создаётся
+ * один раз на класс исключения и далее берётся из кэша по {@link Class}, поэтому запись ошибки
+ * не строит строк. Число различных классов исключений на метод ограничено; остальные
+ * записываются с {@code exception=other}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricHandle#forError(Throwable)
+ * @see MetricFactory
+ */
+@Slf4j
+public final class OutcomeHandles {
+
+    /**
+     * Значение тега {@code outcome} для успешных вызовов.
+     */
+    public static final String SUCCESS = "success";
+
+    /**
+     * Значение тега {@code outcome} для вызовов, завершившихся исключением.
+     */
+    public static final String ERROR = "error";
+
+    /**
+     * Значение тега {@code exception} для успешных вызовов.
+     */
+    public static final String NONE = "none";
+
+    /**
+     * Значение тега {@code exception} для классов исключений сверх лимита.
+     */
+    public static final String OTHER = "other";
+
+    private final int maxExceptionClasses;
+    private final Function<String, MetricHandle> handleFactory;
+    private final ConcurrentHashMap<Class<?>, MetricHandle> handles = new ConcurrentHashMap<>();
+    private final AtomicInteger exceptionClasses = new AtomicInteger();
+    private volatile MetricHandle other;
+
+    /**
+     * Создаёт набор хэндлов неуспешных вызовов.
+     *
+     * @param maxExceptionClasses максимальное число различных классов исключений
+     * @param handleFactory       создаёт хэндл для значения тега {@code exception}
+     */
+    OutcomeHandles(int maxExceptionClasses, Function<String, MetricHandle> handleFactory) {
+        this.maxExceptionClasses = maxExceptionClasses;
+        this.handleFactory = handleFactory;
+    }
+
+    /**
+     * Возвращает теги успешного вызова.
+     *
+     * @return теги {@code outcome=success, exception=none}
+     */
+    static Tags successTags() {
+        return Tags.of("outcome", SUCCESS, "exception", NONE);
+    }
+
+    /**
+     * Возвращает теги неуспешного вызова.
+     *
+     * @param exceptionName значение тега {@code exception}
+     * @return теги {@code outcome=error, exception=<exceptionName>}
+     */
+    static Tags errorTags(String exceptionName) {
+        return Tags.of("outcome", ERROR, "exception", exceptionName);
+    }
+
+    /**
+     * Возвращает хэндл для вызова, завершившегося исключением.
+     *
+     * @param error исключение
+     * @return хэндл класса исключения или общий хэндл {@code exception=other}
+     */
+    MetricHandle select(Throwable error) {
+        Class<?> errorClass = error.getClass();
+        MetricHandle handle = handles.get(errorClass);
+        if (handle != null) {
+            return handle;
+        }
+        if (exceptionClasses.incrementAndGet() > maxExceptionClasses) {
+            exceptionClasses.decrementAndGet();
+            return other();
+        }
+        boolean[] created = new boolean[1];
+        handle = handles.computeIfAbsent(errorClass, key -> {
+            created[0] = true;
+            log.debug("Creating error metrics for exception {}", key.getName());
+            return handleFactory.apply(exceptionName(key));
+        });
+        if (!created[0]) {
+            exceptionClasses.decrementAndGet();
+        }
+        return handle;
+    }
+
+    private MetricHandle other() {
+        MetricHandle handle = other;
+        if (handle == null) {
+            synchronized (this) {
+                handle = other;
+                if (handle == null) {
+                    handle = handleFactory.apply(OTHER);
+                    other = handle;
+                }
+            }
+        }
+        return handle;
+    }
+
+    private static String exceptionName(Class<?> errorClass) {
+        String simpleName = errorClass.getSimpleName();
+        return simpleName.isEmpty() ? errorClass.getName() : simpleName;
+    }
+}
@@ -0,0 +1,213 @@
+package ru.domdom.metrics.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Адаптивное ограничение накладных расходов замера под нагрузкой.
+ *
+ * <p>Для одного вызова из {@code probe-every} перехватчик замеряет собственное время вне
+ * вызова целевого метода (поиск хэндла, выбор метрик и запись) и передаёт его в
+ * {@link #observe(MetricHandle, long, long)} вместе со временем метода. Раз в {@code interval}
+ * для каждого ключа метрики вычисляется доля накладных расходов; если она превышает
+ * {@code budget}, частота сэмплирования гистограммы удваивается (до {@code max-sample-every}),
+ * а затем приостанавливается запись в компактную гистограмму. Когда доля падает ниже
+ * четверти бюджета или вызовов становится слишком мало для оценки, ограничения снимаются
+ * в обратном порядке, по одному шагу за интервал. Порог снятия выбран так, чтобы удвоение
+ * числа записей не вернуло долю выше бюджета.
+ *
+ * <p>Ограничитель сэмплирует только работу с гистограммой: счётчик {@code .calls} и таймер
+ * {@code .duration} получают каждый вызов, поэтому их число вызовов и сумма времени точны при
+ * любом ограничении. Гистограмма Micrometer при включённом ограничителе публикуется отдельным
+ * таймером {@code .duration.sampled}. Методы без гистограммы не ограничиваются: их запись
+ * нечем сократить.
+ *
+ * <p>Приостановить можно только компактную гистограмму ({@code histogram-engine=compact}).
+ * Для таймера {@code .duration.sampled} единственное ограничение — частота сэмплирования.
+ *
+ * <p>Асинхронные вызовы не замеряются: их запись выполняется в другом потоке.
+ *
+ * <p>Включается свойством {@code method.metrics.governor.enabled=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricHandle#getSampleEvery()
+ * @see TimedMethodProcessor#probeStart()
+ */
+@Slf4j
+public class OverheadGovernor implements InitializingBean, DisposableBean {
+
+    /**
+     * Минимальное число замеров за интервал, при котором принимается решение об ограничении.
+     */
+    static final int MIN_PROBES = 16;
+
+    private final MetricFactory metricFactory;
+    private final double budget;
+    private final int probeEvery;
+    private final Duration interval;
+    private final int maxSampleEvery;
+    private final ConcurrentHashMap<String, KeyState> states = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evaluator;
+
+    /**
+     * Создаёт ограничитель накладных расходов.
+     *
+     * @param metricFactory фабрика метрик
+     * @param properties    конфигурационные свойства
+     */
+    public OverheadGovernor(MetricFactory metricFactory, MethodMetricsProperties properties) {
+        MethodMetricsProperties.Governor settings = properties.getGovernor();
+        this.metricFactory = metricFactory;
+        this.budget = settings.getBudget();
+        this.probeEvery = Math.max(1, settings.getProbeEvery());
+        this.interval = settings.getInterval();
+        this.maxSampleEvery = Math.max(1, settings.getMaxSampleEvery());
+    }
+
+    /**
+     * Запускает периодическую оценку накладных расходов.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("timed-method-governor-");
+        threadFactory.setDaemon(true);
+        evaluator = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long intervalNanos = interval.toNanos();
+        evaluator.scheduleWithFixedDelay(this::evaluate, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        log.info("Instrumentation overhead governor started: budget {}%, probe 1 of {} calls, evaluate every {}",
+                budget * 100, probeEvery, interval);
+    }
+
+    /**
+     * Решает, замерять ли накладные расходы текущего вызова.
+     *
+     * @return {@code true} для одного вызова из {@code probe-every} в среднем
+     */
+    public boolean shouldProbe() {
+        return probeEvery == 1 || ThreadLocalRandom.current().nextInt(probeEvery) == 0;
+    }
+
+    /**
+     * Учитывает замер одного вызова.
+     *
+     * @param handle         хэндл метода
+     * @param methodNanos    время выполнения целевого метода
+     * @param overheadNanos  время перехватчика вне вызова целевого метода
+     */
+    public void observe(MetricHandle handle, long methodNanos, long overheadNanos) {
+        if (!handle.hasSampledHistogram()) {
+            return;
+        }
+        KeyState state = states.get(handle.getMetricKey());
+        if (state == null) {
+            state = states.computeIfAbsent(handle.getMetricKey(), k -> new KeyState(handle.getHistogram() != null));
+        }
+        state.probes.increment();
+        state.methodNanos.add(methodNanos);
+        state.overheadNanos.add(overheadNanos);
+    }
+
+    /**
+     * Возвращает текущий множитель частоты сэмплирования для ключа.
+     *
+     * @param metricKey ключ метрики
+     * @return множитель ({@code 1}, если ограничений нет)
+     */
+    public int getFactor(String metricKey) {
+        KeyState state = states.get(metricKey);
+        return state == null ? 1 : state.factor;
+    }
+
+    /**
+     * Оценивает накладные расходы за прошедший интервал и изменяет ограничения.
+     * Вызывается фоновым потоком.
+     *
+     * @return число ключей, для которых изменены ограничения
+     */
+    synchronized int evaluate() {
+        int changed = 0;
+        try {
+            for (var entry : states.entrySet()) {
+                if (evaluate(entry.getKey(), entry.getValue())) {
+                    changed++;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to evaluate instrumentation overhead", e);
+        }
+        return changed;
+    }
+
+    private boolean evaluate(String metricKey, KeyState state) {
+        long probes = state.probes.sumThenReset();
+        long methodNanos = state.methodNanos.sumThenReset();
+        long overheadNanos = state.overheadNanos.sumThenReset();
+        double ratio = (double) overheadNanos / Math.max(1, methodNanos);
+        int factor = state.factor;
+        boolean paused = state.histogramPaused;
+        if (probes >= MIN_PROBES && ratio > budget) {
+            if ((long) factor * 2 <= maxSampleEvery) {
+                factor *= 2;
+            } else if (state.hasHistogram) {
+                paused = true;
+            }
+        } else if (probes < MIN_PROBES || ratio < budget / 4) {
+            if (paused) {
+                paused = false;
+            } else if (factor > 1) {
+                factor /= 2;
+            }
+        }
+        if (factor == state.factor && paused == state.histogramPaused) {
+            if (factor > 1 || paused) {
+                metricFactory.throttle(metricKey, factor, maxSampleEvery, paused);
+            }
+            return false;
+        }
+        state.factor = factor;
+        state.histogramPaused = paused;
+        metricFactory.throttle(metricKey, factor, maxSampleEvery, paused);
+        log.info("Instrumentation overhead of {} is {}%: sample factor {}, histogram {}",
+                metricKey, String.format("%.2f", ratio * 100), factor, paused ? "paused" : "active");
+        return true;
+    }
+
+    /**
+     * Останавливает фоновый поток.
+     */
+    @Override
+    public void destroy() {
+        if (evaluator != null) {
+            evaluator.shutdownNow();
+        }
+    }
+
+    /**
+     * Замеры и текущие ограничения одного ключа метрики.
+     */
+    private static final class KeyState {
+
+        private final LongAdder probes = new LongAdder();
+        private final LongAdder methodNanos = new LongAdder();
+        private final LongAdder overheadNanos = new LongAdder();
+        private final boolean hasHistogram;
+        private volatile int factor = 1;
+        private volatile boolean histogramPaused;
+
+        private KeyState(boolean hasHistogram) {
+            this.hasHistogram = hasHistogram;
+        }
+    }
+}
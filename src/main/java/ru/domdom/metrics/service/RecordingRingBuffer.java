@@ -0,0 +1,110 @@
+package ru.domdom.metrics.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограниченный неблокирующий кольцевой буфер измерений (хэндл метрики и длительность)
+ * для многих производителей и одного потребителя.
+ *
+ * <p>Каждая ячейка хранит номер последовательности: производитель занимает позицию
+ * CAS-операцией над хвостом, записывает данные и публикует ячейку записью номера,
+ * потребитель читает ячейку только после публикации. Хэндлы и длительности хранятся
+ * в обычных массивах, поэтому запись не создаёт объектов. Если буфер заполнен,
+ * {@link #offer} сразу возвращает {@code false}, не блокируя вызывающий поток.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see AsyncMetricRecorder
+ */
+final class RecordingRingBuffer {
+
+    private final int mask;
+    private final MetricHandle[] handles;
+    private final long[] durations;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    /**
+     * Создаёт буфер.
+     *
+     * @param capacity ёмкость; округляется вверх до степени двойки
+     */
+    RecordingRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.handles = new MetricHandle[size];
+        this.durations = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Добавляет измерение в буфер.
+     *
+     * @param handle        хэндл метрики
+     * @param durationNanos длительность в наносекундах
+     * @return {@code false}, если буфер заполнен и измерение не принято
+     */
+    boolean offer(MetricHandle handle, long durationNanos) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    handles[index] = handle;
+                    durations[index] = durationNanos;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Извлекает опубликованные измерения и передаёт их потребителю.
+     * Может вызываться только из одного потока.
+     *
+     * @param consumer потребитель измерений
+     * @return число извлечённых измерений
+     */
+    int drain(Consumer consumer) {
+        int drained = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return drained;
+            }
+            MetricHandle handle = handles[index];
+            long duration = durations[index];
+            handles[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+            consumer.accept(handle, duration);
+        }
+    }
+
+    /**
+     * Возвращает ёмкость буфера.
+     *
+     * @return ёмкость
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Потребитель измерений без упаковки длительности.
+     */
+    @FunctionalInterface
+    interface Consumer {
+        void accept(MetricHandle handle, long durationNanos);
+    }
+}
@@ -0,0 +1,245 @@
+package ru.domdom.metrics.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Скользящая статистика вызовов одного ключа метрики за последние 10 секунд, минуту и 5 минут:
+ * частота вызовов, доля ошибок и процентили длительности.
+ *
+ * <p>Статистика хранится в двух кольцевых буферах временных срезов на плоских массивах
+ * {@link AtomicLongArray}: 10 срезов по секунде для окна {@link Window#TEN_SECONDS} и 20 срезов
+ * по 15 секунд для {@link Window#ONE_MINUTE} и {@link Window#FIVE_MINUTES}. Срез содержит
+ * число вызовов, число ошибок и {@value #BUCKETS} корзин длительности: по {@value #SUB_BUCKETS}
+ * на степень двойки от 1 мкс до ~137 с, так что относительная погрешность процентилей
+ * не превышает 12,5%. Статистика одного ключа занимает около 27 КБ. Запись — несколько
+ * атомарных инкрементов без аллокаций; срез, время которого прошло, обнуляется первым
+ * обратившимся к нему потоком.
+ *
+ * <p>Окно включает текущий, ещё не завершённый срез, поэтому фактически покрывает от
+ * {@code window - slice} до {@code window}; частота считается по фактически покрытому интервалу.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory#getRollingStats(String, Window)
+ */
+public final class RollingStats {
+
+    private static final int SUB_BITS = 2;
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 36;
+
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private static final int CALLS = 0;
+    private static final int ERRORS = 1;
+    private static final int HEADER = 2;
+
+    private final Ring fine = new Ring(Duration.ofSeconds(1), 10);
+    private final Ring coarse = new Ring(Duration.ofSeconds(15), 20);
+    private final long createdNanos = System.nanoTime();
+
+    /**
+     * Записывает завершённый вызов.
+     *
+     * @param durationNanos длительность вызова в наносекундах
+     * @param failed        {@code true}, если вызов завершился исключением
+     */
+    public void record(long durationNanos, boolean failed) {
+        record(System.nanoTime(), durationNanos, failed);
+    }
+
+    void record(long now, long durationNanos, boolean failed) {
+        int bucket = bucketOf(durationNanos);
+        fine.record(now, bucket, failed);
+        coarse.record(now, bucket, failed);
+    }
+
+    /**
+     * Возвращает статистику за окно.
+     *
+     * @param window окно
+     * @return статистика за окно
+     */
+    public Snapshot snapshot(Window window) {
+        return snapshot(System.nanoTime(), window);
+    }
+
+    Snapshot snapshot(long now, Window window) {
+        Ring ring = window == Window.TEN_SECONDS ? fine : coarse;
+        int slices = (int) (window.getDuration().toNanos() / ring.sliceNanos);
+        long[] totals = ring.sum(now, slices);
+        long calls = totals[CALLS];
+        long covered = Math.min(ring.coveredNanos(now, slices), now - createdNanos);
+        double seconds = Math.max(covered, ring.sliceNanos) / 1_000_000_000.0;
+        return new Snapshot(window.getDuration(), calls, totals[ERRORS],
+                calls / seconds,
+                calls == 0 ? 0 : (double) totals[ERRORS] / calls,
+                percentile(totals, calls, 0.5),
+                percentile(totals, calls, 0.99));
+    }
+
+    /**
+     * Оценивает объём памяти, занимаемый статистикой, в байтах.
+     *
+     * @return оценка объёма памяти
+     */
+    public long footprintBytes() {
+        return fine.footprintBytes() + coarse.footprintBytes();
+    }
+
+    static int bucketOf(long valueNanos) {
+        if (valueNanos < (1L << MIN_EXPONENT)) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(valueNanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (valueNanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + sub;
+    }
+
+    static double midpointNanos(int bucket) {
+        if (bucket == 0) {
+            return (1L << MIN_EXPONENT) / 2.0;
+        }
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int sub = (bucket - 1) % SUB_BUCKETS;
+        double width = (double) (1L << exponent) / SUB_BUCKETS;
+        return (1L << exponent) + width * (sub + 0.5);
+    }
+
+    private static double percentile(long[] totals, long calls, double percentile) {
+        if (calls == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * calls));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += totals[HEADER + bucket];
+            if (seen >= rank) {
+                return midpointNanos(bucket);
+            }
+        }
+        return midpointNanos(BUCKETS - 1);
+    }
+
+    /**
+     * Кольцевой буфер временных срезов одинаковой длительности.
+     */
+    private static final class Ring {
+
+        private static final int WIDTH = HEADER + BUCKETS;
+
+        private final long sliceNanos;
+        private final int slices;
+        private final AtomicLongArray epochs;
+        private final AtomicLongArray data;
+
+        Ring(Duration slice, int slices) {
+            this.sliceNanos = slice.toNanos();
+            this.slices = slices;
+            this.epochs = new AtomicLongArray(slices);
+            this.data = new AtomicLongArray(slices * WIDTH);
+            for (int slot = 0; slot < slices; slot++) {
+                epochs.set(slot, Long.MIN_VALUE);
+            }
+        }
+
+        void record(long now, int bucket, boolean failed) {
+            long epoch = Math.floorDiv(now, sliceNanos);
+            int slot = (int) Math.floorMod(epoch, (long) slices);
+            if (epochs.get(slot) != epoch) {
+                reset(slot, epoch);
+            }
+            int base = slot * WIDTH;
+            data.getAndIncrement(base + CALLS);
+            if (failed) {
+                data.getAndIncrement(base + ERRORS);
+            }
+            data.getAndIncrement(base + HEADER + bucket);
+        }
+
+        /**
+         * Суммирует последние {@code count} срезов, включая текущий.
+         */
+        long[] sum(long now, int count) {
+            long current = Math.floorDiv(now, sliceNanos);
+            long[] totals = new long[WIDTH];
+            for (int slot = 0; slot < slices; slot++) {
+                long epoch = epochs.get(slot);
+                if (epoch > current - count && epoch <= current) {
+                    int base = slot * WIDTH;
+                    for (int i = 0; i < WIDTH; i++) {
+                        totals[i] += data.get(base + i);
+                    }
+                }
+            }
+            return totals;
+        }
+
+        long coveredNanos(long now, int count) {
+            return (count - 1) * sliceNanos + Math.floorMod(now, sliceNanos);
+        }
+
+        long footprintBytes() {
+            return 2L * 16 + 16 + 8L * slices + 16 + 8L * slices * WIDTH;
+        }
+
+        private synchronized void reset(int slot, long epoch) {
+            if (epochs.get(slot) >= epoch) {
+                return;
+            }
+            int base = slot * WIDTH;
+            for (int i = 0; i < WIDTH; i++) {
+                data.set(base + i, 0);
+            }
+            epochs.set(slot, epoch);
+        }
+    }
+
+    /**
+     * Окно скользящей статистики.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public enum Window {
+
+        /**
+         * Последние 10 секунд.
+         */
+        TEN_SECONDS(Duration.ofSeconds(10)),
+
+        /**
+         * Последняя минута.
+         */
+        ONE_MINUTE(Duration.ofMinutes(1)),
+
+        /**
+         * Последние 5 минут.
+         */
+        FIVE_MINUTES(Duration.ofMinutes(5));
+
+        private final Duration duration;
+    }
+
+    /**
+     * Статистика вызовов за окно.
+     */
+    @Value
+    public static class Snapshot {
+        Duration window;
+        long calls;
+        long errors;
+        double callsPerSecond;
+        double errorRate;
+        double p50Nanos;
+        double p99Nanos;
+    }
+}
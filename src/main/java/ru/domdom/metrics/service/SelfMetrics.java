@@ -0,0 +1,156 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.InitializingBean;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики накладных расходов самого стартера.
+ *
+ * <p>Публикует:
+ * <ul>
+ *   <li>{@code <prefix>.self.meters} с тегом {@code type=timer|counter} — число таймеров
+ *       и счётчиков, созданных {@link MetricFactory};</li>
+ *   <li>{@code <prefix>.self.cache.misses} с тегом {@code cache=handle|meter} — промахи кэшей
+ *       хэндлов и метрик {@link MetricFactory}, то есть обращения, потребовавшие создания;</li>
+ *   <li>{@code <prefix>.self.record} — оценка времени, проведённого в
+ *       {@link TimedMethodProcessor#record(MetricHandle, long)};</li>
+ *   <li>{@code <prefix>.self.failures} с тегом {@code operation=create|select|record} — ошибки,
+ *       которые стартер логирует и не пробрасывает в вызывающий код.</li>
+ * </ul>
+ *
+ * <p>Время записи замеряется для одного вызова из {@code sampleEvery}, решение принимается
+ * по {@link ThreadLocalRandom}. Таймер {@code .self.record} публикуется как {@link FunctionTimer}
+ * с числом и суммой длительностей выборки, умноженными на {@code sampleEvery}, поэтому его
+ * {@code sum} оценивает полное процессорное время записи и может сравниваться с временем
+ * процесса ({@code process.cpu.time}).
+ *
+ * <p>Включается свойством {@code method.metrics.self-instrumentation.enabled=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see TimedMethodProcessor
+ * @see MetricFactory
+ */
+public class SelfMetrics implements InitializingBean {
+
+    /**
+     * Операции стартера, ошибки которых учитываются в {@code <prefix>.self.failures}.
+     */
+    public enum Operation {
+
+        /**
+         * Вычисление ключа и создание метрик метода.
+         */
+        CREATE,
+
+        /**
+         * Выбор метрик по динамическим тегам и исходу вызова.
+         */
+        SELECT,
+
+        /**
+         * Запись измерения в метрики.
+         */
+        RECORD
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final MetricFactory metricFactory;
+    private final String prefix;
+    private final int sampleEvery;
+    private final LongAdder sampledRecords = new LongAdder();
+    private final LongAdder sampledNanos = new LongAdder();
+    private final Map<Operation, Counter> failures = new EnumMap<>(Operation.class);
+
+    /**
+     * Создаёт метрики накладных расходов.
+     *
+     * @param meterRegistry реестр метрик
+     * @param metricFactory фабрика метрик, размеры кэшей которой публикуются
+     * @param properties    конфигурационные свойства
+     */
+    public SelfMetrics(MeterRegistry meterRegistry, MetricFactory metricFactory, MethodMetricsProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.metricFactory = metricFactory;
+        this.prefix = properties.getPrefix();
+        this.sampleEvery = Math.max(1, properties.getSelfInstrumentation().getSampleEvery());
+    }
+
+    /**
+     * Регистрирует метрики в реестре.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Gauge.builder(prefix + ".self.meters", metricFactory, MetricFactory::getTimerCount)
+                .description("Timers created by the method metrics starter")
+                .tag("type", "timer")
+                .register(meterRegistry);
+        Gauge.builder(prefix + ".self.meters", metricFactory, MetricFactory::getCounterCount)
+                .description("Counters created by the method metrics starter")
+                .tag("type", "counter")
+                .register(meterRegistry);
+        FunctionCounter.builder(prefix + ".self.cache.misses", metricFactory, MetricFactory::getHandleMissCount)
+                .description("Metric handle lookups that had to create a handle")
+                .tag("cache", "handle")
+                .register(meterRegistry);
+        FunctionCounter.builder(prefix + ".self.cache.misses", metricFactory, MetricFactory::getMeterMissCount)
+                .description("Meter lookups that had to create a meter")
+                .tag("cache", "meter")
+                .register(meterRegistry);
+        FunctionTimer.builder(prefix + ".self.record", this,
+                        self -> self.sampledRecords.sum() * self.sampleEvery,
+                        self -> (double) self.sampledNanos.sum() * self.sampleEvery,
+                        TimeUnit.NANOSECONDS)
+                .description("Estimated time spent recording measurements, scaled from a sample")
+                .register(meterRegistry);
+        for (Operation operation : Operation.values()) {
+            failures.put(operation, Counter.builder(prefix + ".self.failures")
+                    .description("Errors swallowed by the method metrics starter")
+                    .tag("operation", operation.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Решает, замерять ли время текущей записи.
+     *
+     * @return {@code true} для одного вызова из {@code sampleEvery} в среднем
+     */
+    public boolean shouldSample() {
+        return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+    }
+
+    /**
+     * Учитывает замеренное время одной записи.
+     *
+     * @param durationNanos время записи в наносекундах
+     */
+    public void recordOverhead(long durationNanos) {
+        sampledRecords.increment();
+        sampledNanos.add(durationNanos);
+    }
+
+    /**
+     * Учитывает ошибку, которая была залогирована и не проброшена.
+     *
+     * @param operation операция, завершившаяся ошибкой
+     */
+    public void failed(Operation operation) {
+        Counter counter = failures.get(operation);
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ru.domdom.metrics.service;
+
+import lombok.Value;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.PatternMatchUtils;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Журнал медленных вызовов: кольцевой буфер фиксированного размера без блокировок.
+ *
+ * <p>Перехватчик сравнивает длительность вызова с порогом из {@link MetricHandle#getSlowCallThresholdNanos()}
+ * и только для вызовов дольше порога обращается к журналу, поэтому быстрые вызовы не создают
+ * объектов. Для медленного вызова сохраняются ключ метрики, метод, длительность, поток,
+ * время начала, при {@code capture-arguments=true} строковое представление аргументов
+ * (не длиннее {@code max-argument-length}), класс исключения и, при {@code capture-stack=true},
+ * стек: стек исключения или стек вызывающего кода без кадров AOP и стартера.
+ *
+ * <p>Запись медленного вызова не бесплатна: даже без аргументов и стека она создаёт запись
+ * журнала и строку времени начала.
+ *
+ * <p>Место в буфере резервируется через {@link AtomicLong#getAndIncrement()}, запись
+ * публикуется через {@link AtomicReferenceArray}; при переполнении перезаписываются самые
+ * старые вызовы.
+ *
+ * <p>Включается свойством {@code method.metrics.slow-calls.enabled=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MethodMetricsProperties.SlowCalls
+ */
+public final class SlowCallLog {
+
+    private static final String[] SKIPPED_FRAME_PREFIXES = {
+            "ru.domdom.metrics.aspect.TimedExecution", "ru.domdom.metrics.aspect.TimedMethodAspect",
+            "ru.domdom.metrics.aspect.TimedMethodInterceptor", "ru.domdom.metrics.aspect.TimedMethodWeavingAspect",
+            "ru.domdom.metrics.service.TimedMethodProcessor",
+            "ru.domdom.metrics.service.SlowCallLog", "org.springframework.aop.", "org.aspectj.",
+            "jdk.internal.reflect.", "java.lang.reflect."
+    };
+    private static final String ELLIPSIS = "...";
+
+    private final AtomicReferenceArray<SlowCall> slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+    private final boolean captureArguments;
+    private final int maxArgumentLength;
+    private final boolean captureStack;
+    private final int maxStackDepth;
+
+    /**
+     * Создаёт журнал по настройкам {@code method.metrics.slow-calls.*}.
+     *
+     * @param properties конфигурационные свойства
+     */
+    public SlowCallLog(MethodMetricsProperties properties) {
+        MethodMetricsProperties.SlowCalls settings = properties.getSlowCalls();
+        int size = Integer.highestOneBit(Math.max(2, settings.getCapacity()) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.captureArguments = settings.isCaptureArguments();
+        this.maxArgumentLength = Math.max(ELLIPSIS.length() + 1, settings.getMaxArgumentLength());
+        this.captureStack = settings.isCaptureStack();
+        this.maxStackDepth = Math.max(1, settings.getMaxStackDepth());
+    }
+
+    /**
+     * Сохраняет медленный вызов. Вызывается в потоке вызова сразу после его завершения.
+     *
+     * @param metricKey     ключ метрики
+     * @param method        вызванный метод
+     * @param args          аргументы вызова
+     * @param durationNanos длительность вызова в наносекундах
+     * @param error         исключение, которым завершился вызов, или {@code null}
+     */
+    public void capture(String metricKey, Method method, Object[] args, long durationNanos, Throwable error) {
+        Instant startedAt = Instant.now().minusNanos(durationNanos);
+        long sequence = cursor.getAndIncrement();
+        SlowCall call = new SlowCall(sequence, metricKey,
+                method != null ? ClassUtils.getQualifiedMethodName(method) : null,
+                durationNanos / 1_000_000.0,
+                Thread.currentThread().getName(),
+                startedAt.toString(),
+                captureArguments ? renderArguments(args) : null,
+                error != null ? error.getClass().getName() : null,
+                captureStack ? renderStack(error) : null);
+        slots.set((int) (sequence & mask), call);
+    }
+
+    /**
+     * Возвращает последние медленные вызовы, начиная с самого нового.
+     *
+     * @param limit   максимальное число вызовов
+     * @param pattern шаблон ключа метрики или полного имени метода или {@code null}
+     * @return медленные вызовы
+     */
+    public List<SlowCall> recent(int limit, String pattern) {
+        List<SlowCall> calls = new ArrayList<>();
+        for (int slot = 0; slot < slots.length(); slot++) {
+            SlowCall call = slots.get(slot);
+            if (call != null && (pattern == null
+                    || PatternMatchUtils.simpleMatch(pattern, call.getKey())
+                    || (call.getMethod() != null && PatternMatchUtils.simpleMatch(pattern, call.getMethod())))) {
+                calls.add(call);
+            }
+        }
+        calls.sort(Comparator.comparingLong(SlowCall::getSequence).reversed());
+        return calls.size() > limit ? new ArrayList<>(calls.subList(0, limit)) : calls;
+    }
+
+    /**
+     * Проверяет, сохраняются ли аргументы медленных вызовов.
+     *
+     * @return {@code true}, если включено {@code method.metrics.slow-calls.capture-arguments}
+     */
+    public boolean isCaptureArguments() {
+        return captureArguments;
+    }
+
+    /**
+     * Возвращает число медленных вызовов с момента старта, включая вытесненные из буфера.
+     *
+     * @return число медленных вызовов
+     */
+    public long getCapturedCount() {
+        return cursor.get();
+    }
+
+    private List<String> renderArguments(Object[] args) {
+        if (args == null) {
+            return List.of();
+        }
+        List<String> rendered = new ArrayList<>(args.length);
+        for (Object arg : args) {
+            rendered.add(render(arg));
+        }
+        return rendered;
+    }
+
+    private String render(Object arg) {
+        String value;
+        try {
+            value = ObjectUtils.nullSafeToString(arg);
+        } catch (RuntimeException e) {
+            value = "<" + arg.getClass().getName() + ": toString() failed: " + e + ">";
+        }
+        return value.length() > maxArgumentLength
+                ? value.substring(0, maxArgumentLength - ELLIPSIS.length()) + ELLIPSIS
+                : value;
+    }
+
+    private List<String> renderStack(Throwable error) {
+        if (error != null) {
+            return Arrays.stream(error.getStackTrace())
+                    .limit(maxStackDepth)
+                    .map(StackTraceElement::toString)
+                    .toList();
+        }
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> !isSkipped(frame.getClassName()))
+                .limit(maxStackDepth)
+                .map(frame -> frame.toStackTraceElement().toString())
+                .toList());
+    }
+
+    private static boolean isSkipped(String className) {
+        for (String prefix : SKIPPED_FRAME_PREFIXES) {
+            if (className.startsWith(prefix) && (prefix.endsWith(".")
+                    || className.length() == prefix.length()
+                    || className.charAt(prefix.length()) == '$')) {
+                return true;
+            }
+        }
+        return className.contains("$$SpringCGLIB$$");
+    }
+
+    /**
+     * Медленный вызов.
+     */
+    @Value
+    public static class SlowCall {
+        long sequence;
+        String key;
+        String method;
+        double durationMillis;
+        String thread;
+        String startedAt;
+        List<String> arguments;
+        String error;
+        List<String> stackTrace;
+    }
+}
@@ -0,0 +1,286 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодическая запись снимков метрик всех ключей в отображённый в память файл,
+ * который переживает аварийное завершение JVM и читается после него {@link SnapshotSpoolReader}.
+ *
+ * <p>Файл состоит из заголовка длиной {@value #FILE_HEADER} байт и кольца из {@code slots}
+ * слотов по {@code slot-size} байт. Каждый снимок записывается в следующий слот прямо в
+ * {@link MappedByteBuffer}: номер снимка, время, число ключей и для каждого ключа — число
+ * вызовов, число замеров, сумма и максимум длительности таймера и ненулевые корзины
+ * компактной гистограммы, если она включена. Ключ кодируется в UTF-8 посимвольно, буферы
+ * слотов создаются один раз при старте, поэтому запись снимка не создаёт объектов на ключ.
+ *
+ * <p>Номер снимка сначала записывается отрицательным и становится положительным только после
+ * записи всего слота, поэтому слот, запись которого прервало завершение процесса, при чтении
+ * пропускается. Данные попадают в страничный кэш ОС сразу и сохраняются при падении процесса;
+ * для сохранения при падении самой ОС нужен {@code force=true}. Ключи, не поместившиеся
+ * в слот, отбрасываются, а снимок помечается как неполный.
+ *
+ * <p>Файл предыдущего запуска при старте переименовывается в {@code <path>.prev}, чтобы
+ * перезапуск после падения не затёр нужные данные.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see SnapshotSpoolReader
+ */
+@Slf4j
+public class SnapshotSpool implements InitializingBean, DisposableBean {
+
+    static final int MAGIC = 0x544D5350;
+    static final int VERSION = 1;
+    static final int FILE_HEADER = 64;
+    static final int SLOT_HEADER = 32;
+    static final int TRUNCATED = 1;
+    static final int STATE_RUNNING = 1;
+    static final int STATE_CLOSED = 2;
+    static final String PREVIOUS_SUFFIX = ".prev";
+
+    private static final int MIN_SLOT_SIZE = 1024;
+    private static final int ENTRY_FIXED_BYTES = Short.BYTES + 4 * Long.BYTES + 1;
+    private static final int MAX_KEY_BYTES = 0xFFFF;
+
+    private final MetricFactory metricFactory;
+    private final Path path;
+    private final Duration interval;
+    private final int slotCount;
+    private final int slotSize;
+    private final boolean force;
+    private final MetricFactory.MeterVisitor writer = this::writeEntry;
+    private MappedByteBuffer mapped;
+    private ByteBuffer[] slots;
+    private long sequence;
+    private ByteBuffer target;
+    private int entries;
+    private boolean truncated;
+    private ScheduledExecutorService spooler;
+
+    /**
+     * Создаёт запись снимков метрик.
+     *
+     * @param metricFactory фабрика метрик
+     * @param path          путь к файлу снимков
+     * @param interval      интервал между снимками
+     * @param slotCount     число слотов в кольце
+     * @param slotSize      размер слота в байтах
+     * @param force         сбрасывать ли страницы файла на диск после каждого снимка
+     */
+    public SnapshotSpool(MetricFactory metricFactory, Path path, Duration interval,
+                         int slotCount, int slotSize, boolean force) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("slots must be positive: " + slotCount);
+        }
+        if (slotSize < MIN_SLOT_SIZE || FILE_HEADER + (long) slotCount * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid slot size " + slotSize + " for " + slotCount + " slots");
+        }
+        this.metricFactory = metricFactory;
+        this.path = path;
+        this.interval = interval;
+        this.slotCount = slotCount;
+        this.slotSize = slotSize;
+        this.force = force;
+    }
+
+    /**
+     * Отображает файл в память и запускает фоновый поток. Если файл не удалось создать,
+     * ошибка записывается в журнал, а снимки не пишутся.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to open metrics snapshot spool {}, snapshots are disabled", path, e);
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("timed-method-spool-");
+        threadFactory.setDaemon(true);
+        spooler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long intervalNanos = interval.toNanos();
+        spooler.scheduleWithFixedDelay(this::snapshot, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        log.info("Metrics snapshot spool started: {} slots of {} bytes in {}, every {}",
+                slotCount, slotSize, path, interval);
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        if (Files.exists(path) && Files.size(path) > 0) {
+            Path previous = path.resolveSibling(path.getFileName() + PREVIOUS_SUFFIX);
+            Files.move(path, previous, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Kept metrics snapshots of the previous run in {}", previous);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_HEADER + (long) slotCount * slotSize);
+        }
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, slotCount);
+        mapped.putInt(12, slotSize);
+        mapped.putLong(16, System.currentTimeMillis());
+        mapped.putLong(24, ProcessHandle.current().pid());
+        mapped.putInt(32, STATE_RUNNING);
+        slots = new ByteBuffer[slotCount];
+        for (int slot = 0; slot < slotCount; slot++) {
+            slots[slot] = mapped.slice(FILE_HEADER + slot * slotSize, slotSize);
+        }
+    }
+
+    /**
+     * Записывает снимок метрик всех ключей в следующий слот.
+     *
+     * @return число записанных ключей
+     */
+    synchronized int snapshot() {
+        if (slots == null) {
+            return 0;
+        }
+        try {
+            long number = ++sequence;
+            long now = System.currentTimeMillis();
+            ByteBuffer slot = slots[(int) ((number - 1) % slotCount)];
+            slot.clear();
+            slot.putLong(0, -number);
+            slot.position(SLOT_HEADER);
+            target = slot;
+            entries = 0;
+            truncated = false;
+            metricFactory.visitMeters(writer);
+            slot.putLong(8, now);
+            slot.putInt(16, entries);
+            slot.putInt(20, truncated ? TRUNCATED : 0);
+            slot.putInt(24, slot.position());
+            VarHandle.releaseFence();
+            slot.putLong(0, number);
+            if (truncated) {
+                log.debug("Metrics snapshot {} truncated to {} keys, consider a larger slot-size", number, entries);
+            }
+            if (force) {
+                mapped.force();
+            }
+            return entries;
+        } catch (Exception e) {
+            log.error("Failed to write metrics snapshot to {}", path, e);
+            return 0;
+        } finally {
+            target = null;
+        }
+    }
+
+    private void writeEntry(String metricKey, Timer timer, Counter counter, LogLinearHistogram histogram) {
+        if (truncated) {
+            return;
+        }
+        ByteBuffer slot = target;
+        int start = slot.position();
+        int keyBytes = utf8Length(metricKey);
+        if (keyBytes > MAX_KEY_BYTES || slot.remaining() < ENTRY_FIXED_BYTES + keyBytes) {
+            truncated = true;
+            return;
+        }
+        slot.putShort((short) keyBytes);
+        putUtf8(slot, metricKey);
+        slot.putLong(counter != null ? (long) counter.count() : timer.count());
+        slot.putLong(timer.count());
+        slot.putLong((long) timer.totalTime(TimeUnit.NANOSECONDS));
+        slot.putLong((long) timer.max(TimeUnit.NANOSECONDS));
+        if (histogram == null) {
+            slot.put((byte) 0);
+        } else if (!histogram.writeBuckets(slot)) {
+            slot.position(start);
+            truncated = true;
+            return;
+        }
+        entries++;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putUtf8(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                char encoded = Character.isSurrogate(c) ? '\uFFFD' : c;
+                buffer.put((byte) (0xE0 | (encoded >> 12)));
+                buffer.put((byte) (0x80 | ((encoded >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (encoded & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Останавливает фоновый поток, записывает последний снимок и отмечает файл как закрытый штатно.
+     */
+    @Override
+    public void destroy() {
+        if (spooler == null) {
+            return;
+        }
+        spooler.shutdown();
+        try {
+            if (!spooler.awaitTermination(1, TimeUnit.SECONDS)) {
+                spooler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshot();
+        synchronized (this) {
+            mapped.putInt(32, STATE_CLOSED);
+            mapped.force();
+        }
+    }
+}
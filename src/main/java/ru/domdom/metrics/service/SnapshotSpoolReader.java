@@ -0,0 +1,229 @@
+package ru.domdom.metrics.service;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Чтение файла снимков, записанного {@link SnapshotSpool}, в том числе после аварийного
+ * завершения приложения.
+ *
+ * <p>Может запускаться из командной строки без контекста Spring:
+ * <pre>
+ * java -cp domdom-metrics-spring-boot-starter.jar ru.domdom.metrics.service.SnapshotSpoolReader /tmp/timed-methods.spool [--all]
+ * </pre>
+ * По умолчанию выводится последний полностью записанный снимок, с {@code --all} — все снимки
+ * от старых к новым.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see SnapshotSpool
+ */
+public final class SnapshotSpoolReader {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private SnapshotSpoolReader() {
+    }
+
+    /**
+     * Выводит снимки из файла.
+     *
+     * @param args путь к файлу и необязательный флаг {@code --all}
+     * @throws IOException если файл не удалось прочитать
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SnapshotSpoolReader <spool file> [--all]");
+            System.exit(2);
+        }
+        Spool spool = read(Path.of(args[0]));
+        boolean all = args.length > 1 && "--all".equals(args[1]);
+        print(spool, all, System.out);
+    }
+
+    /**
+     * Читает файл снимков. Снимки, запись которых не была завершена, пропускаются.
+     *
+     * @param path путь к файлу
+     * @return содержимое файла со снимками от старых к новым
+     * @throws IOException              если файл не удалось прочитать
+     * @throws IllegalArgumentException если файл не является файлом снимков
+     */
+    public static Spool read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < SnapshotSpool.FILE_HEADER || buffer.getInt(0) != SnapshotSpool.MAGIC) {
+            throw new IllegalArgumentException("Not a metrics snapshot spool: " + path);
+        }
+        if (buffer.getInt(4) != SnapshotSpool.VERSION) {
+            throw new IllegalArgumentException("Unsupported spool version " + buffer.getInt(4) + ": " + path);
+        }
+        int slotCount = buffer.getInt(8);
+        int slotSize = buffer.getInt(12);
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = SnapshotSpool.FILE_HEADER + slot * slotSize;
+            if (base + slotSize > buffer.capacity()) {
+                break;
+            }
+            Snapshot snapshot = readSlot(buffer.slice(base, slotSize));
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        snapshots.sort(Comparator.comparingLong(Snapshot::getSequence));
+        return new Spool(Instant.ofEpochMilli(buffer.getLong(16)), buffer.getLong(24),
+                buffer.getInt(32) == SnapshotSpool.STATE_CLOSED, snapshots);
+    }
+
+    private static Snapshot readSlot(ByteBuffer slot) {
+        long sequence = slot.getLong(0);
+        int used = slot.getInt(24);
+        if (sequence <= 0 || used < SnapshotSpool.SLOT_HEADER || used > slot.capacity()) {
+            return null;
+        }
+        int count = slot.getInt(16);
+        slot.position(SnapshotSpool.SLOT_HEADER).limit(used);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[Short.toUnsignedInt(slot.getShort())];
+            slot.get(key);
+            long calls = slot.getLong();
+            long timed = slot.getLong();
+            long totalNanos = slot.getLong();
+            long maxNanos = slot.getLong();
+            int precisionBits = slot.get();
+            int buckets = precisionBits > 0 ? slot.getInt() : 0;
+            int[] indexes = new int[buckets];
+            long[] counts = new long[buckets];
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                indexes[bucket] = slot.getInt();
+                counts[bucket] = slot.getLong();
+            }
+            entries.add(new Entry(new String(key, StandardCharsets.UTF_8), calls, timed, totalNanos, maxNanos,
+                    precisionBits, indexes, counts));
+        }
+        return new Snapshot(sequence, Instant.ofEpochMilli(slot.getLong(8)),
+                (slot.getInt(20) & SnapshotSpool.TRUNCATED) != 0, entries);
+    }
+
+    private static void print(Spool spool, boolean all, PrintStream out) {
+        out.printf("pid %d, started %s, %s%n", spool.getPid(), spool.getStartedAt(),
+                spool.isClosed() ? "closed normally" : "not closed (running or crashed)");
+        List<Snapshot> snapshots = spool.getSnapshots();
+        if (snapshots.isEmpty()) {
+            out.println("No complete snapshots");
+            return;
+        }
+        List<Snapshot> shown = all ? snapshots : snapshots.subList(snapshots.size() - 1, snapshots.size());
+        for (Snapshot snapshot : shown) {
+            out.printf("%nSnapshot #%d at %s, %d keys%s%n", snapshot.getSequence(), snapshot.getTimestamp(),
+                    snapshot.getEntries().size(), snapshot.isTruncated() ? " (truncated)" : "");
+            out.printf("%-48s %12s %12s %10s %10s %10s %10s%n",
+                    "key", "calls", "timed", "mean ms", "max ms", "p50 ms", "p99 ms");
+            for (Entry entry : snapshot.getEntries()) {
+                out.printf("%-48s %12d %12d %10.3f %10.3f %10s %10s%n", entry.getKey(), entry.getCalls(),
+                        entry.getCount(), entry.getMeanNanos() / NANOS_PER_MILLI,
+                        entry.getMaxNanos() / NANOS_PER_MILLI,
+                        formatPercentile(entry, 0.5), formatPercentile(entry, 0.99));
+            }
+        }
+    }
+
+    private static String formatPercentile(Entry entry, double percentile) {
+        return entry.hasHistogram()
+                ? String.format("%.3f", entry.percentileNanos(percentile) / NANOS_PER_MILLI)
+                : "-";
+    }
+
+    /**
+     * Содержимое файла снимков.
+     */
+    @Value
+    public static class Spool {
+        Instant startedAt;
+        long pid;
+        boolean closed;
+        List<Snapshot> snapshots;
+    }
+
+    /**
+     * Снимок метрик всех ключей.
+     */
+    @Value
+    public static class Snapshot {
+        long sequence;
+        Instant timestamp;
+        boolean truncated;
+        List<Entry> entries;
+    }
+
+    /**
+     * Метрики одного ключа в снимке. Корзины гистограммы относятся к окну
+     * {@code histogram-window} на момент снимка, остальные значения — ко всему времени работы
+     * (максимум — к окну таймера Micrometer).
+     */
+    @Value
+    public static class Entry {
+        String key;
+        long calls;
+        long count;
+        long totalNanos;
+        long maxNanos;
+        int precisionBits;
+        int[] bucketIndexes;
+        long[] bucketCounts;
+
+        /**
+         * Проверяет, записаны ли корзины компактной гистограммы.
+         *
+         * @return {@code true}, если гистограмма была включена
+         */
+        public boolean hasHistogram() {
+            return precisionBits > 0;
+        }
+
+        /**
+         * Возвращает среднюю длительность замеренного вызова.
+         *
+         * @return средняя длительность в наносекундах или {@code 0}
+         */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * Возвращает значение процентиля по корзинам гистограммы.
+         *
+         * @param percentile процентиль в диапазоне {@code [0, 1]}
+         * @return середина корзины в наносекундах или {@code 0}, если значений нет
+         */
+        public double percentileNanos(double percentile) {
+            long total = 0;
+            for (long bucketCount : bucketCounts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile * total));
+            long seen = 0;
+            for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+                seen += bucketCounts[bucket];
+                if (seen >= rank) {
+                    return LogLinearHistogram.bucketMidpoint(precisionBits, bucketIndexes[bucket]);
+                }
+            }
+            return LogLinearHistogram.bucketMidpoint(precisionBits, bucketIndexes[bucketIndexes.length - 1]);
+        }
+    }
+}
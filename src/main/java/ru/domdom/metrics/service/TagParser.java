@@ -4,6 +4,7 @@ import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -43,4 +44,32 @@ public final class TagParser {
         }
         return tags;
     }
-}
\ No newline at end of file
+
+    /**
+     * Преобразует массив строк вида "key=expression" в карту выражений тегов.
+     * В отличие от {@link #parse(String[])}, строка делится по первому символу '=',
+     * поэтому выражение может содержать операторы сравнения. Порядок тегов сохраняется.
+     *
+     * @param tagStrings массив строк вида "key=expression" (может быть {@code null})
+     * @return упорядоченная карта «тег → выражение»
+     */
+    public static Map<String, String> parseExpressions(String[] tagStrings) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        if (tagStrings == null) {
+            return tags;
+        }
+        for (String tagString : tagStrings) {
+            if (tagString != null) {
+                int firstEq = tagString.indexOf('=');
+                if (firstEq > 0) {
+                    String key = tagString.substring(0, firstEq).trim();
+                    String expression = tagString.substring(firstEq + 1).trim();
+                    if (!key.isEmpty() && !expression.isEmpty()) {
+                        tags.put(key, expression);
+                    }
+                }
+            }
+        }
+        return tags;
+    }
+}
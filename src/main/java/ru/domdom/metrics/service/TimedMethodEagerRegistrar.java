@@ -0,0 +1,117 @@
+package ru.domdom.metrics.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.util.ClassUtils;
+import ru.domdom.metrics.annotation.TimedMethod;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Предварительно регистрирует метрики всех методов с {@link TimedMethod} при старте контекста.
+ *
+ * <p>После создания всех синглтонов сканирует классы бинов, для каждого аннотированного
+ * не-private метода вычисляет ключ метрики и создаёт {@link MetricHandle} с таймером и счётчиком.
+ * Благодаря этому первые запросы после деплоя не создают метрики под блокировкой кэша
+ * {@link MetricFactory}. В больших контекстах классы сканируются параллельно.
+ *
+ * <p>Включается свойством {@code method.metrics.eager-registration=true}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ * @see MetricFactory
+ * @see TimedMethodProcessor#register
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class TimedMethodEagerRegistrar implements SmartInitializingSingleton {
+
+    /**
+     * Число классов, начиная с которого сканирование выполняется параллельно.
+     */
+    static final int PARALLEL_SCAN_THRESHOLD = 256;
+
+    private final ConfigurableListableBeanFactory beanFactory;
+    private final TimedMethodProcessor processor;
+
+    /**
+     * Сканирует бины контекста и регистрирует метрики аннотированных методов.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        long start = System.nanoTime();
+        Set<Class<?>> beanClasses = collectBeanClasses();
+        int registered = (beanClasses.size() >= PARALLEL_SCAN_THRESHOLD
+                ? beanClasses.parallelStream()
+                : beanClasses.stream())
+                .mapToInt(this::registerClass)
+                .sum();
+        log.info("Eagerly registered metrics for {} @TimedMethod methods in {} bean classes ({} ms)",
+                registered, beanClasses.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Собирает пользовательские классы всех бинов. Для уже созданных синглтонов
+     * класс определяется по экземпляру, чтобы корректно обработать JDK-прокси.
+     *
+     * @return множество классов бинов
+     */
+    private Set<Class<?>> collectBeanClasses() {
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        for (String beanName : beanFactory.getBeanNamesForType(Object.class, true, false)) {
+            Class<?> type = null;
+            if (beanFactory.containsSingleton(beanName)) {
+                Object bean = beanFactory.getSingleton(beanName);
+                if (bean != null) {
+                    type = AopProxyUtils.ultimateTargetClass(bean);
+                }
+            }
+            if (type == null) {
+                type = beanFactory.getType(beanName, false);
+            }
+            if (type != null) {
+                classes.add(ClassUtils.getUserClass(type));
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Регистрирует метрики для всех аннотированных методов класса.
+     *
+     * @param beanClass пользовательский класс бина
+     * @return число зарегистрированных методов
+     */
+    private int registerClass(Class<?> beanClass) {
+        Map<Method, TimedMethod> methods;
+        try {
+            methods = MethodIntrospector.selectMethods(beanClass,
+                    (MethodIntrospector.MetadataLookup<TimedMethod>) method ->
+                            Modifier.isPrivate(method.getModifiers())
+                                    ? null
+                                    : method.getAnnotation(TimedMethod.class));
+        } catch (Throwable e) {
+            log.debug("Skipping eager registration for class {}", beanClass.getName(), e);
+            return 0;
+        }
+        int registered = 0;
+        for (Map.Entry<Method, TimedMethod> entry : methods.entrySet()) {
+            try {
+                processor.register(entry.getKey(), beanClass, entry.getValue());
+                registered++;
+            } catch (Exception e) {
+                log.error("Failed to eagerly register metrics for method: {}", entry.getKey(), e);
+            }
+        }
+        return registered;
+    }
+}
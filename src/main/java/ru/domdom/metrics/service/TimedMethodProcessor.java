@@ -3,6 +3,7 @@ package ru.domdom.metrics.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.stereotype.Service;
 import ru.domdom.metrics.annotation.TimedMethod;
 
@@ -14,7 +15,12 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>Получает ключ метрики через {@link MetricNameResolver}, затем получает или создаёт
  * таймер и счётчик через {@link MetricFactory}, и записывает время выполнения.
+ * Для аспекта предоставляет {@link MetricHandle}, кэшируемый на уровне метода,
+ * чтобы ключ и метрики разрешались один раз, а не при каждом вызове.
+ * При наличии {@link AsyncMetricRecorder} запись выполняется в фоновом потоке.
  * Обрабатывает исключения, логируя ошибки, но не прерывая выполнение метода.
+ * При наличии {@link SelfMetrics} ошибки учитываются в счётчике, а время записи
+ * замеряется на выборке вызовов.
  *
  * @author Кадыров Андрей
  * @since 1.0.0
@@ -29,6 +35,158 @@ public class TimedMethodProcessor {
 
     private final MetricNameResolver nameResolver;
     private final MetricFactory metricFactory;
+    private AsyncMetricRecorder asyncRecorder;
+    private SelfMetrics selfMetrics;
+    private OverheadGovernor governor;
+    private HotMethodSketch hotMethods;
+    private SlowCallLog slowCalls;
+    private CallTree callTree;
+
+    /**
+     * Включает фоновую запись метрик.
+     *
+     * @param asyncRecorder фоновый регистратор или {@code null} для записи в потоке вызова
+     */
+    public void setAsyncRecorder(AsyncMetricRecorder asyncRecorder) {
+        this.asyncRecorder = asyncRecorder;
+    }
+
+    /**
+     * Включает метрики накладных расходов стартера.
+     *
+     * @param selfMetrics метрики накладных расходов или {@code null}
+     */
+    public void setSelfMetrics(SelfMetrics selfMetrics) {
+        this.selfMetrics = selfMetrics;
+    }
+
+    /**
+     * Включает адаптивное ограничение накладных расходов.
+     *
+     * @param governor ограничитель или {@code null}
+     */
+    public void setGovernor(OverheadGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * Включает оценку самых «горячих» методов.
+     *
+     * @param hotMethods таблица «горячих» методов или {@code null}
+     */
+    public void setHotMethods(HotMethodSketch hotMethods) {
+        this.hotMethods = hotMethods;
+    }
+
+    /**
+     * Включает журнал медленных вызовов.
+     *
+     * @param slowCalls журнал медленных вызовов или {@code null}
+     */
+    public void setSlowCalls(SlowCallLog slowCalls) {
+        this.slowCalls = slowCalls;
+    }
+
+    /**
+     * Включает учёт собственного времени вложенных вызовов.
+     *
+     * @param callTree дерево вызовов или {@code null}
+     */
+    public void setCallTree(CallTree callTree) {
+        this.callTree = callTree;
+    }
+
+    /**
+     * Помещает вызов метода в стек вложенных вызовов текущего потока.
+     * Вызывается перехватчиком непосредственно перед вызовом метода.
+     *
+     * @param handle хэндл метода
+     * @return стек для {@link #exitCall} или {@code null}, если дерево вызовов отключено
+     */
+    public CallTree.Stack enterCall(MetricHandle handle) {
+        CallTree tree = callTree;
+        return tree != null ? tree.enter(handle) : null;
+    }
+
+    /**
+     * Извлекает вызов из стека, начатого {@link #enterCall}, и записывает собственное время метода.
+     *
+     * @param stack         стек, возвращённый {@link #enterCall}, или {@code null}
+     * @param durationNanos полное время вызова в наносекундах
+     * @param recordSelf    {@code false}, если метод вернул асинхронный результат
+     */
+    public void exitCall(CallTree.Stack stack, long durationNanos, boolean recordSelf) {
+        if (stack == null) {
+            return;
+        }
+        try {
+            callTree.exit(stack, durationNanos, recordSelf);
+        } catch (Exception e) {
+            log.error("Failed to record self time", e);
+            failed(SelfMetrics.Operation.RECORD);
+        }
+    }
+
+    /**
+     * Сохраняет медленный вызов в журнал. Вызывается перехватчиком только для вызовов,
+     * длительность которых не меньше {@link MetricHandle#getSlowCallThresholdNanos()}.
+     *
+     * @param handle        хэндл метода
+     * @param method        вызванный метод
+     * @param args          аргументы вызова
+     * @param durationNanos длительность вызова в наносекундах
+     * @param error         исключение, которым завершился вызов, или {@code null}
+     */
+    public void captureSlowCall(MetricHandle handle, Method method, Object[] args, long durationNanos,
+                                Throwable error) {
+        SlowCallLog journal = slowCalls;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.capture(handle.getMetricKey(), method, args, durationNanos, error);
+        } catch (Exception e) {
+            log.error("Failed to capture slow call for key: {}", handle.getMetricKey(), e);
+            failed(SelfMetrics.Operation.RECORD);
+        }
+    }
+
+    /**
+     * Проверяет, нужны ли аргументы вызова для журнала медленных вызовов.
+     * Перехватчик, которому аргументы обходятся в аллокацию, запрашивает их только в этом случае
+     * или при динамических тегах метода.
+     *
+     * @return {@code true}, если журнал включён и сохраняет аргументы
+     */
+    public boolean isCapturingArguments() {
+        SlowCallLog journal = slowCalls;
+        return journal != null && journal.isCaptureArguments();
+    }
+
+    /**
+     * Начинает замер накладных расходов перехватчика, если текущий вызов попал в выборку
+     * {@link OverheadGovernor}. Вызывается перехватчиком до поиска хэндла.
+     *
+     * @return отметка времени начала или {@code 0}, если вызов не замеряется
+     */
+    public long probeStart() {
+        OverheadGovernor current = governor;
+        return current != null && current.shouldProbe() ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Завершает замер накладных расходов, начатый {@link #probeStart()}.
+     *
+     * @param handle        хэндл метода
+     * @param probeStart    отметка времени, возвращённая {@link #probeStart()}
+     * @param methodNanos   время выполнения целевого метода
+     */
+    public void probeEnd(MetricHandle handle, long probeStart, long methodNanos) {
+        OverheadGovernor current = governor;
+        if (current != null) {
+            current.observe(handle, methodNanos, System.nanoTime() - probeStart - methodNanos);
+        }
+    }
 
     /**
      * Формирует ключ метрики для точки соединения и аннотации.
@@ -41,6 +199,191 @@ public class TimedMethodProcessor {
         return nameResolver.resolve(joinPoint, annotation);
     }
 
+    /**
+     * Возвращает хэндл метрик для точки соединения. При повторных вызовах метода
+     * хэндл берётся из кэша {@link MetricFactory} без вычисления ключа.
+     *
+     * @param joinPoint  точка соединения
+     * @param annotation аннотация {@link TimedMethod}
+     * @return хэндл метрик или {@code null}, если метрики не удалось создать
+     */
+    public MetricHandle resolveHandle(ProceedingJoinPoint joinPoint, TimedMethod annotation) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return resolveHandle(method, joinPoint.getTarget(), annotation);
+    }
+
+    /**
+     * Возвращает уже созданный хэндл метрик для метода, вызываемого на заданном объекте,
+     * не вычисляя аннотацию и ключ метрики.
+     *
+     * @param method вызываемый метод
+     * @param target целевой объект (может быть {@code null})
+     * @return хэндл метрик или {@code null}, если он ещё не создан для этого вызова
+     */
+    public MetricHandle findHandle(Method method, Object target) {
+        return metricFactory.findHandle(method, target != null ? target.getClass() : method.getDeclaringClass());
+    }
+
+    /**
+     * Возвращает хэндл метрик для метода, вызываемого на заданном объекте.
+     *
+     * @param method     вызываемый метод
+     * @param target     целевой объект (может быть {@code null})
+     * @param annotation аннотация {@link TimedMethod}
+     * @return хэндл метрик или {@code null}, если метрики не удалось создать
+     */
+    public MetricHandle resolveHandle(Method method, Object target, TimedMethod annotation) {
+        MetricHandle handle = findHandle(method, target);
+        if (handle != null) {
+            return handle;
+        }
+        Class<?> targetClass = (target != null) ? target.getClass() : method.getDeclaringClass();
+        try {
+            String metricKey = nameResolver.resolve(method, target, annotation);
+            return metricFactory.getHandle(metricKey, annotation, method,
+                    nameResolver.isTargetDependent(annotation, method) ? targetClass : null);
+        } catch (Exception e) {
+            log.error("Failed to create metrics for method: {}", method, e);
+            failed(SelfMetrics.Operation.CREATE);
+            return null;
+        }
+    }
+
+    /**
+     * Заранее создаёт метрики и хэндл для метода указанного класса,
+     * не дожидаясь первого вызова.
+     *
+     * @param method      аннотированный метод
+     * @param targetClass пользовательский класс бина
+     * @param annotation  аннотация {@link TimedMethod}
+     * @return созданный хэндл метрик
+     */
+    public MetricHandle register(Method method, Class<?> targetClass, TimedMethod annotation) {
+        String metricKey = nameResolver.resolveForClass(method, targetClass, annotation);
+        return metricFactory.getHandle(metricKey, annotation, method,
+                nameResolver.isTargetDependent(annotation, method) ? targetClass : null);
+    }
+
+    /**
+     * Выбирает хэндл для конкретного вызова с учётом динамических тегов и исхода вызова.
+     * Если динамические теги не объявлены, значения не удалось вычислить или исчерпан
+     * лимит комбинаций, используется исходный хэндл.
+     *
+     * @param handle хэндл метода
+     * @param args   аргументы вызова
+     * @param result результат вызова (может быть {@code null})
+     * @param error  исключение, которым завершился вызов, или {@code null}
+     * @return хэндл, в который нужно записать вызов
+     */
+    public MetricHandle selectHandle(MetricHandle handle, Object[] args, Object result, Throwable error) {
+        DynamicTags dynamicTags = handle.getDynamicTags();
+        if (dynamicTags == null && error == null) {
+            return handle;
+        }
+        try {
+            MetricHandle selected = handle;
+            if (dynamicTags != null) {
+                MetricHandle combination = dynamicTags.select(args, result);
+                if (combination != null) {
+                    selected = combination;
+                }
+            }
+            return error != null ? selected.forError(error) : selected;
+        } catch (Exception e) {
+            log.error("Failed to resolve tagged metrics for key: {}", handle.getMetricKey(), e);
+            failed(SelfMetrics.Operation.SELECT);
+            return handle;
+        }
+    }
+
+    /**
+     * Записывает завершённый вызов: выбирает хэндл по аргументам, результату и исключению
+     * ({@link #selectHandle}), записывает в него длительность и учитывает вызов
+     * в скользящей статистике метода ({@link RollingStats}), если она включена.
+     *
+     * @param handle        хэндл метода
+     * @param args          аргументы вызова для динамических тегов или {@code null}
+     * @param result        результат вызова (может быть {@code null})
+     * @param error         исключение, которым завершился вызов, или {@code null}
+     * @param durationNanos время выполнения в наносекундах
+     */
+    public void record(MetricHandle handle, Object[] args, Object result, Throwable error, long durationNanos) {
+        record(handle, args, result, error, durationNanos, System.nanoTime());
+    }
+
+    /**
+     * Записывает завершённый вызов так же, как {@link #record(MetricHandle, Object[], Object, Throwable, long)},
+     * используя уже измеренный момент завершения вызова вместо повторного чтения часов.
+     *
+     * @param handle        хэндл метода
+     * @param args          аргументы вызова для динамических тегов или {@code null}
+     * @param result        результат вызова (может быть {@code null})
+     * @param error         исключение, которым завершился вызов, или {@code null}
+     * @param durationNanos время выполнения в наносекундах
+     * @param endNanos      момент завершения вызова по {@link System#nanoTime()}
+     */
+    public void record(MetricHandle handle, Object[] args, Object result, Throwable error, long durationNanos,
+                       long endNanos) {
+        record(selectHandle(handle, args, result, error), durationNanos, endNanos);
+        RollingStats rolling = handle.getRolling();
+        if (rolling != null) {
+            try {
+                rolling.record(endNanos, durationNanos, error != null);
+            } catch (Exception e) {
+                log.error("Failed to record rolling stats for key: {}", handle.getMetricKey(), e);
+                failed(SelfMetrics.Operation.RECORD);
+            }
+        }
+    }
+
+    /**
+     * Записывает выполнение метода через ранее полученный хэндл. Если включена
+     * фоновая запись, измерение только помещается в буфер {@link AsyncMetricRecorder}.
+     * Если включена оценка «горячих» методов, вызов учитывается и в {@link HotMethodSketch}.
+     *
+     * @param handle        хэндл метрик
+     * @param durationNanos время выполнения в наносекундах
+     */
+    public void record(MetricHandle handle, long durationNanos) {
+        record(handle, durationNanos, System.nanoTime());
+    }
+
+    /**
+     * Записывает выполнение метода через ранее полученный хэндл, используя уже измеренный
+     * момент завершения вызова для смены окон компактной гистограммы.
+     *
+     * @param handle        хэндл метрик
+     * @param durationNanos время выполнения в наносекундах
+     * @param endNanos      момент завершения вызова по {@link System#nanoTime()}
+     */
+    public void record(MetricHandle handle, long durationNanos, long endNanos) {
+        SelfMetrics self = selfMetrics;
+        if (self != null && self.shouldSample()) {
+            long start = System.nanoTime();
+            recordNow(handle, durationNanos, endNanos);
+            self.recordOverhead(System.nanoTime() - start);
+        } else {
+            recordNow(handle, durationNanos, endNanos);
+        }
+    }
+
+    private void recordNow(MetricHandle handle, long durationNanos, long endNanos) {
+        HotMethodSketch sketch = hotMethods;
+        if (sketch != null) {
+            sketch.record(handle.getMetricKey(), durationNanos);
+        }
+        if (asyncRecorder != null) {
+            asyncRecorder.offer(handle, durationNanos);
+            return;
+        }
+        try {
+            handle.record(durationNanos, endNanos);
+        } catch (Exception e) {
+            log.error("Failed to record metric for key: {}", handle.getMetricKey(), e);
+            failed(SelfMetrics.Operation.RECORD);
+        }
+    }
+
     /**
      * Записывает метрику выполнения метода.
      *
@@ -55,9 +398,20 @@ public class TimedMethodProcessor {
             var counter = metricFactory.getCounter(metricKey, annotation, method);
             counter.increment();
             timer.record(durationNanos, TimeUnit.NANOSECONDS);
+            LogLinearHistogram histogram = metricFactory.findHistogram(metricKey);
+            if (histogram != null) {
+                histogram.record(durationNanos);
+            }
             log.debug("Recorded execution of {}: {} ns", metricKey, durationNanos);
         } catch (Exception e) {
             log.error("Failed to record metric for key: {}", metricKey, e);
+            failed(SelfMetrics.Operation.RECORD);
+        }
+    }
+
+    private void failed(SelfMetrics.Operation operation) {
+        if (selfMetrics != null) {
+            selfMetrics.failed(operation);
         }
     }
 }
\ No newline at end of file
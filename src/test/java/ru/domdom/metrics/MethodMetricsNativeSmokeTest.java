@@ -0,0 +1,82 @@
+package ru.domdom.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Smoke-тест стартера для нативного образа.
+ * <p>
+ * В обычной сборке выполняется на JVM. В профиле {@code native} контекст теста проходит
+ * AOT-обработку, и тест запускается в образе {@code native-image}: проверяются прокси,
+ * созданные при сборке, аннотация на методе, аннотация на классе и динамический тег.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@SpringBootTest(classes = MethodMetricsNativeSmokeTest.SmokeConfig.class,
+        properties = "method.metrics.prefix=smoke")
+class MethodMetricsNativeSmokeTest {
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private CatalogService catalogService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void shouldRecordMetricsOfProxiedBeans() {
+        orderService.place("eu");
+        catalogService.list();
+
+        assertThat(meterRegistry.get("smoke.order.place.duration").tag("region", "eu").timer().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("smoke.catalog.list.duration").timer().count()).isEqualTo(1);
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration({MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class})
+    static class SmokeConfig {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        OrderService orderService() {
+            return new OrderService();
+        }
+
+        @Bean
+        CatalogService catalogService() {
+            return new CatalogService();
+        }
+    }
+
+    public static class OrderService {
+        @TimedMethod(value = "order.place", dynamicTags = "region=#p0")
+        public void place(String region) {
+        }
+    }
+
+    @TimedMethod("catalog")
+    public static class CatalogService {
+        public void list() {
+        }
+    }
+}
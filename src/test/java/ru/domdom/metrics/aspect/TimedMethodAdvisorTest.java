@@ -0,0 +1,179 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.service.TimedMethodProcessor;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Тесты перехвата методов с {@link TimedMethod} советником {@link TimedMethodAdvisor}
+ * в режиме {@code advice-mode=proxy}.
+ * <p>
+ * Проверяют, что прокси содержит только советник стартера, методы бинов без аннотаций
+ * не сопоставляются, аннотации на {@code protected} методах и методах интерфейса
+ * учитываются, аннотация не вычисляется повторно после создания хэндла, а в режиме
+ * {@code aspectj} советник методы с аннотацией не перехватывает. Фиксируют изменение
+ * поведения для аннотаций методов интерфейсов относительно прежнего {@link TimedMethodAspect},
+ * который на один выпуск возвращается свойством {@code method.metrics.legacy-aspect}.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodAdvisorTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(InvoiceService.class)
+            .withBean(PlainService.class)
+            .withPropertyValues("method.metrics.prefix=adv");
+
+    @Test
+    void shouldAdviseAnnotatedMethodsWithoutAspectJ() {
+        contextRunner.run(context -> {
+            InvoiceService service = context.getBean(InvoiceService.class);
+            service.issue();
+            service.settle();
+
+            assertThat(AopUtils.isAopProxy(service)).isTrue();
+            assertThat(((Advised) service).getAdvisors()).hasSize(1)
+                    .allMatch(advisor -> advisor instanceof TimedMethodAdvisor);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("adv.invoice.issue.duration").tag("team", "billing").timer().count()).isEqualTo(1);
+            assertThat(registry.get("adv.invoice.settle.duration").timer().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldNotResolveAttributeOnceHandleExists() {
+        contextRunner.run(context -> {
+            TimedMethodPointcut pointcut = spy(new TimedMethodPointcut(List.of(), true));
+            ProxyFactory proxyFactory = new ProxyFactory(new InvoiceService());
+            proxyFactory.addAdvisor(new DefaultPointcutAdvisor(pointcut,
+                    new TimedMethodInterceptor(pointcut, context.getBean(TimedMethodProcessor.class))));
+            InvoiceService service = (InvoiceService) proxyFactory.getProxy();
+            service.settle();
+            clearInvocations(pointcut);
+
+            service.settle();
+            service.settle();
+
+            verify(pointcut, never()).getAttribute(any(), any());
+            assertThat(context.getBean(MeterRegistry.class).get("adv.invoice.settle.duration").timer().count())
+                    .isEqualTo(3);
+        });
+    }
+
+    @Test
+    void shouldSkipClassesWithoutAnnotations() {
+        contextRunner.run(context -> {
+            PlainService service = context.getBean(PlainService.class);
+            service.run();
+
+            assertThat(AopUtils.isAopProxy(service)).isFalse();
+            TimedMethodPointcut pointcut = (TimedMethodPointcut) context.getBean(TimedMethodAdvisor.class).getPointcut();
+            assertThat(pointcut.getAttribute(PlainService.class.getMethod("run"), PlainService.class)).isNull();
+        });
+    }
+
+    @Test
+    void shouldUseAnnotationOfInterfaceMethod() throws Exception {
+        TimedMethodPointcut pointcut = new TimedMethodPointcut(List.of(), true);
+
+        TimedMethod annotation = pointcut.getAttribute(Notifier.class.getMethod("send"), EmailNotifier.class);
+
+        assertThat(annotation).isNotNull();
+        assertThat(annotation.value()).isEqualTo("notify.send");
+        assertThat(pointcut.getClassFilter().matches(EmailNotifier.class)).isTrue();
+        assertThat(new TimedMethodPointcut(List.of()).getAttribute(Notifier.class.getMethod("send"),
+                EmailNotifier.class)).isNull();
+    }
+
+    @Test
+    void shouldTimeImplementationsOfAnnotatedInterfaceMethods() {
+        contextRunner.withBean(Notifier.class, EmailNotifier::new).run(context -> {
+            context.getBean(Notifier.class).send();
+
+            assertThat(context.getBean(MeterRegistry.class).get("adv.notify.send.duration").timer().count())
+                    .isEqualTo(1);
+        });
+    }
+
+    @Test
+    @SuppressWarnings("removal")
+    void shouldRestoreDeprecatedAspectWithoutInterfaceAnnotations() {
+        contextRunner.withBean(Notifier.class, EmailNotifier::new)
+                .withPropertyValues("method.metrics.legacy-aspect=true")
+                .run(context -> {
+                    assertThat(context).hasSingleBean(TimedMethodAspect.class);
+                    InvoiceService service = context.getBean(InvoiceService.class);
+                    service.issue();
+                    context.getBean(Notifier.class).send();
+
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertThat(registry.get("adv.invoice.issue.duration").timer().count()).isEqualTo(1);
+                    assertThat(registry.find("adv.notify.send.duration").timer()).isNull();
+                    TimedMethodPointcut pointcut =
+                            (TimedMethodPointcut) context.getBean(TimedMethodAdvisor.class).getPointcut();
+                    assertThat(pointcut.getAttribute(InvoiceService.class.getMethod("issue"), InvoiceService.class))
+                            .isNull();
+                });
+    }
+
+    @Test
+    void shouldLeaveMethodAnnotationsToWeavingInAspectJMode() {
+        contextRunner.withPropertyValues("method.metrics.advice-mode=aspectj").run(context -> {
+            InvoiceService service = context.getBean(InvoiceService.class);
+
+            assertThat(AopUtils.isAopProxy(service)).isFalse();
+            TimedMethodPointcut pointcut = (TimedMethodPointcut) context.getBean(TimedMethodAdvisor.class).getPointcut();
+            assertThat(pointcut.getAttribute(InvoiceService.class.getMethod("issue"), InvoiceService.class)).isNull();
+        });
+    }
+
+    static class InvoiceService {
+        @TimedMethod(value = "invoice.issue", extraTags = "team=billing")
+        public void issue() {
+            settle();
+        }
+
+        @TimedMethod("invoice.settle")
+        protected void settle() {
+        }
+    }
+
+    static class PlainService {
+        public void run() {
+        }
+    }
+
+    interface Notifier {
+        @TimedMethod("notify.send")
+        void send();
+    }
+
+    static class EmailNotifier implements Notifier {
+        @Override
+        public void send() {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Интеграционный тест записи метрик для методов с асинхронным результатом.
+ * <p>
+ * Проверяет, что для {@link CompletableFuture}, {@link Mono} и {@link Flux} время
+ * фиксируется по завершении результата (успех, ошибка, отмена), а не в момент возврата из метода.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+@SpringBootTest(properties = "method.metrics.prefix=method")
+@Import({ MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class, TimedMethodAsyncTest.TestConfig.class })
+public class TimedMethodAsyncTest {
+
+    private static final long DELAY_MILLIS = 50;
+
+    @Autowired
+    private AsyncService asyncService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @TestConfiguration
+    @EnableAspectJAutoProxy(proxyTargetClass = true)
+    static class TestConfig {
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public AsyncService asyncService() {
+            return new AsyncService();
+        }
+    }
+
+    @Component
+    static class AsyncService {
+        final CompletableFuture<String> pending = new CompletableFuture<>();
+
+        @TimedMethod("async.future")
+        public CompletableFuture<String> future() {
+            return CompletableFuture.supplyAsync(() -> "done",
+                    CompletableFuture.delayedExecutor(DELAY_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        @TimedMethod("async.failed")
+        public CompletableFuture<String> failed() {
+            return CompletableFuture.supplyAsync(() -> {
+                throw new IllegalStateException("boom");
+            }, CompletableFuture.delayedExecutor(DELAY_MILLIS, TimeUnit.MILLISECONDS));
+        }
+
+        @TimedMethod("async.pending")
+        public CompletableFuture<String> pending() {
+            return pending;
+        }
+
+        @TimedMethod("async.mono")
+        public Mono<String> mono() {
+            return Mono.just("mono").delayElement(Duration.ofMillis(DELAY_MILLIS));
+        }
+
+        @TimedMethod("async.flux")
+        public Flux<Integer> flux() {
+            return Flux.just(1, 2, 3).delayElements(Duration.ofMillis(DELAY_MILLIS / 2));
+        }
+    }
+
+    @Test
+    void shouldRecordCompletableFutureOnCompletion() {
+        CompletableFuture<String> future = asyncService.future();
+        assertThat(future.join()).isEqualTo("done");
+
+        Timer timer = awaitTimer("method.async.future.duration", 1);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(DELAY_MILLIS);
+    }
+
+    @Test
+    void shouldRecordFailedFuture() {
+        CompletableFuture<String> future = asyncService.failed();
+        assertThat(future).failsWithin(Duration.ofSeconds(5));
+
+        Timer timer = awaitTimer("method.async.failed.duration", 1);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(DELAY_MILLIS);
+    }
+
+    @Test
+    void shouldRecordPendingFutureOnlyWhenCancelled() {
+        CompletableFuture<String> future = asyncService.pending();
+        assertThat(meterRegistry.get("method.async.pending.duration").timer().count()).isZero();
+        assertThat(meterRegistry.get("method.async.pending.calls").counter().count()).isZero();
+
+        future.cancel(true);
+
+        assertThat(meterRegistry.get("method.async.pending.duration").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRecordMonoPerSubscriptionOnTermination() {
+        Mono<String> mono = asyncService.mono();
+        assertThat(meterRegistry.get("method.async.mono.duration").timer().count()).isZero();
+
+        assertThat(mono.block()).isEqualTo("mono");
+        assertThat(mono.block()).isEqualTo("mono");
+
+        Timer timer = awaitTimer("method.async.mono.duration", 2);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(2 * DELAY_MILLIS);
+    }
+
+    @Test
+    void shouldRecordFluxOnCompletion() {
+        assertThat(asyncService.flux().collectList().block()).containsExactly(1, 2, 3);
+
+        Timer timer = awaitTimer("method.async.flux.duration", 1);
+        assertThat(timer.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(3 * DELAY_MILLIS / 2);
+    }
+
+    private Timer awaitTimer(String name, long expectedCount) {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            Timer timer = meterRegistry.find(name).timer();
+            if (timer != null && timer.count() == expectedCount) {
+                return timer;
+            }
+            Thread.onSpinWait();
+        }
+        throw new AssertionError("Timer " + name + " was not recorded");
+    }
+}
@@ -0,0 +1,176 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты {@link TimedMethod} на уровне класса и свойства {@code method.metrics.pointcuts}.
+ * <p>
+ * Проверяют, что измеряются все публичные методы аннотированного класса, аннотация метода
+ * имеет приоритет и не приводит к двойному замеру, унаследованный метод получает имя метрики
+ * по аннотации класса каждого наследника, методы из выражений AspectJ измеряются
+ * без аннотаций, а результат сопоставления кэшируется.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodClassLevelTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(OrderService.class)
+            .withBean(DerivedService.class)
+            .withBean(PlainRepository.class)
+            .withPropertyValues("method.metrics.prefix=cls");
+
+    @Test
+    void shouldTimeAllPublicMethodsOfAnnotatedClass() {
+        contextRunner.run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.cancel();
+            service.cancel();
+            service.toString();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("cls.orders.create.duration").tag("team", "orders").timer().count()).isEqualTo(1);
+            assertThat(registry.get("cls.orders.cancel.duration").timer().count()).isEqualTo(2);
+            assertThat(registry.find("cls.orders.toString.duration").timer()).isNull();
+        });
+    }
+
+    @Test
+    void shouldPreferMethodAnnotationWithoutDoubleCounting() {
+        contextRunner.run(context -> {
+            context.getBean(OrderService.class).custom();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("cls.custom.name.calls").counter().count()).isEqualTo(1);
+            assertThat(registry.find("cls.orders.custom.duration").timer()).isNull();
+        });
+    }
+
+    @Test
+    void shouldDeriveNameWhenClassAnnotationHasNoValue() {
+        contextRunner.run(context -> {
+            context.getBean(DerivedService.class).load();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("cls.DerivedService.load.duration").timer().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldNameInheritedMethodByAnnotationOfEachSubclass() {
+        contextRunner.withBean(ImportJob.class).withBean(ExportJob.class).run(context -> {
+            context.getBean(ImportJob.class).run();
+            context.getBean(ExportJob.class).run();
+            context.getBean(ExportJob.class).run();
+            context.getBean(ImportJob.class).run();
+            context.getBean(ImportJob.class).run();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("cls.imports.run.duration").timer().count()).isEqualTo(3);
+            assertThat(registry.get("cls.exports.run.duration").timer().count()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shouldTimeMethodsSelectedByPointcutExpression() {
+        contextRunner.withPropertyValues("method.metrics.pointcuts[0]=execution(* "
+                        + PlainRepository.class.getName().replace('$', '.') + ".*(..))")
+                .run(context -> {
+                    PlainRepository repository = context.getBean(PlainRepository.class);
+                    repository.find();
+                    repository.find();
+
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertThat(registry.get("cls.PlainRepository.find.duration").timer().count()).isEqualTo(2);
+                });
+    }
+
+    @Test
+    void shouldNotTimePlainBeansWithoutPointcuts() {
+        contextRunner.run(context -> {
+            context.getBean(PlainRepository.class).find();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.find("cls.PlainRepository.find.duration").timer()).isNull();
+        });
+    }
+
+    @Test
+    void shouldCacheMatchResultsPerMethod() {
+        contextRunner.run(context -> {
+            TimedMethodPointcut pointcut = (TimedMethodPointcut) context.getBean(TimedMethodAdvisor.class).getPointcut();
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            int cached = pointcut.cacheSize();
+
+            for (int i = 0; i < 10; i++) {
+                service.create();
+                service.cancel();
+            }
+
+            assertThat(pointcut.cacheSize()).isEqualTo(cached);
+        });
+    }
+
+    @TimedMethod(value = "orders", extraTags = "team=orders")
+    static class OrderService {
+        public String create() {
+            return "created";
+        }
+
+        public String cancel() {
+            return "cancelled";
+        }
+
+        @TimedMethod("custom.name")
+        public String custom() {
+            return "custom";
+        }
+
+        @Override
+        public String toString() {
+            return "OrderService";
+        }
+    }
+
+    @TimedMethod
+    static class DerivedService {
+        public String load() {
+            return "loaded";
+        }
+    }
+
+    static class BaseJob {
+        public String run() {
+            return "ran";
+        }
+    }
+
+    @TimedMethod("imports")
+    static class ImportJob extends BaseJob {
+    }
+
+    @TimedMethod("exports")
+    static class ExportJob extends BaseJob {
+    }
+
+    static class PlainRepository {
+        public String find() {
+            return "found";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты динамических тегов {@link TimedMethod#dynamicTags()}.
+ * <p>
+ * Проверяют вычисление тегов из аргументов и результата, ограничение числа комбинаций
+ * с записью остальных вызовов как {@code other}, а также поведение при ошибке выражения.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodDynamicTagsTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(TenantService.class)
+            .withPropertyValues("method.metrics.prefix=dyn");
+
+    @Test
+    void shouldTagByArgument() {
+        contextRunner.run(context -> {
+            TenantService service = context.getBean(TenantService.class);
+            service.load(new Request("alpha"));
+            service.load(new Request("beta"));
+            service.load(new Request("alpha"));
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "alpha").count()).isEqualTo(2);
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "beta").count()).isEqualTo(1);
+            assertThat(registry.get("dyn.tenant.load.calls").tag("tenant", "alpha").counter().count()).isEqualTo(2);
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "other").count()).isZero();
+        });
+    }
+
+    @Test
+    void shouldFallBackToOtherWhenLimitIsReached() {
+        contextRunner.withPropertyValues("method.metrics.max-dynamic-tag-values=2").run(context -> {
+            TenantService service = context.getBean(TenantService.class);
+            service.load(new Request("alpha"));
+            service.load(new Request("beta"));
+            service.load(new Request("gamma"));
+            service.load(new Request("alpha"));
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.find("dyn.tenant.load.duration").tag("tenant", "gamma").timer()).isNull();
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "other").count()).isEqualTo(1);
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "alpha").count()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shouldRecordAsOtherWhenExpressionFails() {
+        contextRunner.run(context -> {
+            context.getBean(TenantService.class).load(null);
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(timer(registry, "dyn.tenant.load.duration", "tenant", "other").count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldTagByResult() {
+        contextRunner.run(context -> {
+            TenantService service = context.getBean(TenantService.class);
+            service.find(1);
+            service.find(-1);
+            service.findAsync(-1).join();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(timer(registry, "dyn.tenant.find.duration", "outcome", "found").count()).isEqualTo(1);
+            assertThat(timer(registry, "dyn.tenant.find.duration", "outcome", "empty").count()).isEqualTo(1);
+            assertThat(timer(registry, "dyn.tenant.findAsync.duration", "outcome", "empty").count()).isEqualTo(1);
+        });
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String tag, String value) {
+        return registry.get(name).tag(tag, value).timer();
+    }
+
+    static class Request {
+        private final String tenant;
+
+        Request(String tenant) {
+            this.tenant = tenant;
+        }
+
+        public String getTenant() {
+            return tenant;
+        }
+    }
+
+    static class TenantService {
+        @TimedMethod(value = "tenant.load", dynamicTags = "tenant=#p0.tenant")
+        public String load(Request request) {
+            return "loaded";
+        }
+
+        @TimedMethod(value = "tenant.find", dynamicTags = "outcome=#result == null ? 'empty' : 'found'")
+        public String find(int id) {
+            return id > 0 ? "item" : null;
+        }
+
+        @TimedMethod(value = "tenant.findAsync", dynamicTags = "outcome=#result == null ? 'empty' : 'found'")
+        public CompletableFuture<String> findAsync(int id) {
+            return CompletableFuture.completedFuture(id > 0 ? "item" : null);
+        }
+    }
+}
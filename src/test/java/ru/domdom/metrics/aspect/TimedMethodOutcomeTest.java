@@ -0,0 +1,131 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.MetricHandle;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты разделения метрик по исходу вызова ({@code method.metrics.outcome-tags=true}).
+ * <p>
+ * Проверяют, что успешные и неуспешные вызовы записываются в разные таймеры с тегами
+ * {@code outcome} и {@code exception}, хэндлы классов исключений кэшируются,
+ * число классов исключений ограничено, а без свойства поведение не меняется.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodOutcomeTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(OutcomeService.class)
+            .withPropertyValues("method.metrics.prefix=out");
+
+    @Test
+    void shouldSplitSuccessAndErrorLatency() {
+        contextRunner.withPropertyValues("method.metrics.outcome-tags=true").run(context -> {
+            OutcomeService service = context.getBean(OutcomeService.class);
+            service.call(false);
+            service.call(false);
+            assertThatThrownBy(() -> service.call(true)).isInstanceOf(IllegalStateException.class);
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("out.outcome.call.duration")
+                    .tags("outcome", "success", "exception", "none").timer().count()).isEqualTo(2);
+            assertThat(registry.get("out.outcome.call.duration")
+                    .tags("outcome", "error", "exception", "IllegalStateException").timer().count()).isEqualTo(1);
+            assertThat(registry.get("out.outcome.call.calls")
+                    .tags("outcome", "error", "exception", "IllegalStateException").counter().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldReuseHandlePerExceptionClass() throws NoSuchMethodException {
+        contextRunner.withPropertyValues("method.metrics.outcome-tags=true").run(context -> {
+            OutcomeService service = context.getBean(OutcomeService.class);
+            service.call(false);
+            MetricHandle handle = context.getBean(MetricFactory.class)
+                    .findHandle(OutcomeService.class.getMethod("call", boolean.class));
+
+            MetricHandle first = handle.forError(new IllegalStateException());
+            assertThat(handle.forError(new IllegalStateException())).isSameAs(first);
+            assertThat(handle.forError(new IllegalArgumentException())).isNotSameAs(first);
+        });
+    }
+
+    @Test
+    void shouldCapExceptionClasses() {
+        contextRunner.withPropertyValues("method.metrics.outcome-tags=true", "method.metrics.max-exception-classes=1")
+                .run(context -> {
+                    OutcomeService service = context.getBean(OutcomeService.class);
+                    assertThatThrownBy(() -> service.fail(new IllegalStateException()));
+                    assertThatThrownBy(() -> service.fail(new IllegalArgumentException()));
+                    assertThatThrownBy(() -> service.fail(new UnsupportedOperationException()));
+
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertThat(registry.get("out.outcome.fail.duration")
+                            .tag("exception", "IllegalStateException").timer().count()).isEqualTo(1);
+                    assertThat(registry.get("out.outcome.fail.duration")
+                            .tag("exception", "other").timer().count()).isEqualTo(2);
+                });
+    }
+
+    @Test
+    void shouldTagFailedCompletionStage() {
+        contextRunner.withPropertyValues("method.metrics.outcome-tags=true").run(context -> {
+            CompletableFuture<String> future = context.getBean(OutcomeService.class).failAsync();
+            assertThatThrownBy(future::join);
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("out.outcome.failAsync.duration")
+                    .tags("outcome", "error", "exception", "IllegalStateException").timer().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldNotAddOutcomeTagsByDefault() {
+        contextRunner.run(context -> {
+            OutcomeService service = context.getBean(OutcomeService.class);
+            service.call(false);
+            assertThatThrownBy(() -> service.call(true));
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("out.outcome.call.duration").timer().count()).isEqualTo(2);
+            assertThat(registry.get("out.outcome.call.duration").timer().getId().getTag("outcome")).isNull();
+        });
+    }
+
+    static class OutcomeService {
+        @TimedMethod("outcome.call")
+        public String call(boolean fail) {
+            if (fail) {
+                throw new IllegalStateException("failed");
+            }
+            return "ok";
+        }
+
+        @TimedMethod("outcome.fail")
+        public void fail(RuntimeException error) {
+            throw error;
+        }
+
+        @TimedMethod("outcome.failAsync")
+        public CompletableFuture<String> failAsync() {
+            return CompletableFuture.failedFuture(new IllegalStateException("failed"));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package ru.domdom.metrics.aspect;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Тесты для {@link TimedMethodWeavingAspect}.
+ * <p>
+ * Запускаются отдельным выполнением surefire с агентом {@code aspectjweaver}
+ * и проверяют замер вызовов внутри объекта, {@code private}, {@code final} и {@code static}
+ * методов, однократный замер без прокси, отсутствие аллокаций на вызов синхронного метода,
+ * динамические теги, исключения и асинхронные результаты, а также отсутствие замера
+ * до привязки процессора.
+ * Без агента тесты пропускаются.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodWeavingTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                    AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(ReportService.class)
+            .withPropertyValues("method.metrics.prefix=woven");
+
+    @BeforeAll
+    static void requireWeaver() {
+        assumeTrue(Arrays.stream(ReportService.class.getDeclaredFields())
+                        .anyMatch(field -> field.getName().startsWith("ajc$")),
+                "ReportService is not woven, run with -javaagent:aspectjweaver.jar");
+    }
+
+    @Test
+    void shouldTimeInternalPrivateFinalAndStaticCalls() {
+        contextRunner.withPropertyValues("method.metrics.advice-mode=aspectj").run(context -> {
+            assertThat(context).hasSingleBean(TimedMethodWeavingBinder.class).doesNotHaveBean(TimedMethodAspect.class);
+            ReportService service = context.getBean(ReportService.class);
+            assertThat(AopUtils.isAopProxy(service)).isFalse();
+
+            assertThat(service.render()).isEqualTo("report:secret:footer:v1");
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            for (String key : new String[]{"report.render", "report.body", "report.footer", "report.version"}) {
+                assertThat(registry.get("woven." + key + ".duration").timer().count()).as(key).isEqualTo(1);
+            }
+        });
+        assertThat(TimedMethodWeavingAspect.isBound()).isFalse();
+    }
+
+    @Test
+    void shouldTimeSynchronousCallsWithoutAllocation() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "allocated memory is not measured");
+        contextRunner.withPropertyValues("method.metrics.advice-mode=aspectj").run(context -> {
+            ReportService service = context.getBean(ReportService.class);
+            int calls = 100_000;
+            long sum = 0;
+            for (int i = 0; i < calls; i++) {
+                sum += service.count(i);
+            }
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < calls; i++) {
+                sum += service.count(i);
+            }
+            long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+            assertThat(sum).isPositive();
+            assertThat(allocated).as("bytes allocated by %d woven calls", calls).isLessThan(calls);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("woven.report.count.duration").timer().count()).isEqualTo(2L * calls);
+        });
+    }
+
+    @Test
+    void shouldTimeDynamicTagsErrorsAndAsyncResultsOfWovenCalls() {
+        contextRunner.withPropertyValues("method.metrics.advice-mode=aspectj").run(context -> {
+            ReportService service = context.getBean(ReportService.class);
+            service.scale(3);
+            service.scale(30);
+            assertThatThrownBy(service::fail).isInstanceOf(IllegalStateException.class);
+            assertThat(service.later().join()).isEqualTo("later");
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("woven.report.scale.duration").tag("size", "small").timer().count()).isEqualTo(1);
+            assertThat(registry.get("woven.report.scale.duration").tag("size", "large").timer().count()).isEqualTo(1);
+            assertThat(registry.get("woven.report.fail.duration").timer().count()).isEqualTo(1);
+            assertThat(registry.get("woven.report.later.duration").timer().count()).isEqualTo(1);
+            assertThat(service.render()).isEqualTo("report:secret:footer:v1");
+            assertThat(registry.get("woven.report.render.duration").timer().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldNotTimeWovenMethodsInProxyMode() {
+        contextRunner.run(context -> {
+            assertThat(context).doesNotHaveBean(TimedMethodWeavingBinder.class);
+            context.getBean(ReportService.class).render();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("woven.report.render.duration").timer().count()).isEqualTo(1);
+            assertThat(registry.find("woven.report.body.duration").timer()).isNull();
+        });
+    }
+
+    @Test
+    void shouldProceedWithoutTimingBeforeBinding() {
+        assertThat(TimedMethodWeavingAspect.isBound()).isFalse();
+        assertThat(new ReportService().render()).isEqualTo("report:secret:footer:v1");
+    }
+
+    static class ReportService {
+        @TimedMethod("report.render")
+        public String render() {
+            return "report:" + body() + ":" + footer() + ":" + version();
+        }
+
+        @TimedMethod("report.body")
+        private String body() {
+            return "secret";
+        }
+
+        @TimedMethod("report.footer")
+        public final String footer() {
+            return "footer";
+        }
+
+        @TimedMethod("report.version")
+        static String version() {
+            return "v1";
+        }
+
+        @TimedMethod("report.count")
+        public long count(int value) {
+            return value + 1L;
+        }
+
+        @TimedMethod(value = "report.scale", dynamicTags = "size=#result > 10 ? 'large' : 'small'")
+        public long scale(int value) {
+            return value * 2L;
+        }
+
+        @TimedMethod("report.fail")
+        public void fail() {
+            throw new IllegalStateException("failed");
+        }
+
+        @TimedMethod("report.later")
+        public CompletableFuture<String> later() {
+            return CompletableFuture.completedFuture("later");
+        }
+    }
+}
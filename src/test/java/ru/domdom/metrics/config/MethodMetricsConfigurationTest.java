@@ -4,20 +4,27 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.UnsatisfiedDependencyException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
 import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.aspect.TimedMethodAdvisor;
 import ru.domdom.metrics.aspect.TimedMethodAspect;
 import ru.domdom.metrics.service.MetricFactory;
 import ru.domdom.metrics.service.MetricNameResolver;
 import ru.domdom.metrics.service.TimedMethodProcessor;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
  * Тесты автоконфигурации {@link MethodMetricsAutoConfiguration}.
  * <p>
  * Проверяет создание бинов при включённой конфигурации, их отсутствие при выключенной,
- * привязку свойств и обработку отсутствия {@link MeterRegistry}.
+ * привязку свойств, обработку отсутствия {@link MeterRegistry} и то, что советник
+ * не создаёт реестр раньше пост-процессоров бинов.
  * </p>
  *
  * @author Кадыров Андрей
@@ -35,10 +42,18 @@ public class MethodMetricsConfigurationTest {
             assertThat(context).hasSingleBean(MetricNameResolver.class);
             assertThat(context).hasSingleBean(MetricFactory.class);
             assertThat(context).hasSingleBean(TimedMethodProcessor.class);
-            assertThat(context).hasSingleBean(TimedMethodAspect.class);
+            assertThat(context).hasSingleBean(TimedMethodAdvisor.class).doesNotHaveBean(TimedMethodAspect.class);
         });
     }
 
+    @Test
+    void shouldLeaveMeterRegistryToAllBeanPostProcessors() {
+        contextRunner.withConfiguration(AutoConfigurations.of(AopAutoConfiguration.class))
+                .withBean(RecordingPostProcessor.class)
+                .run(context -> assertThat(context.getBean(RecordingPostProcessor.class).processed)
+                        .contains(MeterRegistry.class.getName(), TimedMethodProcessor.class.getName()));
+    }
+
     @Test
     void shouldRespectEnabledFlag() {
         contextRunner.withPropertyValues("method.metrics.enabled=false")
@@ -46,7 +61,7 @@ public class MethodMetricsConfigurationTest {
                     assertThat(context).doesNotHaveBean(MetricNameResolver.class);
                     assertThat(context).doesNotHaveBean(MetricFactory.class);
                     assertThat(context).doesNotHaveBean(TimedMethodProcessor.class);
-                    assertThat(context).doesNotHaveBean(TimedMethodAspect.class);
+                    assertThat(context).doesNotHaveBean(TimedMethodAdvisor.class);
                 });
     }
 
@@ -85,4 +100,19 @@ public class MethodMetricsConfigurationTest {
                             .hasMessageContaining("MeterRegistry");
                 });
     }
-}
\ No newline at end of file
+
+    static class RecordingPostProcessor implements BeanPostProcessor {
+
+        final List<String> processed = new ArrayList<>();
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof MeterRegistry) {
+                processed.add(MeterRegistry.class.getName());
+            } else if (bean instanceof TimedMethodProcessor) {
+                processed.add(TimedMethodProcessor.class.getName());
+            }
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ru.domdom.metrics.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.generate.ClassNameGenerator;
+import org.springframework.aot.generate.DefaultGenerationContext;
+import org.springframework.aot.generate.GeneratedFiles;
+import org.springframework.aot.generate.InMemoryGeneratedFiles;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.aot.ApplicationContextAotGenerator;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.javapoet.ClassName;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.aspect.TimedMethodAspect;
+import ru.domdom.metrics.index.TimedMethodIndex;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты поддержки нативного образа: подсказок {@link MethodMetricsRuntimeHints}
+ * и AOT-обработки контекста с {@link MethodMetricsAutoConfiguration}.
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class MethodMetricsRuntimeHintsTest {
+
+    @Test
+    void shouldRegisterHintsForStarterTypes() {
+        RuntimeHints hints = new RuntimeHints();
+
+        new MethodMetricsRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertThat(RuntimeHintsPredicates.reflection().onType(TimedMethod.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_METHODS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.proxies().forInterfaces(TimedMethod.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(TimedMethodAspect.class)
+                .withMemberCategories(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+                        MemberCategory.INVOKE_DECLARED_METHODS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(MethodMetricsProperties.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(MethodMetricsProperties.Governor.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.resource().forResource(TimedMethodIndex.LOCATION)).accepts(hints);
+    }
+
+    @Test
+    void shouldProcessContextAheadOfTime() {
+        DefaultGenerationContext generationContext = new DefaultGenerationContext(
+                new ClassNameGenerator(ClassName.get(MethodMetricsRuntimeHintsTest.class)),
+                new InMemoryGeneratedFiles());
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test",
+                    Map.of("method.metrics.governor.enabled", "true")));
+            context.register(AotConfig.class);
+
+            new ApplicationContextAotGenerator().processAheadOfTime(context, generationContext);
+        }
+        generationContext.writeGeneratedContent();
+
+        RuntimeHints hints = generationContext.getRuntimeHints();
+        assertThat(((InMemoryGeneratedFiles) generationContext.getGeneratedFiles())
+                .getGeneratedFiles(GeneratedFiles.Kind.SOURCE)).isNotEmpty();
+        assertThat(RuntimeHintsPredicates.proxies().forInterfaces(TimedMethod.class)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(BaseService.class)
+                .withMemberCategory(MemberCategory.INTROSPECT_DECLARED_METHODS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection().onType(ReportService.class)
+                .withMemberCategory(MemberCategory.INTROSPECT_PUBLIC_METHODS)).accepts(hints);
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ImportAutoConfiguration({MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class})
+    static class AotConfig {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        ReportService reportService() {
+            return new ReportService();
+        }
+    }
+
+    public static class BaseService {
+        @TimedMethod("report.build")
+        public void build() {
+        }
+    }
+
+    public static class ReportService extends BaseService {
+    }
+}
@@ -0,0 +1,291 @@
+package ru.domdom.metrics.endpoint;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.TimedMethodsEndpointAutoConfiguration;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.HotMethodDescriptor;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.MethodStatsDescriptor;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.SlowCallsDescriptor;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.StatsDescriptor;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.TimedMethodDescriptor;
+import ru.domdom.metrics.endpoint.TimedMethodsEndpoint.TopDescriptor;
+import ru.domdom.metrics.index.TimedMethodIndex;
+import ru.domdom.metrics.service.MetricFactory;
+import ru.domdom.metrics.service.SlowCallLog.SlowCall;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.groups.Tuple.tuple;
+
+/**
+ * Тесты actuator-эндпоинта {@code timedmethods}.
+ * <p>
+ * Проверяют список перехваченных методов, отключение и включение замера по ключу
+ * метрики и по шаблону имени класса, сохранение шаблона для методов, вызванных после
+ * переключения, список методов из индекса и хэндлов классов цели,
+ * «горячие» методы за окно, последние медленные вызовы, скользящую статистику
+ * и условие доступности эндпоинта.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodsEndpointTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                    TimedMethodsEndpointAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(OrderService.class)
+            .withPropertyValues("method.metrics.prefix=ep",
+                    "spring.jmx.enabled=true",
+                    "management.endpoints.jmx.exposure.include=timedmethods");
+
+    @Test
+    void shouldListInstrumentedMethods() {
+        contextRunner.run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.create();
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            assertThat(endpoint.methods(null).getMethods())
+                    .extracting(TimedMethodDescriptor::getKey, TimedMethodDescriptor::isEnabled,
+                            TimedMethodDescriptor::getCalls)
+                    .containsExactly(
+                            tuple("order.create", true, 2L),
+                            tuple("order.find", true, 1L));
+            assertThat(endpoint.methods("*.find").getMethods())
+                    .extracting(TimedMethodDescriptor::getMethod)
+                    .containsExactly(OrderService.class.getName() + ".find");
+        });
+    }
+
+    @Test
+    void shouldDisableAndEnableByMetricKey() {
+        contextRunner.run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            assertThat(endpoint.toggle("order.create", false).getMatched()).isEqualTo(1);
+            service.create();
+            service.find();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("ep.order.create.calls").counter().count()).isEqualTo(1);
+            assertThat(registry.get("ep.order.find.calls").counter().count()).isEqualTo(2);
+
+            endpoint.toggle("order.create", true);
+            service.create();
+            assertThat(registry.get("ep.order.create.calls").counter().count()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void shouldDisableByClassPattern() {
+        contextRunner.run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            assertThat(endpoint.toggle(OrderService.class.getName() + ".*", false).getMatched()).isEqualTo(2);
+            service.create();
+            service.find();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("ep.order.create.calls").counter().count()).isEqualTo(1);
+            assertThat(registry.get("ep.order.find.calls").counter().count()).isEqualTo(1);
+            assertThat(endpoint.methods(null).getMethods()).noneMatch(TimedMethodDescriptor::isEnabled);
+        });
+    }
+
+    @Test
+    void shouldListIndexedAndTargetClassMethods(@TempDir Path output) throws Exception {
+        Path index = output.resolve(TimedMethodIndex.LOCATION);
+        Files.createDirectories(index.getParent());
+        Files.writeString(index, OrderService.class.getName() + "#cancel().signature=cancel()\n",
+                StandardCharsets.UTF_8);
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{output.toUri().toURL()},
+                getClass().getClassLoader())) {
+            contextRunner.withClassLoader(loader)
+                    .withBean(ImportJob.class)
+                    .withBean(ExportJob.class)
+                    .run(context -> {
+                        context.getBean(OrderService.class).create();
+                        context.getBean(ImportJob.class).run();
+                        context.getBean(ExportJob.class).run();
+
+                        TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+                        assertThat(endpoint.methods(null).getMethods())
+                                .extracting(TimedMethodDescriptor::getKey, TimedMethodDescriptor::getCalls)
+                                .containsExactly(
+                                        tuple("ExportJob.run", 1L),
+                                        tuple("ImportJob.run", 1L),
+                                        tuple("order.cancel", 0L),
+                                        tuple("order.create", 1L));
+                    });
+        }
+    }
+
+    @Test
+    void shouldDisableMethodsCalledAfterToggle() {
+        contextRunner.run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            assertThat(endpoint.toggle("order.*", false).getMatched()).isEqualTo(1);
+            endpoint.toggle("order.find", true);
+            service.find();
+            service.cancel();
+            service.cancel();
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("ep.order.find.calls").counter().count()).isEqualTo(1);
+            assertThat(registry.get("ep.order.cancel.calls").counter().count()).isZero();
+            assertThat(endpoint.methods("order.cancel").getMethods())
+                    .singleElement()
+                    .satisfies(method -> assertThat(method.isEnabled()).isFalse());
+        });
+    }
+
+    @Test
+    void shouldNotExpireDisabledMethods() {
+        contextRunner.withPropertyValues("method.metrics.idle-expiry=1h").run(context -> {
+            context.getBean(OrderService.class).create();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            endpoint.toggle("order.create", false);
+            MetricFactory metricFactory = context.getBean(MetricFactory.class);
+            metricFactory.expireIdle(Duration.ZERO);
+            metricFactory.expireIdle(Duration.ZERO);
+
+            assertThat(endpoint.methods("order.create").getMethods())
+                    .singleElement()
+                    .satisfies(method -> assertThat(method.isEnabled()).isFalse());
+            assertThat(context.getBean(MeterRegistry.class).find("ep.order.create.calls").counter()).isNotNull();
+        });
+    }
+
+    @Test
+    void shouldReportHottestMethods() {
+        contextRunner.withPropertyValues("method.metrics.top.enabled=true").run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            for (int i = 0; i < 5; i++) {
+                service.create();
+            }
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            TopDescriptor top = (TopDescriptor) endpoint.view("top", 1, "calls", null, null);
+            assertThat(top.getOrderedBy()).isEqualTo("calls");
+            assertThat(top.getMethods()).extracting(HotMethodDescriptor::getKey, HotMethodDescriptor::getCalls)
+                    .containsExactly(tuple("order.create", 5L));
+            assertThat(endpoint.view("other", null, null, null, null)).isNull();
+            assertThatThrownBy(() -> endpoint.view("top", null, "memory", null, null))
+                    .isInstanceOf(InvalidEndpointRequestException.class);
+        });
+    }
+
+    @Test
+    void shouldReportSlowCalls() {
+        contextRunner.withPropertyValues("method.metrics.slow-calls.enabled=true",
+                "method.metrics.slow-calls.threshold=0ms").run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            SlowCallsDescriptor slow = (SlowCallsDescriptor) endpoint.view("slow", 10, null, "order.find", null);
+            assertThat(slow.getCaptured()).isEqualTo(2);
+            assertThat(slow.getCalls()).extracting(SlowCall::getKey).containsExactly("order.find");
+            assertThat(endpoint.view("slow", null, null, null, null)).isNotNull();
+        });
+    }
+
+    @Test
+    void shouldReportRollingStats() {
+        contextRunner.withPropertyValues("method.metrics.rolling-stats.enabled=true").run(context -> {
+            OrderService service = context.getBean(OrderService.class);
+            service.create();
+            service.create();
+            service.find();
+
+            TimedMethodsEndpoint endpoint = context.getBean(TimedMethodsEndpoint.class);
+            StatsDescriptor stats = (StatsDescriptor) endpoint.view("stats", null, null, "order.c*", "10s");
+            assertThat(stats.getWindow()).isEqualTo("PT10S");
+            assertThat(stats.getMethods()).extracting(MethodStatsDescriptor::getKey, MethodStatsDescriptor::getCalls)
+                    .containsExactly(tuple("order.create", 2L));
+            assertThat(endpoint.stats(null, null).getMethods()).hasSize(2);
+            assertThatThrownBy(() -> endpoint.stats("1h", null))
+                    .isInstanceOf(InvalidEndpointRequestException.class);
+        });
+    }
+
+    @Test
+    void shouldNotReportHottestMethodsWhenDisabled() {
+        contextRunner.run(context ->
+                assertThat(context.getBean(TimedMethodsEndpoint.class))
+                        .satisfies(endpoint -> {
+                            assertThat(endpoint.view("top", null, null, null, null)).isNull();
+                            assertThat(endpoint.view("slow", null, null, null, null)).isNull();
+                        }));
+    }
+
+    @Test
+    void shouldNotCreateEndpointWhenNotExposed() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                        TimedMethodsEndpointAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .run(context -> assertThat(context).doesNotHaveBean(TimedMethodsEndpoint.class));
+    }
+
+    static class OrderService {
+        @TimedMethod("order.create")
+        public String create() {
+            return "created";
+        }
+
+        @TimedMethod("order.find")
+        public String find() {
+            return "found";
+        }
+
+        @TimedMethod("order.cancel")
+        public String cancel() {
+            return "cancelled";
+        }
+    }
+
+    static class BaseJob {
+        @TimedMethod
+        public void run() {
+        }
+    }
+
+    static class ImportJob extends BaseJob {
+    }
+
+    static class ExportJob extends BaseJob {
+    }
+}
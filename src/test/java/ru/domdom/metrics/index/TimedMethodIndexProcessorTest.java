@@ -0,0 +1,228 @@
+package ru.domdom.metrics.index;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.service.MetricFactory;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты для {@link TimedMethodIndexProcessor} и {@link TimedMethodIndex}.
+ * <p>
+ * Проверяют ошибки компиляции для некорректных тегов, создание индекса с сигнатурами
+ * и тегами методов, перенос записей неперекомпилированных классов и использование индекса
+ * в {@link MetricFactory} только для собственной аннотации метода.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodIndexProcessorTest {
+
+    @TempDir
+    Path output;
+
+    @Test
+    void shouldIndexAnnotatedMethods() throws Exception {
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(source("demo.OrderService", """
+                package demo;
+
+                import ru.domdom.metrics.annotation.TimedMethod;
+
+                public class OrderService {
+                    @TimedMethod(value = "orders.find", extraTags = {" region = eu ", "tier=gold"})
+                    public Object find(String[] ids, int limit, Filter filter, java.util.List<String> names) {
+                        return null;
+                    }
+
+                    @TimedMethod
+                    void cancel() {
+                    }
+
+                    public static class Filter {
+                    }
+                }
+                """), source("demo.Catalog", """
+                package demo;
+
+                import ru.domdom.metrics.annotation.TimedMethod;
+
+                @TimedMethod(value = "catalog", extraTags = "team=shop")
+                public class Catalog {
+                    public void list() {
+                    }
+                }
+                """));
+
+        assertThat(errors).isEmpty();
+        String index = Files.readString(output.resolve(TimedMethodIndex.LOCATION), StandardCharsets.UTF_8);
+        assertThat(index).doesNotContain("Catalog");
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{output.toUri().toURL()},
+                getClass().getClassLoader())) {
+            TimedMethodIndex loaded = TimedMethodIndex.load(loader);
+            assertThat(loaded.size()).isEqualTo(2);
+            Class<?> service = loader.loadClass("demo.OrderService");
+            Method find = service.getMethod("find", String[].class, int.class,
+                    loader.loadClass("demo.OrderService$Filter"), List.class);
+            TimedMethodIndex.Descriptor descriptor = loaded.find(find);
+            assertThat(descriptor.getSignature()).isEqualTo("find(String[],int,Filter,List)");
+            assertThat(descriptor.getExtraTags()).containsExactly(Map.entry("region", "eu"), Map.entry("tier", "gold"));
+            Method cancel = service.getDeclaredMethod("cancel");
+            assertThat(loaded.find(cancel).getExtraTags()).isEmpty();
+            assertThat(loaded.find(service.getMethod("find", String[].class, int.class,
+                    loader.loadClass("demo.OrderService$Filter"), List.class))).isSameAs(descriptor);
+            assertThat(loaded.find(find, find.getAnnotation(TimedMethod.class))).isSameAs(descriptor);
+            assertThat(loaded.find(find, cancel.getAnnotation(TimedMethod.class))).isNull();
+            assertThat(loaded.find(loader.loadClass("demo.Catalog").getMethod("list"))).isNull();
+        }
+    }
+
+    @Test
+    void shouldFailCompilationOnMalformedAttributes() throws Exception {
+        List<Diagnostic<? extends JavaFileObject>> errors = compile(source("demo.BrokenService", """
+                package demo;
+
+                import ru.domdom.metrics.annotation.TimedMethod;
+
+                @TimedMethod(extraTags = "team")
+                public class BrokenService {
+                    @TimedMethod(extraTags = {"env=prod=eu", "zone=", "env=test", "env=prod", "class=Broken"})
+                    public void tags() {
+                    }
+
+                    @TimedMethod(dynamicTags = {"=#p0", "tenant=", "region=#p0.region"}, extraTags = "region=eu")
+                    public void dynamic(Object request) {
+                    }
+
+                    @TimedMethod(sampleEvery = -1)
+                    public void sampled() {
+                    }
+                }
+                """));
+
+        assertThat(errors).extracting(error -> error.getMessage(null)).containsExactlyInAnyOrder(
+                "Malformed extraTags entry \"team\": expected key=value",
+                "Malformed extraTags entry \"env=prod=eu\": expected key=value",
+                "Malformed extraTags entry \"zone=\": expected key=value",
+                "Duplicate tag \"env\"",
+                "Tag \"class\" is reserved by method metrics",
+                "Malformed dynamicTags entry \"=#p0\": expected key=expression",
+                "Malformed dynamicTags entry \"tenant=\": expected key=expression",
+                "Duplicate tag \"region\"",
+                "sampleEvery must not be negative: -1");
+        assertThat(output.resolve(TimedMethodIndex.LOCATION)).doesNotExist();
+    }
+
+    @Test
+    void shouldKeepEntriesOfClassesNotRecompiled() throws Exception {
+        String annotated = """
+                package demo;
+
+                public class %s {
+                    @ru.domdom.metrics.annotation.TimedMethod
+                    public void run() {
+                    }
+                }
+                """;
+        assertThat(compile(source("demo.Billing", annotated.formatted("Billing")),
+                source("demo.Shipping", annotated.formatted("Shipping")))).isEmpty();
+
+        assertThat(compile(source("demo.Billing", """
+                package demo;
+
+                public class Billing {
+                    public void run() {
+                    }
+                }
+                """))).isEmpty();
+
+        String index = Files.readString(output.resolve(TimedMethodIndex.LOCATION), StandardCharsets.UTF_8);
+        assertThat(index).contains("demo.Shipping#run().signature=run()").doesNotContain("Billing");
+    }
+
+    @Test
+    void shouldTakeTagsFromIndexOnlyForOwnMethodAnnotation() throws Exception {
+        Method charge = PaymentService.class.getMethod("charge", long.class);
+        Method refund = PaymentService.class.getMethod("refund");
+        Path index = output.resolve(TimedMethodIndex.LOCATION);
+        Files.createDirectories(index.getParent());
+        Files.writeString(index, TimedMethodIndex.methodId(charge) + ".signature=charge(amount)\n"
+                + TimedMethodIndex.methodId(charge) + ".tag.source=index\n"
+                + TimedMethodIndex.methodId(refund) + ".signature=refund(indexed)\n", StandardCharsets.UTF_8);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MetricFactory factory = new MetricFactory(registry, new MethodMetricsProperties());
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{output.toUri().toURL()}, null)) {
+            factory.setIndex(TimedMethodIndex.load(loader));
+        }
+
+        factory.getHandle("payment.charge", charge.getAnnotation(TimedMethod.class), charge, null);
+        factory.getHandle("payment.refund", PaymentService.class.getAnnotation(TimedMethod.class), refund, null);
+
+        Timer chargeTimer = registry.get("method.payment.charge.duration").timer();
+        assertThat(chargeTimer.getId().getTag("source")).isEqualTo("index");
+        assertThat(chargeTimer.getId().getTag("signature")).isEqualTo("charge(amount)");
+        Timer refundTimer = registry.get("method.payment.refund.duration").timer();
+        assertThat(refundTimer.getId().getTag("source")).isEqualTo("class");
+        assertThat(refundTimer.getId().getTag("signature")).isEqualTo("refund()");
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> compile(JavaFileObject... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        String classpath = Path.of(TimedMethod.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                + File.pathSeparator + output;
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                List.of("-d", output.toString(), "-classpath", classpath), null, List.of(sources));
+        task.setProcessors(List.of(new TimedMethodIndexProcessor()));
+        task.call();
+        List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic);
+            }
+        }
+        return errors;
+    }
+
+    private static JavaFileObject source(String className, String code) {
+        URI uri = URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension);
+        return new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+    }
+
+    @TimedMethod(extraTags = "source=class")
+    public static class PaymentService {
+        @TimedMethod(value = "payment.charge", extraTags = "source=annotation")
+        public void charge(long amount) {
+        }
+
+        public void refund() {
+        }
+    }
+}
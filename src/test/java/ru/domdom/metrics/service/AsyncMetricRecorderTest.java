@@ -0,0 +1,163 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты фоновой записи метрик {@link AsyncMetricRecorder}.
+ * <p>
+ * Проверяют, что измерения попадают в метрики только после переноса из буфера,
+ * что при переполнении измерения отбрасываются и учитываются в счётчике,
+ * что при остановке оставшиеся измерения дописываются, и что ни одно измерение
+ * не теряется бесследно при конкурентной записи.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class AsyncMetricRecorderTest {
+
+    private MeterRegistry registry;
+    private MethodMetricsProperties properties;
+    private MetricHandle handle;
+    private AsyncMetricRecorder recorder;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        registry = new SimpleMeterRegistry();
+        properties = new MethodMetricsProperties();
+        properties.setPrefix("test");
+        properties.getAsyncRecording().setBufferSize(4);
+        properties.getAsyncRecording().setFlushInterval(Duration.ofHours(1));
+
+        Method method = getClass().getMethod("sampleMethod");
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+        handle = new MetricFactory(registry, properties).getHandle("async", annotation, method, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (recorder != null) {
+            recorder.destroy();
+        }
+    }
+
+    @Test
+    void shouldApplyMeasurementsOnlyWhenDrained() {
+        recorder = new AsyncMetricRecorder(registry, properties, 1);
+        recorder.afterPropertiesSet();
+
+        assertThat(recorder.offer(handle, 1_000L)).isTrue();
+        assertThat(recorder.offer(handle, 3_000L)).isTrue();
+        assertThat(handle.getCounter().count()).isZero();
+
+        assertThat(recorder.drain()).isEqualTo(2);
+
+        assertThat(handle.getCounter().count()).isEqualTo(2);
+        assertThat(handle.getTimer().totalTime(TimeUnit.NANOSECONDS)).isEqualTo(4_000.0);
+    }
+
+    @Test
+    void shouldDropAndCountWhenBufferIsFull() {
+        recorder = new AsyncMetricRecorder(registry, properties, 1);
+        recorder.afterPropertiesSet();
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (recorder.offer(handle, 1_000L)) {
+                accepted++;
+            }
+        }
+
+        assertThat(accepted).isEqualTo(4);
+        assertThat(recorder.getDroppedCount()).isEqualTo(6);
+        assertThat(registry.get("test.async.recording.dropped").functionCounter().count()).isEqualTo(6);
+
+        recorder.drain();
+        assertThat(recorder.offer(handle, 1_000L)).isTrue();
+    }
+
+    @Test
+    void shouldDrainRemainingMeasurementsOnDestroy() {
+        recorder = new AsyncMetricRecorder(registry, properties, 1);
+        recorder.afterPropertiesSet();
+        recorder.offer(handle, 1_000L);
+
+        recorder.destroy();
+        recorder = null;
+
+        assertThat(handle.getCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldAccountForEveryMeasurementUnderConcurrency() throws InterruptedException {
+        properties.getAsyncRecording().setBufferSize(64);
+        properties.getAsyncRecording().setFlushInterval(Duration.ofMillis(1));
+        recorder = new AsyncMetricRecorder(registry, properties, 4);
+        recorder.afterPropertiesSet();
+
+        int threads = 8;
+        int perThread = 20_000;
+        AtomicLong accepted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (recorder.offer(handle, 10L)) {
+                        accepted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+        executor.shutdownNow();
+        recorder.destroy();
+        recorder = null;
+
+        assertThat((long) handle.getCounter().count()).isEqualTo(accepted.get());
+        assertThat(accepted.get() + registry.get("test.async.recording.dropped").functionCounter().count())
+                .isEqualTo((double) threads * perThread);
+    }
+
+    @Test
+    void shouldWireRecorderIntoProcessorWhenEnabled() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withPropertyValues("method.metrics.async-recording.enabled=true",
+                        "method.metrics.async-recording.buffer-size=128",
+                        "method.metrics.async-recording.flush-interval=5ms")
+                .run(context -> {
+                    assertThat(context).hasSingleBean(AsyncMetricRecorder.class);
+                    MethodMetricsProperties bound = context.getBean(MethodMetricsProperties.class);
+                    assertThat(bound.getAsyncRecording().getBufferSize()).isEqualTo(128);
+                    assertThat(bound.getAsyncRecording().getFlushInterval()).isEqualTo(Duration.ofMillis(5));
+                });
+    }
+
+    public void sampleMethod() {}
+}
@@ -0,0 +1,188 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты для {@link CallTree}.
+ * <p>
+ * Проверяют вычитание времени вложенных вызовов из собственного времени, учёт вызовов
+ * глубже {@code max-depth} в ближайшем отслеживаемом предке, счётчики рёбер с ограничением
+ * их числа, удаление рёбер вместе с метриками ключа и восстановление стека после исключения.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class CallTreeTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                    AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(InventoryService.class)
+            .withBean(OrderService.class)
+            .withPropertyValues("method.metrics.prefix=tree", "method.metrics.call-tree.enabled=true",
+                    "method.metrics.call-tree.edges=true");
+
+    @Test
+    void shouldExcludeNestedCallsFromSelfTime() {
+        contextRunner.run(context -> {
+            context.getBean(OrderService.class).place(20, 40);
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            Timer total = registry.get("tree.order.place.duration").timer();
+            Timer self = registry.get("tree.order.place.self").timer();
+            Timer reserveSelf = registry.get("tree.inventory.reserve.self").timer();
+            assertThat(total.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(60);
+            assertThat(self.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20).isLessThan(40);
+            assertThat(reserveSelf.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(40);
+            assertThat(registry.get("tree.call.edges").tag("parent", "order.place")
+                    .tag("child", "inventory.reserve").counter().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldRestoreStackAfterException() {
+        contextRunner.run(context -> {
+            OrderService orders = context.getBean(OrderService.class);
+            assertThatThrownBy(() -> orders.cancel()).isInstanceOf(IllegalStateException.class);
+            orders.place(0, 0);
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("tree.order.cancel.self").timer().count()).isEqualTo(1);
+            assertThat(registry.get("tree.call.edges").tag("parent", "order.place").counter().count())
+                    .isEqualTo(1);
+            assertThat(registry.find("tree.call.edges").tag("parent", "order.cancel").counter()).isNotNull();
+        });
+    }
+
+    @Test
+    void shouldRemoveEdgesWithExpiredAndClearedKeys() {
+        contextRunner.run(context -> {
+            OrderService orders = context.getBean(OrderService.class);
+            orders.place(0, 0);
+            assertThatThrownBy(orders::cancel).isInstanceOf(IllegalStateException.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            MetricFactory factory = context.getBean(MetricFactory.class);
+            CallTree tree = context.getBean(CallTree.class);
+            assertThat(tree.getEdgeCount()).isEqualTo(2);
+
+            factory.expireIdle(Duration.ZERO);
+            Thread.sleep(5);
+            orders.place(0, 0);
+            assertThat(factory.expireIdle(Duration.ZERO)).isEqualTo(1);
+
+            assertThat(registry.find("tree.call.edges").tag("parent", "order.cancel").counter()).isNull();
+            assertThat(registry.find("tree.call.edges").tag("parent", "order.place").counter()).isNotNull();
+            assertThat(tree.getEdgeCount()).isEqualTo(1);
+
+            factory.clearCache();
+
+            assertThat(registry.find("tree.call.edges").counters()).isEmpty();
+            assertThat(tree.getEdgeCount()).isZero();
+        });
+    }
+
+    @Test
+    void shouldNotCreateSelfTimersWhenDisabled() {
+        contextRunner.withPropertyValues("method.metrics.call-tree.enabled=false").run(context -> {
+            context.getBean(OrderService.class).place(0, 0);
+
+            assertThat(context).doesNotHaveBean(CallTree.class);
+            assertThat(context.getBean(MeterRegistry.class).find("tree.order.place.self").timer()).isNull();
+        });
+    }
+
+    @Test
+    void shouldAttributeUntrackedDepthToDeepestTrackedFrame() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getCallTree().setMaxDepth(1);
+        CallTree tree = new CallTree(registry, properties);
+        MetricHandle outer = handle(registry, "outer");
+        MetricHandle inner = handle(registry, "inner");
+
+        CallTree.Stack stack = tree.enter(outer);
+        tree.enter(inner);
+        tree.enter(inner);
+        tree.exit(stack, 5_000, true);
+        tree.exit(stack, 30_000, true);
+        tree.exit(stack, 100_000, true);
+
+        assertThat(stack.getDepth()).isZero();
+        assertThat(inner.getSelfTimer().count()).isZero();
+        assertThat(outer.getSelfTimer().totalTime(TimeUnit.NANOSECONDS)).isEqualTo(70_000);
+    }
+
+    @Test
+    void shouldBoundEdgeCardinality() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getCallTree().setEdges(true);
+        properties.getCallTree().setMaxEdges(1);
+        CallTree tree = new CallTree(registry, properties);
+        MetricHandle parent = handle(registry, "parent");
+
+        for (String child : new String[]{"a", "b", "c", "b"}) {
+            CallTree.Stack stack = tree.enter(parent);
+            tree.enter(handle(registry, child));
+            tree.exit(stack, 1, true);
+            tree.exit(stack, 2, true);
+        }
+
+        assertThat(tree.getEdgeCount()).isEqualTo(1);
+        assertThat(registry.find("method.call.edges").counters()).hasSize(2);
+        Counter overflow = registry.get("method.call.edges").tag("parent", MetricFactory.OVERFLOW_KEY).counter();
+        assertThat(overflow.count()).isEqualTo(3);
+    }
+
+    private static MetricHandle handle(MeterRegistry registry, String key) {
+        MetricHandle handle = new MetricHandle(key, null, registry.timer(key + ".duration"),
+                registry.counter(key + ".calls"));
+        handle.setSelfTimer(registry.timer(key + ".self"));
+        return handle;
+    }
+
+    static class InventoryService {
+        @TimedMethod("inventory.reserve")
+        public void reserve(long sleepMillis) throws InterruptedException {
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    static class OrderService {
+        private final InventoryService inventory;
+
+        OrderService(InventoryService inventory) {
+            this.inventory = inventory;
+        }
+
+        @TimedMethod("order.place")
+        public void place(long ownMillis, long reserveMillis) throws InterruptedException {
+            Thread.sleep(ownMillis);
+            inventory.reserve(reserveMillis);
+        }
+
+        @TimedMethod("order.cancel")
+        public void cancel() throws InterruptedException {
+            inventory.reserve(0);
+            throw new IllegalStateException("already shipped");
+        }
+    }
+}
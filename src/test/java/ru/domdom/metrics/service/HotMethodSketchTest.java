@@ -0,0 +1,134 @@
+package ru.domdom.metrics.service;
+
+import org.junit.jupiter.api.Test;
+import ru.domdom.metrics.service.HotMethodSketch.HotMethod;
+import ru.domdom.metrics.service.HotMethodSketch.Order;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты для {@link HotMethodSketch}.
+ * <p>
+ * Проверяют упорядочивание по суммарному времени, частоте вызовов и p99,
+ * вытеснение лёгких ключей тяжёлыми при заполненной таблице с наследованием погрешности, точность счёта
+ * при конкурентной записи, отсутствие смешивания вызовов при конкурентном вытеснении
+ * и забывание вызовов за пределами окна.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class HotMethodSketchTest {
+
+    @Test
+    void shouldOrderByTimeCallsAndP99() {
+        HotMethodSketch sketch = new HotMethodSketch(16, Duration.ofMinutes(1));
+        for (int i = 0; i < 100; i++) {
+            sketch.record("frequent", 10_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            sketch.record("heavy", 5_000_000);
+        }
+        sketch.record("slow", 90_000_000);
+
+        assertThat(sketch.top(3, Order.TIME)).extracting(HotMethod::getKey)
+                .containsExactly("slow", "heavy", "frequent");
+        assertThat(sketch.top(1, Order.CALLS)).extracting(HotMethod::getKey).containsExactly("frequent");
+        assertThat(sketch.top(3, Order.P99)).extracting(HotMethod::getKey)
+                .containsExactly("slow", "heavy", "frequent");
+
+        HotMethod heavy = sketch.top(3, Order.TIME).get(1);
+        assertThat(heavy.getCalls()).isEqualTo(10);
+        assertThat(heavy.getTotalNanos()).isEqualTo(50_000_000);
+        assertThat(heavy.getCallsPerSecond()).isPositive();
+    }
+
+    @Test
+    void shouldEvictLightKeysForHeavyOnes() {
+        HotMethodSketch sketch = new HotMethodSketch(HotMethodSketch.PROBES, Duration.ofMinutes(1));
+        for (int i = 0; i < 100; i++) {
+            sketch.record("light." + i, 1_000);
+        }
+        for (int i = 0; i < 100; i++) {
+            sketch.record("hot", 100_000_000);
+        }
+
+        assertThat(sketch.top(1, Order.TIME)).extracting(HotMethod::getKey).containsExactly("hot");
+    }
+
+    @Test
+    void shouldInheritVictimWeightAsErrorOnEviction() {
+        HotMethodSketch sketch = new HotMethodSketch(HotMethodSketch.PROBES, Duration.ofMinutes(1));
+        for (int i = 0; i < HotMethodSketch.PROBES; i++) {
+            sketch.record("light." + i, 1_000 * (i + 1));
+        }
+        sketch.record("hot", 10_000_000_000L);
+
+        assertThat(sketch.top(HotMethodSketch.PROBES, Order.TIME))
+                .extracting(HotMethod::getKey)
+                .containsExactly("hot", "light.3", "light.2", "light.1");
+        HotMethod hot = sketch.top(1, Order.TIME).get(0);
+        assertThat(hot.getCalls()).isEqualTo(1);
+        assertThat(hot.getTotalNanos()).isEqualTo(10_000_000_000L);
+        assertThat(hot.getErrorNanos()).isEqualTo(1_000);
+    }
+
+    @Test
+    void shouldCountConcurrentCallsExactlyWithinCapacity() throws InterruptedException {
+        HotMethodSketch sketch = new HotMethodSketch(64, Duration.ofMinutes(1));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    sketch.record("key." + (i % 8), 1_000);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(sketch.top(8, Order.CALLS)).hasSize(8)
+                .allSatisfy(method -> assertThat(method.getCalls()).isEqualTo(5_000));
+    }
+
+    @Test
+    void shouldNotMixCallsOfKeysEvictedConcurrently() throws InterruptedException {
+        HotMethodSketch sketch = new HotMethodSketch(HotMethodSketch.PROBES, Duration.ofMinutes(1));
+        int keys = 64;
+        int threads = 4;
+        int callsPerThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < callsPerThread; i++) {
+                    int key = i % keys;
+                    sketch.record("key." + key, 1_000L * (key + 1));
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(sketch.top(HotMethodSketch.PROBES, Order.TIME)).isNotEmpty().allSatisfy(method -> {
+            long duration = 1_000L * (Integer.parseInt(method.getKey().substring("key.".length())) + 1);
+            assertThat(method.getCalls()).isLessThanOrEqualTo((long) threads * callsPerThread / keys);
+            assertThat(method.getTotalNanos()).isEqualTo(method.getCalls() * duration);
+        });
+    }
+
+    @Test
+    void shouldForgetCallsOutsideWindow() throws InterruptedException {
+        HotMethodSketch sketch = new HotMethodSketch(16, Duration.ofMillis(100));
+        sketch.record("old", 1_000_000);
+
+        Thread.sleep(250);
+        sketch.record("new", 1_000);
+
+        assertThat(sketch.top(10, Order.TIME)).extracting(HotMethod::getKey).containsExactly("new");
+    }
+}
@@ -0,0 +1,159 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты истечения неиспользуемых метрик: {@link MetricFactory#expireIdle(Duration)}
+ * и {@link IdleMeterSweeper}.
+ * <p>
+ * Проверяют, что метрики простаивающих методов удаляются из кэшей и реестра,
+ * активные методы не затрагиваются, а следующий вызов прозрачно создаёт метрики заново,
+ * в том числе когда истечение выполняется конкурентно с вызовами.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class IdleMeterSweeperTest {
+
+    private MeterRegistry registry;
+    private MetricFactory factory;
+    private TimedMethod annotation;
+    private Method idle;
+    private Method active;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        registry = new SimpleMeterRegistry();
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.setPrefix("test");
+        properties.setIdleExpiry(Duration.ofMinutes(10));
+        factory = new MetricFactory(registry, properties);
+        annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+        idle = getClass().getDeclaredMethod("idle");
+        active = getClass().getDeclaredMethod("active");
+    }
+
+    @Test
+    void shouldExpireOnlyIdleMeters() {
+        factory.getHandle("idle", annotation, idle, null).record(1_000L);
+        MetricHandle activeHandle = factory.getHandle("active", annotation, active, null);
+
+        assertThat(factory.expireIdle(Duration.ZERO)).isZero();
+        activeHandle.record(1_000L);
+        assertThat(factory.expireIdle(Duration.ZERO)).isEqualTo(1);
+
+        assertThat(registry.find("test.idle.duration").timer()).isNull();
+        assertThat(registry.find("test.idle.calls").counter()).isNull();
+        assertThat(factory.findHandle(idle)).isNull();
+        assertThat(registry.find("test.active.duration").timer()).isNotNull();
+        assertThat(factory.findHandle(active)).isSameAs(activeHandle);
+    }
+
+    @Test
+    void shouldRecreateMetersOnNextCall() {
+        factory.getHandle("idle", annotation, idle, null).record(1_000L);
+        factory.expireIdle(Duration.ZERO);
+        factory.expireIdle(Duration.ZERO);
+
+        factory.getHandle("idle", annotation, idle, null).record(1_000L);
+
+        assertThat(registry.get("test.idle.calls").counter().count()).isEqualTo(1);
+        assertThat(factory.findHandle(idle)).isNotNull();
+    }
+
+    @Test
+    void shouldKeepMetersWithinIdleTimeout() {
+        factory.getHandle("idle", annotation, idle, null);
+        factory.expireIdle(Duration.ofMinutes(10));
+
+        assertThat(factory.expireIdle(Duration.ofMinutes(10))).isZero();
+        assertThat(registry.find("test.idle.duration").timer()).isNotNull();
+    }
+
+    @Test
+    void shouldNotCacheHandlesOfRemovedMetersWhenExpiringConcurrently() throws Exception {
+        Method[] methods = Arrays.copyOf(String.class.getMethods(), 32);
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(callers.submit(() -> {
+                while (!stop.get()) {
+                    for (Method method : methods) {
+                        call(method);
+                    }
+                }
+            }));
+        }
+        int expired = 0;
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                expired += factory.expireIdle(Duration.ZERO);
+            }
+        } finally {
+            stop.set(true);
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            callers.shutdown();
+        }
+
+        assertThat(expired).isPositive();
+        for (Method method : methods) {
+            MetricHandle handle = call(method);
+            assertThat(handle.isExpired()).isFalse();
+            assertThat(registry.get("test." + handle.getMetricKey() + ".duration").timer()).isSameAs(handle.getTimer());
+            assertThat(registry.get("test." + handle.getMetricKey() + ".calls").counter()).isSameAs(handle.getCounter());
+        }
+    }
+
+    @Test
+    void shouldCreateSweeperOnlyWhenIdleExpiryIsSet() {
+        ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new);
+
+        contextRunner.run(context -> assertThat(context).doesNotHaveBean(IdleMeterSweeper.class));
+        contextRunner.withPropertyValues("method.metrics.idle-expiry=30m")
+                .run(context -> assertThat(context).hasSingleBean(IdleMeterSweeper.class));
+    }
+
+    private MetricHandle call(Method method) {
+        MetricHandle handle = factory.findHandle(method);
+        if (handle == null) {
+            handle = factory.getHandle("k" + method.hashCode(), annotation, method, null);
+        }
+        handle.record(1_000L);
+        return handle;
+    }
+
+    void idle() {}
+
+    void active() {}
+}
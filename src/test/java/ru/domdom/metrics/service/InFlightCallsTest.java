@@ -0,0 +1,201 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты для {@link InFlightCalls}.
+ * <p>
+ * Проверяют текущее число вызовов, сохранение максимума после их завершения, его выборку
+ * на входе и сброс
+ * по окну, длительность самого долгого вызова при занятых слотах, а также gauge
+ * выполняющихся синхронных, асинхронных и реактивных вызовов перехватываемого метода.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class InFlightCallsTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                    AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(GatewayClient.class)
+            .withPropertyValues("method.metrics.prefix=flight", "method.metrics.in-flight.enabled=true");
+
+    @Test
+    void shouldTrackActiveMaxAndLongest() throws Exception {
+        InFlightCalls inFlight = new InFlightCalls(4, Duration.ofMinutes(1));
+        long now = System.nanoTime();
+
+        int first = inFlight.enter(now - TimeUnit.MILLISECONDS.toNanos(50));
+        int second = inFlight.enter(now);
+        assertThat(inFlight.getActive()).isEqualTo(2);
+        assertThat(inFlight.getMax()).isEqualTo(2);
+        assertThat(inFlight.getLongestNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+
+        inFlight.exit(first);
+        assertThat(inFlight.getLongestNanos()).isLessThan(TimeUnit.MILLISECONDS.toNanos(50));
+        inFlight.exit(second);
+
+        assertThat(inFlight.getActive()).isZero();
+        assertThat(inFlight.getLongestNanos()).isZero();
+        assertThat(inFlight.getMax()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldCountCallsWithoutFreeSlot() {
+        InFlightCalls inFlight = new InFlightCalls(2, Duration.ofMinutes(1));
+        int[] slots = new int[6];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = inFlight.enter(System.nanoTime());
+        }
+
+        assertThat(Arrays.stream(slots).filter(slot -> slot < 0).count()).isEqualTo(4);
+        assertThat(inFlight.getActive()).isEqualTo(6);
+        for (int slot : slots) {
+            inFlight.exit(slot);
+        }
+        assertThat(inFlight.getActive()).isZero();
+        assertThat(inFlight.getLongestNanos()).isZero();
+    }
+
+    @Test
+    void shouldForgetMaxAfterWindow() throws Exception {
+        InFlightCalls inFlight = new InFlightCalls(4, Duration.ofMillis(40));
+        int slot = inFlight.enter(System.nanoTime());
+        assertThat(inFlight.getMax()).isEqualTo(1);
+        inFlight.exit(slot);
+        assertThat(inFlight.getMax()).isEqualTo(1);
+
+        Thread.sleep(60);
+        assertThat(inFlight.getMax()).isZero();
+    }
+
+    @Test
+    void shouldSampleMaxOnEntry() {
+        InFlightCalls inFlight = new InFlightCalls(4, Duration.ofMinutes(1));
+        int held = inFlight.enter(System.nanoTime());
+        for (int i = 0; i < 50 * InFlightCalls.MAX_PROBE_EVERY; i++) {
+            inFlight.exit(inFlight.enter(System.nanoTime()));
+        }
+        inFlight.exit(held);
+
+        assertThat(inFlight.getMax()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldPublishGaugesForBlockedCalls() {
+        contextRunner.run(context -> {
+            GatewayClient client = context.getBean(GatewayClient.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            CountDownLatch started = new CountDownLatch(3);
+            CountDownLatch release = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                for (int i = 0; i < 3; i++) {
+                    executor.submit(() -> {
+                        client.call(started, release);
+                        return null;
+                    });
+                }
+                assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+                Thread.sleep(20);
+
+                assertThat(registry.get("flight.gateway.call.inflight").gauge().value()).isEqualTo(3);
+                assertThat(registry.get("flight.gateway.call.inflight.max").gauge().value()).isEqualTo(3);
+                assertThat(registry.get("flight.gateway.call.inflight.longest").timeGauge()
+                        .value(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(20);
+
+                release.countDown();
+                executor.shutdown();
+                assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+                assertThat(registry.get("flight.gateway.call.inflight").gauge().value()).isZero();
+                assertThat(registry.get("flight.gateway.call.inflight.max").gauge().value()).isEqualTo(3);
+                assertThat(registry.get("flight.gateway.call.inflight.longest").timeGauge()
+                        .value(TimeUnit.MILLISECONDS)).isZero();
+            } finally {
+                executor.shutdownNow();
+            }
+        });
+    }
+
+    @Test
+    void shouldKeepAsyncCallInFlightUntilCompletion() {
+        contextRunner.run(context -> {
+            GatewayClient client = context.getBean(GatewayClient.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            CompletableFuture<String> pending = new CompletableFuture<>();
+
+            CompletableFuture<String> result = client.callAsync(pending);
+            assertThat(registry.get("flight.gateway.callAsync.inflight").gauge().value()).isEqualTo(1);
+
+            pending.complete("ok");
+            assertThat(result.join()).isEqualTo("ok");
+            assertThat(registry.get("flight.gateway.callAsync.inflight").gauge().value()).isZero();
+        });
+    }
+
+    @Test
+    void shouldKeepReactiveSubscriptionInFlightUntilTermination() {
+        contextRunner.run(context -> {
+            GatewayClient client = context.getBean(GatewayClient.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            Sinks.One<String> first = Sinks.one();
+            Sinks.One<String> second = Sinks.one();
+
+            Mono<String> firstResult = client.callReactive(first.asMono());
+            Mono<String> secondResult = client.callReactive(second.asMono());
+            assertThat(registry.get("flight.gateway.callReactive.inflight").gauge().value()).isZero();
+
+            Disposable firstSubscription = firstResult.subscribe();
+            Disposable secondSubscription = secondResult.subscribe();
+            assertThat(registry.get("flight.gateway.callReactive.inflight").gauge().value()).isEqualTo(2);
+
+            first.tryEmitValue("ok");
+            assertThat(registry.get("flight.gateway.callReactive.inflight").gauge().value()).isEqualTo(1);
+            secondSubscription.dispose();
+            assertThat(registry.get("flight.gateway.callReactive.inflight").gauge().value()).isZero();
+            assertThat(firstSubscription.isDisposed()).isTrue();
+        });
+    }
+
+    static class GatewayClient {
+        @TimedMethod("gateway.call")
+        public void call(CountDownLatch started, CountDownLatch release) throws InterruptedException {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+        }
+
+        @TimedMethod("gateway.callAsync")
+        public CompletableFuture<String> callAsync(CompletableFuture<String> pending) {
+            return pending;
+        }
+
+        @TimedMethod("gateway.callReactive")
+        public Mono<String> callReactive(Mono<String> pending) {
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ru.domdom.metrics.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Тесты для {@link LogLinearHistogram}.
+ * <p>
+ * Проверяют точность процентилей относительно точных значений, ленивое выделение
+ * строк корзин, сброс и смену окон без освобождения строк и валидацию параметров.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class LogLinearHistogramTest {
+
+    @Test
+    void shouldEstimatePercentilesWithinRelativeError() {
+        LogLinearHistogram histogram = new LogLinearHistogram(5, Duration.ofMinutes(2));
+        Random random = new Random(42);
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // логнормальное распределение около 1 мс с разбросом в 2–3 порядка
+            values[i] = (long) Math.exp(Math.log(1_000_000) + random.nextGaussian() * 1.2);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertThat(histogram.totalCount()).isEqualTo(values.length);
+        for (double phi : new double[]{0.5, 0.95, 0.99, 0.999}) {
+            long exact = values[(int) Math.ceil(phi * values.length) - 1];
+            assertThat(histogram.percentile(phi))
+                    .isCloseTo(exact, within(exact * histogram.relativeError() * 2));
+        }
+    }
+
+    @Test
+    void shouldReturnZeroWhenEmpty() {
+        LogLinearHistogram histogram = new LogLinearHistogram(4, Duration.ofMinutes(1));
+
+        assertThat(histogram.totalCount()).isZero();
+        assertThat(histogram.percentile(0.99)).isZero();
+    }
+
+    @Test
+    void shouldAllocateRowsLazily() {
+        LogLinearHistogram histogram = new LogLinearHistogram(5, Duration.ofMinutes(2));
+        long empty = histogram.footprintBytes();
+
+        histogram.record(1_000_000);
+        histogram.record(1_000_001);
+        long oneRow = histogram.footprintBytes();
+        histogram.record(50_000_000);
+
+        assertThat(oneRow - empty).isEqualTo(16 + 32 * Long.BYTES);
+        assertThat(histogram.footprintBytes() - oneRow).isEqualTo(16 + 32 * Long.BYTES);
+    }
+
+    @Test
+    void shouldResetKeepingAllocatedRows() {
+        LogLinearHistogram histogram = new LogLinearHistogram(5, Duration.ofMinutes(2));
+        histogram.record(1_000_000);
+        histogram.record(50_000_000);
+        long footprint = histogram.footprintBytes();
+
+        histogram.reset();
+
+        assertThat(histogram.totalCount()).isZero();
+        assertThat(histogram.totalNanos()).isZero();
+        assertThat(histogram.percentile(0.99)).isZero();
+        assertThat(histogram.footprintBytes()).isEqualTo(footprint);
+
+        histogram.record(2_000);
+        assertThat(histogram.totalCount()).isEqualTo(1);
+        assertThat(histogram.percentile(0.5)).isCloseTo(2_000, within(2_000 * histogram.relativeError()));
+    }
+
+    @Test
+    void shouldRotateByCallerClockReusingRows() {
+        LogLinearHistogram histogram = new LogLinearHistogram(5, Duration.ofMillis(100));
+        long now = System.nanoTime();
+        histogram.record(1_000_000, now);
+        histogram.record(1_000_001, now + Duration.ofMillis(60).toNanos());
+        long footprint = histogram.footprintBytes();
+        assertThat(histogram.totalCount()).isEqualTo(2);
+
+        histogram.record(1_000_002, now + Duration.ofMillis(300).toNanos());
+
+        assertThat(histogram.totalCount()).isEqualTo(1);
+        assertThat(histogram.totalNanos()).isEqualTo(1_000_002);
+        assertThat(histogram.footprintBytes()).isEqualTo(footprint);
+    }
+
+    @Test
+    void shouldHandleSmallAndNegativeValues() {
+        LogLinearHistogram histogram = new LogLinearHistogram(3, Duration.ofMinutes(1));
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(3);
+
+        assertThat(histogram.totalCount()).isEqualTo(3);
+        assertThat(histogram.percentile(0.5)).isZero();
+        assertThat(histogram.percentile(1.0)).isEqualTo(3.0);
+    }
+
+    @Test
+    void shouldTrackSumAndForgetExpiredWindows() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(3, Duration.ofMillis(100));
+        histogram.record(1_000);
+        histogram.record(2_000);
+
+        assertThat(histogram.totalNanos()).isEqualTo(3_000);
+        assertThat(histogram.coveredNanos()).isPositive().isLessThanOrEqualTo(Duration.ofMillis(100).toNanos());
+
+        Thread.sleep(250);
+        assertThat(histogram.totalNanos()).isZero();
+        assertThat(histogram.totalCount()).isZero();
+    }
+
+    @Test
+    void shouldRejectInvalidPrecision() {
+        assertThatThrownBy(() -> new LogLinearHistogram(0, Duration.ofMinutes(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new LogLinearHistogram(11, Duration.ofMinutes(1)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты ограничения числа ключей метрик в {@link MetricFactory}.
+ * <p>
+ * Проверяют, что ключи сверх {@code max-metric-keys} попадают в общие метрики
+ * {@code overflow}, отклонения учитываются в счётчике {@code <prefix>.keys.rejected},
+ * а уже допущенные ключи продолжают работать.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class MetricFactoryCardinalityTest {
+
+    private MeterRegistry registry;
+    private MethodMetricsProperties properties;
+    private MetricFactory factory;
+    private TimedMethod annotation;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        properties = new MethodMetricsProperties();
+        properties.setPrefix("test");
+        properties.setMaxMetricKeys(2);
+        factory = new MetricFactory(registry, properties);
+        annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[]{"team=core"});
+        when(annotation.description()).thenReturn("");
+    }
+
+    @Test
+    void shouldRouteKeysBeyondLimitToOverflow() throws NoSuchMethodException {
+        factory.getHandle("first", annotation, method("first"), null).record(1_000L);
+        factory.getHandle("second", annotation, method("second"), null).record(1_000L);
+        MetricHandle third = factory.getHandle("third", annotation, method("third"), null);
+        MetricHandle fourth = factory.getHandle("fourth", annotation, method("fourth"), null);
+        third.record(1_000L);
+        fourth.record(1_000L);
+
+        assertThat(third.getMetricKey()).isEqualTo(MetricFactory.OVERFLOW_KEY);
+        assertThat(fourth.getTimer()).isSameAs(third.getTimer());
+        assertThat(registry.find("test.third.duration").timer()).isNull();
+        assertThat(registry.get("test.overflow.calls").counter().count()).isEqualTo(2);
+        assertThat(registry.get("test.overflow.duration").timer().getId().getTag("team")).isNull();
+        assertThat(registry.get("test.keys.rejected").functionCounter().count()).isEqualTo(2);
+        assertThat(factory.getRejectedKeyCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldKeepServingAdmittedKeys() {
+        factory.getTimer("first", annotation, null);
+        factory.getTimer("second", annotation, null);
+        factory.getTimer("third", annotation, null);
+
+        assertThat(factory.getTimer("first", annotation, null))
+                .isSameAs(registry.get("test.first.duration").timer());
+        assertThat(factory.getCounter("second", annotation, null))
+                .isSameAs(registry.get("test.second.calls").counter());
+        assertThat(factory.getRejectedKeyCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotLimitKeysWhenDisabled() {
+        properties.setMaxMetricKeys(0);
+        for (int i = 0; i < 10; i++) {
+            factory.getTimer("key" + i, annotation, null);
+        }
+
+        assertThat(registry.find("test.overflow.duration").timer()).isNull();
+        assertThat(factory.getRejectedKeyCount()).isZero();
+    }
+
+    @Test
+    void shouldAdmitNewKeysAfterClearCache() {
+        factory.getTimer("first", annotation, null);
+        factory.getTimer("second", annotation, null);
+        factory.clearCache();
+
+        factory.getTimer("third", annotation, null);
+
+        assertThat(registry.find("test.third.duration").timer()).isNotNull();
+        assertThat(factory.getRejectedKeyCount()).isZero();
+    }
+
+    private Method method(String name) throws NoSuchMethodException {
+        return getClass().getDeclaredMethod(name);
+    }
+
+    void first() {}
+
+    void second() {}
+
+    void third() {}
+
+    void fourth() {}
+}
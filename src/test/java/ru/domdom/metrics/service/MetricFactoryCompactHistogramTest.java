@@ -0,0 +1,119 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты {@link MetricFactory} с компактной гистограммой ({@code histogram-engine=compact}).
+ * <p>
+ * Проверяют, что таймер создаётся без гистограммы Micrometer, процентили публикуются
+ * как gauge с тегом {@code phi}, неуспешные вызовы не смешиваются с успешными,
+ * а оценка памяти доступна по ключу метрики.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class MetricFactoryCompactHistogramTest {
+
+    private MeterRegistry registry;
+    private MethodMetricsProperties properties;
+    private MetricFactory factory;
+    private Method method;
+    private TimedMethod annotation;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        registry = new SimpleMeterRegistry();
+        properties = new MethodMetricsProperties();
+        properties.setPrefix("test");
+        properties.setHistogramEngine(MethodMetricsProperties.HistogramEngine.COMPACT);
+        factory = new MetricFactory(registry, properties);
+        method = getClass().getMethod("sampleMethod");
+        annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[]{"team=core"});
+        when(annotation.description()).thenReturn("");
+    }
+
+    @Test
+    void shouldPublishPercentilesFromCompactHistogram() {
+        MetricHandle handle = factory.getHandle("compact", annotation, method, null);
+        for (int i = 1; i <= 1_000; i++) {
+            handle.record(i * 1_000_000L);
+        }
+
+        Timer timer = registry.get("test.compact.duration").timer();
+        assertThat(timer.count()).isEqualTo(1_000);
+        assertThat(timer.takeSnapshot().percentileValues()).isEmpty();
+        assertThat(timer.takeSnapshot().histogramCounts()).isEmpty();
+
+        Gauge p99 = registry.get("test.compact.duration.percentile")
+                .tag("phi", "0.99")
+                .tag("team", "core")
+                .tag("method", "compact")
+                .gauge();
+        assertThat(p99.value()).isCloseTo(0.99, within(0.99 * 0.02));
+        assertThat(registry.find("test.compact.duration.percentile").gauges()).hasSize(3);
+    }
+
+    @Test
+    void shouldKeepErrorLatenciesOutOfSuccessPercentiles() {
+        properties.setOutcomeTags(true);
+        factory = new MetricFactory(registry, properties);
+        MetricHandle handle = factory.getHandle("compact", annotation, method, null);
+        for (int i = 0; i < 100; i++) {
+            handle.record(1_000_000L);
+            handle.forError(new IllegalStateException()).record(5_000_000_000L);
+        }
+
+        Gauge success = registry.get("test.compact.duration.percentile")
+                .tags("phi", "0.99", "outcome", "success")
+                .gauge();
+        Gauge error = registry.get("test.compact.duration.percentile")
+                .tags("phi", "0.99", "outcome", "error", "exception", "IllegalStateException")
+                .gauge();
+        assertThat(success.value()).isCloseTo(0.001, within(0.001 * 0.02));
+        assertThat(error.value()).isCloseTo(5, within(5 * 0.02));
+        assertThat(factory.getHistogramFootprints().get("compact"))
+                .isGreaterThan(factory.findHistogram("compact").footprintBytes());
+
+        factory.clearCache();
+
+        assertThat(registry.find("test.compact.duration.percentile").gauges()).isEmpty();
+    }
+
+    @Test
+    void shouldReportFootprintPerMetricKey() {
+        factory.getHandle("compact", annotation, method, null).record(1_000L);
+
+        assertThat(factory.findHistogram("compact")).isNotNull();
+        assertThat(factory.getHistogramFootprints())
+                .containsOnlyKeys("compact")
+                .allSatisfy((key, bytes) -> assertThat(bytes).isPositive().isLessThan(4_096L));
+    }
+
+    @Test
+    void shouldRemovePercentileGaugesOnClearCache() {
+        factory.getHandle("compact", annotation, method, null);
+
+        factory.clearCache();
+
+        assertThat(registry.find("test.compact.duration.percentile").gauges()).isEmpty();
+        assertThat(factory.findHistogram("compact")).isNull();
+    }
+
+    public void sampleMethod() {}
+}
@@ -0,0 +1,119 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Тесты сэмплирования таймеров в {@link MetricFactory} и {@link MetricHandle}.
+ * <p>
+ * Проверяют, что счётчик и таймер {@code .duration} остаются точными, а в гистограммы
+ * (компактную или таймер {@code .duration.sampled}) попадает лишь часть вызовов.
+ * Атрибут аннотации имеет приоритет над глобальной настройкой.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class MetricFactorySamplingTest {
+
+    private MeterRegistry registry;
+    private MethodMetricsProperties properties;
+    private MetricFactory factory;
+    private Method method;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        registry = new SimpleMeterRegistry();
+        properties = new MethodMetricsProperties();
+        properties.setPrefix("test");
+        factory = new MetricFactory(registry, properties);
+        method = getClass().getMethod("sampleMethod");
+    }
+
+    @Test
+    void shouldKeepDurationExactAndSampleOnlyHistogram() {
+        properties.setHistogram(true);
+        properties.setHistogramEngine(MethodMetricsProperties.HistogramEngine.MICROMETER);
+        MetricHandle handle = factory.getHandle("sampled", annotation(10), method, null);
+
+        for (int i = 0; i < 10_000; i++) {
+            handle.record(1_000L);
+        }
+
+        assertThat(handle.getSampleEvery()).isEqualTo(10);
+        assertThat(handle.getCounter().count()).isEqualTo(10_000);
+        assertThat(handle.getTimer().count()).isEqualTo(10_000);
+        assertThat(handle.getTimer().totalTime(TimeUnit.NANOSECONDS)).isCloseTo(10_000_000.0, offset(1.0));
+        assertThat(handle.getTimer().takeSnapshot().histogramCounts()).isEmpty();
+
+        Timer sampled = registry.get("test.sampled.duration.sampled").timer();
+        assertThat(sampled.count()).isBetween(500L, 1_500L);
+        assertThat(sampled.takeSnapshot().percentileValues()).isNotEmpty();
+        assertThat(registry.find("test.sampled.duration.scaled").meter()).isNull();
+    }
+
+    @Test
+    void shouldSampleCompactHistogramOnly() {
+        properties.setHistogram(true);
+        properties.setHistogramEngine(MethodMetricsProperties.HistogramEngine.COMPACT);
+        MetricHandle handle = factory.getHandle("compact", annotation(10), method, null);
+
+        for (int i = 0; i < 10_000; i++) {
+            handle.record(1_000L);
+        }
+
+        assertThat(handle.getTimer().count()).isEqualTo(10_000);
+        assertThat(handle.getHistogram().totalCount()).isBetween(500L, 1_500L);
+        assertThat(registry.find("test.compact.duration.sampled").timer()).isNull();
+    }
+
+    @Test
+    void shouldUseGlobalSampleEveryWhenAnnotationDoesNotOverride() {
+        properties.setSampleEvery(4);
+
+        MetricHandle handle = factory.getHandle("global", annotation(0), method, null);
+
+        assertThat(handle.getSampleEvery()).isEqualTo(4);
+    }
+
+    @Test
+    void shouldRecordEveryCallWithoutSampling() {
+        MetricHandle handle = factory.getHandle("exact", annotation(0), method, null);
+
+        for (int i = 0; i < 100; i++) {
+            handle.record(1_000L);
+        }
+
+        assertThat(handle.getTimer().count()).isEqualTo(100);
+        assertThat(registry.find("test.exact.duration.sampled").timer()).isNull();
+    }
+
+    @Test
+    void shouldIgnoreInvalidGlobalSampleEvery() {
+        properties.setSampleEvery(0);
+        assertThat(properties.getSampleEvery()).isEqualTo(1);
+    }
+
+    private TimedMethod annotation(int sampleEvery) {
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+        when(annotation.sampleEvery()).thenReturn(sampleEvery);
+        return annotation;
+    }
+
+    public void sampleMethod() {}
+}
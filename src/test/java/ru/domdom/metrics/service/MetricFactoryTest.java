@@ -10,6 +10,7 @@ import ru.domdom.metrics.annotation.TimedMethod;
 import ru.domdom.metrics.config.MethodMetricsProperties;
 
 import java.lang.reflect.Method;
+import java.time.Duration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -103,5 +104,85 @@ class MetricFactoryTest {
         assertThat(newTimer).isNotSameAs(timer);
     }
 
+    @Test
+    void shouldCacheHandlePerMethod() throws NoSuchMethodException {
+        Method method = getClass().getMethod("sampleMethod");
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+
+        assertThat(factory.findHandle(method)).isNull();
+
+        MetricHandle handle = factory.getHandle("handle.key", annotation, method, null);
+
+        assertThat(factory.findHandle(method)).isSameAs(handle);
+        assertThat(handle.getTimer()).isSameAs(factory.getTimer("handle.key", annotation, method));
+        assertThat(handle.getCounter()).isSameAs(factory.getCounter("handle.key", annotation, method));
+
+        handle.record(1_000L);
+        assertThat(handle.getTimer().count()).isEqualTo(1);
+        assertThat(handle.getCounter().count()).isEqualTo(1);
+
+        factory.clearCache();
+        assertThat(factory.findHandle(method)).isNull();
+    }
+
+    @Test
+    void shouldMatchHandleByTargetClass() throws NoSuchMethodException {
+        Method method = getClass().getMethod("sampleMethod");
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+
+        MetricHandle classBound = factory.getHandle("A.sampleMethod", annotation, method, String.class);
+        MetricHandle unbound = new MetricFactory(registry, properties)
+                .getHandle("named", annotation, method, null);
+
+        assertThat(classBound.matches(String.class)).isTrue();
+        assertThat(classBound.matches(Integer.class)).isFalse();
+        assertThat(unbound.matches(Integer.class)).isTrue();
+    }
+
+    @Test
+    void shouldCacheHandlePerTargetClass() throws NoSuchMethodException {
+        Method method = getClass().getMethod("sampleMethod");
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+
+        MetricHandle first = factory.getHandle("String.sampleMethod", annotation, method, String.class);
+        assertThat(factory.findHandle(method, Integer.class)).isNull();
+        MetricHandle second = factory.getHandle("Integer.sampleMethod", annotation, method, Integer.class);
+
+        assertThat(factory.findHandle(method, String.class)).isSameAs(first);
+        assertThat(factory.findHandle(method, Integer.class)).isSameAs(second);
+        assertThat(factory.getHandle("Integer.sampleMethod", annotation, method, Integer.class)).isSameAs(second);
+
+        factory.setEnabled("Integer.*", false);
+        assertThat(second.isEnabled()).isFalse();
+        assertThat(first.isEnabled()).isTrue();
+        factory.setEnabled("Integer.*", true);
+
+        factory.clearCache();
+        assertThat(factory.findHandle(method, Integer.class)).isNull();
+    }
+
+    @Test
+    void shouldExpireIdleHandlesOfTargetClasses() throws Exception {
+        Method method = getClass().getMethod("sampleMethod");
+        TimedMethod annotation = mock(TimedMethod.class);
+        when(annotation.extraTags()).thenReturn(new String[0]);
+        when(annotation.description()).thenReturn("");
+        factory.getHandle("String.sampleMethod", annotation, method, String.class);
+        factory.getHandle("Integer.sampleMethod", annotation, method, Integer.class);
+
+        factory.expireIdle(Duration.ZERO);
+        Thread.sleep(5);
+        assertThat(factory.expireIdle(Duration.ZERO)).isEqualTo(2);
+
+        assertThat(factory.findHandle(method, Integer.class)).isNull();
+        assertThat(factory.findHandle(method, String.class)).isNull();
+    }
+
     public void sampleMethod() {}
 }
\ No newline at end of file
@@ -78,5 +78,13 @@ class MetricNameResolverTest {
         assertThat(result).isEqualTo("MetricNameResolverTest.dummyMethod");
     }
 
+    @Test
+    void shouldResolveFromMethodAndTarget() throws NoSuchMethodException {
+        Method method = getClass().getMethod("dummyMethod");
+
+        assertThat(resolver.resolve(method, this, null)).isEqualTo("MetricNameResolverTest.dummyMethod");
+        assertThat(resolver.isTargetDependent(null)).isTrue();
+    }
+
     public void dummyMethod() {}
 }
\ No newline at end of file
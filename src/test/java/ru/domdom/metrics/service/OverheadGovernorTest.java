@@ -0,0 +1,193 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.lang.reflect.Method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты адаптивного ограничения накладных расходов ({@link OverheadGovernor}).
+ * <p>
+ * Проверяют порядок ограничений (сначала сэмплирование гистограммы, затем приостановка
+ * компактной гистограммы), верхнюю границу частоты сэмплирования, точность таймера
+ * {@code .duration} при ограничении, пропуск методов без гистограммы, снятие ограничений
+ * при падении нагрузки и замер накладных расходов аспектом.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class OverheadGovernorTest {
+
+    private MethodMetricsProperties properties;
+    private Method method;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        properties = new MethodMetricsProperties();
+        properties.getGovernor().setEnabled(true);
+        properties.getGovernor().setMaxSampleEvery(4);
+        method = getClass().getMethod("sampleMethod");
+    }
+
+    @Test
+    void shouldSampleHistogramBeforePausingIt() {
+        properties.setHistogramEngine(MethodMetricsProperties.HistogramEngine.COMPACT);
+        MetricFactory factory = new MetricFactory(new SimpleMeterRegistry(), properties);
+        OverheadGovernor governor = new OverheadGovernor(factory, properties);
+        MetricHandle handle = factory.getHandle("hot", null, method, null);
+
+        overBudget(governor, handle);
+        assertThat(governor.evaluate()).isEqualTo(1);
+        assertThat(handle.getSampleEvery()).isEqualTo(2);
+        assertThat(handle.isHistogramPaused()).isFalse();
+
+        overBudget(governor, handle);
+        governor.evaluate();
+        overBudget(governor, handle);
+        governor.evaluate();
+        assertThat(handle.getSampleEvery()).isEqualTo(4);
+        assertThat(handle.isHistogramPaused()).isTrue();
+    }
+
+    @Test
+    void shouldCapSamplingAndKeepDurationExact() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MetricFactory factory = new MetricFactory(registry, properties);
+        OverheadGovernor governor = new OverheadGovernor(factory, properties);
+        MetricHandle handle = factory.getHandle("hot", null, method, null);
+        assertThat(registry.find("method.hot.duration.sampled").timer()).isNotNull();
+
+        for (int i = 0; i < 5; i++) {
+            overBudget(governor, handle);
+            governor.evaluate();
+        }
+        for (int i = 0; i < 1_000; i++) {
+            handle.record(1_000L);
+        }
+
+        assertThat(handle.getSampleEvery()).isEqualTo(4);
+        assertThat(governor.getFactor("hot")).isEqualTo(4);
+        assertThat(handle.getConfiguredSampleEvery()).isEqualTo(1);
+        assertThat(registry.get("method.hot.duration").timer().count()).isEqualTo(1_000);
+        assertThat(registry.get("method.hot.duration.sampled").timer().count()).isLessThan(1_000);
+        assertThat(registry.find("method.hot.duration.scaled").meter()).isNull();
+    }
+
+    @Test
+    void shouldNotThrottleMethodsWithoutHistogram() {
+        properties.setHistogram(false);
+        MetricFactory factory = new MetricFactory(new SimpleMeterRegistry(), properties);
+        OverheadGovernor governor = new OverheadGovernor(factory, properties);
+        MetricHandle handle = factory.getHandle("hot", null, method, null);
+
+        overBudget(governor, handle);
+
+        assertThat(governor.evaluate()).isZero();
+        assertThat(handle.getSampleEvery()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRelaxStepByStepWhenOverheadDrops() {
+        properties.setHistogramEngine(MethodMetricsProperties.HistogramEngine.COMPACT);
+        MetricFactory factory = new MetricFactory(new SimpleMeterRegistry(), properties);
+        OverheadGovernor governor = new OverheadGovernor(factory, properties);
+        MetricHandle handle = factory.getHandle("hot", null, method, null);
+        for (int i = 0; i < 3; i++) {
+            overBudget(governor, handle);
+            governor.evaluate();
+        }
+        assertThat(handle.isHistogramPaused()).isTrue();
+
+        underBudget(governor, handle);
+        governor.evaluate();
+        assertThat(handle.isHistogramPaused()).isFalse();
+        assertThat(handle.getSampleEvery()).isEqualTo(4);
+
+        // Слишком мало вызовов для оценки — ограничения тоже снимаются
+        governor.evaluate();
+        assertThat(handle.getSampleEvery()).isEqualTo(2);
+
+        underBudget(governor, handle);
+        governor.evaluate();
+        assertThat(handle.getSampleEvery()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldKeepLimitsWithinHysteresisBand() {
+        MetricFactory factory = new MetricFactory(new SimpleMeterRegistry(), properties);
+        OverheadGovernor governor = new OverheadGovernor(factory, properties);
+        MetricHandle handle = factory.getHandle("hot", null, method, null);
+        overBudget(governor, handle);
+        governor.evaluate();
+
+        for (int i = 0; i < OverheadGovernor.MIN_PROBES; i++) {
+            governor.observe(handle, 1_000_000, 10_000);
+        }
+        assertThat(governor.evaluate()).isZero();
+        assertThat(handle.getSampleEvery()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldThrottleMethodsMeasuredByAspect() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                        AopAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withBean(TrivialService.class)
+                .withPropertyValues("method.metrics.governor.enabled=true",
+                        "method.metrics.governor.probe-every=1",
+                        "method.metrics.governor.interval=1h",
+                        "method.metrics.governor.budget=0.0001")
+                .run(context -> {
+                    TrivialService service = context.getBean(TrivialService.class);
+                    for (int i = 0; i < 100; i++) {
+                        service.noop();
+                    }
+                    context.getBean(OverheadGovernor.class).evaluate();
+                    for (int i = 0; i < 100; i++) {
+                        service.noop();
+                    }
+
+                    MetricHandle handle = context.getBean(MetricFactory.class)
+                            .findHandle(TrivialService.class.getMethod("noop"));
+                    assertThat(handle.getSampleEvery()).isEqualTo(2);
+                    MeterRegistry registry = context.getBean(MeterRegistry.class);
+                    assertThat(registry.get("method.trivial.noop.calls").counter().count()).isEqualTo(200);
+                    assertThat(registry.get("method.trivial.noop.duration").timer().count()).isEqualTo(200);
+                    assertThat(registry.get("method.trivial.noop.duration.sampled").timer().count())
+                            .isLessThan(200);
+                });
+    }
+
+    private static void overBudget(OverheadGovernor governor, MetricHandle handle) {
+        for (int i = 0; i < OverheadGovernor.MIN_PROBES; i++) {
+            governor.observe(handle, 1_000, 500);
+        }
+    }
+
+    private static void underBudget(OverheadGovernor governor, MetricHandle handle) {
+        for (int i = 0; i < OverheadGovernor.MIN_PROBES; i++) {
+            governor.observe(handle, 1_000_000, 100);
+        }
+    }
+
+    public void sampleMethod() {
+    }
+
+    static class TrivialService {
+        @TimedMethod("trivial.noop")
+        public void noop() {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.service.RollingStats.Snapshot;
+import ru.domdom.metrics.service.RollingStats.Window;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Тесты для {@link RollingStats}.
+ * <p>
+ * Проверяют точность корзин длительности и процентилей, долю ошибок, частоту вызовов
+ * по покрытому интервалу, забывание срезов за пределами окна и получение статистики
+ * перехватываемых методов через {@link MetricFactory#getRollingStats}.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class RollingStatsTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void shouldMapDurationsToBucketsWithinRelativeError() {
+        for (long value = 1_024; value < TimeUnit.SECONDS.toNanos(60); value = value * 3 / 2 + 7) {
+            double midpoint = RollingStats.midpointNanos(RollingStats.bucketOf(value));
+            assertThat(midpoint).isCloseTo(value, within(value * 0.125));
+        }
+        assertThat(RollingStats.bucketOf(0)).isZero();
+        assertThat(RollingStats.bucketOf(Long.MAX_VALUE)).isEqualTo(RollingStats.BUCKETS - 1);
+    }
+
+    @Test
+    void shouldComputeRatesErrorsAndPercentiles() {
+        RollingStats stats = new RollingStats();
+        long start = System.nanoTime();
+        for (int i = 0; i < 98; i++) {
+            stats.record(start + i * 10_000_000L, TimeUnit.MILLISECONDS.toNanos(2), false);
+        }
+        stats.record(start + 990_000_000L, TimeUnit.MILLISECONDS.toNanos(500), true);
+        stats.record(start + 995_000_000L, TimeUnit.MILLISECONDS.toNanos(500), true);
+
+        Snapshot snapshot = stats.snapshot(start + 2 * SECOND, Window.TEN_SECONDS);
+        assertThat(snapshot.getCalls()).isEqualTo(100);
+        assertThat(snapshot.getErrors()).isEqualTo(2);
+        assertThat(snapshot.getErrorRate()).isEqualTo(0.02);
+        assertThat(snapshot.getCallsPerSecond()).isCloseTo(50, within(25.0));
+        assertThat(snapshot.getP50Nanos()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(2), within(250_000.0));
+        assertThat(snapshot.getP99Nanos()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(500), within(62_500_000.0));
+    }
+
+    @Test
+    void shouldForgetSlicesOutsideWindow() {
+        RollingStats stats = new RollingStats();
+        long start = System.nanoTime();
+        stats.record(start, 5_000, false);
+        stats.record(start + 30 * SECOND, 5_000, true);
+
+        long now = start + 31 * SECOND;
+        assertThat(stats.snapshot(now, Window.TEN_SECONDS).getCalls()).isEqualTo(1);
+        assertThat(stats.snapshot(now, Window.ONE_MINUTE).getCalls()).isEqualTo(2);
+
+        long later = start + 100 * SECOND;
+        stats.record(later, 5_000, false);
+        assertThat(stats.snapshot(later, Window.TEN_SECONDS).getErrors()).isZero();
+        assertThat(stats.snapshot(later, Window.ONE_MINUTE).getCalls()).isEqualTo(1);
+        assertThat(stats.snapshot(later, Window.FIVE_MINUTES).getCalls()).isEqualTo(3);
+        assertThat(stats.snapshot(start + 400 * SECOND, Window.FIVE_MINUTES).getCalls()).isZero();
+    }
+
+    @Test
+    void shouldExposeStatsOfInstrumentedMethods() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                        AopAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withBean(PaymentService.class)
+                .withPropertyValues("method.metrics.rolling-stats.enabled=true")
+                .run(context -> {
+                    PaymentService service = context.getBean(PaymentService.class);
+                    for (int i = 0; i < 9; i++) {
+                        service.charge(false);
+                    }
+                    assertThatThrownBy(() -> service.charge(true)).isInstanceOf(IllegalStateException.class);
+
+                    MetricFactory factory = context.getBean(MetricFactory.class);
+                    Snapshot snapshot = factory.getRollingStats("payment.charge", Window.TEN_SECONDS);
+                    assertThat(snapshot.getCalls()).isEqualTo(10);
+                    assertThat(snapshot.getErrorRate()).isEqualTo(0.1);
+                    assertThat(snapshot.getCallsPerSecond()).isPositive();
+                    assertThat(factory.getRollingStats(Window.FIVE_MINUTES)).containsOnlyKeys("payment.charge");
+                    assertThat(factory.getRollingStats("payment.refund", Window.ONE_MINUTE)).isNull();
+                });
+    }
+
+    static class PaymentService {
+        @TimedMethod("payment.charge")
+        public void charge(boolean fail) {
+            if (fail) {
+                throw new IllegalStateException("declined");
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Тесты метрик накладных расходов стартера ({@link SelfMetrics}).
+ * <p>
+ * Проверяют публикацию числа метрик и промахов кэшей, оценку времени записи,
+ * учёт проглоченных ошибок записи и отсутствие метрик без свойства.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class SelfMetricsTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(SelfService.class)
+            .withPropertyValues("method.metrics.prefix=self");
+
+    @Test
+    void shouldPublishStarterOverhead() {
+        contextRunner.withPropertyValues("method.metrics.self-instrumentation.enabled=true",
+                "method.metrics.self-instrumentation.sample-every=1").run(context -> {
+            SelfService service = context.getBean(SelfService.class);
+            for (int i = 0; i < 5; i++) {
+                service.first();
+                service.second();
+            }
+
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+            assertThat(registry.get("self.self.meters").tag("type", "timer").gauge().value()).isEqualTo(2);
+            assertThat(registry.get("self.self.meters").tag("type", "counter").gauge().value()).isEqualTo(2);
+            assertThat(registry.get("self.self.cache.misses").tag("cache", "handle").functionCounter().count())
+                    .isEqualTo(2);
+            assertThat(registry.get("self.self.cache.misses").tag("cache", "meter").functionCounter().count())
+                    .isEqualTo(4);
+            FunctionTimer record = registry.get("self.self.record").functionTimer();
+            assertThat(record.count()).isEqualTo(10);
+            assertThat(record.totalTime(TimeUnit.NANOSECONDS)).isPositive();
+        });
+    }
+
+    @Test
+    void shouldScaleSampledRecordTime() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getSelfInstrumentation().setSampleEvery(8);
+        SelfMetrics selfMetrics = new SelfMetrics(registry, new MetricFactory(registry, properties), properties);
+        selfMetrics.afterPropertiesSet();
+
+        selfMetrics.recordOverhead(100);
+        selfMetrics.recordOverhead(300);
+
+        FunctionTimer record = registry.get("method.self.record").functionTimer();
+        assertThat(record.count()).isEqualTo(16);
+        assertThat(record.totalTime(TimeUnit.NANOSECONDS)).isEqualTo(3200);
+    }
+
+    @Test
+    void shouldCountSwallowedRecordingFailures() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        MetricFactory metricFactory = new MetricFactory(registry, properties);
+        SelfMetrics selfMetrics = new SelfMetrics(registry, metricFactory, properties);
+        selfMetrics.afterPropertiesSet();
+        TimedMethodProcessor processor = new TimedMethodProcessor(new MetricNameResolver(), metricFactory);
+        processor.setSelfMetrics(selfMetrics);
+
+        Counter failingCounter = mock(Counter.class);
+        doThrow(new IllegalStateException("broken")).when(failingCounter).increment();
+        processor.record(new MetricHandle("broken", null, mock(Timer.class), failingCounter), 1_000);
+
+        assertThat(registry.get("method.self.failures").tag("operation", "record").counter().count()).isEqualTo(1);
+        assertThat(registry.get("method.self.failures").tag("operation", "create").counter().count()).isZero();
+    }
+
+    @Test
+    void shouldNotPublishWithoutProperty() {
+        contextRunner.run(context -> {
+            context.getBean(SelfService.class).first();
+
+            assertThat(context).doesNotHaveBean(SelfMetrics.class);
+            assertThat(context.getBean(MeterRegistry.class).find("self.self.record").meter()).isNull();
+        });
+    }
+
+    static class SelfService {
+        @TimedMethod("self.first")
+        public String first() {
+            return "first";
+        }
+
+        @TimedMethod("self.second")
+        public String second() {
+            return "second";
+        }
+    }
+}
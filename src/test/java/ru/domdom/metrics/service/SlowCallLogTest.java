@@ -0,0 +1,170 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.service.SlowCallLog.SlowCall;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты для {@link SlowCallLog}.
+ * <p>
+ * Проверяют, что аргументы по умолчанию не сохраняются, усечение аргументов, перезапись старых вызовов при переполнении буфера,
+ * фильтр по шаблону, захват стека, а также порог из свойств, его переопределение
+ * и отключение через {@code @TimedMethod(slowCallMillis)}.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class SlowCallLogTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                    AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(ReportService.class)
+            .withPropertyValues("method.metrics.slow-calls.enabled=true",
+                    "method.metrics.slow-calls.capture-arguments=true");
+
+    @Test
+    void shouldNotCaptureArgumentsByDefault() throws Exception {
+        SlowCallLog log = new SlowCallLog(new MethodMetricsProperties());
+
+        log.capture("report.build", method(), new Object[]{"card=4111111111111111"}, 5_000_000, null);
+
+        assertThat(log.recent(10, null)).singleElement()
+                .satisfies(call -> assertThat(call.getArguments()).isNull());
+    }
+
+    @Test
+    void shouldTruncateLongArguments() throws Exception {
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getSlowCalls().setCaptureArguments(true);
+        properties.getSlowCalls().setMaxArgumentLength(8);
+        SlowCallLog log = new SlowCallLog(properties);
+
+        log.capture("report.build", method(), new Object[]{"abcdefghijkl", null, 42}, 5_000_000, null);
+
+        SlowCall call = log.recent(10, null).get(0);
+        assertThat(call.getArguments()).containsExactly("abcde...", "null", "42");
+        assertThat(call.getMethod()).isEqualTo(ReportService.class.getName() + ".build");
+        assertThat(call.getDurationMillis()).isEqualTo(5.0);
+        assertThat(call.getThread()).isEqualTo(Thread.currentThread().getName());
+        assertThat(call.getStackTrace()).isNull();
+    }
+
+    @Test
+    void shouldOverwriteOldestCallsAndReturnNewestFirst() throws Exception {
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getSlowCalls().setCaptureArguments(true);
+        properties.getSlowCalls().setCapacity(4);
+        SlowCallLog log = new SlowCallLog(properties);
+
+        for (int i = 0; i < 10; i++) {
+            log.capture(i % 2 == 0 ? "report.even" : "report.odd", method(), new Object[]{i}, 1_000_000, null);
+        }
+
+        assertThat(log.getCapturedCount()).isEqualTo(10);
+        assertThat(log.recent(10, null)).extracting(call -> call.getArguments().get(0))
+                .containsExactly("9", "8", "7", "6");
+        assertThat(log.recent(1, null)).extracting(SlowCall::getSequence).containsExactly(9L);
+        assertThat(log.recent(10, "*.even")).extracting(SlowCall::getKey)
+                .containsExactly("report.even", "report.even");
+    }
+
+    @Test
+    void shouldCaptureStackOfCaller() throws Exception {
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.getSlowCalls().setCaptureStack(true);
+        SlowCallLog log = new SlowCallLog(properties);
+
+        log.capture("report.build", method(), new Object[0], 1_000_000, null);
+        log.capture("report.build", method(), new Object[0], 1_000_000, new IllegalStateException("boom"));
+
+        List<SlowCall> calls = log.recent(10, null);
+        assertThat(calls.get(0).getError()).isEqualTo(IllegalStateException.class.getName());
+        assertThat(calls.get(0).getStackTrace()).isNotEmpty();
+        assertThat(calls.get(1).getArguments()).isNull();
+        assertThat(calls.get(1).getStackTrace()).first().asString()
+                .contains(SlowCallLogTest.class.getName() + ".shouldCaptureStackOfCaller");
+    }
+
+    @Test
+    void shouldCaptureCallsAboveThreshold() {
+        contextRunner.withPropertyValues("method.metrics.slow-calls.threshold=20ms").run(context -> {
+            ReportService service = context.getBean(ReportService.class);
+            service.build("fast", 0);
+            service.build("slow", 40);
+            assertThatThrownBy(() -> service.fail(40)).isInstanceOf(IllegalStateException.class);
+
+            SlowCallLog log = context.getBean(SlowCallLog.class);
+            List<SlowCall> calls = log.recent(10, null);
+            assertThat(calls).extracting(SlowCall::getKey).containsExactly("report.fail", "report.build");
+            assertThat(calls.get(0).getError()).isEqualTo(IllegalStateException.class.getName());
+            assertThat(calls.get(1).getArguments()).containsExactly("slow", "40");
+            assertThat(calls.get(1).getDurationMillis()).isGreaterThanOrEqualTo(40);
+        });
+    }
+
+    @Test
+    void shouldApplyAnnotationThresholdAndOptOut() {
+        contextRunner.withPropertyValues("method.metrics.slow-calls.threshold=0ms").run(context -> {
+            ReportService service = context.getBean(ReportService.class);
+            service.quiet();
+            service.strict(0);
+            service.strict(20);
+
+            assertThat(context.getBean(SlowCallLog.class).recent(10, null))
+                    .extracting(call -> call.getArguments().get(0))
+                    .containsExactly("20");
+        });
+    }
+
+    @Test
+    void shouldNotCreateLogWhenDisabled() {
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .run(context -> assertThat(context).doesNotHaveBean(SlowCallLog.class));
+    }
+
+    private static Method method() throws NoSuchMethodException {
+        return ReportService.class.getMethod("build", String.class, long.class);
+    }
+
+    static class ReportService {
+        @TimedMethod("report.build")
+        public String build(String name, long sleepMillis) throws InterruptedException {
+            Thread.sleep(sleepMillis);
+            return name;
+        }
+
+        @TimedMethod("report.fail")
+        public void fail(long sleepMillis) throws InterruptedException {
+            Thread.sleep(sleepMillis);
+            throw new IllegalStateException("boom");
+        }
+
+        @TimedMethod(value = "report.quiet", slowCallMillis = -1)
+        public void quiet() {
+        }
+
+        @TimedMethod(value = "report.strict", slowCallMillis = 10)
+        public void strict(long sleepMillis) throws InterruptedException {
+            Thread.sleep(sleepMillis);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+import ru.domdom.metrics.config.MethodMetricsProperties;
+import ru.domdom.metrics.service.SnapshotSpoolReader.Entry;
+import ru.domdom.metrics.service.SnapshotSpoolReader.Snapshot;
+import ru.domdom.metrics.service.SnapshotSpoolReader.Spool;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Тесты для {@link SnapshotSpool} и {@link SnapshotSpoolReader}.
+ * <p>
+ * Проверяют чтение снимков метрик перехватываемых методов с корзинами компактной гистограммы,
+ * перезапись старых слотов кольца, пропуск незавершённого слота, пометку неполного снимка,
+ * сохранение файла предыдущего запуска и отметку штатного закрытия.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class SnapshotSpoolTest {
+
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldSpoolMetricsOfInstrumentedMethods() throws Exception {
+        Path file = directory.resolve("app.spool");
+        new ApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class,
+                        AopAutoConfiguration.class))
+                .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+                .withBean(LedgerService.class)
+                .withPropertyValues("method.metrics.histogram-engine=compact",
+                        "method.metrics.spool.enabled=true", "method.metrics.spool.path=" + file,
+                        "method.metrics.spool.interval=1h")
+                .run(context -> {
+                    LedgerService ledger = context.getBean(LedgerService.class);
+                    for (int i = 0; i < 20; i++) {
+                        ledger.post(i < 19 ? 1 : 30);
+                    }
+                    assertThat(context.getBean(SnapshotSpool.class).snapshot()).isEqualTo(1);
+
+                    Spool spool = SnapshotSpoolReader.read(file);
+                    assertThat(spool.isClosed()).isFalse();
+                    assertThat(spool.getPid()).isEqualTo(ProcessHandle.current().pid());
+                    Entry entry = single(spool.getSnapshots());
+                    assertThat(entry.getKey()).isEqualTo("ledger.post");
+                    assertThat(entry.getCalls()).isEqualTo(20);
+                    assertThat(entry.getCount()).isEqualTo(20);
+                    assertThat(entry.getMaxNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(30));
+                    assertThat(entry.getMeanNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2));
+                    assertThat(entry.hasHistogram()).isTrue();
+                    assertThat(entry.percentileNanos(0.5)).isBetween(TimeUnit.MICROSECONDS.toNanos(900) * 1.0,
+                            TimeUnit.MILLISECONDS.toNanos(10) * 1.0);
+                    assertThat(entry.percentileNanos(0.99)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(29));
+                });
+        assertThat(SnapshotSpoolReader.read(file).isClosed()).isTrue();
+    }
+
+    @Test
+    void shouldKeepLatestSnapshotsInRing() throws Exception {
+        MetricFactory factory = factory();
+        SnapshotSpool spool = new SnapshotSpool(factory, directory.resolve("ring.spool"), NEVER, 2, 1024, false);
+        spool.afterPropertiesSet();
+        try {
+            for (int i = 1; i <= 5; i++) {
+                factory.getCounter("jobs", null, null).increment();
+                factory.getTimer("jobs", null, null).record(i, TimeUnit.MILLISECONDS);
+                spool.snapshot();
+            }
+
+            List<Snapshot> snapshots = SnapshotSpoolReader.read(directory.resolve("ring.spool")).getSnapshots();
+            assertThat(snapshots).extracting(Snapshot::getSequence).containsExactly(4L, 5L);
+            Entry latest = single(snapshots.subList(1, 2));
+            assertThat(latest.getCalls()).isEqualTo(5);
+            assertThat(latest.getTotalNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(15));
+            assertThat(latest.hasHistogram()).isFalse();
+        } finally {
+            spool.destroy();
+        }
+    }
+
+    @Test
+    void shouldSkipTornSlot() throws Exception {
+        Path file = directory.resolve("torn.spool");
+        MetricFactory factory = factory();
+        factory.getTimer("orders", null, null).record(1, TimeUnit.MILLISECONDS);
+        SnapshotSpool spool = new SnapshotSpool(factory, file, NEVER, 4, 1024, false);
+        spool.afterPropertiesSet();
+        spool.snapshot();
+        spool.snapshot();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer torn = ByteBuffer.allocate(Long.BYTES).putLong(0, -2);
+            channel.write(torn, SnapshotSpool.FILE_HEADER + 1024);
+        }
+
+        assertThat(SnapshotSpoolReader.read(file).getSnapshots())
+                .extracting(Snapshot::getSequence).containsExactly(1L);
+        spool.destroy();
+    }
+
+    @Test
+    void shouldMarkTruncatedSnapshot() throws Exception {
+        Path file = directory.resolve("small.spool");
+        MetricFactory factory = factory();
+        for (int i = 0; i < 100; i++) {
+            factory.getTimer("reports.generate.variant" + i, null, null).record(1, TimeUnit.MILLISECONDS);
+        }
+        SnapshotSpool spool = new SnapshotSpool(factory, file, NEVER, 1, 1024, false);
+        spool.afterPropertiesSet();
+
+        int written = spool.snapshot();
+
+        Snapshot snapshot = SnapshotSpoolReader.read(file).getSnapshots().get(0);
+        assertThat(snapshot.isTruncated()).isTrue();
+        assertThat(snapshot.getEntries()).hasSize(written).hasSizeLessThan(100);
+        assertThat(snapshot.getEntries()).allSatisfy(entry -> assertThat(entry.getCount()).isEqualTo(1));
+        spool.destroy();
+    }
+
+    @Test
+    void shouldPreservePreviousRunAndRejectForeignFiles() throws Exception {
+        Path file = directory.resolve("restart.spool");
+        MetricFactory factory = factory();
+        factory.getTimer("billing", null, null).record(1, TimeUnit.MILLISECONDS);
+        SnapshotSpool crashed = new SnapshotSpool(factory, file, NEVER, 2, 1024, false);
+        crashed.afterPropertiesSet();
+        crashed.snapshot();
+
+        SnapshotSpool restarted = new SnapshotSpool(factory(), file, NEVER, 2, 1024, false);
+        restarted.afterPropertiesSet();
+        restarted.destroy();
+
+        Spool previous = SnapshotSpoolReader.read(directory.resolve("restart.spool" + SnapshotSpool.PREVIOUS_SUFFIX));
+        assertThat(previous.isClosed()).isFalse();
+        assertThat(single(previous.getSnapshots()).getKey()).isEqualTo("billing");
+        assertThat(SnapshotSpoolReader.read(file).getSnapshots()).hasSize(1);
+
+        Path foreign = Files.write(directory.resolve("foreign.bin"), new byte[128]);
+        assertThatThrownBy(() -> SnapshotSpoolReader.read(foreign)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static MetricFactory factory() {
+        MethodMetricsProperties properties = new MethodMetricsProperties();
+        properties.setHistogram(false);
+        return new MetricFactory(new SimpleMeterRegistry(), properties);
+    }
+
+    private static Entry single(List<Snapshot> snapshots) {
+        assertThat(snapshots).hasSize(1);
+        assertThat(snapshots.get(0).getEntries()).hasSize(1);
+        return snapshots.get(0).getEntries().get(0);
+    }
+
+    static class LedgerService {
+        @TimedMethod("ledger.post")
+        public void post(long sleepMillis) throws InterruptedException {
+            Thread.sleep(sleepMillis);
+        }
+    }
+}
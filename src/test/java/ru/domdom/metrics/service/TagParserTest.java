@@ -57,4 +57,14 @@ class TagParserTest {
                 .containsEntry("env", "prod")
                 .containsEntry("service", "user-service");
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldSplitExpressionsOnFirstEquals() {
+        String[] tags = {"outcome = #result == null ? 'empty' : 'ok'", "tenant=#p0.tenant", "invalid", "=#p0"};
+        Map<String, String> result = TagParser.parseExpressions(tags);
+        assertThat(result)
+                .containsExactly(
+                        Map.entry("outcome", "#result == null ? 'empty' : 'ok'"),
+                        Map.entry("tenant", "#p0.tenant"));
+    }
+}
@@ -0,0 +1,88 @@
+package ru.domdom.metrics.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import ru.domdom.metrics.annotation.TimedMethod;
+import ru.domdom.metrics.config.MethodMetricsAutoConfiguration;
+
+import java.lang.reflect.Method;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Тесты для {@link TimedMethodEagerRegistrar}.
+ * <p>
+ * Проверяют, что при {@code method.metrics.eager-registration=true} метрики аннотированных
+ * методов создаются при старте контекста, до первого вызова, а первый вызов использует
+ * заранее созданный хэндл. Без свойства регистратор не создаётся.
+ * </p>
+ *
+ * @author Кадыров Андрей
+ * @since 1.0.0
+ */
+class TimedMethodEagerRegistrarTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(MethodMetricsAutoConfiguration.class, AopAutoConfiguration.class))
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withBean(EagerService.class)
+            .withPropertyValues("method.metrics.prefix=eager");
+
+    @Test
+    void shouldRegisterMetricsAtStartup() {
+        contextRunner.withPropertyValues("method.metrics.eager-registration=true").run(context -> {
+            assertThat(context).hasSingleBean(TimedMethodEagerRegistrar.class);
+            MeterRegistry registry = context.getBean(MeterRegistry.class);
+
+            assertThat(registry.find("eager.eager.named.duration").timer()).isNotNull();
+            assertThat(registry.find("eager.eager.named.calls").counter()).isNotNull();
+            assertThat(registry.find("eager.EagerService.derived.duration").timer()).isNotNull();
+            assertThat(registry.find("eager.private.method.duration").timer()).isNull();
+            assertThat(registry.find("eager.eager.named.duration").timer().count()).isZero();
+        });
+    }
+
+    @Test
+    void shouldReusePreRegisteredHandleOnFirstCall() throws NoSuchMethodException {
+        Method named = EagerService.class.getMethod("named");
+        contextRunner.withPropertyValues("method.metrics.eager-registration=true").run(context -> {
+            MetricFactory factory = context.getBean(MetricFactory.class);
+            MetricHandle preRegistered = factory.findHandle(named);
+            assertThat(preRegistered).isNotNull();
+
+            context.getBean(EagerService.class).named();
+
+            assertThat(factory.findHandle(named)).isSameAs(preRegistered);
+            assertThat(preRegistered.getTimer().count()).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void shouldNotRegisterEagerlyByDefault() {
+        contextRunner.run(context -> {
+            assertThat(context).doesNotHaveBean(TimedMethodEagerRegistrar.class);
+            assertThat(context.getBean(MeterRegistry.class).find("eager.eager.named.duration").timer()).isNull();
+        });
+    }
+
+    static class EagerService {
+        @TimedMethod("eager.named")
+        public String named() {
+            return "named";
+        }
+
+        @TimedMethod
+        public String derived() {
+            return "derived";
+        }
+
+        @TimedMethod("private.method")
+        private String hidden() {
+            return "hidden";
+        }
+    }
+}
@@ -13,6 +13,7 @@ import ru.domdom.metrics.annotation.TimedMethod;
 
 import java.lang.reflect.Method;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
 
 /**
@@ -87,5 +88,57 @@ class TimedMethodProcessorTest {
         verify(timer, never()).record(anyLong(), any());
     }
 
+    @Test
+    void shouldReuseCachedHandle() {
+        MetricHandle handle = new MetricHandle(metricKey, null, timer, counter);
+        when(metricFactory.findHandle(realMethod, getClass())).thenReturn(handle);
+
+        MetricHandle resolved = processor.resolveHandle(realMethod, this, annotation);
+
+        assertThat(resolved).isSameAs(handle);
+        verifyNoInteractions(nameResolver);
+        verify(metricFactory, never()).getHandle(any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldCreateHandleOnCacheMiss() {
+        MetricHandle handle = new MetricHandle(metricKey, getClass(), timer, counter);
+        when(nameResolver.resolve(realMethod, this, annotation)).thenReturn(metricKey);
+        when(nameResolver.isTargetDependent(annotation, realMethod)).thenReturn(true);
+        when(metricFactory.getHandle(metricKey, annotation, realMethod, getClass())).thenReturn(handle);
+
+        assertThat(processor.resolveHandle(realMethod, this, annotation)).isSameAs(handle);
+    }
+
+    @Test
+    void shouldReturnNullWhenHandleCreationFails() {
+        when(nameResolver.resolve(realMethod, this, annotation)).thenReturn(metricKey);
+        when(metricFactory.getHandle(any(), any(), any(), any())).thenThrow(new RuntimeException("test"));
+
+        assertThat(processor.resolveHandle(realMethod, this, annotation)).isNull();
+    }
+
+    @Test
+    void shouldRecordThroughHandle() {
+        MetricHandle handle = new MetricHandle(metricKey, null, timer, counter);
+
+        processor.record(handle, 500L);
+
+        verify(counter).increment();
+        verify(timer).record(eq(500L), any());
+    }
+
+    @Test
+    void shouldHandOffToAsyncRecorderWhenEnabled() {
+        AsyncMetricRecorder asyncRecorder = mock(AsyncMetricRecorder.class);
+        MetricHandle handle = new MetricHandle(metricKey, null, timer, counter);
+        processor.setAsyncRecorder(asyncRecorder);
+
+        processor.record(handle, 700L);
+
+        verify(asyncRecorder).offer(handle, 700L);
+        verifyNoInteractions(counter, timer);
+    }
+
     public void dummyMethod() {}
 }
\ No newline at end of file